@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.akka;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import city.sane.wot.binding.akka.actor.WatchActor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves actor paths to {@link ActorRef}s and remembers them, so that messages can be sent
+ * directly to the actor instead of resolving an {@link akka.actor.ActorSelection} for each
+ * message. All resolved actors are watched. Once an actor has terminated, its path is resolved
+ * again on the next request. Failed resolutions are not cached.
+ */
+public class ActorRefCache {
+    private static final Logger log = LoggerFactory.getLogger(ActorRefCache.class);
+    private final ActorSystem system;
+    private final Duration resolveTimeout;
+    private final Map<String, CompletableFuture<ActorRef>> refs;
+    private ActorRef watcher;
+
+    public ActorRefCache(ActorSystem system, Duration resolveTimeout) {
+        this(system, resolveTimeout, new ConcurrentHashMap<>());
+    }
+
+    ActorRefCache(ActorSystem system,
+                  Duration resolveTimeout,
+                  Map<String, CompletableFuture<ActorRef>> refs) {
+        this.system = system;
+        this.resolveTimeout = resolveTimeout;
+        this.refs = refs;
+    }
+
+    /**
+     * Returns the actor reachable via <code>path</code>. Only the first call for a path resolves
+     * the actor. Subsequent calls return the same future as long as the actor is alive.
+     *
+     * @param path
+     * @return
+     */
+    public CompletableFuture<ActorRef> resolve(String path) {
+        CompletableFuture<ActorRef> future = new CompletableFuture<>();
+        CompletableFuture<ActorRef> existing = refs.putIfAbsent(path, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        log.debug("Resolve actor for path '{}'", path);
+        system.actorSelection(path).resolveOne(resolveTimeout).whenComplete((ref, e) -> {
+            if (e == null) {
+                // complete before watching, so that an immediate termination finds the entry
+                future.complete(ref);
+                getWatcher().tell(new WatchActor.Watch(ref), ActorRef.noSender());
+            }
+            else {
+                log.debug("Unable to resolve actor for path '{}': {}", path, e.getMessage());
+                refs.remove(path, future);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (watcher != null) {
+                system.stop(watcher);
+                watcher = null;
+            }
+        }
+        refs.clear();
+    }
+
+    private synchronized ActorRef getWatcher() {
+        if (watcher == null) {
+            watcher = system.actorOf(WatchActor.props(this::invalidate));
+        }
+        return watcher;
+    }
+
+    private void invalidate(ActorRef ref) {
+        refs.entrySet().removeIf(entry -> {
+            CompletableFuture<ActorRef> future = entry.getValue();
+            boolean terminated = future.isDone() && !future.isCompletedExceptionally() && ref.equals(future.join());
+            if (terminated) {
+                log.debug("Actor for path '{}' has been terminated. Remove it from cache", entry.getKey());
+            }
+            return terminated;
+        });
+    }
+}
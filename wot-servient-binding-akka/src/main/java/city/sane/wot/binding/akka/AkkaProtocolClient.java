@@ -22,8 +22,8 @@
 package city.sane.wot.binding.akka;
 
 import akka.actor.ActorRef;
-import akka.actor.ActorSelection;
 import akka.actor.ActorSystem;
+import akka.cluster.sharding.ClusterSharding;
 import city.sane.Pair;
 import city.sane.wot.binding.ProtocolClient;
 import city.sane.wot.binding.ProtocolClientException;
@@ -36,7 +36,10 @@ import city.sane.wot.binding.akka.actor.ThingActor.InvokeAction;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadAllProperties;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadProperty;
 import city.sane.wot.binding.akka.actor.ThingActor.SubscribeEvent;
+import city.sane.wot.binding.akka.actor.ThingActor;
+import city.sane.wot.binding.akka.actor.ThingActor.ShardingEnvelope;
 import city.sane.wot.binding.akka.actor.ThingActor.SubscribeProperty;
+import city.sane.wot.binding.akka.actor.ThingActor.Unsubscribe;
 import city.sane.wot.binding.akka.actor.ThingActor.WriteProperty;
 import city.sane.wot.binding.akka.actor.ThingsActor.GetThings;
 import city.sane.wot.content.Content;
@@ -48,37 +51,49 @@ import io.reactivex.rxjava3.subjects.PublishSubject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.net.URLDecoder;
 import java.time.Duration;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
+import java.util.function.UnaryOperator;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.CompletableFuture.failedFuture;
 
 /**
  * Allows consuming Things via Akka Actors.<br> The Actor System created by {@link
  * AkkaProtocolClientFactory} is used for this purpose and thus enables interaction with exposed
- * Things on other actuator systems.
+ * Things on other actuator systems. The actors behind the forms are resolved once by the
+ * {@link ActorRefCache} shared by all clients of a factory. Forms of things exposed via cluster
+ * sharding address the shard region, which receives the messages wrapped in a {@link
+ * ShardingEnvelope}.
  */
 public class AkkaProtocolClient implements ProtocolClient {
     private static final Logger log = LoggerFactory.getLogger(AkkaProtocolClient.class);
+    private static final String SHARD_REGION_PATH = "/system/sharding/" + ThingActor.SHARDING_TYPE_NAME + "/";
     protected final ActorSystem system;
     protected final Duration askTimeout;
     protected final AkkaProtocolPattern pattern;
     private final Duration discoverTimeout;
+    private final ActorRefCache refs;
 
     public AkkaProtocolClient(ActorSystem system,
                               Duration askTimeout,
-                              Duration discoverTimeout) {
-        this(system, askTimeout, discoverTimeout, new AkkaProtocolPattern());
+                              Duration discoverTimeout,
+                              ActorRefCache refs) {
+        this(system, askTimeout, discoverTimeout, refs, new AkkaProtocolPattern());
     }
 
     AkkaProtocolClient(ActorSystem system,
                        Duration askTimeout,
                        Duration discoverTimeout,
+                       ActorRefCache refs,
                        AkkaProtocolPattern pattern) {
         this.system = system;
         this.askTimeout = askTimeout;
         this.discoverTimeout = discoverTimeout;
+        this.refs = refs;
         this.pattern = pattern;
     }
 
@@ -145,7 +160,8 @@ public class AkkaProtocolClient implements ProtocolClient {
 
     @Override
     public Observable<Thing> discover(ThingFilter filter) throws ProtocolClientNotImplementedException {
-        if (system.settings().config() != null && system.settings().config().getStringList("wot.servient.akka.extensions").contains("akka.cluster.pubsub.DistributedPubSub")) {
+        List<String> extensions = system.settings().config() != null ? system.settings().config().getStringList("wot.servient.akka.extensions") : List.of();
+        if (extensions.contains("akka.cluster.pubsub.DistributedPubSub") || extensions.contains("akka.cluster.ddata.DistributedData")) {
             return Observable.using(
                     () -> {
                         log.debug("Create temporary actor to discover things matching filter: {}", filter);
@@ -161,7 +177,7 @@ public class AkkaProtocolClient implements ProtocolClient {
             );
         }
         else {
-            log.warn("DistributedPubSub extension missing. ANY Discovery is not be supported.");
+            log.warn("DistributedPubSub and DistributedData extension missing. ANY Discovery is not be supported.");
             throw new ProtocolClientNotImplementedException(getClass(), "discover");
         }
     }
@@ -177,20 +193,21 @@ public class AkkaProtocolClient implements ProtocolClient {
 
             if (message != null) {
                 log.debug("AkkaClient sending '{}' to {}", message, actorPath);
-                ActorSelection selection = system.actorSelection(actorPath);
-                return Observable.using(
-                        () -> {
-                            log.debug("Create temporary actor to observe resource: {}", actorPath);
-                            PublishSubject<Content> subject = PublishSubject.create();
-                            ActorRef actorRef = system.actorOf(ObserveActor.props(subject, selection, message));
-                            return new Pair<>(subject, actorRef);
-                        },
-                        Pair::first,
-                        myPair -> {
-                            log.debug("No more observers. Stop temporary actor from resource observation: {}", actorPath);
-                            system.stop(myPair.second());
-                        }
-                );
+                Pair<String, UnaryOperator<Message>> recipient = getRecipient(actorPath);
+                return Observable.defer(() -> Observable.fromCompletionStage(refs.resolve(recipient.first())))
+                        .flatMap(ref -> Observable.using(
+                                () -> {
+                                    log.debug("Create temporary actor to observe resource: {}", actorPath);
+                                    PublishSubject<Content> subject = PublishSubject.create();
+                                    ActorRef actorRef = system.actorOf(ObserveActor.props(subject, ref, recipient.second().apply(message), recipient.second().apply(new Unsubscribe())));
+                                    return new Pair<>(subject, actorRef);
+                                },
+                                Pair::first,
+                                myPair -> {
+                                    log.debug("No more observers. Stop temporary actor from resource observation: {}", actorPath);
+                                    system.stop(myPair.second());
+                                }
+                        ));
             }
             else {
                 return Observable.error(new ProtocolClientException("Unknown resource identifier: " + String.join("/", resourceIdentifier)));
@@ -212,8 +229,9 @@ public class AkkaProtocolClient implements ProtocolClient {
 
             if (message != null) {
                 log.debug("AkkaClient sending '{}' to {}", message, actorPath);
-                ActorSelection selection = system.actorSelection(actorPath);
-                return pattern.ask(selection, message, askTimeout)
+                Pair<String, UnaryOperator<Message>> recipient = getRecipient(actorPath);
+                return refs.resolve(recipient.first())
+                        .thenCompose(ref -> pattern.ask(ref, recipient.second().apply(message), askTimeout))
                         .thenApply(m -> ((ContentMessage) m).content)
                         .toCompletableFuture();
             }
@@ -235,4 +253,32 @@ public class AkkaProtocolClient implements ProtocolClient {
             throw new ProtocolClientException("Unable to read resource identifier from href " + form.getHref());
         }
     }
+
+    /**
+     * Returns the path of the actor that has to receive the messages for <code>actorPath</code> and
+     * a function preparing the messages for this actor. Paths of sharded thing actors are replaced
+     * by the path of the shard region and messages are wrapped for the entity. If this node runs
+     * the shard region itself, the local region is used so that the thing remains reachable after
+     * the node named in the href has left the cluster.
+     *
+     * @param actorPath
+     * @return
+     */
+    private Pair<String, UnaryOperator<Message>> getRecipient(String actorPath) {
+        int index = actorPath.indexOf(SHARD_REGION_PATH);
+        if (index != -1) {
+            String regionPath;
+            if (system.hasExtension(ClusterSharding.lookup()) && ClusterSharding.get(system).getShardTypeNames().contains(ThingActor.SHARDING_TYPE_NAME)) {
+                regionPath = ClusterSharding.get(system).shardRegion(ThingActor.SHARDING_TYPE_NAME).path().toString();
+            }
+            else {
+                regionPath = actorPath.substring(0, index + SHARD_REGION_PATH.length() - 1);
+            }
+            String thingId = URLDecoder.decode(actorPath.substring(index + SHARD_REGION_PATH.length()), UTF_8);
+            return new Pair<>(regionPath, message -> new ShardingEnvelope(thingId, message));
+        }
+        else {
+            return new Pair<>(actorPath, UnaryOperator.identity());
+        }
+    }
 }
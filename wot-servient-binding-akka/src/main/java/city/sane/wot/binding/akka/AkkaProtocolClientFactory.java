@@ -53,6 +53,7 @@ public class AkkaProtocolClientFactory implements ProtocolClientFactory {
     private final Duration askTimeout;
     private final Duration discoverTimeout;
     private Triple<ActorSystem, Map<String, ExposedThing>, ActorRef> triple = null;
+    private ActorRefCache refs = null;
 
     public AkkaProtocolClientFactory(Config config) {
         this(
@@ -85,7 +86,7 @@ public class AkkaProtocolClientFactory implements ProtocolClientFactory {
 
     @Override
     public AkkaProtocolClient getClient() {
-        return new AkkaProtocolClient(triple.first(), askTimeout, discoverTimeout);
+        return new AkkaProtocolClient(triple.first(), askTimeout, discoverTimeout, getActorRefCache());
     }
 
     @Override
@@ -112,6 +113,13 @@ public class AkkaProtocolClientFactory implements ProtocolClientFactory {
         log.debug("Terminate Actor System");
 
         if (triple != null) {
+            synchronized (this) {
+                if (refs != null) {
+                    refs.close();
+                    refs = null;
+                }
+            }
+
             return runAsync(() -> {
                 try {
                     actorSystemProvider.release();
@@ -126,6 +134,13 @@ public class AkkaProtocolClientFactory implements ProtocolClientFactory {
         }
     }
 
+    private synchronized ActorRefCache getActorRefCache() {
+        if (refs == null) {
+            refs = new ActorRefCache(triple.first(), askTimeout);
+        }
+        return refs;
+    }
+
     public ActorSystem getActorSystem() {
         return triple.first();
     }
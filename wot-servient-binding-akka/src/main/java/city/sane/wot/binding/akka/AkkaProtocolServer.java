@@ -23,12 +23,14 @@ package city.sane.wot.binding.akka;
 
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
+import akka.cluster.sharding.ClusterSharding;
 import city.sane.RefCountResource;
 import city.sane.RefCountResourceException;
 import city.sane.Triple;
 import city.sane.wot.Servient;
 import city.sane.wot.binding.ProtocolServer;
 import city.sane.wot.binding.ProtocolServerException;
+import city.sane.wot.binding.akka.actor.ThingActor;
 import city.sane.wot.binding.akka.actor.ThingsActor;
 import city.sane.wot.thing.ExposedThing;
 import com.typesafe.config.Config;
@@ -37,11 +39,13 @@ import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.URLEncoder;
 import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.CompletableFuture.failedFuture;
 import static java.util.concurrent.CompletableFuture.runAsync;
@@ -173,7 +177,15 @@ public class AkkaProtocolServer implements ProtocolServer {
     @Override
     public URI getThingUrl(String id) {
         try {
-            String endpoint = triple.third().path().child(id).toStringWithAddress(triple.first().provider().getDefaultAddress());
+            String endpoint;
+            Config config = triple.first().settings().config();
+            if (config.hasPath("akka.sharding.enabled") && config.getBoolean("akka.sharding.enabled")) {
+                endpoint = ClusterSharding.get(triple.first()).shardRegion(ThingActor.SHARDING_TYPE_NAME).path().toStringWithAddress(triple.first().provider().getDefaultAddress())
+                        + "/" + URLEncoder.encode(id, UTF_8);
+            }
+            else {
+                endpoint = triple.third().path().child(id).toStringWithAddress(triple.first().provider().getDefaultAddress());
+            }
             return new URI(endpoint + "#thing");
         }
         catch (URISyntaxException e) {
@@ -21,8 +21,8 @@
  */
 package city.sane.wot.binding.akka;
 
+import akka.stream.SourceRef;
 import city.sane.wot.content.Content;
-import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
 import java.util.Objects;
 
@@ -34,7 +34,7 @@ public interface Message {
             this.content = content;
         }
 
-        ContentMessage() {
+        protected ContentMessage() {
             // required by jackson
             content = null;
         }
@@ -71,6 +71,11 @@ public interface Message {
             this.name = name;
         }
 
+        protected InteractionMessage() {
+            // required by jackson
+            name = null;
+        }
+
         @Override
         public int hashCode() {
             return Objects.hash(name);
@@ -144,7 +149,7 @@ public interface Message {
             this.e = e;
         }
 
-        ErrorMessage() {
+        protected ErrorMessage() {
             // required by jackson
             e = null;
         }
@@ -175,33 +180,57 @@ public interface Message {
     }
 
     class SubscriptionNext extends ContentMessage {
+        SubscriptionNext() {
+            // required by jackson
+        }
+
         public SubscriptionNext(Content content) {
             super(content);
         }
     }
 
     class SubscriptionError extends ErrorMessage {
+        SubscriptionError() {
+            // required by jackson
+        }
+
         public SubscriptionError(Throwable e) {
             super(e);
         }
     }
 
     class SubscribeFailed extends ErrorMessage {
+        SubscribeFailed() {
+            // required by jackson
+        }
+
         public SubscribeFailed(Throwable e) {
             super(e);
         }
     }
 
-    // https://stackoverflow.com/a/53845446/1074188
-    @JsonIgnoreProperties({ "hibernateLazyInitializer", "handler" })
-    class SubscriptionComplete implements Message {
-        public SubscriptionComplete() {
+    /**
+     * Answer to a subscription. The stream emits {@link SubscriptionNext} for each value and a
+     * final {@link SubscriptionError} if the observed property or event fails. Values are only
+     * sent on demand of the subscriber.
+     */
+    class SubscriptionStream implements Message {
+        public final SourceRef<Message> source;
+
+        public SubscriptionStream(SourceRef<Message> source) {
+            this.source = source;
+        }
+
+        SubscriptionStream() {
             // required by jackson
+            source = null;
         }
 
         @Override
         public String toString() {
-            return "SubscriptionComplete{}";
+            return "SubscriptionStream{" +
+                    "source=" + source +
+                    '}';
         }
     }
 }
@@ -24,14 +24,17 @@ package city.sane.wot.binding.akka;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import city.sane.RefCountResource;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
 import city.sane.Triple;
+import city.sane.wot.binding.akka.actor.ThingActor;
 import city.sane.wot.binding.akka.actor.ThingsActor;
 import city.sane.wot.thing.ExposedThing;
 import com.typesafe.config.Config;
 import scala.compat.java8.FutureConverters;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This is a Singleton class, which is used by {@link AkkaProtocolClient} and {@link
@@ -50,8 +53,21 @@ public class SharedActorSystemProvider {
             singleton = new RefCountResource<>(
                     () -> {
                         ActorSystem system = ActorSystem.create(config.getString("wot.servient.akka.system-name"), config.getConfig("wot.servient"));
-                        Map<String, ExposedThing> things = new HashMap<>();
-                        ActorRef thingsActor = system.actorOf(ThingsActor.props(things), "things");
+                        // shared with the sharded thing actors, which are not started by ThingsActor
+                        Map<String, ExposedThing> things = new ConcurrentHashMap<>();
+                        ActorRef thingsActor;
+                        if (config.getBoolean("wot.servient.akka.sharding.enabled")) {
+                            ActorRef shardRegion = ClusterSharding.get(system).start(
+                                    ThingActor.SHARDING_TYPE_NAME,
+                                    ThingActor.shardedProps(things, system.child("things")),
+                                    ClusterShardingSettings.create(system),
+                                    new ThingActor.MessageExtractor(config.getInt("wot.servient.akka.sharding.number-of-shards"))
+                            );
+                            thingsActor = system.actorOf(ThingsActor.props(things, shardRegion), "things");
+                        }
+                        else {
+                            thingsActor = system.actorOf(ThingsActor.props(things), "things");
+                        }
 
                         return new Triple(system, things, thingsActor);
                     },
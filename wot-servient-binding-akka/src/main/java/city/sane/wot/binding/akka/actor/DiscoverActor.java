@@ -25,6 +25,10 @@ import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Cancellable;
 import akka.actor.Props;
+import akka.cluster.ddata.DistributedData;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.ORMap;
+import akka.cluster.ddata.Replicator;
 import akka.cluster.pubsub.DistributedPubSub;
 import akka.cluster.pubsub.DistributedPubSubMediator;
 import akka.event.Logging;
@@ -32,28 +36,48 @@ import akka.event.LoggingAdapter;
 import city.sane.wot.binding.akka.Message;
 import city.sane.wot.thing.Thing;
 import city.sane.wot.thing.filter.ThingFilter;
+import city.sane.wot.thing.filter.ThingQueryException;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import io.reactivex.rxjava3.core.Observer;
 
 import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
 
 /**
  * This actor is temporarily created for a discovery process. The actor searches for the desired
  * things, returns them, and then terminates itself.
+ * <p>
+ * If the Distributed Data extension is enabled, the things are read from a majority of the replicas
+ * of the registry maintained by the {@link ThingsActor}s, so that a node that has just joined the
+ * cluster does not answer with its still empty local replica. If no majority answers in time, the
+ * local replica is used. Otherwise, all {@link ThingsActor}s are asked
+ * via DistributedPubSub and the actor waits for answers until the timeout expires.
  */
 public class DiscoverActor extends AbstractActor {
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
     private final Cancellable timer;
     private final ThingFilter filter;
     private final ActorRef mediator;
+    private final ActorRef replicator;
     private final Observer<Thing> subject;
     private final Duration timeout;
+    private boolean readLocal;
 
     public DiscoverActor(Observer<Thing> subject, ThingFilter filter, Duration timeout) {
         this.subject = subject;
         this.filter = filter;
+        this.timeout = timeout;
+        if (getContext().system().settings().config().getStringList("akka.extensions").contains("akka.cluster.ddata.DistributedData")) {
+            replicator = DistributedData.get(getContext().system()).replicator();
+            mediator = null;
+            timer = null;
+            return;
+        }
+        replicator = null;
+
         if (getContext().system().settings().config().getStringList("akka.extensions").contains("akka.cluster.pubsub.DistributedPubSub")) {
             mediator = DistributedPubSub.get(getContext().system()).mediator();
         }
@@ -62,7 +86,6 @@ public class DiscoverActor extends AbstractActor {
             mediator = null;
         }
 
-        this.timeout = timeout;
         timer = getContext()
                 .getSystem()
                 .scheduler()
@@ -78,7 +101,10 @@ public class DiscoverActor extends AbstractActor {
     public void preStart() {
         log.debug("Started");
 
-        if (mediator != null) {
+        if (replicator != null) {
+            replicator.tell(new Replicator.Get<>(ThingsActor.REGISTRY_KEY, new Replicator.ReadMajority(timeout)), getSelf());
+        }
+        else if (mediator != null) {
             mediator.tell(new DistributedPubSubMediator.Publish(ThingsActor.TOPIC, new Discover(filter)), getSelf());
         }
     }
@@ -87,7 +113,9 @@ public class DiscoverActor extends AbstractActor {
     public void postStop() {
         log.debug("Stopped. Complete subject");
 
-        timer.cancel();
+        if (timer != null) {
+            timer.cancel();
+        }
         subject.onComplete();
     }
 
@@ -96,9 +124,53 @@ public class DiscoverActor extends AbstractActor {
         return receiveBuilder()
                 .match(Discovered.class, this::things)
                 .match(DiscoverTimeout.class, m -> timeout())
+                .match(Replicator.GetSuccess.class, this::registry)
+                .match(Replicator.NotFound.class, m -> {
+                    log.debug("Registry is empty. Stop temporary discover actor.");
+                    getContext().stop(getSelf());
+                })
+                .match(Replicator.GetFailure.class, this::registryFailure)
                 .build();
     }
 
+    private void registry(Replicator.GetSuccess<ORMap<String, LWWMap<String, String>>> m) {
+        // a thing exposed by several nodes (e.g. with cluster sharding) is only reported once
+        Map<String, Thing> thingsMap = new HashMap<>();
+        m.dataValue().getEntries().values().forEach(nodeThings -> nodeThings.getEntries().forEach((id, json) -> {
+            if (!thingsMap.containsKey(id)) {
+                Thing thing = Thing.fromJson(json);
+                if (thing != null) {
+                    thingsMap.put(id, thing);
+                }
+            }
+        }));
+        log.debug("Found {} thing(s) in registry", thingsMap.size());
+
+        try {
+            Collection<Thing> thingCollection = thingsMap.values();
+            if (filter.getQuery() != null) {
+                thingCollection = filter.getQuery().filter(thingCollection);
+            }
+            thingCollection.forEach(subject::onNext);
+        }
+        catch (ThingQueryException e) {
+            subject.onError(e);
+        }
+        getContext().stop(getSelf());
+    }
+
+    private void registryFailure(Replicator.GetFailure<ORMap<String, LWWMap<String, String>>> m) {
+        if (!readLocal) {
+            readLocal = true;
+            log.debug("No majority of registry replicas answered within {}. Read local replica.", timeout);
+            replicator.tell(new Replicator.Get<>(ThingsActor.REGISTRY_KEY, Replicator.readLocal()), getSelf());
+        }
+        else {
+            log.warning("Unable to read registry. Stop temporary discover actor.");
+            getContext().stop(getSelf());
+        }
+    }
+
     private void things(Discovered m) {
         ActorRef sender = getSender();
         log.debug("Received Things message from {}", sender);
@@ -139,6 +211,10 @@ public class DiscoverActor extends AbstractActor {
     }
 
     public static class DiscoverFailed extends Message.ErrorMessage {
+        DiscoverFailed() {
+            // required by jackson
+        }
+
         public DiscoverFailed(Throwable e) {
             super(e);
         }
@@ -151,6 +227,10 @@ public class DiscoverActor extends AbstractActor {
             this.things = things;
         }
 
+        Discovered() {
+            things = null;
+        }
+
         @Override
         public int hashCode() {
             return Objects.hash(things);
@@ -22,64 +22,140 @@
 package city.sane.wot.binding.akka.actor;
 
 import akka.actor.AbstractActor;
-import akka.actor.ActorSelection;
+import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.actor.Status;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.stream.AbruptStageTerminationException;
+import akka.stream.Materializer;
+import akka.stream.javadsl.Sink;
 import city.sane.wot.binding.akka.Message;
+import city.sane.wot.binding.akka.Message.SubscriptionStream;
+import city.sane.wot.binding.akka.actor.ThingActor.Unsubscribe;
 import city.sane.wot.content.Content;
 import io.reactivex.rxjava3.core.Observer;
 
+import java.util.concurrent.CompletionException;
+
 import static java.util.Objects.requireNonNull;
 
 /**
- * This actor is temporarily created for a obersavtion of an event/a property.
+ * This actor is temporarily created for a obersavtion of an event/a property. The values are pulled
+ * from the {@link SubscriptionStream} answered by the thing actor, so that the thing actor never
+ * sends faster than the observer consumes. When stopped, the stream is cancelled and the thing
+ * actor is told to cancel the subscription.
  */
 public class ObserveActor extends AbstractActor {
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
     private final Observer<Content> observer;
-    private final ActorSelection selection;
+    private final ActorRef thingActor;
     private final Message subscribeMessage;
+    private final Message unsubscribeMessage;
 
     public ObserveActor(Observer<Content> observer,
-                        ActorSelection selection,
-                        Message subscribeMessage) {
+                        ActorRef thingActor,
+                        Message subscribeMessage,
+                        Message unsubscribeMessage) {
         this.observer = observer;
-        this.selection = selection;
+        this.thingActor = thingActor;
         this.subscribeMessage = subscribeMessage;
+        this.unsubscribeMessage = unsubscribeMessage;
     }
 
     @Override
     public void preStart() {
         log.debug("Started");
 
-        log.debug("Send Subscribe message to {}", selection);
-        selection.tell(subscribeMessage, getSelf());
+        log.debug("Send Subscribe message to {}", thingActor);
+        thingActor.tell(subscribeMessage, getSelf());
     }
 
     @Override
     public void postStop() {
         log.debug("Stop");
+
+        log.debug("Send Unsubscribe message to {}", thingActor);
+        thingActor.tell(unsubscribeMessage, getSelf());
     }
 
     @Override
     public Receive createReceive() {
         return receiveBuilder()
-                .match(Message.SubscriptionNext.class, m -> observer.onNext(m.content))
-                .match(Message.SubscriptionError.class, m -> {
+                .match(SubscriptionStream.class, this::subscribed)
+                .match(Message.ErrorMessage.class, m -> {
                     observer.onError(m.e);
                     getContext().stop(getSelf());
                 })
-                .match(Message.SubscriptionComplete.class, m -> {
-                    observer.onComplete();
+                .match(Status.Failure.class, m -> {
+                    observer.onError(m.cause());
                     getContext().stop(getSelf());
                 })
                 .build();
     }
 
+    private void subscribed(SubscriptionStream m) {
+        log.debug("Received SubscriptionStream from {}", getSender());
+
+        // the stream is bound to the lifecycle of this actor and will be cancelled when it stops
+        ActorRef self = getSelf();
+        m.source.getSource()
+                .map(ObserveActor::content)
+                .runWith(Sink.foreach(observer::onNext), Materializer.createMaterializer(getContext()))
+                .whenComplete((done, e) -> {
+                    if (e instanceof CompletionException && e.getCause() != null) {
+                        e = e.getCause();
+                    }
+
+                    if (e instanceof AbruptStageTerminationException) {
+                        // actor has been stopped
+                        return;
+                    }
+                    else if (e != null) {
+                        observer.onError(e);
+                    }
+                    else {
+                        observer.onComplete();
+                    }
+                    self.tell(PoisonPill.getInstance(), ActorRef.noSender());
+                });
+    }
+
+    /**
+     * Returns the content of <code>m</code>. A {@link Message.SubscriptionError} fails the stream,
+     * so that the observer is terminated with the error and not completed afterwards.
+     *
+     * @param m
+     * @return
+     */
+    private static Content content(Message m) {
+        if (m instanceof Message.SubscriptionError) {
+            throw new CompletionException(((Message.SubscriptionError) m).e);
+        }
+        return ((Message.SubscriptionNext) m).content;
+    }
+
     public static Props props(Observer<Content> observer,
-                              ActorSelection selection,
+                              ActorRef thingActor,
                               Message subscribeMessage) {
-        return Props.create(ObserveActor.class, () -> new ObserveActor(requireNonNull(observer), requireNonNull(selection), requireNonNull(subscribeMessage)));
+        return props(observer, thingActor, subscribeMessage, new Unsubscribe());
+    }
+
+    /**
+     * Returns the props for an observation that is addressed via <code>thingActor</code> with
+     * custom subscribe and unsubscribe messages (e.g. wrapped for a shard region).
+     *
+     * @param observer
+     * @param thingActor
+     * @param subscribeMessage
+     * @param unsubscribeMessage
+     * @return
+     */
+    public static Props props(Observer<Content> observer,
+                              ActorRef thingActor,
+                              Message subscribeMessage,
+                              Message unsubscribeMessage) {
+        return Props.create(ObserveActor.class, () -> new ObserveActor(requireNonNull(observer), requireNonNull(thingActor), requireNonNull(subscribeMessage), requireNonNull(unsubscribeMessage)));
     }
 }
@@ -21,11 +21,27 @@
  */
 package city.sane.wot.binding.akka.actor;
 
+import akka.Done;
 import akka.actor.AbstractActor;
+import akka.actor.ActorPath;
 import akka.actor.ActorRef;
+import akka.actor.PoisonPill;
 import akka.actor.Props;
+import akka.actor.Status;
+import akka.actor.Terminated;
+import akka.cluster.pubsub.DistributedPubSub;
+import akka.cluster.pubsub.DistributedPubSubMediator;
+import akka.cluster.sharding.ShardRegion;
 import akka.event.Logging;
 import akka.event.LoggingAdapter;
+import akka.japi.Pair;
+import akka.stream.KillSwitches;
+import akka.stream.Materializer;
+import akka.stream.SourceRef;
+import akka.stream.UniqueKillSwitch;
+import akka.stream.javadsl.Keep;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
 import city.sane.wot.binding.akka.Message;
 import city.sane.wot.binding.akka.Message.ContentMessage;
 import city.sane.wot.binding.akka.Message.ErrorMessage;
@@ -33,6 +49,9 @@ import city.sane.wot.binding.akka.Message.InteractionMessage;
 import city.sane.wot.binding.akka.Message.InteractionWithContentMessage;
 import city.sane.wot.binding.akka.Message.SubscribeFailed;
 import city.sane.wot.binding.akka.Message.SubscriptionError;
+import city.sane.wot.binding.akka.Message.SubscriptionNext;
+import city.sane.wot.binding.akka.Message.SubscriptionStream;
+import city.sane.wot.binding.akka.actor.ThingsActor.Destroy;
 import city.sane.wot.binding.akka.actor.ThingsActor.Destroyed;
 import city.sane.wot.binding.akka.actor.ThingsActor.Exposed;
 import city.sane.wot.content.Content;
@@ -45,10 +64,24 @@ import city.sane.wot.thing.form.Form;
 import city.sane.wot.thing.form.Operation;
 import city.sane.wot.thing.property.ExposedThingProperty;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-
+import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import com.typesafe.config.Config;
+import io.reactivex.rxjava3.core.BackpressureOverflowStrategy;
+import io.reactivex.rxjava3.core.BackpressureStrategy;
+import io.reactivex.rxjava3.core.Flowable;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
+
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletionStage;
 import java.util.function.BiConsumer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.Objects.requireNonNull;
 
 /**
@@ -57,22 +90,136 @@ import static java.util.Objects.requireNonNull;
  * purpose, the actuator creates a series of child actuators that allow interaction with a single
  * {@link city.sane.wot.thing.property.ExposedThingProperty}, {@link
  * city.sane.wot.thing.action.ExposedThingAction}, or {@link city.sane.wot.thing.event.ExposedThingEvent}.
+ * <p>
+ * Subscriptions to properties and events are answered with a {@link SubscriptionStream}. Values are
+ * only sent on demand of the subscriber. If the subscriber is slower than the property or event,
+ * the configured overflow strategy ("drop-oldest" or "conflate") decides which values are dropped.
+ * Subscriptions are tracked per subscriber. They are cancelled when the subscriber cancels the
+ * stream, sends {@link Unsubscribe} or terminates (including the loss of its cluster node), which
+ * is detected via DeathWatch.
+ * <p>
+ * If cluster sharding is enabled, the actors are entities of the shard region {@link
+ * #SHARDING_TYPE_NAME} and are started on demand on the node owning the thing's shard. The entity
+ * id is the thing id and the thing is looked up among the things exposed on that node for each
+ * message. If the thing is not exposed on that node, the message is forwarded via DistributedPubSub
+ * to the actor serving the thing on the exposing node (see {@link #forwardedProps(Map)}). The
+ * handlers of a thing therefore always run on the exposing node. Sharding makes a thing reachable
+ * independent of the node it has been exposed on, but does not distribute its load.
  */
 @SuppressWarnings({ "java:S1192" })
 public class ThingActor extends AbstractActor {
+    public static final String SHARDING_TYPE_NAME = "thing";
+    private static final String OVERFLOW_STRATEGY_DROP_OLDEST = "drop-oldest";
+    private static final String OVERFLOW_STRATEGY_CONFLATE = "conflate";
+    private static final int DEFAULT_BUFFER_SIZE = 256;
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
-    private final ExposedThing thing;
+    private final Map<String, ExposedThing> things;
+    private final String thingId;
+    private final String forwardPath;
+    private final Map<ActorRef, CompositeDisposable> subscriptions;
+    private ExposedThing thing;
+    private Materializer materializer;
 
     private ThingActor(ExposedThing thing) {
         this.thing = thing;
+        things = null;
+        thingId = thing.getId();
+        forwardPath = null;
+        subscriptions = new HashMap<>();
+    }
+
+    private ThingActor(Map<String, ExposedThing> things, ActorPath forwardParentPath) {
+        this.things = things;
+        // sharding uses the url-encoded entity id as actor name
+        thingId = URLDecoder.decode(getSelf().path().name(), UTF_8);
+        if (forwardParentPath != null && getContext().system().settings().config().getStringList("akka.extensions").contains("akka.cluster.pubsub.DistributedPubSub")) {
+            forwardPath = forwardParentPath.child(getSelf().path().name()).toStringWithoutAddress();
+        }
+        else {
+            forwardPath = null;
+        }
+        subscriptions = new HashMap<>();
     }
 
     @Override
     public void preStart() {
         log.debug("Started");
 
+        if (things != null) {
+            // forms have already been assigned by the ThingsActor on each node
+            return;
+        }
+
         String href = getSelf().path().toStringWithAddress(getContext().getSystem().provider().getDefaultAddress());
+        addForms(thing, href, log);
+
+        log.debug("Thing has been exposed");
+        getContext().getParent().tell(new Exposed(thing.getId()), getSelf());
+    }
 
+    @Override
+    public void postStop() {
+        log.debug("Stopped");
+        subscriptions.values().forEach(CompositeDisposable::dispose);
+        subscriptions.clear();
+        if (things == null) {
+            getContext().getParent().tell(new Destroyed(thingId), getSelf());
+        }
+    }
+
+    @Override
+    public Receive createReceive() {
+        if (things == null) {
+            return thingReceive();
+        }
+
+        // the thing may be exposed or destroyed at any time, therefore it is looked up per message
+        Receive thingReceive = thingReceive();
+        return receiveBuilder()
+                .match(Destroy.class, m -> passivate())
+                .match(Terminated.class, this::terminated)
+                .match(SubscriptionTerminated.class, this::subscriptionTerminated)
+                .match(Message.class, m -> {
+                    thing = things.get(thingId);
+                    if (thing != null) {
+                        thingReceive.onMessage().applyOrElse(m, this::unhandledMessage);
+                    }
+                    else {
+                        forward(m);
+                    }
+                })
+                .build();
+    }
+
+    private Object unhandledMessage(Object m) {
+        unhandled(m);
+        return m;
+    }
+
+    private Receive thingReceive() {
+        return receiveBuilder()
+                .match(GetThingDescription.class, m -> getThingDescription())
+                .match(ReadAllProperties.class, m -> readAllProperties())
+                .match(ReadProperty.class, this::readProperty)
+                .match(WriteProperty.class, this::writeProperty)
+                .match(SubscribeProperty.class, this::subscribeProperty)
+                .match(SubscribeEvent.class, this::subscribeEvent)
+                .match(Unsubscribe.class, m -> unsubscribe())
+                .match(Terminated.class, this::terminated)
+                .match(SubscriptionTerminated.class, this::subscriptionTerminated)
+                .match(InvokeAction.class, this::invokeAction)
+                .match(Destroy.class, m -> passivate())
+                .build();
+    }
+
+    /**
+     * Assigns forms for all interactions of <code>thing</code> pointing to <code>href</code>.
+     *
+     * @param thing
+     * @param href
+     * @param log
+     */
+    static void addForms(ExposedThing thing, String href, LoggingAdapter log) {
         // all properties
         String allPropertiesHref = href + "#all/properties";
         Form form = new Form.Builder()
@@ -130,28 +277,6 @@ public class ThingActor extends AbstractActor {
             event.addForm(eventForm);
             log.debug("Assign '{}' to Event '{}'", eventHref, name);
         });
-
-        log.debug("Thing has been exposed");
-        getContext().getParent().tell(new Exposed(thing.getId()), getSelf());
-    }
-
-    @Override
-    public void postStop() {
-        log.debug("Stopped");
-        getContext().getParent().tell(new Destroyed(thing.getId()), getSelf());
-    }
-
-    @Override
-    public Receive createReceive() {
-        return receiveBuilder()
-                .match(GetThingDescription.class, m -> getThingDescription())
-                .match(ReadAllProperties.class, m -> readAllProperties())
-                .match(ReadProperty.class, this::readProperty)
-                .match(WriteProperty.class, this::writeProperty)
-                .match(SubscribeProperty.class, this::subscribeProperty)
-                .match(SubscribeEvent.class, this::subscribeEvent)
-                .match(InvokeAction.class, this::invokeAction)
-                .build();
     }
 
     private void getThingDescription() {
@@ -264,13 +389,7 @@ public class ThingActor extends AbstractActor {
 
         ExposedThingProperty<Object> property = thing.getProperty(m.name);
         if (property != null) {
-            property.observer()
-                    .map(optional -> ContentManager.valueToContent(optional.orElse(null)))
-                    .subscribe(
-                            content -> sender.tell(new Message.SubscriptionNext(content), getSelf()),
-                            e -> sender.tell(new SubscriptionError(e), getSelf()),
-                            () -> sender.tell(new Message.SubscriptionComplete(), getSelf())
-                    );
+            subscribe(sender, property.observer());
         }
         else {
             log.warning("Property with name {} not found", m.name);
@@ -284,13 +403,7 @@ public class ThingActor extends AbstractActor {
 
         ExposedThingEvent<Object> event = thing.getEvent(m.name);
         if (event != null) {
-            event.observer()
-                    .map(optional -> ContentManager.valueToContent(optional.orElse(null)))
-                    .subscribe(
-                            content -> sender.tell(new Message.SubscriptionNext(content), getSelf()),
-                            e -> sender.tell(new SubscriptionError(e), getSelf()),
-                            () -> sender.tell(new Message.SubscriptionComplete(), getSelf())
-                    );
+            subscribe(sender, event.observer());
         }
         else {
             log.warning("Event with name {} not found", m.name);
@@ -298,6 +411,112 @@ public class ThingActor extends AbstractActor {
         }
     }
 
+    private void subscribe(ActorRef sender, Observable<Optional<Object>> observer) {
+        Flowable<Message> values = withOverflowStrategy(observer
+                .map(optional -> (Message) new SubscriptionNext(ContentManager.valueToContent(optional.orElse(null)))))
+                .onErrorReturn(SubscriptionError::new);
+
+        // the stream is bound to the lifecycle of this actor
+        if (materializer == null) {
+            materializer = Materializer.createMaterializer(getContext());
+        }
+        Pair<Pair<UniqueKillSwitch, CompletionStage<Done>>, SourceRef<Message>> stream = Source.fromPublisher(values)
+                .viaMat(KillSwitches.single(), Keep.right())
+                .watchTermination(Keep.both())
+                .toMat(StreamRefs.sourceRef(), Keep.both())
+                .run(materializer);
+        sender.tell(new SubscriptionStream(stream.second()), getSelf());
+
+        Disposable subscription = Disposable.fromAction(stream.first().first()::shutdown);
+        subscriptions.computeIfAbsent(sender, ref -> {
+            getContext().watch(ref);
+            return new CompositeDisposable();
+        }).add(subscription);
+
+        // forget the kill switch as soon as the stream has terminated, e.g. because the subscriber
+        // has cancelled it
+        ActorRef self = getSelf();
+        stream.first().second().whenComplete((done, e) -> self.tell(new SubscriptionTerminated(sender, subscription), ActorRef.noSender()));
+    }
+
+    private void subscriptionTerminated(SubscriptionTerminated m) {
+        CompositeDisposable senderSubscriptions = subscriptions.get(m.subscriber);
+        if (senderSubscriptions != null && senderSubscriptions.delete(m.subscription) && senderSubscriptions.size() == 0) {
+            subscriptions.remove(m.subscriber);
+            getContext().unwatch(m.subscriber);
+        }
+    }
+
+    /**
+     * Converts <code>observable</code> to a {@link Flowable} that only emits values on demand and
+     * handles values emitted without demand according to the configured overflow strategy.
+     *
+     * @param observable
+     * @return
+     */
+    private Flowable<Message> withOverflowStrategy(Observable<Message> observable) {
+        Config config = getContext().getSystem().settings().config();
+        String strategy = config.hasPath("akka.observe.overflow-strategy") ? config.getString("akka.observe.overflow-strategy") : OVERFLOW_STRATEGY_DROP_OLDEST;
+        int bufferSize = config.hasPath("akka.observe.buffer-size") ? config.getInt("akka.observe.buffer-size") : DEFAULT_BUFFER_SIZE;
+
+        switch (strategy) {
+            case OVERFLOW_STRATEGY_CONFLATE:
+                return observable.toFlowable(BackpressureStrategy.LATEST);
+            case OVERFLOW_STRATEGY_DROP_OLDEST:
+                return observable.toFlowable(BackpressureStrategy.MISSING)
+                        .onBackpressureBuffer(bufferSize, null, BackpressureOverflowStrategy.DROP_OLDEST);
+            default:
+                throw new IllegalArgumentException("Unknown overflow strategy '" + strategy + "'. Use '" + OVERFLOW_STRATEGY_DROP_OLDEST + "' or '" + OVERFLOW_STRATEGY_CONFLATE + "'");
+        }
+    }
+
+    private void unsubscribe() {
+        ActorRef sender = getSender();
+        log.debug("Received Unsubscribe message from {}", sender);
+
+        CompositeDisposable senderSubscriptions = subscriptions.remove(sender);
+        if (senderSubscriptions != null) {
+            getContext().unwatch(sender);
+            senderSubscriptions.dispose();
+        }
+    }
+
+    private void terminated(Terminated m) {
+        CompositeDisposable senderSubscriptions = subscriptions.remove(m.getActor());
+        if (senderSubscriptions != null) {
+            log.debug("Subscriber {} has been terminated. Dispose its {} subscription(s)", m.getActor(), senderSubscriptions.size());
+            senderSubscriptions.dispose();
+        }
+    }
+
+    /**
+     * Forwards <code>m</code> to the actor serving the thing on the node that exposes it. If
+     * several nodes expose a thing with this id, DistributedPubSub sends <code>m</code> to one of
+     * them chosen at random. Local affinity would make no difference, as this node does not expose
+     * the thing.
+     *
+     * @param m
+     */
+    private void forward(Message m) {
+        ActorRef sender = getSender();
+        if (forwardPath != null) {
+            log.debug("Thing '{}' is not exposed on this node. Forward {} to '{}'", thingId, m, forwardPath);
+            ActorRef mediator = DistributedPubSub.get(getContext().system()).mediator();
+            mediator.tell(new DistributedPubSubMediator.Send(forwardPath, m, false), sender);
+        }
+        else {
+            log.warning("Thing '{}' is not exposed on this node", thingId);
+            sender.tell(new Status.Failure(new Exception("Thing '" + thingId + "' is not exposed on this node")), getSelf());
+        }
+    }
+
+    private void passivate() {
+        if (things != null) {
+            log.debug("Thing is no longer exposed. Passivate entity");
+            getContext().getParent().tell(new ShardRegion.Passivate(PoisonPill.getInstance()), getSelf());
+        }
+    }
+
     private void invokeAction(InvokeAction m) {
         ActorRef sender = getSender();
         log.debug("Received InvokeAction message from {}", sender);
@@ -341,6 +560,120 @@ public class ThingActor extends AbstractActor {
         return Props.create(ThingActor.class, () -> new ThingActor(thing));
     }
 
+    /**
+     * Returns the props for the entities of the shard region. Each entity serves the thing from
+     * <code>things</code> whose id matches the entity id. Messages for things that are not exposed
+     * on the entity's node are forwarded to the children of <code>thingsActorPath</code> created
+     * with {@link #forwardedProps(Map)} on the exposing node.
+     *
+     * @param things
+     * @param thingsActorPath
+     * @return
+     */
+    public static Props shardedProps(Map<String, ExposedThing> things, ActorPath thingsActorPath) {
+        requireNonNull(things);
+        return Props.create(ThingActor.class, () -> new ThingActor(things, thingsActorPath));
+    }
+
+    /**
+     * Returns the props for an actor that serves the thing from <code>things</code> whose id
+     * matches the url-encoded actor name on behalf of the entities of the shard region. These
+     * actors are registered with DistributedPubSub by the {@link ThingsActor} of the node exposing
+     * the thing.
+     *
+     * @param things
+     * @return
+     */
+    static Props forwardedProps(Map<String, ExposedThing> things) {
+        requireNonNull(things);
+        return Props.create(ThingActor.class, () -> new ThingActor(things, null));
+    }
+
+    /**
+     * Routes {@link ShardingEnvelope}s to the entity of the addressed thing.
+     */
+    public static class MessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+        public MessageExtractor(int maxNumberOfShards) {
+            super(maxNumberOfShards);
+        }
+
+        @Override
+        public String entityId(Object message) {
+            if (message instanceof ShardingEnvelope) {
+                return ((ShardingEnvelope) message).thingId;
+            }
+            else {
+                return null;
+            }
+        }
+
+        @Override
+        public Object entityMessage(Object message) {
+            if (message instanceof ShardingEnvelope) {
+                return ((ShardingEnvelope) message).message;
+            }
+            else {
+                return message;
+            }
+        }
+    }
+
+    private static class SubscriptionTerminated {
+        final ActorRef subscriber;
+        final Disposable subscription;
+
+        SubscriptionTerminated(ActorRef subscriber, Disposable subscription) {
+            this.subscriber = subscriber;
+            this.subscription = subscription;
+        }
+    }
+
+    /**
+     * Wraps a message for the thing actor with id <code>thingId</code>, so that the shard region
+     * can deliver it.
+     */
+    public static class ShardingEnvelope implements Message {
+        public final String thingId;
+        @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS)
+        public final Message message;
+
+        public ShardingEnvelope(String thingId, Message message) {
+            this.thingId = thingId;
+            this.message = message;
+        }
+
+        ShardingEnvelope() {
+            // required by jackson
+            thingId = null;
+            message = null;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(thingId, message);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            ShardingEnvelope that = (ShardingEnvelope) o;
+            return Objects.equals(thingId, that.thingId) && Objects.equals(message, that.message);
+        }
+
+        @Override
+        public String toString() {
+            return "ShardingEnvelope{" +
+                    "thingId='" + thingId + '\'' +
+                    ", message=" + message +
+                    '}';
+        }
+    }
+
     // https://stackoverflow.com/a/53845446/1074188
     @JsonIgnoreProperties({ "hibernateLazyInitializer", "handler" })
     public static class GetThingDescription implements Message {
@@ -355,6 +688,10 @@ public class ThingActor extends AbstractActor {
     }
 
     public static class ThingDescription extends ContentMessage {
+        ThingDescription() {
+            // required by jackson
+        }
+
         public ThingDescription(Content content) {
             super(content);
         }
@@ -378,6 +715,10 @@ public class ThingActor extends AbstractActor {
     }
 
     public static class GetThingDescriptionFailed extends ErrorMessage {
+        GetThingDescriptionFailed() {
+            // required by jackson
+        }
+
         protected GetThingDescriptionFailed(Throwable e) {
             super(e);
         }
@@ -397,30 +738,50 @@ public class ThingActor extends AbstractActor {
     }
 
     public static class ReadAllPropertiesFailed extends ErrorMessage {
+        ReadAllPropertiesFailed() {
+            // required by jackson
+        }
+
         protected ReadAllPropertiesFailed(Throwable e) {
             super(e);
         }
     }
 
     public static class PropertiesValues extends ContentMessage {
+        PropertiesValues() {
+            // required by jackson
+        }
+
         public PropertiesValues(Content content) {
             super(content);
         }
     }
 
     public static class ReadProperty extends InteractionMessage {
+        ReadProperty() {
+            // required by jackson
+        }
+
         public ReadProperty(String name) {
             super(name);
         }
     }
 
     public static class ReadPropertyResponse extends ContentMessage {
+        ReadPropertyResponse() {
+            // required by jackson
+        }
+
         public ReadPropertyResponse(Content content) {
             super(content);
         }
     }
 
     public static class ReadPropertyFailed extends ErrorMessage {
+        ReadPropertyFailed() {
+            // required by jackson
+        }
+
         protected ReadPropertyFailed(Throwable e) {
             super(e);
         }
@@ -433,29 +794,61 @@ public class ThingActor extends AbstractActor {
     }
 
     public static class WrittenProperty extends ContentMessage {
+        WrittenProperty() {
+            // required by jackson
+        }
+
         public WrittenProperty(Content content) {
             super(content);
         }
     }
 
     public static class WritePropertyFailed extends ErrorMessage {
+        WritePropertyFailed() {
+            // required by jackson
+        }
+
         protected WritePropertyFailed(Throwable e) {
             super(e);
         }
     }
 
     public static class SubscribeProperty extends InteractionMessage {
+        SubscribeProperty() {
+            // required by jackson
+        }
+
         public SubscribeProperty(String name) {
             super(name);
         }
     }
 
     public static class SubscribeEvent extends InteractionMessage {
+        SubscribeEvent() {
+            // required by jackson
+        }
+
         public SubscribeEvent(String name) {
             super(name);
         }
     }
 
+    /**
+     * Cancels all subscriptions of the sender of this message.
+     */
+    // https://stackoverflow.com/a/53845446/1074188
+    @JsonIgnoreProperties({ "hibernateLazyInitializer", "handler" })
+    public static class Unsubscribe implements Message {
+        public Unsubscribe() {
+            // required by jackson
+        }
+
+        @Override
+        public String toString() {
+            return "Unsubscribe{}";
+        }
+    }
+
     public static class InvokeAction extends InteractionWithContentMessage {
         public InvokeAction(String name) {
             super(name);
@@ -467,12 +860,20 @@ public class ThingActor extends AbstractActor {
     }
 
     public static class InvokedAction extends ContentMessage {
+        InvokedAction() {
+            // required by jackson
+        }
+
         public InvokedAction(Content content) {
             super(content);
         }
     }
 
     public static class InvokeActionFailed extends ErrorMessage {
+        InvokeActionFailed() {
+            // required by jackson
+        }
+
         protected InvokeActionFailed(Throwable e) {
             super(e);
         }
@@ -24,6 +24,16 @@ package city.sane.wot.binding.akka.actor;
 import akka.actor.AbstractActor;
 import akka.actor.ActorRef;
 import akka.actor.Props;
+import akka.cluster.Cluster;
+import akka.cluster.ClusterEvent;
+import akka.cluster.ClusterEvent.MemberRemoved;
+import akka.cluster.ddata.DistributedData;
+import akka.cluster.ddata.Key;
+import akka.cluster.ddata.LWWMap;
+import akka.cluster.ddata.ORMap;
+import akka.cluster.ddata.ORMapKey;
+import akka.cluster.ddata.Replicator;
+import akka.cluster.ddata.SelfUniqueAddress;
 import akka.cluster.pubsub.DistributedPubSub;
 import akka.cluster.pubsub.DistributedPubSubMediator;
 import akka.event.Logging;
@@ -33,6 +43,7 @@ import city.sane.wot.binding.akka.Message.ErrorMessage;
 import city.sane.wot.binding.akka.actor.DiscoverActor.Discover;
 import city.sane.wot.binding.akka.actor.DiscoverActor.DiscoverFailed;
 import city.sane.wot.binding.akka.actor.DiscoverActor.Discovered;
+import city.sane.wot.binding.akka.actor.ThingActor.ShardingEnvelope;
 import city.sane.wot.content.Content;
 import city.sane.wot.content.ContentCodecException;
 import city.sane.wot.content.ContentManager;
@@ -40,21 +51,39 @@ import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.Thing;
 import city.sane.wot.thing.filter.ThingQueryException;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import io.reactivex.rxjava3.disposables.Disposable;
 
+import java.net.URLEncoder;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
 /**
  * This Actor is started together with {@link city.sane.wot.binding.akka.AkkaProtocolServer} and is
  * responsible for exposing things. For each exposed Thing a {@link ThingActor} is created, which is
  * responsible for the interaction with the Thing.
+ * <p>
+ * If a shard region for {@link ThingActor}s is given, the forms of the thing point to the entity in
+ * the shard region and the region starts the entity on demand. Entities started on other nodes
+ * forward their messages to a local {@link ThingActor#forwardedProps(Map)} actor, which is registered
+ * with DistributedPubSub.
+ * <p>
+ * If the Distributed Data extension is enabled, the descriptions of all exposed things are written
+ * to a registry that is replicated to all nodes of the cluster. The registry maps the unique
+ * address of each node to the things exposed by this node, so that the things of a removed node
+ * can be dropped. Because other bindings add their forms independently of this actor, descriptions
+ * are written again each time the thing reports a changed description, e.g. when its exposure by
+ * all servers has finished.
  */
 public class ThingsActor extends AbstractActor {
     public static final String TOPIC = "thing-discovery";
+    public static final Key<ORMap<String, LWWMap<String, String>>> REGISTRY_KEY = ORMapKey.create("thing-registry");
     private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
     private final Map<String, ExposedThing> things;
     private final Map<String, ActorRef> thingActors;
@@ -63,13 +92,19 @@ public class ThingsActor extends AbstractActor {
     private final ActorRef mediator;
     private final BiFunction<ActorContext, ExposedThing, ActorRef> thingActorCreator;
     private final BiConsumer<ActorContext, ActorRef> thingActorDestroyer;
+    private final ActorRef shardRegion;
+    private final ActorRef replicator;
+    private final Map<String, String> publishedThings;
+    private final Map<String, Disposable> descriptionObservers;
 
     private ThingsActor(Map<String, ExposedThing> things,
                         Map<String, ActorRef> thingActors,
                         Map<String, ActorRef> exposeRequesters,
                         Map<String, ActorRef> destroyRequesters,
                         BiFunction<ActorContext, ExposedThing, ActorRef> thingActorCreator,
-                        BiConsumer<ActorContext, ActorRef> thingActorDestroyer) {
+                        BiConsumer<ActorContext, ActorRef> thingActorDestroyer,
+                        ActorRef shardRegion) {
+        this.shardRegion = shardRegion;
         this.things = things;
         this.thingActors = thingActors;
         this.exposeRequesters = exposeRequesters;
@@ -83,6 +118,15 @@ public class ThingsActor extends AbstractActor {
             log.warning("DistributedPubSub extension missing. ANY Discovery via DistributedPubSub will not be supported.");
             mediator = null;
         }
+        if (getContext().system().settings().config().getStringList("akka.extensions").contains("akka.cluster.ddata.DistributedData")) {
+            replicator = DistributedData.get(getContext().system()).replicator();
+        }
+        else {
+            log.warning("DistributedData extension missing. Things will not be added to the replicated registry.");
+            replicator = null;
+        }
+        publishedThings = new HashMap<>();
+        descriptionObservers = new HashMap<>();
     }
 
     @Override
@@ -92,6 +136,10 @@ public class ThingsActor extends AbstractActor {
         if (mediator != null) {
             mediator.tell(new DistributedPubSubMediator.Subscribe(TOPIC, getSelf()), getSelf());
         }
+
+        if (replicator != null) {
+            Cluster.get(getContext().system()).subscribe(getSelf(), ClusterEvent.initialStateAsEvents(), MemberRemoved.class);
+        }
     }
 
     @Override
@@ -101,6 +149,15 @@ public class ThingsActor extends AbstractActor {
         if (mediator != null) {
             mediator.tell(new DistributedPubSubMediator.Unsubscribe(TOPIC, getSelf()), getSelf());
         }
+
+        descriptionObservers.values().forEach(Disposable::dispose);
+        descriptionObservers.clear();
+
+        if (replicator != null) {
+            Cluster.get(getContext().system()).unsubscribe(getSelf());
+            String node = selfNode();
+            updateRegistry(registry -> registry.remove(selfUniqueAddress(), node));
+        }
     }
 
     @Override
@@ -113,6 +170,9 @@ public class ThingsActor extends AbstractActor {
                 .match(Exposed.class, this::exposed)
                 .match(Destroy.class, this::destroy)
                 .match(Destroyed.class, this::destroyed)
+                .match(DescriptionChanged.class, this::descriptionChanged)
+                .match(MemberRemoved.class, this::memberRemoved)
+                .match(Replicator.UpdateResponse.class, m -> log.debug("Received {} from replicator", m))
                 .build();
     }
 
@@ -160,7 +220,23 @@ public class ThingsActor extends AbstractActor {
         String id = m.id;
         ExposedThing thing = things.get(id);
 
-        if (thing != null) {
+        if (thing != null && shardRegion != null) {
+            String href = shardRegion.path().toStringWithAddress(getContext().getSystem().provider().getDefaultAddress())
+                    + "/" + URLEncoder.encode(id, UTF_8);
+            ThingActor.addForms(thing, href, log);
+            observeDescription(thing);
+            publish(thing);
+
+            ActorRef thingActor = getContext().actorOf(ThingActor.forwardedProps(things), URLEncoder.encode(id, UTF_8));
+            thingActors.put(id, thingActor);
+            if (mediator != null) {
+                mediator.tell(new DistributedPubSubMediator.Put(thingActor), getSelf());
+            }
+
+            log.debug("Thing '{}' has been exposed via shard region", id);
+            sender.tell(new Exposed(id), getSelf());
+        }
+        else if (thing != null) {
             // save requestor
             exposeRequesters.put(id, sender);
 
@@ -179,6 +255,11 @@ public class ThingsActor extends AbstractActor {
         log.debug("Received Exposed message from {}", sender);
 
         String id = m.id;
+        ExposedThing thing = things.get(id);
+        if (thing != null) {
+            observeDescription(thing);
+            publish(thing);
+        }
         ActorRef requester = exposeRequesters.remove(id);
 
         if (requester != null) {
@@ -192,6 +273,26 @@ public class ThingsActor extends AbstractActor {
         log.debug("Received Destroy message from {}", sender);
 
         String id = m.id;
+        Disposable descriptionObserver = descriptionObservers.remove(id);
+        if (descriptionObserver != null) {
+            descriptionObserver.dispose();
+        }
+        unpublish(id);
+
+        if (shardRegion != null) {
+            ActorRef thingActor = thingActors.remove(id);
+            if (thingActor != null) {
+                if (mediator != null) {
+                    mediator.tell(new DistributedPubSubMediator.Remove(thingActor.path().toStringWithoutAddress()), getSelf());
+                }
+                getContext().stop(thingActor);
+            }
+
+            // let the entity passivate itself. The thing is gone from the registry already
+            shardRegion.tell(new ShardingEnvelope(id, m), getSelf());
+            sender.tell(new Destroyed(id), getSelf());
+            return;
+        }
 
         // destroy thing
         ActorRef actorRef = thingActors.remove(id);
@@ -218,6 +319,77 @@ public class ThingsActor extends AbstractActor {
         }
     }
 
+    /**
+     * Rewrites the description of <code>thing</code> to the registry each time the thing reports a
+     * changed description, until the thing is destroyed.
+     *
+     * @param thing
+     */
+    private void observeDescription(ExposedThing thing) {
+        String id = thing.getId();
+        if (replicator == null || descriptionObservers.containsKey(id)) {
+            return;
+        }
+
+        ActorRef self = getSelf();
+        descriptionObservers.put(id, thing.observer().subscribe(t -> self.tell(new DescriptionChanged(id), ActorRef.noSender())));
+    }
+
+    private void descriptionChanged(DescriptionChanged m) {
+        ExposedThing thing = things.get(m.id);
+        if (thing != null && descriptionObservers.containsKey(m.id)) {
+            publish(thing);
+        }
+    }
+
+    private void memberRemoved(MemberRemoved m) {
+        String node = m.member().uniqueAddress().toString();
+        log.debug("Member '{}' has been removed. Remove its things from registry", node);
+        updateRegistry(registry -> registry.remove(selfUniqueAddress(), node));
+    }
+
+    /**
+     * Writes the description of <code>thing</code> to the replicated registry if it has changed
+     * since the last write.
+     *
+     * @param thing
+     */
+    private void publish(ExposedThing thing) {
+        if (replicator == null) {
+            return;
+        }
+
+        String id = thing.getId();
+        String json = thing.toJson();
+        if (json != null && !json.equals(publishedThings.put(id, json))) {
+            log.debug("Write thing '{}' to registry", id);
+            String node = selfNode();
+            SelfUniqueAddress self = selfUniqueAddress();
+            updateRegistry(registry -> registry.update(self, node, LWWMap.create(), nodeThings -> nodeThings.put(self, id, json)));
+        }
+    }
+
+    private void unpublish(String id) {
+        if (replicator != null && publishedThings.remove(id) != null) {
+            log.debug("Remove thing '{}' from registry", id);
+            String node = selfNode();
+            SelfUniqueAddress self = selfUniqueAddress();
+            updateRegistry(registry -> registry.update(self, node, LWWMap.create(), nodeThings -> nodeThings.remove(self, id)));
+        }
+    }
+
+    private void updateRegistry(Function<ORMap<String, LWWMap<String, String>>, ORMap<String, LWWMap<String, String>>> modify) {
+        replicator.tell(new Replicator.Update<>(REGISTRY_KEY, ORMap.create(), Replicator.writeLocal(), modify), getSelf());
+    }
+
+    private SelfUniqueAddress selfUniqueAddress() {
+        return DistributedData.get(getContext().system()).selfUniqueAddress();
+    }
+
+    private String selfNode() {
+        return selfUniqueAddress().uniqueAddress().toString();
+    }
+
     public static Props props(Map<String, ExposedThing> things) {
         return props(
                 things,
@@ -229,13 +401,25 @@ public class ThingsActor extends AbstractActor {
         );
     }
 
+    /**
+     * Returns the props for an actor that exposes things via the <code>shardRegion</code> of
+     * {@link ThingActor#shardedProps(Map)} entities.
+     *
+     * @param things
+     * @param shardRegion
+     * @return
+     */
+    public static Props props(Map<String, ExposedThing> things, ActorRef shardRegion) {
+        return Props.create(ThingsActor.class, () -> new ThingsActor(things, new HashMap<>(), new HashMap<>(), new HashMap<>(), null, null, shardRegion));
+    }
+
     public static Props props(Map<String, ExposedThing> things,
                               Map<String, ActorRef> thingActors,
                               Map<String, ActorRef> exposeRequesters,
                               Map<String, ActorRef> destroyRequesters,
                               BiFunction<ActorContext, ExposedThing, ActorRef> thingActorProvider,
                               BiConsumer<ActorContext, ActorRef> thingActorDestroyer) {
-        return Props.create(ThingsActor.class, () -> new ThingsActor(things, thingActors, exposeRequesters, destroyRequesters, thingActorProvider, thingActorDestroyer));
+        return Props.create(ThingsActor.class, () -> new ThingsActor(things, thingActors, exposeRequesters, destroyRequesters, thingActorProvider, thingActorDestroyer, null));
     }
 
     // https://stackoverflow.com/a/53845446/1074188
@@ -252,12 +436,20 @@ public class ThingsActor extends AbstractActor {
     }
 
     public static class GetThingsFailed extends ErrorMessage {
+        GetThingsFailed() {
+            // required by jackson
+        }
+
         public GetThingsFailed(Throwable e) {
             super(e);
         }
     }
 
     public static class Things extends Message.ContentMessage {
+        Things() {
+            // required by jackson
+        }
+
         public Things(Content content) {
             super(content);
         }
@@ -283,6 +475,10 @@ public class ThingsActor extends AbstractActor {
     }
 
     public static class ExposeFailed extends ErrorMessage {
+        ExposeFailed() {
+            // required by jackson
+        }
+
         public ExposeFailed(Throwable e) {
             super(e);
         }
@@ -326,6 +522,21 @@ public class ThingsActor extends AbstractActor {
         }
     }
 
+    private static class DescriptionChanged implements Message {
+        final String id;
+
+        DescriptionChanged(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return "DescriptionChanged{" +
+                    "id='" + id + '\'' +
+                    '}';
+        }
+    }
+
     public static class Destroyed implements Message {
         public final String id;
 
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.akka.actor;
+
+import akka.actor.AbstractActor;
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.Terminated;
+import akka.event.Logging;
+import akka.event.LoggingAdapter;
+
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * This actor watches the actors it is told about and passes them to a consumer as soon as they
+ * have terminated.
+ */
+public class WatchActor extends AbstractActor {
+    private final LoggingAdapter log = Logging.getLogger(getContext().getSystem(), this);
+    private final Consumer<ActorRef> terminatedConsumer;
+
+    private WatchActor(Consumer<ActorRef> terminatedConsumer) {
+        this.terminatedConsumer = terminatedConsumer;
+    }
+
+    @Override
+    public Receive createReceive() {
+        return receiveBuilder()
+                .match(Watch.class, m -> {
+                    log.debug("Watch {}", m.ref);
+                    getContext().watch(m.ref);
+                })
+                .match(Terminated.class, m -> {
+                    log.debug("{} has been terminated", m.getActor());
+                    terminatedConsumer.accept(m.getActor());
+                })
+                .build();
+    }
+
+    public static Props props(Consumer<ActorRef> terminatedConsumer) {
+        requireNonNull(terminatedConsumer);
+        return Props.create(WatchActor.class, () -> new WatchActor(terminatedConsumer));
+    }
+
+    public static class Watch {
+        final ActorRef ref;
+
+        public Watch(ActorRef ref) {
+            this.ref = ref;
+        }
+
+        @Override
+        public String toString() {
+            return "Watch{" +
+                    "ref=" + ref +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.akka;
+
+import akka.actor.ActorNotFound;
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.testkit.javadsl.TestKit;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ActorRefCacheTest {
+    private ActorSystem system;
+    private Duration timeout;
+    private Map<String, CompletableFuture<ActorRef>> refs;
+
+    @BeforeEach
+    public void setUp() {
+        system = ActorSystem.create();
+        timeout = Duration.ofSeconds(3);
+        refs = new ConcurrentHashMap<>();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void resolveShouldResolveEachPathOnlyOnce() {
+        TestKit actor = new TestKit(system);
+        String path = actor.getRef().path().toString();
+        ActorRefCache cache = new ActorRefCache(system, timeout, refs);
+
+        CompletableFuture<ActorRef> first = cache.resolve(path);
+        CompletableFuture<ActorRef> second = cache.resolve(path);
+
+        assertSame(first, second);
+        assertEquals(actor.getRef(), first.join());
+    }
+
+    @Test
+    public void resolveShouldForgetTerminatedActor() {
+        TestKit actor = new TestKit(system);
+        String path = actor.getRef().path().toString();
+        ActorRefCache cache = new ActorRefCache(system, timeout, refs);
+        cache.resolve(path).join();
+
+        system.stop(actor.getRef());
+
+        actor.awaitCond(timeout, refs::isEmpty);
+    }
+
+    @Test
+    public void resolveShouldNotCacheFailedResolution() {
+        ActorRefCache cache = new ActorRefCache(system, timeout, refs);
+
+        CompletableFuture<ActorRef> future = cache.resolve("akka://default/user/missing");
+
+        CompletionException e = assertThrows(CompletionException.class, future::join);
+        assertThat(e.getCause(), instanceOf(ActorNotFound.class));
+        assertTrue(refs.isEmpty());
+    }
+}
@@ -21,13 +21,15 @@
  */
 package city.sane.wot.binding.akka;
 
-import akka.actor.ActorSelection;
+import akka.actor.ActorNotFound;
+import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import city.sane.wot.binding.ProtocolClientNotImplementedException;
 import city.sane.wot.binding.akka.actor.ThingActor.GetThingDescription;
 import city.sane.wot.binding.akka.actor.ThingActor.InvokeAction;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadAllProperties;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadProperty;
+import city.sane.wot.binding.akka.actor.ThingActor.ShardingEnvelope;
 import city.sane.wot.binding.akka.actor.ThingActor.WriteProperty;
 import city.sane.wot.binding.akka.actor.ThingsActor.GetThings;
 import city.sane.wot.content.Content;
@@ -39,14 +41,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.Duration;
+import java.util.concurrent.CompletionException;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -57,7 +65,8 @@ public class AkkaProtocolClientTest {
     private Duration discoverTimeout;
     private AkkaProtocolPattern pattern;
     private Message message;
-    private ActorSelection actorSelection;
+    private ActorRefCache refs;
+    private ActorRef actorRef;
     private Content content;
     private ThingFilter filter;
 
@@ -69,7 +78,8 @@ public class AkkaProtocolClientTest {
         discoverTimeout = Duration.ofSeconds(5);
         pattern = mock(AkkaProtocolPattern.class);
         message = mock(Message.class);
-        actorSelection = mock(ActorSelection.class);
+        refs = mock(ActorRefCache.class);
+        actorRef = mock(ActorRef.class);
         content = mock(Content.class);
         filter = mock(ThingFilter.class);
     }
@@ -77,33 +87,46 @@ public class AkkaProtocolClientTest {
     @Test
     public void readResourceShouldUseCorrectMessageToReadProperty() {
         when(form.getHref()).thenReturn("akka://foo/bar#properties/count");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
-        when(pattern.ask(any(ActorSelection.class), any(), any())).thenReturn(completedFuture(message));
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.readResource(form);
 
-        verify(pattern).ask(any(ActorSelection.class), any(ReadProperty.class), any());
+        verify(pattern).ask(any(ActorRef.class), any(ReadProperty.class), any());
+    }
+
+    @Test
+    public void readResourceShouldSendEnvelopeToShardRegion() {
+        when(form.getHref()).thenReturn("akka://wot@127.0.0.1:25520/system/sharding/thing/my%3Acounter#properties/count");
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
+
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
+        client.readResource(form);
+
+        verify(refs).resolve("akka://wot@127.0.0.1:25520/system/sharding/thing");
+        verify(pattern).ask(any(ActorRef.class), eq(new ShardingEnvelope("my:counter", new ReadProperty("count"))), any());
     }
 
     @Test
     public void writeResourceShouldUseCorrectMessageToWriteProperty() {
         when(form.getHref()).thenReturn("akka://foo/bar#properties/count");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
-        when(pattern.ask(any(ActorSelection.class), any(), any())).thenReturn(completedFuture(message));
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.writeResource(form, content);
 
-        verify(pattern).ask(any(ActorSelection.class), any(WriteProperty.class), any());
+        verify(pattern).ask(any(ActorRef.class), any(WriteProperty.class), any());
     }
 
     @Test
     public void observeResourceShouldCreateCorrectActorForProperty() {
         when(form.getHref()).thenReturn("akka://foo/bar#properties/count");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.observeResource(form).subscribe();
 
         verify(system).actorOf(any());
@@ -112,57 +135,57 @@ public class AkkaProtocolClientTest {
     @Test
     public void readResourceShouldUseCorrectMessageToReadAllProperties() {
         when(form.getHref()).thenReturn("akka://foo/bar#all/properties");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
-        when(pattern.ask(any(ActorSelection.class), any(), any())).thenReturn(completedFuture(message));
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.readResource(form);
 
-        verify(pattern).ask(any(ActorSelection.class), any(ReadAllProperties.class), any());
+        verify(pattern).ask(any(ActorRef.class), any(ReadAllProperties.class), any());
     }
 
     @Test
     public void readResourceShouldUseCorrectMessageToGetThingDescription() {
         when(form.getHref()).thenReturn("akka://foo/bar#thing");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
-        when(pattern.ask(any(ActorSelection.class), any(), any())).thenReturn(completedFuture(message));
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.readResource(form);
 
-        verify(pattern).ask(any(ActorSelection.class), any(GetThingDescription.class), any());
+        verify(pattern).ask(any(ActorRef.class), any(GetThingDescription.class), any());
     }
 
     @Test
     public void readResourceShouldUseCorrectMessageToGetThings() {
         when(form.getHref()).thenReturn("akka://foo/bar#thing-directory");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
-        when(pattern.ask(any(ActorSelection.class), any(), any())).thenReturn(completedFuture(message));
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.readResource(form);
 
-        verify(pattern).ask(any(ActorSelection.class), any(GetThings.class), any());
+        verify(pattern).ask(any(ActorRef.class), any(GetThings.class), any());
     }
 
     @Test
     public void invokeResourceShouldUseCorrectMessageToInvokeAction() {
         when(form.getHref()).thenReturn("akka://foo/bar#actions/reset");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
-        when(pattern.ask(any(ActorSelection.class), any(), any())).thenReturn(completedFuture(message));
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
+        when(pattern.ask(any(ActorRef.class), any(), any())).thenReturn(completedFuture(message));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.invokeResource(form, content);
 
-        verify(pattern).ask(any(ActorSelection.class), any(InvokeAction.class), any());
+        verify(pattern).ask(any(ActorRef.class), any(InvokeAction.class), any());
     }
 
     @Test
     public void observeResourceShouldCreateCorrectActorForEvent() {
         when(form.getHref()).thenReturn("akka://foo/bar#events/change");
-        when(system.actorSelection(anyString())).thenReturn(actorSelection);
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.observeResource(form).subscribe();
 
         verify(system).actorOf(any());
@@ -171,16 +194,29 @@ public class AkkaProtocolClientTest {
     @Test
     public void subscribeResourceShouldStopActorWhenObserverIsDone() {
         when(form.getHref()).thenReturn("akka://foo/bar#events/change");
+        when(refs.resolve(anyString())).thenReturn(completedFuture(actorRef));
 
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         client.observeResource(form).subscribe().dispose();
 
         verify(system).stop(any());
     }
 
+    @Test
+    public void readResourceShouldFailIfActorCanNotBeResolved() {
+        when(form.getHref()).thenReturn("akka://foo/bar#properties/count");
+        when(refs.resolve(anyString())).thenReturn(failedFuture(new ActorNotFound(null)));
+
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
+
+        CompletionException e = assertThrows(CompletionException.class, () -> client.readResource(form).join());
+        assertThat(e.getCause(), instanceOf(ActorNotFound.class));
+        verifyNoInteractions(pattern);
+    }
+
     @Test
     public void discoverShouldThrowException() {
-        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, pattern);
+        AkkaProtocolClient client = new AkkaProtocolClient(system, askTimeout, discoverTimeout, refs, pattern);
         assertThrows(ProtocolClientNotImplementedException.class, () -> client.discover(filter));
     }
 }
\ No newline at end of file
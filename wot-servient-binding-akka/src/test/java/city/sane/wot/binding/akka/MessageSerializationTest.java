@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.akka;
+
+import akka.actor.ActorSystem;
+import akka.serialization.Serialization;
+import akka.serialization.SerializationExtension;
+import akka.serialization.Serializers;
+import akka.serialization.jackson.JacksonCborSerializer;
+import akka.stream.SourceRef;
+import akka.stream.javadsl.Sink;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
+import akka.testkit.javadsl.TestKit;
+import city.sane.wot.binding.akka.Message.SubscriptionStream;
+import city.sane.wot.binding.akka.actor.ThingActor.InvokeAction;
+import city.sane.wot.binding.akka.actor.ThingActor.InvokedAction;
+import city.sane.wot.binding.akka.actor.ThingActor.PropertiesValues;
+import city.sane.wot.binding.akka.actor.ThingActor.ReadProperty;
+import city.sane.wot.binding.akka.actor.ThingActor.ReadPropertyResponse;
+import city.sane.wot.binding.akka.actor.ThingActor.ShardingEnvelope;
+import city.sane.wot.binding.akka.actor.ThingActor.SubscribeEvent;
+import city.sane.wot.binding.akka.actor.ThingActor.SubscribeProperty;
+import city.sane.wot.binding.akka.actor.ThingActor.ThingDescription;
+import city.sane.wot.binding.akka.actor.ThingActor.WriteProperty;
+import city.sane.wot.binding.akka.actor.ThingActor.WrittenProperty;
+import city.sane.wot.binding.akka.actor.ThingsActor.Things;
+import city.sane.wot.content.Content;
+import com.typesafe.config.ConfigFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MessageSerializationTest {
+    private ActorSystem system;
+    private Serialization serialization;
+
+    @BeforeEach
+    public void setUp() {
+        system = ActorSystem.create("test", ConfigFactory.parseString("akka.actor.provider = local\nakka.extensions = []")
+                .withFallback(ConfigFactory.load().getConfig("wot.servient")));
+        serialization = SerializationExtension.get(system);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void messagesShouldBeSerializedWithCbor() {
+        assertThat(serialization.findSerializerFor(new ReadPropertyResponse(Content.EMPTY_CONTENT)), instanceOf(JacksonCborSerializer.class));
+    }
+
+    @Test
+    public void contentBodyShouldBeSerializedWithoutEncodingOverhead() {
+        byte[] body = new byte[64 * 1024];
+        new Random(42).nextBytes(body);
+        WriteProperty message = new WriteProperty("count", new Content("application/octet-stream", body));
+
+        byte[] bytes = serialization.serialize(message).get();
+
+        assertThat(bytes.length, lessThan(body.length + 256));
+        assertEquals(message, roundTrip(message));
+    }
+
+    @Test
+    public void messagesShouldBeDeserializable() {
+        Content content = new Content("application/json", "42".getBytes());
+        List<Message> messages = List.of(
+                new ReadProperty("count"),
+                new ReadPropertyResponse(content),
+                new WriteProperty("count", content),
+                new WrittenProperty(content),
+                new InvokeAction("reset", content),
+                new InvokedAction(content),
+                new PropertiesValues(content),
+                new ThingDescription(content),
+                new Things(content),
+                new SubscribeProperty("count"),
+                new SubscribeEvent("changed"),
+                new Message.SubscriptionNext(content),
+                new ShardingEnvelope("counter", new WriteProperty("count", content))
+        );
+
+        for (Message message : messages) {
+            assertEquals(message, roundTrip(message));
+        }
+    }
+
+    @Test
+    public void subscriptionStreamShouldBeDeserializable() {
+        SourceRef<Message> source = Source.<Message>single(new Message.SubscriptionNext(Content.EMPTY_CONTENT)).runWith(StreamRefs.sourceRef(), system);
+
+        SubscriptionStream message = (SubscriptionStream) roundTrip(new SubscriptionStream(source));
+
+        assertEquals(
+                new Message.SubscriptionNext(Content.EMPTY_CONTENT),
+                message.source.getSource().runWith(Sink.head(), system).toCompletableFuture().join()
+        );
+    }
+
+    private Object roundTrip(Message message) {
+        byte[] bytes = serialization.serialize(message).get();
+        String manifest = Serializers.manifestFor(serialization.findSerializerFor(message), message);
+        return serialization.deserialize(bytes, serialization.findSerializerFor(message).identifier(), manifest).get();
+    }
+}
@@ -26,10 +26,14 @@ import akka.actor.Props;
 import akka.testkit.TestActorRef;
 import akka.testkit.javadsl.TestKit;
 import city.sane.wot.binding.akka.actor.DiscoverActor.Discovered;
+import city.sane.wot.binding.akka.actor.ThingsActor.Expose;
 import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.Thing;
 import city.sane.wot.thing.filter.ThingFilter;
+import com.typesafe.config.ConfigFactory;
 import io.reactivex.rxjava3.core.Observer;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.ReplaySubject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -37,12 +41,20 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.Duration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
 
 import static akka.pattern.Patterns.ask;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 public class DiscoverActorTest {
@@ -76,4 +88,61 @@ public class DiscoverActorTest {
 
         verify(observer).onNext(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void discoverShouldReadThingsFromRegistry() throws ExecutionException, InterruptedException, TimeoutException {
+        ActorSystem clusterSystem = ActorSystem.create("test", ConfigFactory.parseString(
+                "akka.actor.provider = cluster\n" +
+                        "akka.remote.artery.canonical.port = 0\n" +
+                        "akka.extensions = [\"akka.cluster.ddata.DistributedData\"]"
+        ).withFallback(ConfigFactory.load().getConfig("wot.servient")));
+        try {
+            Map<String, ExposedThing> things = new ConcurrentHashMap<>();
+            ExposedThing exposedThing = new ExposedThing(null);
+            exposedThing.setId("counter");
+            things.put("counter", exposedThing);
+            TestKit shardRegion = new TestKit(clusterSystem);
+            TestActorRef<ThingsActor> thingsActor = TestActorRef.create(clusterSystem, ThingsActor.props(things, shardRegion.getRef()));
+            ask(thingsActor, new Expose("counter"), timeout).toCompletableFuture().get();
+
+            ReplaySubject<Thing> subject = ReplaySubject.create();
+            clusterSystem.actorOf(DiscoverActor.props(subject, new ThingFilter(), timeout));
+            List<Thing> discovered = subject.toList().toFuture().get(1, TimeUnit.SECONDS);
+
+            assertEquals(List.of("counter"), discovered.stream().map(Thing::getId).collect(Collectors.toList()));
+        }
+        finally {
+            TestKit.shutdownActorSystem(clusterSystem);
+        }
+    }
+
+    @Test
+    public void changedDescriptionShouldBeRewrittenToRegistry() throws ExecutionException, InterruptedException, TimeoutException {
+        ActorSystem clusterSystem = ActorSystem.create("test", ConfigFactory.parseString(
+                "akka.actor.provider = cluster\n" +
+                        "akka.remote.artery.canonical.port = 0\n" +
+                        "akka.extensions = [\"akka.cluster.ddata.DistributedData\"]"
+        ).withFallback(ConfigFactory.load().getConfig("wot.servient")));
+        try {
+            ExposedThing exposedThing = mock(ExposedThing.class);
+            PublishSubject<ExposedThing> descriptionChanges = PublishSubject.create();
+            when(exposedThing.getId()).thenReturn("counter");
+            when(exposedThing.observer()).thenReturn(descriptionChanges);
+            when(exposedThing.toJson()).thenReturn("{\"id\":\"counter\",\"title\":\"Counter\"}", "{\"id\":\"counter\",\"title\":\"Exposed Counter\"}");
+            TestKit shardRegion = new TestKit(clusterSystem);
+            TestActorRef<ThingsActor> thingsActor = TestActorRef.create(clusterSystem, ThingsActor.props(Map.of("counter", exposedThing), shardRegion.getRef()));
+            ask(thingsActor, new Expose("counter"), timeout).toCompletableFuture().get();
+
+            descriptionChanges.onNext(exposedThing);
+
+            ReplaySubject<Thing> subject = ReplaySubject.create();
+            clusterSystem.actorOf(DiscoverActor.props(subject, new ThingFilter(), timeout));
+            List<Thing> discovered = subject.toList().toFuture().get(1, TimeUnit.SECONDS);
+
+            assertEquals(List.of("Exposed Counter"), discovered.stream().map(Thing::getTitle).collect(Collectors.toList()));
+        }
+        finally {
+            TestKit.shutdownActorSystem(clusterSystem);
+        }
+    }
+}
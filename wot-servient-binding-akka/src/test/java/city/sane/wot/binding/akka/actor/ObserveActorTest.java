@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.akka.actor;
+
+import akka.actor.ActorSystem;
+import akka.stream.SourceRef;
+import akka.stream.javadsl.Source;
+import akka.stream.javadsl.StreamRefs;
+import akka.testkit.javadsl.TestKit;
+import city.sane.wot.binding.akka.Message;
+import city.sane.wot.binding.akka.Message.SubscriptionStream;
+import city.sane.wot.binding.akka.actor.ThingActor.SubscribeProperty;
+import city.sane.wot.binding.akka.actor.ThingActor.Unsubscribe;
+import city.sane.wot.content.Content;
+import city.sane.wot.content.ContentCodecException;
+import city.sane.wot.content.ContentManager;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.ReplaySubject;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class ObserveActorTest {
+    private ActorSystem system;
+    private Duration timeout;
+
+    @BeforeEach
+    public void setUp() {
+        system = ActorSystem.create();
+        timeout = Duration.ofSeconds(3);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        TestKit.shutdownActorSystem(system);
+        system = null;
+    }
+
+    @Test
+    public void subscriptionNextShouldBeEmittedAndCompleted() throws ContentCodecException, InterruptedException {
+        Content content = ContentManager.valueToContent(42);
+        TestObserver<Content> observer = observe(List.of(new Message.SubscriptionNext(content)));
+
+        observer.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        observer.assertValue(content);
+        observer.assertComplete();
+    }
+
+    @Test
+    public void subscriptionErrorShouldTerminateObserverWithoutCompletion() throws InterruptedException {
+        Exception e = new Exception("Property is gone");
+        TestObserver<Content> observer = observe(List.of(new Message.SubscriptionError(e)));
+
+        observer.await(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        observer.assertError(t -> "Property is gone".equals(t.getMessage()));
+        observer.assertNotComplete();
+    }
+
+    /**
+     * Starts an observation whose thing actor answers with a stream of <code>messages</code>.
+     */
+    private TestObserver<Content> observe(List<Message> messages) {
+        TestKit thingActor = new TestKit(system);
+        ReplaySubject<Content> subject = ReplaySubject.create();
+        system.actorOf(ObserveActor.props(subject, thingActor.getRef(), new SubscribeProperty("count")));
+
+        thingActor.expectMsgClass(SubscribeProperty.class);
+        SourceRef<Message> source = Source.from(messages).runWith(StreamRefs.sourceRef(), system);
+        thingActor.reply(new SubscriptionStream(source));
+        thingActor.expectMsgClass(timeout, Unsubscribe.class);
+
+        return subject.test();
+    }
+}
@@ -21,8 +21,11 @@
  */
 package city.sane.wot.binding.akka.actor;
 
+import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.cluster.sharding.ShardRegion;
+import akka.stream.javadsl.Sink;
 import akka.testkit.TestActorRef;
 import akka.testkit.javadsl.TestKit;
 import city.sane.wot.binding.akka.Message;
@@ -33,18 +36,24 @@ import city.sane.wot.binding.akka.actor.ThingActor.PropertiesValues;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadAllProperties;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadProperty;
 import city.sane.wot.binding.akka.actor.ThingActor.ReadPropertyResponse;
+import city.sane.wot.binding.akka.Message.SubscriptionStream;
 import city.sane.wot.binding.akka.actor.ThingActor.SubscribeEvent;
 import city.sane.wot.binding.akka.actor.ThingActor.SubscribeProperty;
 import city.sane.wot.binding.akka.actor.ThingActor.ThingDescription;
+import city.sane.wot.binding.akka.actor.ThingActor.Unsubscribe;
 import city.sane.wot.binding.akka.actor.ThingActor.WriteProperty;
 import city.sane.wot.binding.akka.actor.ThingActor.WrittenProperty;
+import city.sane.wot.binding.akka.actor.ThingsActor.Destroy;
 import city.sane.wot.content.ContentCodecException;
 import city.sane.wot.content.ContentManager;
 import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.action.ExposedThingAction;
 import city.sane.wot.thing.event.ExposedThingEvent;
 import city.sane.wot.thing.property.ExposedThingProperty;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -52,6 +61,8 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -59,7 +70,10 @@ import java.util.concurrent.ExecutionException;
 
 import static akka.pattern.Patterns.ask;
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.lessThan;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -182,12 +196,14 @@ public class ThingActorTest {
         final Props props = ThingActor.props(thing);
         final TestActorRef<ThingActor> ref = TestActorRef.create(system, props);
 
-        final CompletableFuture<Object> future = ask(ref, new SubscribeProperty("count"), timeout).toCompletableFuture();
+        TestKit subscriber = new TestKit(system);
+        ref.tell(new SubscribeProperty("count"), subscriber.getRef());
+        SubscriptionStream stream = subscriber.expectMsgClass(SubscriptionStream.class);
 
         verify(property).observer();
         assertEquals(
                 new Message.SubscriptionNext(ContentManager.valueToContent(43)),
-                future.get()
+                stream.source.getSource().runWith(Sink.head(), system).toCompletableFuture().get()
         );
     }
 
@@ -199,15 +215,101 @@ public class ThingActorTest {
         final Props props = ThingActor.props(thing);
         final TestActorRef<ThingActor> ref = TestActorRef.create(system, props);
 
-        final CompletableFuture<Object> future = ask(ref, new SubscribeEvent("change"), timeout).toCompletableFuture();
+        TestKit subscriber = new TestKit(system);
+        ref.tell(new SubscribeEvent("change"), subscriber.getRef());
+        SubscriptionStream stream = subscriber.expectMsgClass(SubscriptionStream.class);
 
         verify(event).observer();
         assertEquals(
                 new Message.SubscriptionNext(ContentManager.valueToContent(43)),
-                future.get()
+                stream.source.getSource().runWith(Sink.head(), system).toCompletableFuture().get()
         );
     }
 
+    @Test
+    public void unsubscribeShouldDisposeSubscription() throws ContentCodecException {
+        PublishSubject<Optional<Object>> subject = PublishSubject.create();
+        when(thing.getProperty(any())).thenReturn(property);
+        when(property.observer()).thenReturn(subject);
+
+        final Props props = ThingActor.props(thing);
+        final TestActorRef<ThingActor> ref = TestActorRef.create(system, props);
+        TestKit subscriber = new TestKit(system);
+
+        ref.tell(new SubscribeProperty("count"), subscriber.getRef());
+        subscriber.expectMsgClass(SubscriptionStream.class);
+        subscriber.awaitCond(timeout, subject::hasObservers);
+
+        ref.tell(new Unsubscribe(), subscriber.getRef());
+
+        subscriber.awaitCond(timeout, () -> !subject.hasObservers());
+    }
+
+    @Test
+    public void terminationOfSubscriberShouldDisposeSubscription() {
+        PublishSubject<Optional<Object>> subject = PublishSubject.create();
+        when(thing.getEvent(any())).thenReturn(event);
+        when(event.observer()).thenReturn(subject);
+
+        final Props props = ThingActor.props(thing);
+        final TestActorRef<ThingActor> ref = TestActorRef.create(system, props);
+        TestKit subscriber = new TestKit(system);
+
+        ref.tell(new SubscribeEvent("change"), subscriber.getRef());
+        subscriber.awaitCond(timeout, subject::hasObservers);
+
+        system.stop(subscriber.getRef());
+
+        subscriber.awaitCond(timeout, () -> !subject.hasObservers());
+    }
+
+    @Test
+    public void slowSubscriberShouldReceiveLatestValueWithConflate() throws ExecutionException, InterruptedException, ContentCodecException {
+        List<Message> values = observeBurst(ConfigFactory.parseString("akka.observe.overflow-strategy = conflate"), 1000);
+
+        assertThat(values.size(), lessThan(1000));
+        assertEquals(new Message.SubscriptionNext(ContentManager.valueToContent(999)), values.get(values.size() - 1));
+    }
+
+    @Test
+    public void slowSubscriberShouldReceiveNewestValuesWithDropOldest() throws ExecutionException, InterruptedException, ContentCodecException {
+        List<Message> values = observeBurst(ConfigFactory.parseString("akka.observe.overflow-strategy = drop-oldest\nakka.observe.buffer-size = 10"), 1000);
+
+        assertThat(values.size(), lessThan(1000));
+        assertEquals(new Message.SubscriptionNext(ContentManager.valueToContent(990)), values.get(values.size() - 10));
+        assertEquals(new Message.SubscriptionNext(ContentManager.valueToContent(999)), values.get(values.size() - 1));
+    }
+
+    /**
+     * Emits <code>count</code> values to a subscription before the subscriber requests any of
+     * them.
+     */
+    private List<Message> observeBurst(Config config,
+                                       int count) throws ExecutionException, InterruptedException {
+        ActorSystem observeSystem = ActorSystem.create("observe", config.withFallback(ConfigFactory.load()));
+        try {
+            PublishSubject<Optional<Object>> subject = PublishSubject.create();
+            when(thing.getProperty(any())).thenReturn(property);
+            when(property.observer()).thenReturn(subject);
+
+            final TestActorRef<ThingActor> ref = TestActorRef.create(observeSystem, ThingActor.props(thing));
+            TestKit subscriber = new TestKit(observeSystem);
+            ref.tell(new SubscribeProperty("count"), subscriber.getRef());
+            SubscriptionStream stream = subscriber.expectMsgClass(SubscriptionStream.class);
+            subscriber.awaitCond(timeout, subject::hasObservers);
+
+            for (int i = 0; i < count; i++) {
+                subject.onNext(Optional.of(i));
+            }
+            subject.onComplete();
+
+            return stream.source.getSource().runWith(Sink.seq(), observeSystem).toCompletableFuture().get();
+        }
+        finally {
+            TestKit.shutdownActorSystem(observeSystem);
+        }
+    }
+
     @Test
     public void invokeActionShouldBeAnsweredWithInvokedAction() throws ExecutionException, InterruptedException, ContentCodecException {
         when(thing.getAction(any())).thenReturn(action);
@@ -224,4 +326,35 @@ public class ThingActorTest {
                 future.get()
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shardedEntityShouldServeThingExposedAfterStart() throws ExecutionException, InterruptedException, ContentCodecException {
+        ExposedThing exposedThing = new ExposedThing(null);
+        Map<String, ExposedThing> things = new HashMap<>();
+
+        final Props props = ThingActor.shardedProps(things, null);
+        final TestActorRef<ThingActor> ref = TestActorRef.create(system, props, "counter");
+
+        CompletableFuture<Object> future = ask(ref, new GetThingDescription(), timeout).toCompletableFuture();
+        assertThrows(ExecutionException.class, future::get);
+
+        things.put("counter", exposedThing);
+        future = ask(ref, new GetThingDescription(), timeout).toCompletableFuture();
+
+        assertEquals(
+                new ThingDescription(ContentManager.valueToContent(exposedThing)),
+                future.get()
+        );
+    }
+
+    @Test
+    public void destroyShouldPassivateShardedEntityWithoutThing() {
+        TestKit shard = new TestKit(system);
+
+        final Props props = ThingActor.shardedProps(new HashMap<>(), null);
+        ActorRef ref = shard.childActorOf(props, "counter");
+        ref.tell(new Destroy("counter"), ActorRef.noSender());
+
+        shard.expectMsgClass(ShardRegion.Passivate.class);
+    }
+}
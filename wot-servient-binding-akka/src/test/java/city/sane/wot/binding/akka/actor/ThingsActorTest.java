@@ -29,6 +29,7 @@ import akka.testkit.TestActorRef;
 import akka.testkit.javadsl.TestKit;
 import city.sane.wot.binding.akka.actor.DiscoverActor.Discover;
 import city.sane.wot.binding.akka.actor.DiscoverActor.Discovered;
+import city.sane.wot.binding.akka.actor.ThingActor.ShardingEnvelope;
 import city.sane.wot.binding.akka.actor.ThingsActor.Destroy;
 import city.sane.wot.binding.akka.actor.ThingsActor.Destroyed;
 import city.sane.wot.binding.akka.actor.ThingsActor.Expose;
@@ -53,8 +54,11 @@ import java.util.function.BiFunction;
 
 import static akka.actor.ActorRef.noSender;
 import static akka.pattern.Patterns.ask;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
@@ -177,6 +181,35 @@ public class ThingsActorTest {
         );
     }
 
+    @Test
+    public void exposeWithShardRegionShouldAssignFormsOfEntity() throws ExecutionException, InterruptedException {
+        when(things.get(any())).thenReturn(thing);
+        TestKit shardRegion = new TestKit(system);
+
+        final Props props = ThingsActor.props(things, shardRegion.getRef());
+        final TestActorRef<ThingActor> ref = TestActorRef.create(system, props);
+
+        final CompletableFuture<Object> future = ask(ref, new Expose("counter"), timeout).toCompletableFuture();
+
+        assertEquals("counter", ((Exposed) future.get()).id);
+        verify(thing).addForm(argThat(form -> form.getHref().endsWith(shardRegion.getRef().path().name() + "/counter#all/properties")));
+    }
+
+    @Test
+    public void destroyWithShardRegionShouldPassivateEntity() throws ExecutionException, InterruptedException {
+        TestKit shardRegion = new TestKit(system);
+
+        final Props props = ThingsActor.props(things, shardRegion.getRef());
+        final TestActorRef<ThingActor> ref = TestActorRef.create(system, props);
+
+        final CompletableFuture<Object> future = ask(ref, new Destroy("counter"), timeout).toCompletableFuture();
+
+        assertEquals("counter", ((Destroyed) future.get()).id);
+        ShardingEnvelope envelope = shardRegion.expectMsgClass(ShardingEnvelope.class);
+        assertEquals("counter", envelope.thingId);
+        assertThat(envelope.message, instanceOf(Destroy.class));
+    }
+
     // TODO: exposed
     // TODO: destroyed
 }
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.file;
+
+import com.typesafe.config.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes files on behalf of {@link FileProtocolClient}. Writes to the same file are done one after
+ * another. Writes issued while a file is being written are combined into a single write (group
+ * commit): For {@link Mode#OVERWRITE} and {@link Mode#ATOMIC} only the latest content is written,
+ * for {@link Mode#APPEND} all contents are appended at once. The returned futures complete as soon
+ * as the combined write has been done.
+ * <p>
+ * Writes block on the file system and are therefore done by a dedicated pool of daemon threads
+ * instead of the common pool. Writes that can no longer be scheduled because the writer has been
+ * closed fail.
+ */
+class BatchingFileWriter {
+    private static final Logger log = LoggerFactory.getLogger(BatchingFileWriter.class);
+    private final Mode defaultMode;
+    private final Fsync fsync;
+    private final ExecutorService ioExecutor;
+    private final Executor delayer;
+    private final Map<Path, Deque<Batch>> queues = new HashMap<>();
+
+    BatchingFileWriter(Config config) {
+        this(
+                Mode.of(config.getString("wot.servient.file.write.mode")),
+                Fsync.of(config.getString("wot.servient.file.write.fsync")),
+                config.getDuration("wot.servient.file.write.batch-delay")
+        );
+    }
+
+    BatchingFileWriter(Mode defaultMode, Fsync fsync, Duration batchDelay) {
+        this.defaultMode = defaultMode;
+        this.fsync = fsync;
+        ioExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "file-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (batchDelay.isZero()) {
+            delayer = Runnable::run;
+        }
+        else {
+            // the delayer only hands over to the pool, so that a rejection can be handled
+            delayer = CompletableFuture.delayedExecutor(batchDelay.toMillis(), TimeUnit.MILLISECONDS, Runnable::run);
+        }
+    }
+
+    public Mode getDefaultMode() {
+        return defaultMode;
+    }
+
+    /**
+     * Writes <code>body</code> to <code>path</code> using <code>mode</code>.
+     *
+     * @param path
+     * @param body
+     * @param mode
+     * @return
+     */
+    public CompletableFuture<Void> write(Path path, byte[] body, Mode mode) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean schedule;
+        synchronized (this) {
+            Deque<Batch> queue = queues.get(path);
+            schedule = queue == null;
+            if (schedule) {
+                queue = new ArrayDeque<>();
+                queues.put(path, queue);
+            }
+
+            Batch last = queue.peekLast();
+            if (last != null && last.mode == mode) {
+                last.add(body, future);
+            }
+            else {
+                queue.addLast(new Batch(mode, body, future));
+            }
+        }
+
+        if (schedule) {
+            delayer.execute(() -> schedule(path));
+        }
+        return future;
+    }
+
+    /**
+     * Stops the threads once all writes handed over to them have been done. Writes still waiting
+     * for the batch delay fail.
+     */
+    public void close() {
+        ioExecutor.shutdown();
+    }
+
+    private void schedule(Path path) {
+        try {
+            ioExecutor.execute(() -> drain(path));
+        }
+        catch (RejectedExecutionException e) {
+            // writer has been closed. Forget the queue, so that later writes to path fail as well
+            Deque<Batch> queue;
+            synchronized (this) {
+                queue = queues.remove(path);
+            }
+            IOException cause = new IOException("Unable to write '" + path + "' as the writer has been closed");
+            queue.forEach(batch -> batch.futures.forEach(future -> future.completeExceptionally(cause)));
+        }
+    }
+
+    private void drain(Path path) {
+        while (true) {
+            Batch batch;
+            synchronized (this) {
+                Deque<Batch> queue = queues.get(path);
+                batch = queue.pollFirst();
+                if (batch == null) {
+                    queues.remove(path);
+                    return;
+                }
+            }
+
+            try {
+                if (batch.futures.size() > 1) {
+                    log.debug("Combine {} writes to '{}'", batch.futures.size(), path);
+                }
+                writeNow(path, batch.getBody(), batch.mode);
+                batch.futures.forEach(future -> future.complete(null));
+            }
+            catch (IOException | RuntimeException e) {
+                batch.futures.forEach(future -> future.completeExceptionally(e));
+            }
+        }
+    }
+
+    private void writeNow(Path path, byte[] body, Mode mode) throws IOException {
+        switch (mode) {
+            case APPEND:
+                write(path, body, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                break;
+            case ATOMIC:
+                writeAtomic(path, body);
+                break;
+            default:
+                write(path, body, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        }
+    }
+
+    private void write(Path path, byte[] body, StandardOpenOption... options) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            ByteBuffer buffer = ByteBuffer.wrap(body);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            fsync.force(channel);
+        }
+    }
+
+    /**
+     * Writes <code>body</code> to a temporary file in the same directory and renames it to
+     * <code>path</code>, so that readers either see the old or the new content. The temporary file
+     * is created with the default permissions and gets the permissions of the replaced file.
+     */
+    private void writeAtomic(Path path, byte[] body) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Path temp = directory.resolve("." + path.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try {
+            write(temp, body, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            copyPermissions(path, temp);
+            Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        if (fsync == Fsync.ALL) {
+            // make the rename itself durable
+            try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+            catch (IOException e) {
+                log.debug("Unable to sync directory '{}': {}", directory, e.getMessage());
+            }
+        }
+    }
+
+    private static void copyPermissions(Path source, Path target) throws IOException {
+        PosixFileAttributeView view = Files.getFileAttributeView(source, PosixFileAttributeView.class);
+        if (view != null && Files.exists(source)) {
+            Files.setPosixFilePermissions(target, view.readAttributes().permissions());
+        }
+    }
+
+    /**
+     * Defines how the content is written to the file.
+     */
+    enum Mode {
+        /**
+         * Replaces the content of the file in place.
+         */
+        OVERWRITE,
+        /**
+         * Writes the content to a temporary file that then replaces the file.
+         */
+        ATOMIC,
+        /**
+         * Appends the content to the file.
+         */
+        APPEND;
+
+        static Mode of(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown write mode '" + name + "'. Use 'overwrite', 'atomic' or 'append'");
+            }
+        }
+    }
+
+    /**
+     * Defines whether written content is forced to the storage device before the write completes.
+     */
+    enum Fsync {
+        /**
+         * Leaves it to the operating system when the content is written to the storage device.
+         */
+        NONE,
+        /**
+         * Forces the content of the file.
+         */
+        DATA,
+        /**
+         * Forces the content and metadata of the file and, for atomic writes, the directory.
+         */
+        ALL;
+
+        static Fsync of(String name) {
+            try {
+                return valueOf(name.toUpperCase());
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown fsync policy '" + name + "'. Use 'none', 'data' or 'all'");
+            }
+        }
+
+        void force(FileChannel channel) throws IOException {
+            if (this != NONE) {
+                channel.force(this == ALL);
+            }
+        }
+    }
+
+    private static class Batch {
+        private final Mode mode;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+        private final ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        private byte[] latest;
+
+        Batch(Mode mode, byte[] body, CompletableFuture<Void> future) {
+            this.mode = mode;
+            add(body, future);
+        }
+
+        void add(byte[] body, CompletableFuture<Void> future) {
+            if (mode == Mode.APPEND) {
+                appended.writeBytes(body);
+            }
+            else {
+                // latest wins
+                latest = body;
+            }
+            futures.add(future);
+        }
+
+        byte[] getBody() {
+            return mode == Mode.APPEND ? appended.toByteArray() : latest;
+        }
+    }
+}
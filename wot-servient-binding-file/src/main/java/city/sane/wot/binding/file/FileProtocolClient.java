@@ -21,37 +21,36 @@
  */
 package city.sane.wot.binding.file;
 
+import city.sane.Pair;
 import city.sane.wot.binding.ProtocolClient;
 import city.sane.wot.binding.ProtocolClientException;
 import city.sane.wot.content.Content;
 import city.sane.wot.thing.form.Form;
-import io.reactivex.rxjava3.annotations.NonNull;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import io.reactivex.rxjava3.core.Maybe;
 import io.reactivex.rxjava3.core.Observable;
-import io.reactivex.rxjava3.core.ObservableEmitter;
-import io.reactivex.rxjava3.schedulers.Schedulers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URLConnection;
-import java.nio.file.FileSystem;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.WatchEvent;
-import java.nio.file.WatchKey;
-import java.nio.file.WatchService;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
-
-import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
-import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.util.concurrent.CompletableFuture.failedFuture;
 import static java.util.concurrent.CompletableFuture.supplyAsync;
 
 /**
@@ -59,6 +58,7 @@ import static java.util.concurrent.CompletableFuture.supplyAsync;
  */
 public class FileProtocolClient implements ProtocolClient {
     private static final Logger log = LoggerFactory.getLogger(FileProtocolClient.class);
+    private static final String OBSERVE_MODE_APPEND = "append";
     private static final Map<String, String> EXTENSION_TO_CONTENT_TYPE = Map.of(
             ".json", "application/json",
             ".jsonld", "application/ld+json"
@@ -66,25 +66,56 @@ public class FileProtocolClient implements ProtocolClient {
     private final Function<String, Path> hrefToPath;
     // counts active subscriptions. Is used by integration tests to avoid race conditions
     private final AtomicInteger subscriptionsCount = new AtomicInteger(0);
+    private final FileWatcher watcher;
+    private final BatchingFileWriter writer;
+    private final Map<Pair<Path, FileRange>, Observable<Content>> observations = new ConcurrentHashMap<>();
+    private final Map<Path, Observable<Content>> appendObservations = new ConcurrentHashMap<>();
 
     public FileProtocolClient() {
-        this(FileProtocolClient::hrefToPath);
+        this(ConfigFactory.load());
+    }
+
+    private FileProtocolClient(Config config) {
+        this(new FileWatcher(config), new BatchingFileWriter(config));
     }
 
-    FileProtocolClient(Function<String, Path> hrefToPath) {
+    FileProtocolClient(FileWatcher watcher, BatchingFileWriter writer) {
+        this(FileProtocolClient::hrefToPath, watcher, writer);
+    }
+
+    FileProtocolClient(Function<String, Path> hrefToPath,
+                       FileWatcher watcher,
+                       BatchingFileWriter writer) {
         this.hrefToPath = hrefToPath;
+        this.watcher = watcher;
+        this.writer = writer;
     }
 
     private static Path hrefToPath(String href) {
-        return Paths.get(URI.create(href));
+        // query parameters select the part of the file to read and are not part of the path
+        URI uri = URI.create(href);
+        if (uri.getRawQuery() != null) {
+            uri = URI.create(href.substring(0, href.indexOf('?')));
+        }
+        return Paths.get(uri);
     }
 
+    /**
+     * Reads the file or the part of it described by the form (see {@link FileRange}).
+     *
+     * @param form
+     * @return
+     */
     @Override
     public CompletableFuture<Content> readResource(Form form) {
         return supplyAsync(() -> {
             try {
                 Path path = hrefToPath.apply(form.getHref());
-                return getContentFromPath(path);
+                FileRange range = FileRange.of(form);
+                return getContentFromPath(path, range);
+            }
+            catch (ProtocolClientException e) {
+                throw new CompletionException(e);
             }
             catch (IOException e) {
                 throw new CompletionException(new ProtocolClientException("Unable to read file '" + form.getHref() + "': " + e.getMessage()));
@@ -92,100 +123,163 @@ public class FileProtocolClient implements ProtocolClient {
         });
     }
 
+    /**
+     * Writes the content to the file. The form's "file:write" metadata or the "write" query
+     * parameter select whether the file is overwritten in place ("overwrite"), replaced atomically
+     * ("atomic") or appended to ("append"). Rapid writes to the same file are combined (see {@link
+     * BatchingFileWriter}).
+     *
+     * @param form
+     * @param content
+     * @return
+     */
     @Override
     public CompletableFuture<Content> writeResource(Form form, Content content) {
-        return supplyAsync(() -> {
-            try {
-                Path path = hrefToPath.apply(form.getHref());
-
-                Files.write(path, content.getBody(), StandardOpenOption.CREATE);
+        Path path;
+        BatchingFileWriter.Mode mode;
+        try {
+            path = hrefToPath.apply(form.getHref());
+            mode = getWriteMode(form);
+        }
+        catch (IllegalArgumentException e) {
+            return failedFuture(new ProtocolClientException("Unable to write file '" + form.getHref() + "': " + e.getMessage()));
+        }
 
-                return Content.EMPTY_CONTENT;
-            }
-            catch (IOException e) {
-                throw new CompletionException(new ProtocolClientException("Unable to write file '" + form.getHref() + "': " + e.getMessage()));
+        return writer.write(path, content.getBody(), mode).handle((result, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                throw new CompletionException(new ProtocolClientException("Unable to write file '" + form.getHref() + "': " + cause.getMessage()));
             }
+            return Content.EMPTY_CONTENT;
         });
     }
 
+    private BatchingFileWriter.Mode getWriteMode(Form form) {
+        Object mode = FileRange.getQueryParameter(form.getHref(), "write");
+        if (mode == null) {
+            mode = form.getOptional("file:write");
+        }
+        return mode != null ? BatchingFileWriter.Mode.of(mode.toString()) : writer.getDefaultMode();
+    }
+
+    /**
+     * Emits the content of the file (or the part of it described by the form) every time it
+     * changes. If the form's "file:observe" metadata or the "observe" query parameter is set to
+     * "append", only the bytes appended since the last emission are emitted. All observers of the
+     * same file and range share a single registration at the {@link FileWatcher} and a single read
+     * per change.
+     *
+     * @param form
+     * @return
+     */
     @Override
     public Observable<Content> observeResource(Form form) {
         Path path = hrefToPath.apply(form.getHref());
-        Path directory = path.getParent();
 
-        // We obtain the file system of the Path
-        FileSystem fileSystem = directory.getFileSystem();
+        Observable<Content> observable;
+        if (isAppendMode(form)) {
+            observable = appendObservations.computeIfAbsent(path, this::observeAppends);
+        }
+        else {
+            try {
+                FileRange range = FileRange.of(form);
+                observable = observations.computeIfAbsent(new Pair<>(path, range), this::observeRange);
+            }
+            catch (ProtocolClientException e) {
+                return Observable.error(e);
+            }
+        }
+
+        return observable
+                .doOnSubscribe(d -> subscriptionsCount.incrementAndGet())
+                .doOnDispose(subscriptionsCount::decrementAndGet);
+    }
+
+    private static boolean isAppendMode(Form form) {
+        Object mode = FileRange.getQueryParameter(form.getHref(), "observe");
+        if (mode == null) {
+            mode = form.getOptional("file:observe");
+        }
+        return OBSERVE_MODE_APPEND.equals(mode);
+    }
 
-        return Observable.using(
-                fileSystem::newWatchService,
-                service -> Observable.<Content>create(source -> {
-                    // We watch for modification events
-                    directory.register(service, ENTRY_MODIFY, ENTRY_DELETE, ENTRY_CREATE);
+    private Observable<Content> observeRange(Pair<Path, FileRange> key) {
+        return share(observations, key, watcher.changes(key.first())
+                .map(changed -> getContentFromPath(key.first(), key.second())));
+    }
 
-                    pollFileChange(path, service, source);
+    private Observable<Content> observeAppends(Path path) {
+        return share(appendObservations, path, Observable.defer(() -> {
+            // only bytes appended after the subscription are emitted
+            AtomicLong position = new AtomicLong(Files.exists(path) ? Files.size(path) : 0);
+            return watcher.changes(path)
+                    .flatMapMaybe(changed -> Maybe.fromOptional(getAppendedContentFromPath(path, position)));
+        }));
+    }
 
-                    source.onComplete();
-                }),
-                WatchService::close
-        )
-                .doOnSubscribe(d -> subscriptionsCount.incrementAndGet())
-                .doOnDispose(subscriptionsCount::decrementAndGet)
-                .subscribeOn(Schedulers.io());
+    /**
+     * Shares <code>source</code> among all observers and removes it from
+     * <code>observations</code> once the last observer has gone. A newer observable registered
+     * under the same key in the meantime is kept.
+     */
+    private static <K> Observable<Content> share(Map<K, Observable<Content>> observations,
+                                                 K key,
+                                                 Observable<Content> source) {
+        AtomicReference<Observable<Content>> shared = new AtomicReference<>();
+        shared.set(source
+                .doFinally(() -> observations.remove(key, shared.get()))
+                .share());
+        return shared.get();
     }
 
-    private void pollFileChange(Path path,
-                                WatchService service,
-                                @NonNull ObservableEmitter<Content> source) throws InterruptedException, IOException {
-        try {
-            // Start the infinite polling loop
-            WatchKey watchKey;
-            // Wait for the next event
-            while (!source.isDisposed() && (watchKey = service.take()) != null) {
-                handleWatchKey(path, source, watchKey);
-
-                if (!watchKey.reset()) {
-                    break;
-                }
+    private Content getContentFromPath(Path path, FileRange range) throws IOException {
+        String contentType = pathToContentType(path);
+        if (Files.exists(path)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                byte[] body = range.read(channel);
+                return new Content(contentType, body);
             }
         }
-        catch (InterruptedException e) {
-            if (!source.isDisposed()) {
-                throw e;
-            }
+        else {
+            return Content.EMPTY_CONTENT;
         }
     }
 
-    private void handleWatchKey(Path path,
-                                @NonNull ObservableEmitter<Content> source,
-                                WatchKey watchKey) throws IOException {
-        for (WatchEvent<?> watchEvent : watchKey.pollEvents()) {
-            // Get the type of the event
-            WatchEvent.Kind<?> kind = watchEvent.kind();
+    /**
+     * Returns the bytes written to the file behind <code>position</code> and advances
+     * <code>position</code> accordingly. If the file has been truncated or replaced by a smaller
+     * one, it is read from the beginning.
+     */
+    private Optional<Content> getAppendedContentFromPath(Path path,
+                                                         AtomicLong position) throws IOException {
+        if (!Files.exists(path)) {
+            position.set(0);
+            return Optional.of(Content.EMPTY_CONTENT);
+        }
 
-            if (kind == ENTRY_MODIFY || kind == ENTRY_DELETE || kind == ENTRY_CREATE) {
-                Path watchEventPath = (Path) watchEvent.context();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < position.get()) {
+                log.debug("File '{}' has been truncated. Read from the beginning", path);
+                position.set(0);
+            }
 
-                // Call this if the right file is involved
-                if (path.getFileName().equals(watchEventPath)) {
-                    Content content = getContentFromPath(path);
-                    source.onNext(content);
-                }
+            long length = size - position.get();
+            if (length == 0) {
+                return Optional.empty();
             }
+
+            byte[] body = FileRange.read(channel, position.get(), length);
+            position.addAndGet(body.length);
+            return Optional.of(new Content(pathToContentType(path), body));
         }
     }
 
-    private Content getContentFromPath(Path path) throws IOException {
+    private String pathToContentType(Path path) {
         String extension = pathToExtension(path);
 
         log.debug("Found extension '{}'", extension);
-        String contentType = extensionToContentType(extension);
-        if (Files.exists(path)) {
-            byte[] body = Files.readAllBytes(path);
-            return new Content(contentType, body);
-        }
-        else {
-            return Content.EMPTY_CONTENT;
-        }
+        return extensionToContentType(extension);
     }
 
     private String pathToExtension(Path path) {
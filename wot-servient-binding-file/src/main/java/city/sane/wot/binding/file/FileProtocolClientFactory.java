@@ -22,11 +22,31 @@
 package city.sane.wot.binding.file;
 
 import city.sane.wot.binding.ProtocolClientFactory;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
 
 /**
- * Creates new {@link FileProtocolClient} instances.
+ * Creates new {@link FileProtocolClient} instances. All clients created by this factory share a
+ * single {@link FileWatcher}, so each observed directory is only registered once, and a single
+ * {@link BatchingFileWriter}, so rapid writes to the same file are combined.
  */
 public class FileProtocolClientFactory implements ProtocolClientFactory {
+    private final FileWatcher watcher;
+    private final BatchingFileWriter writer;
+
+    public FileProtocolClientFactory() {
+        this(ConfigFactory.load());
+    }
+
+    public FileProtocolClientFactory(Config config) {
+        watcher = new FileWatcher(config);
+        writer = new BatchingFileWriter(config);
+    }
+
     @Override
     public String getScheme() {
         return "file";
@@ -34,6 +54,13 @@ public class FileProtocolClientFactory implements ProtocolClientFactory {
 
     @Override
     public FileProtocolClient getClient() {
-        return new FileProtocolClient();
+        return new FileProtocolClient(watcher, writer);
+    }
+
+    @Override
+    public CompletableFuture<Void> destroy() {
+        watcher.close();
+        writer.close();
+        return completedFuture(null);
     }
 }
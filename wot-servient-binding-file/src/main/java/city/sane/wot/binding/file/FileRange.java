@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.file;
+
+import city.sane.wot.binding.ProtocolClientException;
+import city.sane.wot.thing.form.Form;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Describes the part of a file that should be read. The range is taken from the "file:offset",
+ * "file:length" and "file:tail" metadata of a form, which can be overridden by the query parameters
+ * "offset", "length" and "tail" of the form's href (e.g. set via uriVariables). <code>offset</code>
+ * and <code>length</code> select a byte range, <code>tail</code> selects the last n lines of the
+ * file.
+ */
+class FileRange {
+    static final FileRange ALL = new FileRange(0, null, null);
+    private static final int SCAN_BUFFER_SIZE = 8192;
+    private final long offset;
+    private final Long length;
+    private final Integer tail;
+
+    FileRange(long offset, Long length, Integer tail) {
+        this.offset = offset;
+        this.length = length;
+        this.tail = tail;
+    }
+
+    static FileRange of(Form form) throws ProtocolClientException {
+        Map<String, String> parameters = queryParameters(form.getHref());
+
+        Long offset = getLong(parameters.getOrDefault("offset", asString(form.getOptional("file:offset"))), "offset");
+        Long length = getLong(parameters.getOrDefault("length", asString(form.getOptional("file:length"))), "length");
+        Long tail = getLong(parameters.getOrDefault("tail", asString(form.getOptional("file:tail"))), "tail");
+
+        if (offset == null && length == null && tail == null) {
+            return ALL;
+        }
+        else if (tail != null && (offset != null || length != null)) {
+            throw new ProtocolClientException("tail cannot be combined with offset or length");
+        }
+        else if (tail != null && tail > Integer.MAX_VALUE) {
+            throw new ProtocolClientException("Invalid tail '" + tail + "'");
+        }
+        else {
+            return new FileRange(offset != null ? offset : 0, length, tail != null ? tail.intValue() : null);
+        }
+    }
+
+    /**
+     * Returns the value of the query parameter <code>name</code> from <code>href</code> or
+     * <code>null</code>.
+     *
+     * @param href
+     * @param name
+     * @return
+     */
+    static String getQueryParameter(String href, String name) {
+        return queryParameters(href).get(name);
+    }
+
+    /**
+     * Reads the bytes selected by this range from <code>channel</code>. Only the selected bytes
+     * are read from the file.
+     *
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    byte[] read(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start;
+        long end;
+        if (tail != null) {
+            start = tailPosition(channel, size);
+            end = size;
+        }
+        else {
+            start = Math.min(offset, size);
+            // start + length may overflow for huge lengths
+            end = length != null && length < size - start ? start + length : size;
+        }
+
+        return read(channel, start, end - start);
+    }
+
+    static byte[] read(FileChannel channel, long position, long length) throws IOException {
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("Range of " + length + " bytes is too large");
+        }
+
+        byte[] bytes = new byte[(int) length];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                // file has been truncated in the meantime
+                return Arrays.copyOf(bytes, buffer.position());
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the position of the first byte of the last <code>tail</code> lines. The line break
+     * terminating the last line is not counted.
+     */
+    private long tailPosition(FileChannel channel, long size) throws IOException {
+        if (tail <= 0) {
+            return size;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(SCAN_BUFFER_SIZE);
+        int lines = 0;
+        long position = size;
+        while (position > 0) {
+            int chunk = (int) Math.min(SCAN_BUFFER_SIZE, position);
+            long chunkStart = position - chunk;
+            buffer.clear().limit(chunk);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, chunkStart + buffer.position()) < 0) {
+                    break;
+                }
+            }
+
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                long absolute = chunkStart + i;
+                if (buffer.get(i) == '\n' && absolute != size - 1 && ++lines == tail) {
+                    return absolute + 1;
+                }
+            }
+            position = chunkStart;
+        }
+        return 0;
+    }
+
+    private static Map<String, String> queryParameters(String href) {
+        String query = URI.create(href).getRawQuery();
+        Map<String, String> parameters = new HashMap<>();
+        if (query != null) {
+            for (String parameter : query.split("&")) {
+                String[] keyValue = parameter.split("=", 2);
+                parameters.put(URLDecoder.decode(keyValue[0], UTF_8), keyValue.length == 2 ? URLDecoder.decode(keyValue[1], UTF_8) : "");
+            }
+        }
+        return parameters;
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static Long getLong(String value, String name) throws ProtocolClientException {
+        if (value == null) {
+            return null;
+        }
+
+        try {
+            long number = Long.parseLong(value);
+            if (number < 0) {
+                throw new ProtocolClientException("Negative " + name + " '" + value + "'");
+            }
+            return number;
+        }
+        catch (NumberFormatException e) {
+            throw new ProtocolClientException("Invalid " + name + " '" + value + "'");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        FileRange fileRange = (FileRange) o;
+        return offset == fileRange.offset &&
+                Objects.equals(length, fileRange.length) &&
+                Objects.equals(tail, fileRange.tail);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(offset, length, tail);
+    }
+
+    @Override
+    public String toString() {
+        return "FileRange{" +
+                "offset=" + offset +
+                ", length=" + length +
+                ", tail=" + tail +
+                '}';
+    }
+}
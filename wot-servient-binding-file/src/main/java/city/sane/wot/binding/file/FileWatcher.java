@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.file;
+
+import com.typesafe.config.Config;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableEmitter;
+import io.reactivex.rxjava3.schedulers.Schedulers;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches files for changes. All observed files of a directory share a single registration at the
+ * {@link WatchService} of their file system, and all directories of a file system share a single
+ * thread that dispatches the events to the observers of the affected files. The watch service and
+ * its thread are closed as soon as no file of the file system is observed anymore.
+ */
+class FileWatcher {
+    private static final Logger log = LoggerFactory.getLogger(FileWatcher.class);
+    private final Duration debounce;
+    private final Map<FileSystem, WatchService> services = new HashMap<>();
+    private final Map<Path, DirectoryWatch> directories = new HashMap<>();
+
+    FileWatcher(Config config) {
+        this(config.getDuration("wot.servient.file.observe.debounce"));
+    }
+
+    FileWatcher(Duration debounce) {
+        this.debounce = debounce;
+    }
+
+    /**
+     * Emits <code>file</code> every time it is created, modified or deleted. Changes reported
+     * within the configured debounce time are combined into a single emission.
+     *
+     * @param file
+     * @return
+     */
+    public Observable<Path> changes(Path file) {
+        Path directory = file.getParent();
+        Path name = file.getFileName();
+
+        return Observable.<Path>create(source -> {
+            register(directory, name, source);
+            source.setCancellable(() -> unregister(directory, name, source));
+        })
+                .debounce(debounce.toMillis(), TimeUnit.MILLISECONDS, Schedulers.io());
+    }
+
+    /**
+     * Closes all watch services and completes all observers.
+     */
+    public void close() {
+        List<ObservableEmitter<Path>> observers = new ArrayList<>();
+        synchronized (this) {
+            directories.values().forEach(watch -> watch.observers.values().forEach(observers::addAll));
+            directories.clear();
+            services.values().forEach(FileWatcher::closeService);
+            services.clear();
+        }
+        observers.forEach(ObservableEmitter::onComplete);
+    }
+
+    private synchronized void register(Path directory,
+                                       Path name,
+                                       ObservableEmitter<Path> source) throws IOException {
+        DirectoryWatch watch = directories.get(directory);
+        if (watch == null) {
+            FileSystem fileSystem = directory.getFileSystem();
+            WatchService service = services.get(fileSystem);
+            if (service == null) {
+                log.debug("Start watching file system '{}'", fileSystem);
+                service = fileSystem.newWatchService();
+                services.put(fileSystem, service);
+                startThread(service);
+            }
+
+            log.debug("Start watching directory '{}'", directory);
+            WatchKey key = directory.register(service, ENTRY_MODIFY, ENTRY_DELETE, ENTRY_CREATE);
+            watch = new DirectoryWatch(fileSystem, key);
+            directories.put(directory, watch);
+        }
+
+        watch.observers.computeIfAbsent(name, k -> new HashSet<>()).add(source);
+    }
+
+    private synchronized void unregister(Path directory,
+                                         Path name,
+                                         ObservableEmitter<Path> source) {
+        DirectoryWatch watch = directories.get(directory);
+        if (watch == null) {
+            return;
+        }
+
+        Set<ObservableEmitter<Path>> observers = watch.observers.get(name);
+        if (observers != null && observers.remove(source) && observers.isEmpty()) {
+            watch.observers.remove(name);
+        }
+
+        if (watch.observers.isEmpty()) {
+            log.debug("Stop watching directory '{}'", directory);
+            directories.remove(directory);
+            watch.key.cancel();
+
+            if (directories.values().stream().noneMatch(other -> other.fileSystem.equals(watch.fileSystem))) {
+                log.debug("Stop watching file system '{}'", watch.fileSystem);
+                closeService(services.remove(watch.fileSystem));
+            }
+        }
+    }
+
+    private void startThread(WatchService service) {
+        Thread thread = new Thread(() -> poll(service), "file-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void poll(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                dispatch(key);
+                key.reset();
+            }
+        }
+        catch (ClosedWatchServiceException e) {
+            // watch service is no longer needed
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void dispatch(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        List<Runnable> notifications = new ArrayList<>();
+
+        List<WatchEvent<?>> events = key.pollEvents();
+        synchronized (this) {
+            DirectoryWatch watch = directories.get(directory);
+            if (watch == null || watch.key != key) {
+                return;
+            }
+
+            for (WatchEvent<?> event : events) {
+                if (event.kind() == OVERFLOW) {
+                    // events have been lost. Notify all observers of this directory
+                    watch.observers.forEach((name, observers) -> observers.forEach(observer -> notifications.add(() -> observer.onNext(directory.resolve(name)))));
+                }
+                else {
+                    Path name = (Path) event.context();
+                    watch.observers.getOrDefault(name, Set.of()).forEach(observer -> notifications.add(() -> observer.onNext(directory.resolve(name))));
+                }
+            }
+        }
+
+        // notify observers outside the lock, as they may unsubscribe in response
+        notifications.forEach(Runnable::run);
+    }
+
+    private static void closeService(WatchService service) {
+        if (service != null) {
+            try {
+                service.close();
+            }
+            catch (IOException e) {
+                log.warn("Unable to close watch service", e);
+            }
+        }
+    }
+
+    private static class DirectoryWatch {
+        private final FileSystem fileSystem;
+        private final WatchKey key;
+        private final Map<Path, Set<ObservableEmitter<Path>>> observers = new HashMap<>();
+
+        DirectoryWatch(FileSystem fileSystem, WatchKey key) {
+            this.fileSystem = fileSystem;
+            this.key = key;
+        }
+    }
+}
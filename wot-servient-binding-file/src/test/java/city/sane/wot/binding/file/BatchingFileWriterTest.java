@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.file;
+
+import city.sane.wot.binding.file.BatchingFileWriter.Fsync;
+import city.sane.wot.binding.file.BatchingFileWriter.Mode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class BatchingFileWriterTest {
+    @Test
+    public void writeShouldReplaceExistingContent(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("counter.json");
+        Files.writeString(file, "1337");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.NONE, Duration.ZERO);
+
+        writer.write(file, "42".getBytes(), Mode.OVERWRITE).join();
+
+        assertEquals("42", Files.readString(file));
+    }
+
+    @Test
+    public void writeShouldReplaceFileAtomically(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("counter.json");
+        Files.writeString(file, "1337");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.ALL, Duration.ZERO);
+
+        writer.write(file, "42".getBytes(), Mode.ATOMIC).join();
+
+        assertEquals("42", Files.readString(file));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(file), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void writeAtomicShouldKeepPermissions(@TempDir Path directory) throws IOException {
+        assumeTrue(directory.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path file = directory.resolve("counter.json");
+        Files.writeString(file, "1337");
+        Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r--r--");
+        Files.setPosixFilePermissions(file, permissions);
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.NONE, Duration.ZERO);
+
+        writer.write(file, "42".getBytes(), Mode.ATOMIC).join();
+
+        assertEquals(permissions, Files.getPosixFilePermissions(file));
+    }
+
+    @Test
+    public void writeShouldAppendContent(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("log.csv");
+        Files.writeString(file, "1,a\n");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.DATA, Duration.ZERO);
+
+        writer.write(file, "2,b\n".getBytes(), Mode.APPEND).join();
+
+        assertEquals("1,a\n2,b\n", Files.readString(file));
+    }
+
+    @Test
+    public void writeShouldKeepLatestOfCombinedWrites(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("counter.json");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.NONE, Duration.ofMillis(100));
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            futures.add(writer.write(file, String.valueOf(i).getBytes(), Mode.OVERWRITE));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        assertEquals("99", Files.readString(file));
+    }
+
+    @Test
+    public void writeShouldAppendCombinedWritesInOrder(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("log.csv");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.NONE, Duration.ofMillis(100));
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            futures.add(writer.write(file, (i + "\n").getBytes(), Mode.APPEND));
+            expected.append(i).append('\n');
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        assertEquals(expected.toString(), Files.readString(file));
+    }
+
+    @Test
+    public void writeShouldFailAfterClose(@TempDir Path directory) {
+        Path file = directory.resolve("counter.json");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.NONE, Duration.ZERO);
+        writer.close();
+
+        CompletableFuture<Void> first = writer.write(file, "42".getBytes(), Mode.OVERWRITE);
+        CompletableFuture<Void> second = writer.write(file, "1337".getBytes(), Mode.OVERWRITE);
+
+        assertThrows(CompletionException.class, first::join);
+        assertThrows(CompletionException.class, second::join);
+    }
+
+    @Test
+    public void writeWithBatchDelayShouldFailAfterClose(@TempDir Path directory) {
+        Path file = directory.resolve("counter.json");
+        BatchingFileWriter writer = new BatchingFileWriter(Mode.OVERWRITE, Fsync.NONE, Duration.ofMillis(10));
+
+        CompletableFuture<Void> future = writer.write(file, "42".getBytes(), Mode.OVERWRITE);
+        writer.close();
+
+        assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void modeShouldRejectUnknownName() {
+        assertThrows(IllegalArgumentException.class, () -> Mode.of("truncate"));
+    }
+}
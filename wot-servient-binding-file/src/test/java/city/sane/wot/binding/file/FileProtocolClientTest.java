@@ -25,22 +25,26 @@ import city.sane.wot.content.Content;
 import city.sane.wot.thing.form.Form;
 import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.internal.observers.LambdaObserver;
+import io.reactivex.rxjava3.observers.TestObserver;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
-import org.mockito.internal.stubbing.answers.AnswersWithDelay;
-import org.mockito.internal.stubbing.answers.Returns;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
 import java.nio.file.FileSystem;
 import java.nio.file.Path;
+import java.nio.file.WatchKey;
 import java.nio.file.WatchService;
+import java.time.Duration;
 import java.util.function.Function;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -52,6 +56,9 @@ public class FileProtocolClientTest {
     private Path directory;
     private FileSystem fileSystem;
     private WatchService watchService;
+    private WatchKey watchKey;
+    private FileWatcher watcher;
+    private BatchingFileWriter writer;
 
     @BeforeEach
     public void setUp() {
@@ -61,20 +68,26 @@ public class FileProtocolClientTest {
         directory = mock(Path.class);
         fileSystem = mock(FileSystem.class);
         watchService = mock(WatchService.class);
+        watchKey = mock(WatchKey.class);
+        watcher = new FileWatcher(Duration.ZERO);
+        writer = mock(BatchingFileWriter.class);
     }
 
     @Test
-    public void subscribeResourceShouldCreateWatchService() throws IOException {
+    public void subscribeResourceShouldCreateWatchService() throws IOException, InterruptedException {
+        when(form.getHref()).thenReturn("file:///tmp/a.json");
         when(hrefToPath.apply(any())).thenReturn(path);
         when(path.getParent()).thenReturn(directory);
         when(directory.getFileSystem()).thenReturn(fileSystem);
+        when(fileSystem.newWatchService()).thenReturn(watchService);
+        lenient().when(watchService.take()).thenThrow(new ClosedWatchServiceException());
         LambdaObserver<Content> observer = new LambdaObserver<>(n -> {
         }, e -> {
         }, () -> {
         }, s -> {
         });
 
-        FileProtocolClient client = new FileProtocolClient(hrefToPath);
+        FileProtocolClient client = new FileProtocolClient(hrefToPath, watcher, writer);
         client.observeResource(form).subscribe(observer);
 
         verify(directory, timeout(5 * 1000L)).register(any(), any());
@@ -82,13 +95,15 @@ public class FileProtocolClientTest {
 
     @Test
     public void subscribeResourceShouldCloseWatchServiceWhenObserverIsDone() throws IOException, InterruptedException {
+        when(form.getHref()).thenReturn("file:///tmp/a.json");
         when(hrefToPath.apply(any())).thenReturn(path);
         when(path.getParent()).thenReturn(directory);
         when(directory.getFileSystem()).thenReturn(fileSystem);
         when(fileSystem.newWatchService()).thenReturn(watchService);
-        when(watchService.take()).thenAnswer(new AnswersWithDelay(5 * 1000L, new Returns(null)));
+        when(directory.register(any(), any())).thenReturn(watchKey);
+        lenient().when(watchService.take()).thenThrow(new ClosedWatchServiceException());
 
-        FileProtocolClient client = new FileProtocolClient(hrefToPath);
+        FileProtocolClient client = new FileProtocolClient(hrefToPath, watcher, writer);
         Disposable subscribe = client.observeResource(form).subscribe();
 
         // wait until subscriptions as been established
@@ -96,6 +111,35 @@ public class FileProtocolClientTest {
 
         subscribe.dispose();
 
+        verify(watchKey, timeout(5 * 1000L)).cancel();
         verify(watchService, timeout(5 * 1000L)).close();
     }
+
+    @Test
+    public void subscribeResourceShouldRegisterDirectoryOnlyOnce() throws IOException, InterruptedException {
+        Path otherPath = mock(Path.class);
+        Form otherForm = mock(Form.class);
+        when(form.getHref()).thenReturn("file:///tmp/a.json");
+        when(otherForm.getHref()).thenReturn("file:///tmp/b.json");
+        when(hrefToPath.apply("file:///tmp/a.json")).thenReturn(path);
+        when(hrefToPath.apply("file:///tmp/b.json")).thenReturn(otherPath);
+        when(path.getParent()).thenReturn(directory);
+        when(otherPath.getParent()).thenReturn(directory);
+        when(directory.getFileSystem()).thenReturn(fileSystem);
+        when(fileSystem.newWatchService()).thenReturn(watchService);
+        when(directory.register(any(), any())).thenReturn(watchKey);
+        lenient().when(watchService.take()).thenThrow(new ClosedWatchServiceException());
+
+        FileProtocolClient client = new FileProtocolClient(hrefToPath, watcher, writer);
+        TestObserver<Content> first = client.observeResource(form).test();
+        TestObserver<Content> second = client.observeResource(form).test();
+        TestObserver<Content> third = client.observeResource(otherForm).test();
+
+        verify(directory, times(1)).register(any(), any());
+        verify(fileSystem, times(1)).newWatchService();
+
+        first.dispose();
+        second.dispose();
+        third.dispose();
+    }
 }
\ No newline at end of file
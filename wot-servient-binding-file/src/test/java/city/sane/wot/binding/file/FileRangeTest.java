@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.file;
+
+import city.sane.wot.binding.ProtocolClientException;
+import city.sane.wot.thing.form.Form;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class FileRangeTest {
+    @Test
+    public void ofShouldReturnAllIfNoRangeIsGiven() throws ProtocolClientException {
+        Form form = new Form.Builder().setHref("file:///tmp/log.csv").build();
+
+        assertSame(FileRange.ALL, FileRange.of(form));
+    }
+
+    @Test
+    public void ofShouldPreferQueryParametersOverMetadata() throws ProtocolClientException {
+        Form form = new Form.Builder()
+                .setHref("file:///tmp/log.csv?offset=10")
+                .setOptional("file:offset", 5)
+                .setOptional("file:length", 20)
+                .build();
+
+        assertEquals(new FileRange(10, 20L, null), FileRange.of(form));
+    }
+
+    @Test
+    public void ofShouldRejectTailCombinedWithOffset() {
+        Form form = new Form.Builder().setHref("file:///tmp/log.csv?tail=2&offset=10").build();
+
+        assertThrows(ProtocolClientException.class, () -> FileRange.of(form));
+    }
+
+    @Test
+    public void readShouldReturnByteRange(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("log.csv");
+        Files.writeString(file, "0123456789");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals("2345", new String(new FileRange(2, 4L, null).read(channel)));
+            assertEquals("89", new String(new FileRange(8, 4L, null).read(channel)));
+            assertEquals("", new String(new FileRange(20, null, null).read(channel)));
+        }
+    }
+
+    @Test
+    public void readShouldClampHugeLength(@TempDir Path directory) throws IOException, ProtocolClientException {
+        Path file = directory.resolve("log.csv");
+        Files.writeString(file, "0123456789");
+        Form form = new Form.Builder().setHref(file.toUri() + "?offset=1&length=9223372036854775807").build();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals("123456789", new String(FileRange.of(form).read(channel)));
+        }
+    }
+
+    @Test
+    public void readShouldReturnLastLines(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("log.csv");
+        Files.writeString(file, "a\nb\nc\nd\n");
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals("c\nd\n", new String(new FileRange(0, null, 2).read(channel)));
+            assertEquals("a\nb\nc\nd\n", new String(new FileRange(0, null, 10).read(channel)));
+            assertEquals("", new String(new FileRange(0, null, 0).read(channel)));
+        }
+    }
+
+    @Test
+    public void ofShouldRejectTailTooLarge() {
+        Form form = new Form.Builder().setHref("file:///tmp/log.csv?tail=4294967296").build();
+
+        assertThrows(ProtocolClientException.class, () -> FileRange.of(form));
+    }
+
+    @Test
+    public void ofShouldDecodeQueryParameters() throws ProtocolClientException {
+        Form form = new Form.Builder().setHref("file:///tmp/log%20file.csv?%6Fffset=%31%30").build();
+
+        assertEquals(new FileRange(10, null, null), FileRange.of(form));
+    }
+}
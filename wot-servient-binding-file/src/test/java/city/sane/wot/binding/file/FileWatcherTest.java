@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.file;
+
+import io.reactivex.rxjava3.observers.TestObserver;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+public class FileWatcherTest {
+    @Test
+    public void changesShouldCombineBurstOfModifications(@TempDir Path directory) throws IOException, InterruptedException {
+        Path file = directory.resolve("counter.json");
+        Files.writeString(file, "0");
+        FileWatcher watcher = new FileWatcher(Duration.ofMillis(500));
+
+        TestObserver<Path> observer = watcher.changes(file).test();
+        for (int i = 1; i <= 10; i++) {
+            Files.writeString(file, String.valueOf(i));
+        }
+
+        observer.awaitCount(1);
+        Thread.sleep(1000);
+        observer.assertValuesOnly(file);
+
+        watcher.close();
+    }
+
+    @Test
+    public void changesShouldOnlyEmitChangesOfObservedFile(@TempDir Path directory) throws IOException, InterruptedException {
+        Path file = directory.resolve("counter.json");
+        Path otherFile = directory.resolve("other.json");
+        FileWatcher watcher = new FileWatcher(Duration.ZERO);
+
+        TestObserver<Path> observer = watcher.changes(file).test();
+        Files.writeString(otherFile, "1");
+        Files.writeString(file, "1");
+
+        observer.awaitCount(1);
+        observer.assertValueAt(0, file);
+
+        watcher.close();
+        observer.assertComplete();
+    }
+}
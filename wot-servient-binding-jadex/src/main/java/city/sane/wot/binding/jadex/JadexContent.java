@@ -31,6 +31,12 @@ class JadexContent {
     private String type;
     private byte[] body;
 
+    /**
+     * Required by Jadex's bean cloner, which copies return values of local service calls.
+     */
+    public JadexContent() {
+    }
+
     public JadexContent(Content content) {
         this(content.getType(), content.getBody());
     }
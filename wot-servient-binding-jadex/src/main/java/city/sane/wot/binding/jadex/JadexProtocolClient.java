@@ -31,12 +31,12 @@ import city.sane.wot.thing.filter.ThingFilter;
 import city.sane.wot.thing.form.Form;
 import io.reactivex.rxjava3.core.Observable;
 import jadex.bridge.IExternalAccess;
-import jadex.bridge.IInternalAccess;
-import jadex.bridge.SFuture;
 import jadex.bridge.service.ServiceScope;
 import jadex.bridge.service.search.ServiceQuery;
-import jadex.commons.TimeoutException;
+import jadex.commons.future.IFuture;
+import jadex.commons.future.FutureTerminatedException;
 import jadex.commons.future.IResultListener;
+import jadex.commons.future.ISubscriptionIntermediateFuture;
 import jadex.commons.future.ITerminableIntermediateFuture;
 import jadex.commons.future.IntermediateDefaultResultListener;
 import org.slf4j.Logger;
@@ -47,22 +47,28 @@ import java.net.URISyntaxException;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import static jadex.commons.future.IFuture.DONE;
-import static java.util.concurrent.CompletableFuture.completedFuture;
-import static java.util.concurrent.CompletableFuture.failedFuture;
 
 /**
  * Allows consuming Things via Jadex Micro Agents. The Jadex Platform created by {@link
  * JadexProtocolClientFactory} is used for this purpose and thus enables interaction with exposed
- * Things on other platforms.
+ * Things on other platforms. Found {@link ThingService}s are kept in a {@link ThingServiceCache}
+ * shared by all clients of a factory.
  */
 public class JadexProtocolClient implements ProtocolClient {
     private static final Logger log = LoggerFactory.getLogger(JadexProtocolClient.class);
     private final IExternalAccess platform;
+    private final ThingServiceCache services;
 
     public JadexProtocolClient(IExternalAccess platform) {
+        this(platform, new ThingServiceCache(platform));
+    }
+
+    JadexProtocolClient(IExternalAccess platform, ThingServiceCache services) {
         this.platform = platform;
+        this.services = services;
     }
 
     @Override
@@ -73,32 +79,16 @@ public class JadexProtocolClient implements ProtocolClient {
             String type = triple.second();
             String name = triple.third();
 
-            CompletableFuture<Content> result = new CompletableFuture<>();
-            platform.scheduleStep(ia -> {
-                getThingService(ia, serviceId).whenComplete((service, e) -> {
-                    if (e == null) {
-                        log.trace("Found service {}", service);
-
-                        JadexContent content;
-                        if (type.equals("all")) {
-                            log.trace("Read properties");
-                            content = service.readProperties().get();
-                            log.trace("Done reading properties");
-                        }
-                        else {
-                            log.trace("Read property");
-                            content = service.readProperty(name).get();
-                            log.trace("Done reading property");
-                        }
-                        result.complete(content.fromJadex());
-                    }
-                    else {
-                        result.completeExceptionally(e);
-                    }
-                });
-                return DONE;
+            return invoke(serviceId, service -> {
+                if (type.equals("all")) {
+                    log.trace("Read properties");
+                    return service.readProperties();
+                }
+                else {
+                    log.trace("Read property");
+                    return service.readProperty(name);
+                }
             });
-            return result;
         }
         catch (ProtocolClientException e) {
             throw new CompletionException(e);
@@ -113,27 +103,111 @@ public class JadexProtocolClient implements ProtocolClient {
             String serviceId = pair.first();
             String name = pair.second();
 
-            CompletableFuture<Content> result = new CompletableFuture<>();
+            JadexContent input = new JadexContent(content);
+            return invoke(serviceId, service -> service.writeProperty(name, input));
+        }
+        catch (ProtocolClientException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Content> invokeResource(Form form, Content content) {
+        try {
+            log.debug("Invoke resource '{}'", form.getHref());
+            Pair<String, String> pair = parseAsWriteResourceHref(form.getHref());
+            String serviceId = pair.first();
+            String name = pair.second();
+
+            JadexContent input = content != null ? new JadexContent(content) : null;
+            return invoke(serviceId, service -> service.invokeAction(name, input));
+        }
+        catch (ProtocolClientException e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    /**
+     * Subscribes to the property or event referenced by <code>form</code>. The {@link ThingService}
+     * pushes every new value via a subscription future, which is terminated as soon as the returned
+     * {@link Observable} is disposed.
+     *
+     * @param form
+     * @return
+     * @throws ProtocolClientException
+     */
+    @Override
+    public Observable<Content> observeResource(Form form) throws ProtocolClientException {
+        log.debug("Observe resource '{}'", form.getHref());
+        Triple<String, String, String> triple = parseAsReadResourceHref(form.getHref());
+        String serviceId = triple.first();
+        String type = triple.second();
+        String name = triple.third();
+
+        return Observable.create(source -> services.resolve(serviceId).whenComplete((service, e) -> {
+            if (e != null) {
+                source.onError(e);
+                return;
+            }
+
             platform.scheduleStep(ia -> {
-                getThingService(ia, serviceId).whenComplete((service, e) -> {
-                    if (e == null) {
-                        log.trace("Found service {}", service);
+                ISubscriptionIntermediateFuture<JadexContent> subscription;
+                if (type.equals("events")) {
+                    log.trace("Subscribe event");
+                    subscription = service.subscribeEvent(name);
+                }
+                else {
+                    log.trace("Subscribe property");
+                    subscription = service.subscribeProperty(name);
+                }
+                source.setCancellable(subscription::terminate);
 
-                        JadexContent input = new JadexContent(content);
-                        JadexContent output = service.writeProperty(name, input).get();
-                        result.complete(output.fromJadex());
+                subscription.addResultListener(new IntermediateDefaultResultListener<>() {
+                    @Override
+                    public void intermediateResultAvailable(JadexContent content) {
+                        source.onNext(content.fromJadex());
                     }
-                    else {
-                        result.completeExceptionally(e);
+
+                    @Override
+                    public void finished() {
+                        source.onComplete();
+                    }
+
+                    @Override
+                    public void exceptionOccurred(Exception exception) {
+                        if (!(exception instanceof FutureTerminatedException)) {
+                            services.invalidateIfGone(serviceId, exception);
+                            source.tryOnError(exception);
+                        }
                     }
                 });
                 return DONE;
             });
-            return result;
-        }
-        catch (ProtocolClientException e) {
-            throw new CompletionException(e);
-        }
+        }));
+    }
+
+    /**
+     * Resolves the {@link ThingService} with id <code>serviceId</code> and calls
+     * <code>function</code> on it. The call is done in a step of the platform and its future is
+     * chained instead of awaited, so that the step is not blocked.
+     *
+     * @param serviceId
+     * @param function
+     * @return
+     */
+    private CompletableFuture<Content> invoke(String serviceId,
+                                              Function<ThingService, IFuture<JadexContent>> function) {
+        return services.resolve(serviceId)
+                .thenCompose(service -> {
+                    log.trace("Found service {}", service);
+                    return FutureConverters.fromJadex(platform.scheduleStep(ia -> function.apply(service)));
+                })
+                .whenComplete((content, e) -> {
+                    if (e != null) {
+                        services.invalidateIfGone(serviceId, e);
+                    }
+                })
+                .thenApply(JadexContent::fromJadex);
     }
 
     @Override
@@ -234,19 +308,4 @@ public class JadexProtocolClient implements ProtocolClient {
             throw new ProtocolClientException(e);
         }
     }
-
-    private CompletableFuture<ThingService> getThingService(IInternalAccess agent,
-                                                            String serviceId) {
-        log.debug("Search ThingService with id '{}'", serviceId);
-        ServiceQuery<ThingService> query = new ServiceQuery(ThingService.class)
-                .setScope(ServiceScope.GLOBAL)
-                .setId(serviceId);
-        try {
-            return completedFuture(SFuture.getFirstResultAndTerminate(agent.addQuery(query)));
-        }
-        catch (TimeoutException e) {
-            log.warn("Search ThingService with id '{}' failed: {}", serviceId, e.getMessage());
-            return failedFuture(e);
-        }
-    }
 }
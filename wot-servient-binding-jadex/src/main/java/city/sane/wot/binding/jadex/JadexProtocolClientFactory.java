@@ -44,6 +44,7 @@ public class JadexProtocolClientFactory implements ProtocolClientFactory {
     private static final Logger log = LoggerFactory.getLogger(JadexProtocolClientFactory.class);
     private final RefCountResource<IExternalAccess> platformProvider;
     private IExternalAccess platform = null;
+    private ThingServiceCache services = null;
 
     public JadexProtocolClientFactory(Config wotConfig) {
         this(SharedPlatformProvider.singleton(wotConfig));
@@ -65,7 +66,7 @@ public class JadexProtocolClientFactory implements ProtocolClientFactory {
 
     @Override
     public JadexProtocolClient getClient() {
-        return new JadexProtocolClient(platform);
+        return new JadexProtocolClient(platform, services);
     }
 
     @Override
@@ -74,6 +75,7 @@ public class JadexProtocolClientFactory implements ProtocolClientFactory {
         return runAsync(() -> {
             try {
                 platform = platformProvider.retain();
+                services = new ThingServiceCache(platform);
             }
             catch (RefCountResourceException e) {
                 throw new CompletionException(e);
@@ -86,6 +88,7 @@ public class JadexProtocolClientFactory implements ProtocolClientFactory {
         log.debug("Kill Jadex Platform");
 
         if (platform != null) {
+            services.close();
             return runAsync(() -> {
                 try {
                     platformProvider.release();
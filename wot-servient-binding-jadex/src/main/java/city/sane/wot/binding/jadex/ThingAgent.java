@@ -30,11 +30,17 @@ import city.sane.wot.thing.event.ExposedThingEvent;
 import city.sane.wot.thing.form.Form;
 import city.sane.wot.thing.form.Operation;
 import city.sane.wot.thing.property.ExposedThingProperty;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.CompositeDisposable;
+import io.reactivex.rxjava3.disposables.Disposable;
 import jadex.bridge.IInternalAccess;
 import jadex.bridge.service.IService;
 import jadex.bridge.service.ServiceScope;
 import jadex.commons.future.Future;
 import jadex.commons.future.IFuture;
+import jadex.commons.future.ISubscriptionIntermediateFuture;
+import jadex.commons.future.SubscriptionIntermediateFuture;
+import jadex.commons.future.TerminationCommand;
 import jadex.micro.annotation.Agent;
 import jadex.micro.annotation.AgentArgument;
 import jadex.micro.annotation.AgentCreated;
@@ -47,6 +53,7 @@ import org.springframework.web.util.UriComponentsBuilder;
 
 import java.net.URI;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import static jadex.commons.future.IFuture.DONE;
@@ -66,6 +73,7 @@ public class ThingAgent implements ThingService {
     @AgentArgument("thing")
     private ExposedThing thing;
     private String thingServiceId;
+    private final CompositeDisposable subscriptions = new CompositeDisposable();
 
     public ThingAgent() {
     }
@@ -105,12 +113,15 @@ public class ThingAgent implements ThingService {
 
         properties.forEach((name, property) -> {
             String href = buildInteractionURI(thingServiceId, "properties", name).toString();
-            Form form = new Form.Builder()
+            Form.Builder builder = new Form.Builder()
                     .setHref(href)
                     .setContentType(ContentManager.DEFAULT)
-                    .setOp(Operation.READ_PROPERTY, Operation.WRITE_PROPERTY)
-                    .build();
-            property.addForm(form);
+                    .setOp(Operation.READ_PROPERTY, Operation.WRITE_PROPERTY);
+            if (property.isObservable()) {
+                builder.addOp(Operation.OBSERVE_PROPERTY);
+                builder.addOp(Operation.UNOBSERVE_PROPERTY);
+            }
+            property.addForm(builder.build());
 
             log.debug("Assign '{}' to Property '{}'", href, name);
         });
@@ -142,7 +153,7 @@ public class ThingAgent implements ThingService {
             Form form = new Form.Builder()
                     .setHref(href)
                     .setContentType(ContentManager.DEFAULT)
-                    .setOp(Operation.SUBSCRIBE_EVENT)
+                    .setOp(Operation.SUBSCRIBE_EVENT, Operation.UNSUBSCRIBE_EVENT)
                     .build();
             event.addForm(form);
 
@@ -163,6 +174,7 @@ public class ThingAgent implements ThingService {
     @AgentKilled
     public void killed() {
         log.debug("Kill Agent with ThingService with id '{}'", thingServiceId);
+        subscriptions.dispose();
     }
 
     @Override
@@ -228,6 +240,89 @@ public class ThingAgent implements ThingService {
         }
     }
 
+    @Override
+    public ISubscriptionIntermediateFuture<JadexContent> subscribeProperty(String name) {
+        ExposedThingProperty<Object> property = thing.getProperty(name);
+        if (property != null) {
+            return subscribe(property.observer());
+        }
+        else {
+            log.warn("Property with name {} not found", name);
+            return new SubscriptionIntermediateFuture<>(new Exception("Property with name " + name + " not found"));
+        }
+    }
+
+    @Override
+    public IFuture<JadexContent> invokeAction(String name, JadexContent content) {
+        ExposedThingAction<Object, Object> action = thing.getAction(name);
+        if (action == null) {
+            log.warn("Action with name {} not found", name);
+            return new Future<>(new Exception("Action with name " + name + " not found"));
+        }
+
+        try {
+            Object input = content != null ? ContentManager.contentToValue(content.fromJadex(), action.getInput()) : null;
+
+            CompletableFuture<JadexContent> result = action.invoke(input).thenApply(output -> {
+                try {
+                    Content outputContent = ContentManager.valueToContent(output, ContentManager.DEFAULT);
+                    return new JadexContent(outputContent);
+                }
+                catch (ContentCodecException e) {
+                    log.warn("Unable to invoke action", e);
+                    return null;
+                }
+            });
+
+            return FutureConverters.toJadex(result);
+        }
+        catch (ContentCodecException e) {
+            return new Future<>(e);
+        }
+    }
+
+    @Override
+    public ISubscriptionIntermediateFuture<JadexContent> subscribeEvent(String name) {
+        ExposedThingEvent<Object> event = thing.getEvent(name);
+        if (event != null) {
+            return subscribe(event.observer());
+        }
+        else {
+            log.warn("Event with name {} not found", name);
+            return new SubscriptionIntermediateFuture<>(new Exception("Event with name " + name + " not found"));
+        }
+    }
+
+    /**
+     * Pushes all values emitted by <code>observer</code> to the returned future. The subscription
+     * to <code>observer</code> is disposed when the consumer terminates the future or this agent is
+     * killed.
+     *
+     * @param observer
+     * @return
+     */
+    private ISubscriptionIntermediateFuture<JadexContent> subscribe(Observable<Optional<Object>> observer) {
+        SubscriptionIntermediateFuture<JadexContent> future = new SubscriptionIntermediateFuture<>();
+        Disposable subscription = observer
+                .map(optional -> new JadexContent(ContentManager.valueToContent(optional.orElse(null), ContentManager.DEFAULT)))
+                .subscribe(
+                        future::addIntermediateResultIfUndone,
+                        e -> future.setExceptionIfUndone(e instanceof Exception ? (Exception) e : new Exception(e)),
+                        future::setFinishedIfUndone
+                );
+        subscriptions.add(subscription);
+        future.setTerminationCommand(new TerminationCommand() {
+            @Override
+            public void terminated(Exception reason) {
+                log.debug("Subscription has been terminated: {}", reason.getMessage());
+                subscriptions.delete(subscription);
+                subscription.dispose();
+            }
+        });
+
+        return future;
+    }
+
     @Override
     public String getThingServiceId() {
         return ((IService) agent.getProvidedService(ThingService.class)).getServiceId().toString();
@@ -22,6 +22,7 @@
 package city.sane.wot.binding.jadex;
 
 import jadex.commons.future.IFuture;
+import jadex.commons.future.ISubscriptionIntermediateFuture;
 
 /**
  * Defines the Jadex Service interface for interaction with a Thing.
@@ -41,5 +42,25 @@ public interface ThingService {
 
     IFuture<JadexContent> writeProperty(String name, JadexContent content);
 
+    /**
+     * Emits the new value every time the property with the given name changes. The subscription
+     * ends when the returned future is terminated.
+     *
+     * @param name
+     * @return
+     */
+    ISubscriptionIntermediateFuture<JadexContent> subscribeProperty(String name);
+
+    IFuture<JadexContent> invokeAction(String name, JadexContent content);
+
+    /**
+     * Emits the data of every emission of the event with the given name. The subscription ends when
+     * the returned future is terminated.
+     *
+     * @param name
+     * @return
+     */
+    ISubscriptionIntermediateFuture<JadexContent> subscribeEvent(String name);
+
     String getThingServiceId();
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.jadex;
+
+import city.sane.wot.binding.ProtocolClientException;
+import jadex.bridge.ComponentTerminatedException;
+import jadex.bridge.IExternalAccess;
+import jadex.bridge.service.IService;
+import jadex.bridge.service.IServiceIdentifier;
+import jadex.bridge.service.ServiceScope;
+import jadex.bridge.service.search.ServiceEvent;
+import jadex.bridge.service.search.ServiceNotFoundException;
+import jadex.bridge.service.search.ServiceQuery;
+import jadex.commons.future.ISubscriptionIntermediateFuture;
+import jadex.commons.future.ITerminableIntermediateFuture;
+import jadex.commons.future.IntermediateDefaultResultListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static jadex.commons.future.IFuture.DONE;
+
+/**
+ * Caches the {@link ThingService} proxies found by {@link JadexProtocolClient}, so that the
+ * platform-wide service search is only done once per service id. Proxies are removed when the
+ * platform reports the removal of their service or when an invocation fails because the service is
+ * gone.
+ */
+class ThingServiceCache {
+    private static final Logger log = LoggerFactory.getLogger(ThingServiceCache.class);
+    private final IExternalAccess platform;
+    private final Map<String, CompletableFuture<ThingService>> services;
+    private boolean watchingRemovals;
+    private ISubscriptionIntermediateFuture<ServiceEvent<ThingService>> removalQuery;
+
+    ThingServiceCache(IExternalAccess platform) {
+        this(platform, new ConcurrentHashMap<>());
+    }
+
+    ThingServiceCache(IExternalAccess platform,
+                      Map<String, CompletableFuture<ThingService>> services) {
+        this.platform = platform;
+        this.services = services;
+    }
+
+    /**
+     * Returns the proxy of the {@link ThingService} with id <code>serviceId</code>. Concurrent
+     * calls for the same id share one search.
+     *
+     * @param serviceId
+     * @return
+     */
+    public CompletableFuture<ThingService> resolve(String serviceId) {
+        CompletableFuture<ThingService> future = new CompletableFuture<>();
+        CompletableFuture<ThingService> existing = services.putIfAbsent(serviceId, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        watchRemovals();
+        search(serviceId).whenComplete((service, e) -> {
+            if (e == null) {
+                future.complete(service);
+            }
+            else {
+                services.remove(serviceId, future);
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Removes the proxy of the service with id <code>serviceId</code> if <code>e</code> indicates
+     * that this service is no longer available.
+     *
+     * @param serviceId
+     * @param e
+     */
+    public void invalidateIfGone(String serviceId, Throwable e) {
+        Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        if (cause instanceof ComponentTerminatedException || cause instanceof ServiceNotFoundException) {
+            log.debug("ThingService with id '{}' is gone: {}", serviceId, cause.getMessage());
+            services.remove(serviceId);
+        }
+    }
+
+    public synchronized void close() {
+        if (removalQuery != null) {
+            removalQuery.terminate();
+            removalQuery = null;
+        }
+        watchingRemovals = false;
+        services.clear();
+    }
+
+    private CompletableFuture<ThingService> search(String serviceId) {
+        log.debug("Search ThingService with id '{}'", serviceId);
+        CompletableFuture<ThingService> result = new CompletableFuture<>();
+        platform.scheduleStep(ia -> {
+            ServiceQuery<ThingService> query = new ServiceQuery<>(ThingService.class, ServiceScope.GLOBAL);
+            ITerminableIntermediateFuture<ThingService> search = ia.searchServices(query);
+            search.addResultListener(new IntermediateDefaultResultListener<>() {
+                @Override
+                public void intermediateResultAvailable(ThingService service) {
+                    if (serviceId.equals(getServiceId(service)) && result.complete(service)) {
+                        search.terminate();
+                    }
+                }
+
+                @Override
+                public void finished() {
+                    result.completeExceptionally(new ProtocolClientException("ThingService with id '" + serviceId + "' not found"));
+                }
+
+                @Override
+                public void exceptionOccurred(Exception exception) {
+                    result.completeExceptionally(exception);
+                }
+            });
+            return DONE;
+        });
+        return result;
+    }
+
+    private synchronized void watchRemovals() {
+        if (watchingRemovals) {
+            return;
+        }
+        watchingRemovals = true;
+
+        platform.scheduleStep(ia -> {
+            ServiceQuery<ServiceEvent<ThingService>> query = new ServiceQuery<>(ThingService.class, ServiceScope.GLOBAL).setEventMode();
+            ISubscriptionIntermediateFuture<ServiceEvent<ThingService>> future = ia.addQuery(query);
+            synchronized (this) {
+                removalQuery = future;
+            }
+            future.addResultListener(new IntermediateDefaultResultListener<>() {
+                @Override
+                public void intermediateResultAvailable(ServiceEvent<ThingService> event) {
+                    if (event.getType() == ServiceEvent.SERVICE_REMOVED) {
+                        String serviceId = getServiceId(event.getService());
+                        if (serviceId != null && services.remove(serviceId) != null) {
+                            log.debug("ThingService with id '{}' has been removed", serviceId);
+                        }
+                    }
+                }
+
+                @Override
+                public void exceptionOccurred(Exception exception) {
+                    log.debug("Query for removed ThingServices has ended: {}", exception.getMessage());
+                }
+            });
+            return DONE;
+        });
+    }
+
+    private static String getServiceId(Object service) {
+        if (service instanceof IServiceIdentifier) {
+            return service.toString();
+        }
+        else if (service instanceof IService) {
+            return ((IService) service).getServiceId().toString();
+        }
+        else {
+            return null;
+        }
+    }
+}
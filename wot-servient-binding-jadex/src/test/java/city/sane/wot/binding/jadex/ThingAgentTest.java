@@ -25,17 +25,25 @@ import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.action.ExposedThingAction;
 import city.sane.wot.thing.event.ExposedThingEvent;
 import city.sane.wot.thing.property.ExposedThingProperty;
+import io.reactivex.rxjava3.subjects.PublishSubject;
 import jadex.bridge.IInternalAccess;
 import jadex.bridge.service.IService;
 import jadex.bridge.service.IServiceIdentifier;
+import jadex.commons.future.ISubscriptionIntermediateFuture;
+import jadex.commons.future.IntermediateDefaultResultListener;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
@@ -70,6 +78,7 @@ public class ThingAgentTest {
         when(ia.getProvidedService(ThingService.class)).thenReturn(thingService);
         when(((IService) thingService).getServiceId()).thenReturn(mock(IServiceIdentifier.class));
         when(thing.getProperties()).thenReturn(Map.of("count", property));
+        when(property.isObservable()).thenReturn(true);
         when(thing.getActions()).thenReturn(Map.of("reset", action));
         when(thing.getEvents()).thenReturn(Map.of("changed", event));
 
@@ -77,7 +86,7 @@ public class ThingAgentTest {
         agent.created();
 
         verify(thing, timeout(1 * 1000L)).addForm(any());
-        verify(property, timeout(1 * 1000L).times(1)).addForm(any()); // observable is currently not supported by the jadex binding
+        verify(property, timeout(1 * 1000L).times(1)).addForm(any()); // observe operations share the form of read and write
         verify(action, timeout(1 * 1000L)).addForm(any());
         verify(event, timeout(1 * 1000L)).addForm(any());
     }
@@ -130,4 +139,51 @@ public class ThingAgentTest {
 
         verify(property, timeout(1 * 1000L)).write(any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void invokeActionShouldInvokeGivenAction() {
+        when(thing.getAction("reset")).thenReturn(action);
+        when(action.invoke(any())).thenReturn(completedFuture(null));
+
+        ThingAgent agent = new ThingAgent(ia, thing);
+        agent.invokeAction("reset", null);
+
+        verify(action, timeout(1 * 1000L)).invoke(any());
+    }
+
+    @Test
+    public void subscribePropertyShouldEmitValuesUntilTerminated() {
+        PublishSubject<Optional<Object>> subject = PublishSubject.create();
+        when(thing.getProperty("count")).thenReturn(property);
+        when(property.observer()).thenReturn(subject);
+
+        ThingAgent agent = new ThingAgent(ia, thing);
+        ISubscriptionIntermediateFuture<JadexContent> future = agent.subscribeProperty("count");
+        List<String> values = new ArrayList<>();
+        future.addResultListener(new IntermediateDefaultResultListener<>() {
+            @Override
+            public void intermediateResultAvailable(JadexContent content) {
+                values.add(new String(content.getBody()));
+            }
+        });
+        subject.onNext(Optional.of(1));
+        subject.onNext(Optional.of(2));
+        future.terminate();
+
+        assertEquals(List.of("1", "2"), values);
+        assertFalse(subject.hasObservers());
+    }
+
+    @Test
+    public void killedShouldDisposeSubscriptions() {
+        PublishSubject<Optional<Object>> subject = PublishSubject.create();
+        when(thing.getEvent("changed")).thenReturn(event);
+        when(event.observer()).thenReturn(subject);
+
+        ThingAgent agent = new ThingAgent(ia, thing);
+        agent.subscribeEvent("changed");
+        agent.killed();
+
+        assertFalse(subject.hasObservers());
+    }
+}
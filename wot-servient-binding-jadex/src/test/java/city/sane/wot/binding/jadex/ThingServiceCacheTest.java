@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.jadex;
+
+import jadex.bridge.ComponentTerminatedException;
+import jadex.bridge.IComponentIdentifier;
+import jadex.bridge.IComponentStep;
+import jadex.bridge.IExternalAccess;
+import jadex.bridge.IInternalAccess;
+import jadex.bridge.service.IService;
+import jadex.bridge.service.IServiceIdentifier;
+import jadex.bridge.service.search.ServiceQuery;
+import jadex.commons.future.ISubscriptionIntermediateFuture;
+import jadex.commons.future.ITerminableIntermediateFuture;
+import jadex.commons.future.IntermediateDefaultResultListener;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+public class ThingServiceCacheTest {
+    private IExternalAccess platform;
+    private IInternalAccess internalPlatform;
+    private ITerminableIntermediateFuture<Object> searchFuture;
+    private ISubscriptionIntermediateFuture<Object> removalFuture;
+    private ThingService thingService;
+    private IServiceIdentifier serviceIdentifier;
+    private ThingServiceCache cache;
+
+    @BeforeEach
+    public void setUp() {
+        platform = mock(IExternalAccess.class);
+        internalPlatform = mock(IInternalAccess.class);
+        searchFuture = mock(ITerminableIntermediateFuture.class);
+        removalFuture = mock(ISubscriptionIntermediateFuture.class);
+        thingService = mock(ThingService.class, withSettings().extraInterfaces(IService.class));
+        serviceIdentifier = mock(IServiceIdentifier.class);
+
+        when(platform.scheduleStep(any())).then(invocationOnMock -> {
+            IComponentStep step = invocationOnMock.getArgument(0, IComponentStep.class);
+            step.execute(internalPlatform);
+            return null;
+        });
+        when(internalPlatform.addQuery(any(ServiceQuery.class))).thenReturn(removalFuture);
+        when(internalPlatform.searchServices(any())).thenReturn(searchFuture);
+        doAnswer(invocationOnMock -> {
+            IntermediateDefaultResultListener resultListener = invocationOnMock.getArgument(0, IntermediateDefaultResultListener.class);
+            resultListener.intermediateResultAvailable(thingService);
+            resultListener.finished();
+            return null;
+        }).when(searchFuture).addResultListener(any());
+        when(((IService) thingService).getServiceId()).thenReturn(serviceIdentifier);
+        when(serviceIdentifier.toString()).thenReturn("ThingService_#1@ThingAgent@ThingsAgent:platform");
+
+        cache = new ThingServiceCache(platform);
+    }
+
+    @Test
+    public void resolveShouldSearchOnlyOnce() throws ExecutionException, InterruptedException {
+        assertSame(thingService, cache.resolve("ThingService_#1@ThingAgent@ThingsAgent:platform").get());
+        assertSame(thingService, cache.resolve("ThingService_#1@ThingAgent@ThingsAgent:platform").get());
+
+        verify(internalPlatform, times(1)).searchServices(any());
+    }
+
+    @Test
+    public void invalidateIfGoneShouldSearchAgain() throws ExecutionException, InterruptedException {
+        cache.resolve("ThingService_#1@ThingAgent@ThingsAgent:platform").get();
+        cache.invalidateIfGone("ThingService_#1@ThingAgent@ThingsAgent:platform", new ComponentTerminatedException(mock(IComponentIdentifier.class)));
+        cache.resolve("ThingService_#1@ThingAgent@ThingsAgent:platform").get();
+
+        verify(internalPlatform, times(2)).searchServices(any());
+    }
+}
@@ -21,23 +21,50 @@
  */
 package city.sane.wot.binding.jsonpathhttp;
 
+import city.sane.Triple;
 import city.sane.wot.binding.http.HttpProtocolClient;
 import city.sane.wot.content.Content;
 import city.sane.wot.content.ContentCodecException;
 import city.sane.wot.content.ContentManager;
 import city.sane.wot.thing.form.Form;
+import com.jayway.jsonpath.DocumentContext;
 import com.jayway.jsonpath.InvalidPathException;
 import com.jayway.jsonpath.JsonPath;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Allows consuming Things via HTTP. The return values can be manipulated with JSON queries.
+ * Concurrent reads of the same URL share a single request, whose response is reused for a short
+ * time (see "wot.servient.jsonpath-http.response-cache-ttl"). The body of a response is only parsed
+ * once for all JSON queries applied to it.
  */
 public class JsonpathHttpProtocolClient extends HttpProtocolClient {
     private static final Logger log = LoggerFactory.getLogger(JsonpathHttpProtocolClient.class);
+    private final long responseCacheTtl;
+    private final Map<Triple<String, Object, String>, CachedResponse> responses = new ConcurrentHashMap<>();
+    private final Map<String, JsonPath> jsonPaths = new ConcurrentHashMap<>();
+
+    public JsonpathHttpProtocolClient() {
+        this(ConfigFactory.load());
+    }
+
+    JsonpathHttpProtocolClient(Config config) {
+        this(config.getDuration("wot.servient.jsonpath-http.response-cache-ttl"));
+    }
+
+    JsonpathHttpProtocolClient(Duration responseCacheTtl) {
+        this.responseCacheTtl = responseCacheTtl.toNanos();
+    }
 
     @Override
     public CompletableFuture<Content> readResource(Form form) {
@@ -46,26 +73,94 @@ public class JsonpathHttpProtocolClient extends HttpProtocolClient {
                 .setHref(form.getHref().replace("jsonpath+http", "http"))
                 .build();
 
-        return super.readResource(httpForm).thenApply(content -> {
+        return fetch(httpForm).thenApply(response -> {
             if (form.getOptional("sane:jsonPath") != null) {
                 try {
                     // apply jsonpath on content
-                    String json = new String(content.getBody());
-
-                    String jsonPath = form.getOptional("sane:jsonPath").toString();
-                    Object newValue = JsonPath.read(json, jsonPath);
+                    JsonPath jsonPath = jsonPaths.computeIfAbsent(form.getOptional("sane:jsonPath").toString(), JsonPath::compile);
+                    Object newValue = response.getDocument().read(jsonPath);
 
                     return ContentManager.valueToContent(newValue, "application/json");
                 }
                 catch (InvalidPathException | ContentCodecException e) {
                     log.warn("Unable apply JSON Path", e);
-                    return content;
+                    return response.getContent();
                 }
             }
             else {
                 log.warn("No JSON Path found in form '{}'", form);
-                return content;
+                return response.getContent();
             }
         });
     }
+
+    /**
+     * Returns the response for <code>httpForm</code>. A request is only sent if there is neither a
+     * pending request nor an unexpired response for the same URL.
+     *
+     * @param httpForm
+     * @return
+     */
+    private CompletableFuture<Response> fetch(Form httpForm) {
+        Triple<String, Object, String> key = new Triple<>(httpForm.getHref(), httpForm.getOptional("htv:methodName"), httpForm.getContentType());
+        CachedResponse created = new CachedResponse();
+        CachedResponse cached = responses.compute(key, (k, existing) -> existing != null && !existing.isExpired() ? existing : created);
+
+        if (cached == created) {
+            super.readResource(httpForm).whenComplete((content, e) -> {
+                if (e == null) {
+                    cached.expiresAt = System.nanoTime() + responseCacheTtl;
+                    cached.future.complete(new Response(content));
+                    // drop the response once it has expired, so that responses of urls that are
+                    // not read again do not pile up
+                    CompletableFuture.delayedExecutor(responseCacheTtl, TimeUnit.NANOSECONDS)
+                            .execute(() -> responses.remove(key, cached));
+                }
+                else {
+                    // do not cache failures
+                    responses.remove(key, cached);
+                    cached.future.completeExceptionally(e);
+                }
+            });
+        }
+        else {
+            log.debug("Reuse response from '{}'", httpForm.getHref());
+        }
+
+        return cached.future;
+    }
+
+    private static class CachedResponse {
+        private final CompletableFuture<Response> future = new CompletableFuture<>();
+        // pending requests do not expire
+        private volatile long expiresAt = Long.MAX_VALUE;
+
+        boolean isExpired() {
+            return System.nanoTime() - expiresAt > 0;
+        }
+    }
+
+    /**
+     * Response shared by all reads of the same URL. The body is parsed when the first JSON query
+     * is applied.
+     */
+    private static class Response {
+        private final Content content;
+        private DocumentContext document;
+
+        Response(Content content) {
+            this.content = content;
+        }
+
+        Content getContent() {
+            return content;
+        }
+
+        synchronized DocumentContext getDocument() {
+            if (document == null) {
+                document = JsonPath.parse(new String(content.getBody(), StandardCharsets.UTF_8));
+            }
+            return document;
+        }
+    }
 }
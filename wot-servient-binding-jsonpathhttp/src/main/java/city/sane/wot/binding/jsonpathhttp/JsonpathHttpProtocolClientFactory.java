@@ -22,11 +22,23 @@
 package city.sane.wot.binding.jsonpathhttp;
 
 import city.sane.wot.binding.ProtocolClientFactory;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
 /**
  * Creates new {@link JsonpathHttpProtocolClient} instances.
  */
 public class JsonpathHttpProtocolClientFactory implements ProtocolClientFactory {
+    private final Config config;
+
+    public JsonpathHttpProtocolClientFactory() {
+        this(ConfigFactory.load());
+    }
+
+    public JsonpathHttpProtocolClientFactory(Config config) {
+        this.config = config;
+    }
+
     @Override
     public String getScheme() {
         return "jsonpath+http";
@@ -34,6 +46,6 @@ public class JsonpathHttpProtocolClientFactory implements ProtocolClientFactory
 
     @Override
     public JsonpathHttpProtocolClient getClient() {
-        return new JsonpathHttpProtocolClient();
+        return new JsonpathHttpProtocolClient(config);
     }
 }
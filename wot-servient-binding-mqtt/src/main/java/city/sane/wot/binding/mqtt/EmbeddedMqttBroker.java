@@ -0,0 +1,527 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.mqtt.MqttConnAckMessage;
+import io.netty.handler.codec.mqtt.MqttConnectMessage;
+import io.netty.handler.codec.mqtt.MqttConnectReturnCode;
+import io.netty.handler.codec.mqtt.MqttDecoder;
+import io.netty.handler.codec.mqtt.MqttEncoder;
+import io.netty.handler.codec.mqtt.MqttFixedHeader;
+import io.netty.handler.codec.mqtt.MqttMessageBuilders;
+import io.netty.handler.codec.mqtt.MqttMessageIdVariableHeader;
+import io.netty.handler.codec.mqtt.MqttMessageType;
+import io.netty.handler.codec.mqtt.MqttPublishMessage;
+import io.netty.handler.codec.mqtt.MqttQoS;
+import io.netty.handler.codec.mqtt.MqttSubscribeMessage;
+import io.netty.handler.codec.mqtt.MqttTopicSubscription;
+import io.netty.handler.codec.mqtt.MqttUnacceptableProtocolVersionException;
+import io.netty.handler.codec.mqtt.MqttUnsubscribeMessage;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttTopic;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * A minimal MQTT 3.1.1 broker that runs inside the servient. It allows a servient to use the MQTT
+ * binding without an external broker, e.g. for tests or on edge devices. Other servients connect
+ * to it via TCP, while {@link EmbeddedMqttConnection} attaches directly to the broker, so that
+ * messages between {@link MqttProtocolServer} and {@link MqttProtocolClient} of the same JVM are
+ * neither encoded nor sent over a socket.
+ * <p>
+ * Retained messages and subscriptions are held in memory only. Persistent sessions are not
+ * supported, so every client is treated as if it had connected with a clean session. As the broker
+ * never retransmits messages, QoS 1 and 2 are accepted from publishers, as required by MQTT, but
+ * subscriptions are always granted QoS 0. Messages for a subscriber that does not keep up, i.e.
+ * whose channel is no longer writable, are dropped instead of being queued without limit. {@link
+ * MqttProtocolSettings} therefore refuses to use a QoS other than 0 together with this broker.
+ */
+class EmbeddedMqttBroker {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedMqttBroker.class);
+    private final String bindHost;
+    private final int bindPort;
+    private final int maxMessageSize;
+    private final String username;
+    private final String password;
+    private final MqttTopicRouter router;
+    private final Map<String, MqttMessage> retained;
+    private final Map<String, Session> sessions;
+    private EventLoopGroup bossGroup;
+    private EventLoopGroup workerGroup;
+    private volatile Channel serverChannel;
+
+    EmbeddedMqttBroker(String bindHost,
+                       int bindPort,
+                       int maxMessageSize,
+                       String username,
+                       String password) {
+        this(bindHost, bindPort, maxMessageSize, username, password, new MqttTopicRouter(), new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+    }
+
+    EmbeddedMqttBroker(String bindHost,
+                       int bindPort,
+                       int maxMessageSize,
+                       String username,
+                       String password,
+                       MqttTopicRouter router,
+                       Map<String, MqttMessage> retained,
+                       Map<String, Session> sessions) {
+        this.bindHost = bindHost;
+        this.bindPort = bindPort;
+        this.maxMessageSize = maxMessageSize;
+        this.username = username;
+        this.password = password;
+        this.router = router;
+        this.retained = retained;
+        this.sessions = sessions;
+    }
+
+    public synchronized void start() throws MqttProtocolException {
+        if (serverChannel != null) {
+            return;
+        }
+
+        bossGroup = new NioEventLoopGroup(1);
+        workerGroup = new NioEventLoopGroup();
+        try {
+            serverChannel = new ServerBootstrap()
+                    .group(bossGroup, workerGroup)
+                    .channel(NioServerSocketChannel.class)
+                    .childHandler(new ChannelInitializer<SocketChannel>() {
+                        @Override
+                        protected void initChannel(SocketChannel ch) {
+                            ch.pipeline().addLast(
+                                    new MqttDecoder(maxMessageSize),
+                                    MqttEncoder.INSTANCE,
+                                    new Session()
+                            );
+                        }
+                    })
+                    .bind(bindHost, bindPort).syncUninterruptibly().channel();
+            log.info("Embedded MQTT broker listens on {}", serverChannel.localAddress());
+        }
+        catch (Exception e) {
+            shutdownEventLoops();
+            throw new MqttProtocolException("Unable to start embedded MQTT broker on " + bindHost + ":" + bindPort + ": " + e.getMessage());
+        }
+    }
+
+    public synchronized void stop() {
+        if (serverChannel == null) {
+            return;
+        }
+
+        log.info("Stop embedded MQTT broker on {}", serverChannel.localAddress());
+        serverChannel.close().syncUninterruptibly();
+        serverChannel = null;
+        shutdownEventLoops();
+        retained.clear();
+    }
+
+    /**
+     * Returns the port the broker is bound to. This differs from the configured port if the
+     * operating system was asked to select a free port.
+     *
+     * @return
+     */
+    public int getPort() {
+        if (serverChannel != null) {
+            return ((InetSocketAddress) serverChannel.localAddress()).getPort();
+        }
+        else {
+            return bindPort;
+        }
+    }
+
+    /**
+     * Delivers <code>message</code> to all subscribers of <code>topic</code>. Retained messages are
+     * additionally stored for future subscribers. A retained message without payload removes the
+     * stored message.
+     *
+     * @param topic
+     * @param message
+     * @throws MqttProtocolException if the broker is not running, <code>topic</code> is invalid or
+     *                               a local subscriber has rejected the message
+     */
+    public void publish(String topic, MqttMessage message) throws MqttProtocolException {
+        if (serverChannel == null) {
+            throw new MqttProtocolException("Embedded MQTT broker is not running. Unable to publish to topic '" + topic + "'");
+        }
+        try {
+            MqttTopic.validate(topic, false);
+        }
+        catch (IllegalArgumentException e) {
+            throw new MqttProtocolException("Unable to publish to invalid topic '" + topic + "': " + e.getMessage());
+        }
+
+        List<Exception> failures = new ArrayList<>();
+        dispatch(topic, message, failures::add);
+        if (!failures.isEmpty()) {
+            throw new MqttProtocolException("Message for topic '" + topic + "' has been rejected by " + failures.size() + " subscriber(s): " + failures.get(0).getMessage());
+        }
+    }
+
+    private void dispatch(String topic, MqttMessage message) {
+        dispatch(topic, message, e -> log.warn("Listener for topic '{}' failed: {}", topic, e.getMessage()));
+    }
+
+    private void dispatch(String topic, MqttMessage message, Consumer<Exception> failed) {
+        if (message.isRetained()) {
+            if (message.getPayload().length == 0) {
+                retained.remove(topic);
+            }
+            else {
+                retained.put(topic, message);
+            }
+            // only messages sent because of a new subscription are flagged as retained
+            message = copy(message, false);
+        }
+
+        router.route(topic, message, failed);
+    }
+
+    /**
+     * Passes all messages matching <code>filter</code> to <code>listener</code>. Matching retained
+     * messages are passed to the listener immediately.
+     *
+     * @param filter
+     * @param listener
+     */
+    public void subscribe(String filter, IMqttMessageListener listener) {
+        router.add(filter, listener);
+        replayRetained(filter, listener);
+    }
+
+    public void unsubscribe(String filter, IMqttMessageListener listener) {
+        router.remove(filter, listener);
+    }
+
+    private void replayRetained(String filter, IMqttMessageListener listener) {
+        retained.forEach((topic, message) -> {
+            if (MqttTopic.isMatched(filter, topic)) {
+                try {
+                    listener.messageArrived(topic, message);
+                }
+                catch (Exception e) {
+                    log.warn("Listener for topic '{}' failed: {}", topic, e.getMessage());
+                }
+            }
+        });
+    }
+
+    private void shutdownEventLoops() {
+        bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    private static MqttMessage copy(MqttMessage message, boolean retained) {
+        MqttMessage copy = new MqttMessage(message.getPayload());
+        copy.setQos(message.getQos());
+        copy.setRetained(retained);
+        return copy;
+    }
+
+    /**
+     * Represents a client connected via TCP. Handles the packets received from the client and
+     * delivers the messages of its subscriptions.
+     */
+    class Session extends SimpleChannelInboundHandler<io.netty.handler.codec.mqtt.MqttMessage> {
+        private final Map<String, IMqttMessageListener> subscriptions = new HashMap<>();
+        private final Set<Integer> receivedPacketIds = new HashSet<>();
+        private Channel channel;
+        private String clientId;
+        private String willTopic;
+        private MqttMessage willMessage;
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx,
+                                    io.netty.handler.codec.mqtt.MqttMessage msg) {
+            if (msg.decoderResult().isFailure()) {
+                if (msg.decoderResult().cause() instanceof MqttUnacceptableProtocolVersionException) {
+                    connAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_UNACCEPTABLE_PROTOCOL_VERSION);
+                }
+                log.debug("Embedded MQTT broker received invalid packet: {}", msg.decoderResult().cause().getMessage());
+                ctx.close();
+                return;
+            }
+
+            MqttMessageType type = msg.fixedHeader().messageType();
+            if (clientId == null && type != MqttMessageType.CONNECT) {
+                // first packet must be CONNECT
+                ctx.close();
+                return;
+            }
+
+            switch (type) {
+                case CONNECT:
+                    connect(ctx, (MqttConnectMessage) msg);
+                    break;
+                case PUBLISH:
+                    publish(ctx, (MqttPublishMessage) msg);
+                    break;
+                case PUBREL:
+                    receivedPacketIds.remove(packetId(msg));
+                    ctx.writeAndFlush(ack(MqttMessageType.PUBCOMP, packetId(msg)));
+                    break;
+                case SUBSCRIBE:
+                    subscribe(ctx, (MqttSubscribeMessage) msg);
+                    break;
+                case UNSUBSCRIBE:
+                    unsubscribe(ctx, (MqttUnsubscribeMessage) msg);
+                    break;
+                case PINGREQ:
+                    ctx.writeAndFlush(io.netty.handler.codec.mqtt.MqttMessage.PINGRESP);
+                    break;
+                case DISCONNECT:
+                    willMessage = null;
+                    ctx.close();
+                    break;
+                case PUBACK:
+                case PUBREC:
+                case PUBCOMP:
+                    // messages are only delivered with QoS 0, so acknowledgements are not expected
+                    break;
+                default:
+                    log.debug("Embedded MQTT broker received unexpected packet '{}' from '{}'", type, clientId);
+                    ctx.close();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            subscriptions.forEach(router::remove);
+            subscriptions.clear();
+
+            if (clientId != null) {
+                sessions.remove(clientId, this);
+                log.debug("Client '{}' disconnected from embedded MQTT broker", clientId);
+            }
+
+            if (willMessage != null) {
+                dispatch(willTopic, willMessage);
+            }
+
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                log.debug("Client '{}' exceeded keep alive. Close connection", clientId);
+                ctx.close();
+            }
+            else {
+                super.userEventTriggered(ctx, evt);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            log.debug("Connection of client '{}' failed: {}", clientId, cause.getMessage());
+            ctx.close();
+        }
+
+        private void connect(ChannelHandlerContext ctx, MqttConnectMessage msg) {
+            if (clientId != null) {
+                // second CONNECT is a protocol violation
+                ctx.close();
+                return;
+            }
+
+            byte[] expectedPassword = password != null ? password.getBytes(StandardCharsets.UTF_8) : null;
+            if (username != null && (!Objects.equals(username, msg.payload().userName()) || !Arrays.equals(expectedPassword, msg.payload().passwordInBytes()))) {
+                connAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_BAD_USER_NAME_OR_PASSWORD);
+                ctx.close();
+                return;
+            }
+
+            String id = msg.payload().clientIdentifier();
+            if (id == null || id.isEmpty()) {
+                if (!msg.variableHeader().isCleanSession()) {
+                    connAck(ctx, MqttConnectReturnCode.CONNECTION_REFUSED_IDENTIFIER_REJECTED);
+                    ctx.close();
+                    return;
+                }
+                id = "embedded-" + UUID.randomUUID();
+            }
+
+            channel = ctx.channel();
+            clientId = id;
+            if (msg.variableHeader().isWillFlag()) {
+                willTopic = msg.payload().willTopic();
+                willMessage = new MqttMessage(msg.payload().willMessageInBytes());
+                willMessage.setQos(msg.variableHeader().willQos());
+                willMessage.setRetained(msg.variableHeader().isWillRetain());
+            }
+
+            int keepAlive = msg.variableHeader().keepAliveTimeSeconds();
+            if (keepAlive > 0) {
+                ctx.pipeline().addFirst(new IdleStateHandler(keepAlive * 3 / 2, 0, 0));
+            }
+
+            // a client that connects with an id already in use takes over the existing session
+            Session previous = sessions.put(clientId, this);
+            if (previous != null) {
+                previous.channel.close();
+            }
+
+            log.debug("Client '{}' connected to embedded MQTT broker", clientId);
+            connAck(ctx, MqttConnectReturnCode.CONNECTION_ACCEPTED);
+        }
+
+        private void publish(ChannelHandlerContext ctx, MqttPublishMessage msg) {
+            String topic = msg.variableHeader().topicName();
+            if (topic.contains("+") || topic.contains("#")) {
+                ctx.close();
+                return;
+            }
+
+            MqttMessage message = new MqttMessage(ByteBufUtil.getBytes(msg.payload()));
+            message.setQos(msg.fixedHeader().qosLevel().value());
+            message.setRetained(msg.fixedHeader().isRetain());
+
+            int packetId = msg.variableHeader().packetId();
+            switch (msg.fixedHeader().qosLevel()) {
+                case AT_LEAST_ONCE:
+                    dispatch(topic, message);
+                    ctx.writeAndFlush(MqttMessageBuilders.pubAck().packetId(packetId).build());
+                    break;
+                case EXACTLY_ONCE:
+                    // redelivered packets that have not been released yet must not be published again
+                    if (receivedPacketIds.add(packetId)) {
+                        dispatch(topic, message);
+                    }
+                    ctx.writeAndFlush(ack(MqttMessageType.PUBREC, packetId));
+                    break;
+                default:
+                    dispatch(topic, message);
+            }
+        }
+
+        private void subscribe(ChannelHandlerContext ctx, MqttSubscribeMessage msg) {
+            MqttMessageBuilders.SubAckBuilder subAck = MqttMessageBuilders.subAck()
+                    .packetId(msg.variableHeader().messageId());
+            Map<String, IMqttMessageListener> added = new HashMap<>();
+            for (MqttTopicSubscription subscription : msg.payload().topicSubscriptions()) {
+                String filter = subscription.topicName();
+                try {
+                    MqttTopic.validate(filter, true);
+                }
+                catch (IllegalArgumentException e) {
+                    subAck.addGrantedQos(MqttQoS.FAILURE);
+                    continue;
+                }
+
+                IMqttMessageListener listener = this::deliver;
+
+                // a subscription to an existing filter replaces the previous one
+                IMqttMessageListener previous = subscriptions.put(filter, listener);
+                if (previous != null) {
+                    router.remove(filter, previous);
+                }
+                // messages published from now on are written after SUBACK, as they are written by
+                // this event loop after the current packet has been handled
+                router.add(filter, listener);
+                added.put(filter, listener);
+                subAck.addGrantedQos(MqttQoS.AT_MOST_ONCE);
+            }
+            ctx.writeAndFlush(subAck.build());
+
+            // retained messages must not be sent before SUBACK
+            added.forEach(EmbeddedMqttBroker.this::replayRetained);
+        }
+
+        private void unsubscribe(ChannelHandlerContext ctx, MqttUnsubscribeMessage msg) {
+            for (String filter : msg.payload().topics()) {
+                IMqttMessageListener listener = subscriptions.remove(filter);
+                if (listener != null) {
+                    router.remove(filter, listener);
+                }
+            }
+            ctx.writeAndFlush(MqttMessageBuilders.unsubAck().packetId(msg.variableHeader().messageId()).build());
+        }
+
+        private void deliver(String topic, MqttMessage message) {
+            if (!channel.isWritable()) {
+                // slow subscriber: drop messages instead of queueing them without limit
+                log.debug("Drop message for topic '{}' because client '{}' does not keep up", topic, clientId);
+                return;
+            }
+
+            channel.writeAndFlush(MqttMessageBuilders.publish()
+                    .topicName(topic)
+                    .qos(MqttQoS.AT_MOST_ONCE)
+                    .retained(message.isRetained())
+                    .messageId(0)
+                    .payload(Unpooled.wrappedBuffer(message.getPayload()))
+                    .build());
+        }
+
+        private void connAck(ChannelHandlerContext ctx, MqttConnectReturnCode returnCode) {
+            MqttConnAckMessage connAck = MqttMessageBuilders.connAck()
+                    .returnCode(returnCode)
+                    .sessionPresent(false)
+                    .build();
+            ctx.writeAndFlush(connAck);
+        }
+
+        private int packetId(io.netty.handler.codec.mqtt.MqttMessage msg) {
+            return ((MqttMessageIdVariableHeader) msg.variableHeader()).messageId();
+        }
+
+        private io.netty.handler.codec.mqtt.MqttMessage ack(MqttMessageType type, int packetId) {
+            return new io.netty.handler.codec.mqtt.MqttMessage(
+                    new MqttFixedHeader(type, false, MqttQoS.AT_MOST_ONCE, false, 0),
+                    MqttMessageIdVariableHeader.from(packetId)
+            );
+        }
+    }
+}
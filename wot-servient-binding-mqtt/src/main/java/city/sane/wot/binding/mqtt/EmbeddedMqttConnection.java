@@ -0,0 +1,205 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.mqtt.MqttOutbox.DropPolicy;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.failedFuture;
+
+/**
+ * This {@link MqttConnection} is attached directly to an {@link EmbeddedMqttBroker} running in the
+ * same JVM. Published messages are handed over to the broker without being encoded, so that
+ * messages between {@link MqttProtocolServer} and {@link MqttProtocolClient} of this servient never
+ * leave the process. Messages for remote subscribers are sent by the broker via TCP.
+ * <p>
+ * Incoming messages are passed to the listeners by a single thread, so that listeners observe
+ * messages in publication order and never run on the thread of the publisher. At most
+ * <code>queueSize</code> messages wait for this thread. The hand-over never blocks, as it may run
+ * on a network thread of the broker. If the queue is full, the {@link DropPolicy} decides whether
+ * the new message is rejected, which fails the future returned by {@link #publish(String,
+ * MqttMessage)}, or the oldest waiting message is dropped.
+ */
+class EmbeddedMqttConnection extends MqttConnection {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddedMqttConnection.class);
+    private final EmbeddedMqttBroker broker;
+    private final String uri;
+    private final ThreadPoolExecutor executor;
+    private final DropPolicy dropPolicy;
+    private final Map<String, Subscription> subscriptions;
+
+    EmbeddedMqttConnection(EmbeddedMqttBroker broker,
+                           String uri,
+                           String clientId,
+                           int queueSize,
+                           DropPolicy dropPolicy) {
+        this(
+                broker,
+                uri,
+                new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueSize), r -> {
+                    Thread thread = new Thread(r, "mqtt-" + clientId);
+                    thread.setDaemon(true);
+                    return thread;
+                }),
+                dropPolicy,
+                new HashMap<>()
+        );
+    }
+
+    EmbeddedMqttConnection(EmbeddedMqttBroker broker,
+                           String uri,
+                           ThreadPoolExecutor executor,
+                           DropPolicy dropPolicy,
+                           Map<String, Subscription> subscriptions) {
+        this.broker = broker;
+        this.uri = uri;
+        this.executor = executor;
+        this.dropPolicy = dropPolicy;
+        this.subscriptions = subscriptions;
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String topic, MqttMessage message) {
+        try {
+            broker.publish(topic, message);
+            return completedFuture(null);
+        }
+        catch (MqttProtocolException e) {
+            return failedFuture(e);
+        }
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> subscribe(String filter,
+                                                          int qos,
+                                                          IMqttMessageListener listener) {
+        Subscription subscription = subscriptions.get(filter);
+        if (subscription == null) {
+            subscription = new Subscription();
+            subscriptions.put(filter, subscription);
+            subscription.listeners.add(listener);
+            broker.subscribe(filter, subscription);
+        }
+        else {
+            subscription.listeners.add(listener);
+        }
+
+        return completedFuture(null);
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> unsubscribe(String filter,
+                                                            IMqttMessageListener listener) {
+        Subscription subscription = subscriptions.get(filter);
+        if (subscription != null) {
+            subscription.listeners.remove(listener);
+            if (subscription.listeners.isEmpty()) {
+                subscriptions.remove(filter);
+                broker.unsubscribe(filter, subscription);
+            }
+        }
+
+        return completedFuture(null);
+    }
+
+    @Override
+    public String getBroker() {
+        return uri;
+    }
+
+    /**
+     * Messages are handed over to the broker immediately, so there is never a message waiting.
+     *
+     * @return
+     */
+    @Override
+    public int getQueuedCount() {
+        return 0;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        broker.stop();
+    }
+
+    /**
+     * Subscription of this connection to a topic filter at the broker. Passes matching messages
+     * to all local listeners of this filter.
+     */
+    class Subscription implements IMqttMessageListener {
+        private final List<IMqttMessageListener> listeners = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void messageArrived(String topic,
+                                   MqttMessage message) throws MqttProtocolException {
+            Runnable delivery = () -> deliver(topic, message);
+            try {
+                executor.execute(delivery);
+            }
+            catch (RejectedExecutionException e) {
+                if (executor.isShutdown()) {
+                    // connection has been closed
+                    return;
+                }
+
+                if (dropPolicy == DropPolicy.DROP_OLDEST && executor.getQueue().poll() != null) {
+                    log.warn("Queue of listeners at '{}' is full. Dropped oldest message to make room for message for topic '{}'", uri, topic);
+                    try {
+                        executor.execute(delivery);
+                        return;
+                    }
+                    catch (RejectedExecutionException ex) {
+                        // queue has been filled up again in the meantime
+                    }
+                }
+
+                throw new MqttProtocolException("Queue of listeners at '" + uri + "' is full. Message for topic '" + topic + "' has been dropped");
+            }
+        }
+
+        private void deliver(String topic, MqttMessage message) {
+            for (IMqttMessageListener listener : listeners) {
+                try {
+                    listener.messageArrived(topic, message);
+                }
+                catch (Exception e) {
+                    log.warn("Listener for topic '{}' failed: {}", topic, e.getMessage());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * {@link MqttOutbox} that appends pending messages to memory-mapped segment files, so that
+ * messages survive a lost broker connection as well as a restart of the servient. The future of a
+ * message is completed once the broker has acknowledged it. Futures of messages still pending
+ * when the outbox is closed fail, although the messages are sent after the next start.
+ * <p>
+ * Each record consists of its length, QoS, retain flag, topic and payload. The length is written
+ * last, so that a record that has not been written completely is treated as the end of the
+ * outbox. The position up to which all messages have been acknowledged by the broker is kept in a
+ * separate checkpoint file. Messages after this position are sent again after a restart or
+ * reconnect, so messages may be delivered more than once. Segments whose messages have all been
+ * acknowledged are deleted. As Java offers no public API to unmap a buffer, their mappings are
+ * released by the garbage collector. Until then, a deleted segment keeps occupying address space
+ * and, depending on the platform, disk space (or cannot be deleted at all and is removed on the
+ * next start instead).
+ * <p>
+ * Appended messages and the checkpoint are forced to the storage device at the latest
+ * <code>syncInterval</code> after they have been written. With an interval of zero, every message
+ * and acknowledgement is forced immediately. A crash of the operating system may lose messages
+ * written within the interval, whereas a crash of the servient loses nothing.
+ */
+class MappedFileMqttOutbox implements MqttOutbox {
+    private static final Logger log = LoggerFactory.getLogger(MappedFileMqttOutbox.class);
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+    // length (int), qos (byte), retain flag (byte), topic length (short)
+    private static final int RECORD_HEADER_SIZE = 8;
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final DropPolicy dropPolicy;
+    private final Duration syncInterval;
+    private final NavigableMap<Long, MappedByteBuffer> segments;
+    private final Deque<InFlight> inflight;
+    private final NavigableMap<Long, CompletableFuture<Void>> futures;
+    private final MappedByteBuffer checkpoint;
+    private Position commit;
+    private Position read;
+    private Position write;
+    private int unread;
+    private boolean syncScheduled;
+    private boolean closed;
+
+    MappedFileMqttOutbox(Path directory,
+                         int segmentSize,
+                         long maxSize,
+                         DropPolicy dropPolicy,
+                         Duration syncInterval) throws MqttProtocolException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+        this.dropPolicy = dropPolicy;
+        this.syncInterval = syncInterval;
+        this.segments = new TreeMap<>();
+        this.inflight = new ArrayDeque<>();
+        this.futures = new TreeMap<>();
+
+        try {
+            Files.createDirectories(directory);
+            checkpoint = map(directory.resolve(CHECKPOINT_FILE), Long.BYTES + Integer.BYTES);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(SEGMENT_SUFFIX)) {
+                        long segment = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                        segments.put(segment, map(file, segmentSize));
+                    }
+                }
+            }
+            if (segments.isEmpty()) {
+                segments.put(0L, map(segmentPath(0), segmentSize));
+            }
+        }
+        catch (IOException | NumberFormatException e) {
+            throw new MqttProtocolException("Unable to open outbox in '" + directory + "': " + e.getMessage());
+        }
+
+        recover();
+    }
+
+    @Override
+    public synchronized boolean offer(Publication publication) {
+        if (closed) {
+            return false;
+        }
+
+        byte[] topic = publication.topic.getBytes(UTF_8);
+        byte[] payload = publication.message.getPayload();
+        int size = RECORD_HEADER_SIZE + topic.length + payload.length;
+        if (size > segmentSize) {
+            publication.future.completeExceptionally(new MqttProtocolException(
+                    "Message for topic '" + publication.topic + "' exceeds segment size of outbox"
+            ));
+            return true;
+        }
+
+        if (write.offset + size > segmentSize) {
+            if (segments.size() >= maxSegments) {
+                if (dropPolicy != DropPolicy.DROP_OLDEST || !dropOldestSegment()) {
+                    return false;
+                }
+            }
+
+            try {
+                segments.get(write.segment).force();
+                long segment = write.segment + 1;
+                segments.put(segment, map(segmentPath(segment), segmentSize));
+                write = new Position(segment, 0);
+            }
+            catch (IOException e) {
+                publication.future.completeExceptionally(new MqttProtocolException(e));
+                return true;
+            }
+        }
+
+        ByteBuffer buffer = segments.get(write.segment).duplicate();
+        buffer.position(write.offset + Integer.BYTES);
+        buffer.put((byte) publication.message.getQos());
+        buffer.put((byte) (publication.message.isRetained() ? 1 : 0));
+        buffer.putShort((short) topic.length);
+        buffer.put(topic);
+        buffer.put(payload);
+        // length is written last to mark the record as complete
+        buffer.putInt(write.offset, size - Integer.BYTES);
+
+        futures.put(address(write), publication.future);
+        write = new Position(write.segment, write.offset + size);
+        unread++;
+        written();
+
+        return true;
+    }
+
+    @Override
+    public synchronized List<Publication> poll(int max) {
+        List<Publication> batch = new ArrayList<>(Math.min(max, unread));
+        while (!closed && batch.size() < max) {
+            read = skipToNextRecord(read);
+            int length = recordLength(read);
+            if (length == 0) {
+                break;
+            }
+
+            ByteBuffer buffer = segments.get(read.segment).duplicate();
+            buffer.position(read.offset + Integer.BYTES);
+            int qos = buffer.get();
+            boolean retained = buffer.get() == 1;
+            byte[] topic = new byte[buffer.getShort()];
+            buffer.get(topic);
+            byte[] payload = new byte[length - (RECORD_HEADER_SIZE - Integer.BYTES) - topic.length];
+            buffer.get(payload);
+
+            MqttMessage message = new MqttMessage(payload);
+            message.setQos(qos);
+            message.setRetained(retained);
+            // messages read back after a restart have no future waiting for them
+            CompletableFuture<Void> future = futures.computeIfAbsent(address(read), key -> new CompletableFuture<>());
+            Publication publication = new Publication(new String(topic, UTF_8), message, future);
+
+            long start = address(read);
+            read = new Position(read.segment, read.offset + Integer.BYTES + length);
+            inflight.add(new InFlight(publication, start, read));
+            unread--;
+            batch.add(publication);
+        }
+        return batch;
+    }
+
+    @Override
+    public synchronized void acknowledge(Publication publication) {
+        if (closed) {
+            return;
+        }
+
+        for (InFlight entry : inflight) {
+            if (entry.publication == publication) {
+                entry.acknowledged = true;
+                futures.remove(entry.start);
+                break;
+            }
+        }
+
+        // checkpoint can only be moved over messages that have all been acknowledged
+        Position previous = commit;
+        while (!inflight.isEmpty() && inflight.peekFirst().acknowledged) {
+            commit = inflight.pollFirst().end;
+        }
+        if (commit != previous) {
+            writeCheckpoint();
+            deleteSegmentsBefore(commit.segment);
+            written();
+        }
+    }
+
+    @Override
+    public synchronized void rewind() {
+        if (closed) {
+            return;
+        }
+
+        unread += inflight.size();
+        inflight.clear();
+        read = commit;
+    }
+
+    @Override
+    public synchronized int size() {
+        return unread;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        futures.values().forEach(future -> future.completeExceptionally(new MqttProtocolException(
+                "Outbox has been closed. Message is sent after the next start"
+        )));
+        futures.clear();
+
+        segments.values().forEach(MappedByteBuffer::force);
+        segments.clear();
+        checkpoint.force();
+    }
+
+    /**
+     * Forces the current segment and the checkpoint to the storage device.
+     */
+    synchronized void sync() {
+        syncScheduled = false;
+        if (!closed) {
+            segments.get(write.segment).force();
+            checkpoint.force();
+        }
+    }
+
+    /**
+     * Is called after a message or the checkpoint has been written. Forces the changes immediately
+     * or schedules this to happen once <code>syncInterval</code> has elapsed.
+     */
+    private void written() {
+        if (syncInterval.isZero()) {
+            sync();
+        }
+        else if (!syncScheduled) {
+            syncScheduled = true;
+            CompletableFuture.delayedExecutor(syncInterval.toMillis(), TimeUnit.MILLISECONDS).execute(this::sync);
+        }
+    }
+
+    private void recover() {
+        long segment = checkpoint.getLong(0);
+        int offset = checkpoint.getInt(Long.BYTES);
+        if (!segments.containsKey(segment)) {
+            segment = segments.firstKey();
+            offset = 0;
+        }
+        commit = new Position(segment, offset);
+        deleteSegmentsBefore(segment);
+
+        // find end of outbox and count messages that have not been acknowledged
+        Position position = skipToNextRecord(commit);
+        int length;
+        while ((length = recordLength(position)) != 0) {
+            position = skipToNextRecord(new Position(position.segment, position.offset + Integer.BYTES + length));
+            unread++;
+        }
+        write = position;
+        read = commit;
+
+        if (unread > 0) {
+            log.info("Outbox in '{}' contains {} unacknowledged message(s)", directory, unread);
+        }
+    }
+
+    /**
+     * Drops all messages in the oldest segment to make room for new messages.
+     *
+     * @return <code>false</code> if the oldest segment is the one currently written
+     */
+    private boolean dropOldestSegment() {
+        long oldest = segments.firstKey();
+        if (oldest == write.segment) {
+            return false;
+        }
+
+        Position next = new Position(segments.higherKey(oldest), 0);
+        if (read.segment == oldest) {
+            Position position = read;
+            int length;
+            while ((length = recordLength(position)) != 0) {
+                position = new Position(oldest, position.offset + Integer.BYTES + length);
+                unread--;
+            }
+            read = next;
+        }
+        inflight.removeIf(entry -> entry.end.segment == oldest);
+        Map<Long, CompletableFuture<Void>> dropped = futures.headMap(address(next));
+        dropped.values().forEach(future -> future.completeExceptionally(new MqttProtocolException(
+                "Message has been dropped because outbound queue is full"
+        )));
+        dropped.clear();
+        if (commit.segment == oldest) {
+            commit = next;
+            writeCheckpoint();
+        }
+        deleteSegmentsBefore(next.segment);
+
+        log.warn("Outbox in '{}' is full. Dropped oldest messages", directory);
+        return true;
+    }
+
+    private int recordLength(Position position) {
+        if (position.offset + Integer.BYTES > segmentSize) {
+            return 0;
+        }
+        return segments.get(position.segment).getInt(position.offset);
+    }
+
+    /**
+     * Moves <code>position</code> to the beginning of the next segment if there is no further
+     * record in the current segment.
+     */
+    private Position skipToNextRecord(Position position) {
+        Long next;
+        while (recordLength(position) == 0 && (next = segments.higherKey(position.segment)) != null) {
+            position = new Position(next, 0);
+        }
+        return position;
+    }
+
+    private void writeCheckpoint() {
+        checkpoint.putLong(0, commit.segment);
+        checkpoint.putInt(Long.BYTES, commit.offset);
+    }
+
+    private void deleteSegmentsBefore(long segment) {
+        while (!segments.isEmpty() && segments.firstKey() < segment) {
+            long oldest = segments.pollFirstEntry().getKey();
+            try {
+                Files.deleteIfExists(segmentPath(oldest));
+            }
+            catch (IOException e) {
+                log.warn("Unable to delete outbox segment '{}': {}", segmentPath(oldest), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Returns a number identifying the record at <code>position</code> that grows with the position
+     * of the record in the outbox.
+     */
+    private long address(Position position) {
+        return position.segment * segmentSize + position.offset;
+    }
+
+    private Path segmentPath(long segment) {
+        return directory.resolve(String.format("%020d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, CREATE, READ, WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static class Position {
+        private final long segment;
+        private final int offset;
+
+        Position(long segment, int offset) {
+            this.segment = segment;
+            this.offset = offset;
+        }
+    }
+
+    private static class InFlight {
+        private final Publication publication;
+        private final long start;
+        private final Position end;
+        private boolean acknowledged;
+
+        InFlight(Publication publication, long start, Position end) {
+            this.publication = publication;
+            this.start = start;
+            this.end = end;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * {@link MqttOutbox} that holds pending messages in a bounded queue in memory. Messages are lost
+ * if the servient stops before they have been acknowledged. Messages that have been handed out are
+ * kept until they have been acknowledged, so that they can be handed out again after the
+ * connection to the broker has been reestablished. The future of a message is completed as soon as
+ * the broker has acknowledged it.
+ */
+class MemoryMqttOutbox implements MqttOutbox {
+    private final int queueSize;
+    private final DropPolicy dropPolicy;
+    private final Deque<Publication> queue;
+    private final List<Publication> inflight;
+
+    MemoryMqttOutbox(int queueSize, DropPolicy dropPolicy) {
+        this(queueSize, dropPolicy, new ArrayDeque<>(), new ArrayList<>());
+    }
+
+    MemoryMqttOutbox(int queueSize,
+                     DropPolicy dropPolicy,
+                     Deque<Publication> queue,
+                     List<Publication> inflight) {
+        this.queueSize = queueSize;
+        this.dropPolicy = dropPolicy;
+        this.queue = queue;
+        this.inflight = inflight;
+    }
+
+    @Override
+    public synchronized boolean offer(Publication publication) {
+        while (queue.size() >= queueSize) {
+            if (dropPolicy != DropPolicy.DROP_OLDEST) {
+                return false;
+            }
+
+            Publication dropped = queue.pollFirst();
+            dropped.future.completeExceptionally(new MqttProtocolException(
+                    "Message for topic '" + dropped.topic + "' has been dropped because outbound queue is full"
+            ));
+        }
+        queue.addLast(publication);
+        return true;
+    }
+
+    @Override
+    public synchronized List<Publication> poll(int max) {
+        List<Publication> batch = new ArrayList<>(Math.min(max, queue.size()));
+        while (batch.size() < max && !queue.isEmpty()) {
+            Publication publication = queue.pollFirst();
+            inflight.add(publication);
+            batch.add(publication);
+        }
+        return batch;
+    }
+
+    @Override
+    public synchronized void acknowledge(Publication publication) {
+        inflight.remove(publication);
+    }
+
+    @Override
+    public synchronized void rewind() {
+        // hand out unacknowledged messages again in their original order
+        for (int i = inflight.size() - 1; i >= 0; i--) {
+            queue.addFirst(inflight.get(i));
+        }
+        inflight.clear();
+    }
+
+    @Override
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    @Override
+    public synchronized void close() {
+        rewind();
+        Publication publication;
+        while ((publication = queue.poll()) != null) {
+            publication.future.completeExceptionally(new MqttProtocolException("Connection has been closed"));
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.thing.form.Form;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class represents the connection to a MQTT broker that is shared by {@link
+ * MqttProtocolClient} and {@link MqttProtocolServer}. Depending on the configuration, it is either
+ * backed by a client connected to a remote broker ({@link PahoMqttConnection}) or attached
+ * directly to an embedded broker running in the same JVM ({@link EmbeddedMqttConnection}).
+ */
+abstract class MqttConnection {
+    private static final Logger log = LoggerFactory.getLogger(MqttConnection.class);
+
+    /**
+     * Queues <code>message</code> for publication to <code>topic</code>. The returned future is
+     * completed as soon as the broker has acknowledged the message (or the message has been
+     * written to the network for QoS 0). If the outbound queue (or, for an embedded broker, the
+     * queue of a local subscriber) is full, the returned future fails immediately.
+     *
+     * @param topic
+     * @param message
+     * @return
+     */
+    public abstract CompletableFuture<Void> publish(String topic, MqttMessage message);
+
+    /**
+     * Passes all messages matching <code>filter</code> to <code>listener</code>. The broker is only
+     * asked to subscribe to <code>filter</code> if no other listener has subscribed to it before.
+     *
+     * @param filter
+     * @param qos
+     * @param listener
+     * @return
+     */
+    public abstract CompletableFuture<Void> subscribe(String filter,
+                                                      int qos,
+                                                      IMqttMessageListener listener);
+
+    /**
+     * Stops passing messages matching <code>filter</code> to <code>listener</code>. The broker is
+     * asked to unsubscribe from <code>filter</code> as soon as no listener is left.
+     *
+     * @param filter
+     * @param listener
+     * @return
+     */
+    public abstract CompletableFuture<Void> unsubscribe(String filter,
+                                                        IMqttMessageListener listener);
+
+    /**
+     * Returns the URI under which the broker can be reached by other servients.
+     *
+     * @return
+     */
+    public abstract String getBroker();
+
+    /**
+     * Returns the number of messages that are waiting for a free slot in the in-flight window.
+     *
+     * @return
+     */
+    public abstract int getQueuedCount();
+
+    public abstract void close() throws MqttException;
+
+    /**
+     * Creates a new {@link MqttMessage} with the given <code>payload</code>. QoS and retain flag
+     * are taken from the "mqtt:qos" and "mqtt:retain" metadata of <code>form</code>. If the form
+     * does not contain this metadata, <code>defaultQos</code> and no retain flag is used.
+     *
+     * @param form
+     * @param payload
+     * @param defaultQos
+     * @return
+     */
+    static MqttMessage createMessage(Form form, byte[] payload, int defaultQos) {
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(getQos(form, defaultQos));
+        message.setRetained(isRetain(form));
+        return message;
+    }
+
+    static int getQos(Form form, int defaultQos) {
+        Object qos = form.getOptional("mqtt:qos");
+        if (qos instanceof Number) {
+            return ((Number) qos).intValue();
+        }
+        else if (qos instanceof String) {
+            try {
+                return Integer.parseInt((String) qos);
+            }
+            catch (NumberFormatException e) {
+                log.warn("Form contains invalid mqtt:qos '{}'. Use default QoS {}", qos, defaultQos);
+            }
+        }
+        return defaultQos;
+    }
+
+    static boolean isRetain(Form form) {
+        Object retain = form.getOptional("mqtt:retain");
+        if (retain instanceof Boolean) {
+            return (Boolean) retain;
+        }
+        else if (retain instanceof String) {
+            return Boolean.parseBoolean((String) retain);
+        }
+        return false;
+    }
+}
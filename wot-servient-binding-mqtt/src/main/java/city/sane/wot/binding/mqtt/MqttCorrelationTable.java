@@ -0,0 +1,184 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.ProtocolClientException;
+import city.sane.wot.content.Content;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Implements the request-response pattern on top of MQTT. Each request is published to the topic
+ * of the requested interaction extended by "/&lt;client id&gt;/&lt;correlation id&gt;".
+ * {@link MqttProtocolServer} answers to "&lt;client id&gt;/responses/&lt;correlation id&gt;" or,
+ * if the request failed, to "&lt;client id&gt;/responses/&lt;correlation id&gt;/error". All
+ * responses are received via a single wildcard subscription and are matched to the waiting
+ * requests by their correlation id.
+ */
+class MqttCorrelationTable implements IMqttMessageListener {
+    private static final Logger log = LoggerFactory.getLogger(MqttCorrelationTable.class);
+    private static final String ERROR_SUFFIX = "/error";
+    private final MqttConnection connection;
+    private final String clientId;
+    private final String responsePrefix;
+    private final int qos;
+    private final Duration timeout;
+    private final Map<String, PendingRequest> requests;
+    private final AtomicLong nextCorrelationId;
+
+    MqttCorrelationTable(MqttConnection connection,
+                         String clientId,
+                         int qos,
+                         Duration timeout) {
+        this(connection, clientId, qos, timeout, new ConcurrentHashMap<>(), new AtomicLong());
+    }
+
+    MqttCorrelationTable(MqttConnection connection,
+                         String clientId,
+                         int qos,
+                         Duration timeout,
+                         Map<String, PendingRequest> requests,
+                         AtomicLong nextCorrelationId) {
+        this.connection = connection;
+        this.clientId = clientId;
+        this.responsePrefix = responseTopic(clientId, "");
+        this.qos = qos;
+        this.timeout = timeout;
+        this.requests = requests;
+        this.nextCorrelationId = nextCorrelationId;
+    }
+
+    public CompletableFuture<Void> start() {
+        log.debug("Subscribe to topic '{}#' to receive all responses.", responsePrefix);
+        return connection.subscribe(responsePrefix + "#", qos, this);
+    }
+
+    public CompletableFuture<Void> stop() {
+        log.debug("Unsubscribe from topic '{}#'", responsePrefix);
+        requests.values().forEach(request -> request.future.completeExceptionally(
+                new ProtocolClientException("MqttClient has been stopped before response was received")
+        ));
+        requests.clear();
+        return connection.unsubscribe(responsePrefix + "#", this);
+    }
+
+    /**
+     * Publishes <code>message</code> as request to <code>topic</code> and returns a future that is
+     * completed with the response. The future fails if no response is received within the
+     * configured request timeout.
+     *
+     * @param topic
+     * @param message
+     * @param contentType content type of the expected response
+     * @return
+     */
+    public CompletableFuture<Content> request(String topic, MqttMessage message, String contentType) {
+        // client id and counter make the correlation id unique on the broker
+        String correlationId = Long.toString(nextCorrelationId.incrementAndGet(), Character.MAX_RADIX);
+        CompletableFuture<Content> future = new CompletableFuture<>();
+        requests.put(correlationId, new PendingRequest(contentType, future));
+
+        CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS).execute(() -> {
+            if (requests.remove(correlationId) != null) {
+                future.completeExceptionally(new ProtocolClientException(
+                        "No response received for request to topic '" + topic + "' within " + timeout.toMillis() + "ms"
+                ));
+            }
+        });
+
+        String requestTopic = topic + "/" + clientId + "/" + correlationId;
+        log.debug("Send request to topic '{}'", requestTopic);
+        connection.publish(requestTopic, message).whenComplete((result, e) -> {
+            if (e != null && requests.remove(correlationId) != null) {
+                future.completeExceptionally(new ProtocolClientException(
+                        "Unable to send request to topic '" + topic + "': " + e.getMessage()
+                ));
+            }
+        });
+
+        return future;
+    }
+
+    /**
+     * Returns the number of requests that are still waiting for a response.
+     *
+     * @return
+     */
+    public int getPendingCount() {
+        return requests.size();
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        String correlationId = topic.substring(responsePrefix.length());
+        boolean error = correlationId.endsWith(ERROR_SUFFIX);
+        if (error) {
+            correlationId = correlationId.substring(0, correlationId.length() - ERROR_SUFFIX.length());
+        }
+
+        PendingRequest request = requests.remove(correlationId);
+        if (request == null) {
+            log.debug("Received response for unknown or timed out request '{}'", correlationId);
+            return;
+        }
+
+        if (error) {
+            request.future.completeExceptionally(new ProtocolClientException(new String(message.getPayload(), UTF_8)));
+        }
+        else {
+            request.future.complete(new Content(request.contentType, message.getPayload()));
+        }
+    }
+
+    /**
+     * Returns the topic to which the response for the request with <code>correlationId</code>
+     * sent by <code>clientId</code> is published.
+     *
+     * @param clientId
+     * @param correlationId
+     * @return
+     */
+    static String responseTopic(String clientId, String correlationId) {
+        return clientId + "/responses/" + correlationId;
+    }
+
+    static class PendingRequest {
+        private final String contentType;
+        private final CompletableFuture<Content> future;
+
+        PendingRequest(String contentType, CompletableFuture<Content> future) {
+            this.contentType = contentType;
+            this.future = future;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.content.Content;
+import city.sane.wot.content.ContentCodecException;
+import city.sane.wot.content.ContentManager;
+import city.sane.wot.thing.Thing;
+import city.sane.wot.thing.schema.StringSchema;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.Subject;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps a live copy of all Thing Descriptions retained by the broker. {@link MqttProtocolServer}
+ * publishes the description of every exposed Thing as retained message to the topic named after
+ * the Thing ID and clears the message when the Thing is destroyed. This cache stays subscribed to
+ * these topics while the {@link MqttProtocolClientFactory} is running, so that descriptions are
+ * parsed only once per change and discovery can be answered without asking the broker.
+ */
+class MqttDiscoveryCache implements IMqttMessageListener {
+    private static final Logger log = LoggerFactory.getLogger(MqttDiscoveryCache.class);
+    private static final String TOPIC = "+";
+    private final MqttConnection connection;
+    private final Map<String, Thing> things;
+    private final Subject<Thing> updates;
+
+    MqttDiscoveryCache(MqttConnection connection) {
+        this(connection, new ConcurrentHashMap<>(), PublishSubject.<Thing>create().toSerialized());
+    }
+
+    MqttDiscoveryCache(MqttConnection connection,
+                       Map<String, Thing> things,
+                       Subject<Thing> updates) {
+        this.connection = connection;
+        this.things = things;
+        this.updates = updates;
+    }
+
+    public CompletableFuture<Void> start() {
+        log.debug("Subscribe to topic '{}' to receive all Thing Descriptions.", TOPIC);
+        return connection.subscribe(TOPIC, 0, this);
+    }
+
+    public CompletableFuture<Void> stop() {
+        log.debug("Unsubscribe from topic '{}'", TOPIC);
+        CompletableFuture<Void> future = connection.unsubscribe(TOPIC, this);
+        things.clear();
+        return future;
+    }
+
+    /**
+     * Returns a snapshot of all currently known Things.
+     *
+     * @return
+     */
+    public Collection<Thing> getThings() {
+        return new ArrayList<>(things.values());
+    }
+
+    /**
+     * Returns an {@link Observable} that emits every Thing whose description has been added or
+     * changed after subscription.
+     *
+     * @return
+     */
+    public Observable<Thing> getUpdates() {
+        return updates;
+    }
+
+    @Override
+    public void messageArrived(String topic, MqttMessage message) {
+        if (message.getPayload().length == 0) {
+            // an empty retained message removes the description from the broker
+            log.debug("Thing Description at topic '{}' has been removed", topic);
+            things.remove(topic);
+            return;
+        }
+
+        try {
+            Content content = new Content(message.getPayload());
+            String json = ContentManager.contentToValue(content, new StringSchema());
+            Thing thing = Thing.fromJson(json);
+            if (thing != null) {
+                log.debug("Received Thing Description with topic '{}'", topic);
+                things.put(topic, thing);
+                updates.onNext(thing);
+            }
+        }
+        catch (ContentCodecException e) {
+            log.debug("Message with topic '{}' does not contain a Thing Description: {}", topic, e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Holds the messages published via {@link PahoMqttConnection} until they have been acknowledged
+ * by the broker. Messages are handed out in the order in which they have been offered. The future
+ * of a message is completed by the connection once the broker has acknowledged the message.
+ */
+interface MqttOutbox {
+    /**
+     * Adds <code>publication</code> to the end of the outbox. If the outbox is full, the configured
+     * {@link DropPolicy} decides whether <code>publication</code> is rejected or the oldest
+     * pending message is dropped instead.
+     *
+     * @param publication
+     * @return <code>false</code> if <code>publication</code> has been rejected
+     */
+    boolean offer(Publication publication);
+
+    /**
+     * Hands out up to <code>max</code> messages that have not been handed out before.
+     *
+     * @param max
+     * @return
+     */
+    List<Publication> poll(int max);
+
+    /**
+     * Marks <code>publication</code> as delivered to the broker.
+     *
+     * @param publication
+     */
+    void acknowledge(Publication publication);
+
+    /**
+     * Hands out all messages that have not been acknowledged again. Called after the connection to
+     * the broker has been reestablished.
+     */
+    void rewind();
+
+    /**
+     * Returns the number of messages that have not been handed out yet.
+     *
+     * @return
+     */
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    void close();
+
+    /**
+     * Decides what happens to a new message if the outbox is full.
+     */
+    enum DropPolicy {
+        /**
+         * Rejects the new message.
+         */
+        DROP_NEWEST,
+        /**
+         * Drops the oldest message that has not been handed out yet to make room for the new one.
+         */
+        DROP_OLDEST;
+
+        static DropPolicy fromString(String value) throws MqttProtocolException {
+            switch (value) {
+                case "drop-newest":
+                    return DROP_NEWEST;
+                case "drop-oldest":
+                    return DROP_OLDEST;
+                default:
+                    throw new MqttProtocolException("Unknown drop policy '" + value + "'. Use drop-newest or drop-oldest");
+            }
+        }
+    }
+
+    class Publication {
+        final String topic;
+        final MqttMessage message;
+        final CompletableFuture<Void> future;
+
+        Publication(String topic, MqttMessage message, CompletableFuture<Void> future) {
+            this.topic = topic;
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
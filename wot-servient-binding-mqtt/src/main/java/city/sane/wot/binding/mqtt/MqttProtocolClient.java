@@ -25,15 +25,12 @@ import city.sane.Pair;
 import city.sane.wot.binding.ProtocolClient;
 import city.sane.wot.binding.ProtocolClientException;
 import city.sane.wot.content.Content;
-import city.sane.wot.content.ContentManager;
 import city.sane.wot.thing.Thing;
 import city.sane.wot.thing.filter.ThingFilter;
 import city.sane.wot.thing.form.Form;
-import city.sane.wot.thing.schema.StringSchema;
 import io.reactivex.rxjava3.annotations.NonNull;
 import io.reactivex.rxjava3.core.Observable;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,10 +38,13 @@ import org.slf4j.LoggerFactory;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
+import static java.util.concurrent.CompletableFuture.failedFuture;
+
 /**
  * Allows consuming Things via MQTT. TODO: Currently the client always connects to the MQTT broker
  * defined in the application.conf, no matter which MQTT broker is defined in the Thing Description
@@ -52,18 +52,36 @@ import java.util.concurrent.TimeUnit;
 public class MqttProtocolClient implements ProtocolClient {
     private static final Logger log = LoggerFactory.getLogger(MqttProtocolClient.class);
     private final Map<String, Observable<Content>> topicSubjects;
-    private final Pair<MqttProtocolSettings, MqttClient> settingsClientPair;
-
-    public MqttProtocolClient(Pair<MqttProtocolSettings, MqttClient> settingsClientPair) {
-        this(settingsClientPair, new HashMap<>());
+    private final Pair<MqttProtocolSettings, MqttConnection> settingsClientPair;
+    private final MqttDiscoveryCache discoveryCache;
+    private final MqttCorrelationTable correlationTable;
+
+    MqttProtocolClient(Pair<MqttProtocolSettings, MqttConnection> settingsClientPair,
+                       MqttDiscoveryCache discoveryCache,
+                       MqttCorrelationTable correlationTable) {
+        this(settingsClientPair, discoveryCache, correlationTable, new HashMap<>());
     }
 
-    MqttProtocolClient(Pair<MqttProtocolSettings, MqttClient> settingsClientPair,
+    MqttProtocolClient(Pair<MqttProtocolSettings, MqttConnection> settingsClientPair,
+                       MqttDiscoveryCache discoveryCache,
+                       MqttCorrelationTable correlationTable,
                        Map<String, Observable<Content>> topicSubjects) {
         this.settingsClientPair = settingsClientPair;
+        this.discoveryCache = discoveryCache;
+        this.correlationTable = correlationTable;
         this.topicSubjects = topicSubjects;
     }
 
+    @Override
+    public CompletableFuture<Content> readResource(Form form) {
+        return requestResource(form, null);
+    }
+
+    @Override
+    public CompletableFuture<Content> writeResource(Form form, Content content) {
+        return requestResource(form, content);
+    }
+
     @Override
     public CompletableFuture<Content> invokeResource(Form form) {
         return invokeResource(form, null);
@@ -73,10 +91,14 @@ public class MqttProtocolClient implements ProtocolClient {
     public CompletableFuture<Content> invokeResource(Form form, Content content) {
         CompletableFuture<Content> future = new CompletableFuture<>();
 
+        if (isRequestResponse(form)) {
+            return requestResource(form, content);
+        }
+
         try {
             String topic = new URI(form.getHref()).getPath().substring(1);
 
-            publishToTopic(content, future, topic);
+            publishToTopic(form, content, future, topic);
         }
         catch (URISyntaxException e) {
             future.completeExceptionally(
@@ -98,81 +120,110 @@ public class MqttProtocolClient implements ProtocolClient {
         }
     }
 
+    /**
+     * Answers with all Thing Descriptions currently known by the {@link MqttDiscoveryCache} and
+     * then streams newly published descriptions until the configured discover timeout expires.
+     * Each Thing is emitted only once, even if it is part of the snapshot and is published again
+     * while the discovery is running. The query of <code>filter</code> is applied locally, because
+     * the broker only knows topics.
+     *
+     * @param filter
+     * @return
+     */
     @Override
     public Observable<Thing> discover(ThingFilter filter) {
-        return Observable
-                .using(
-                        () -> null,
-                        ignore -> Observable.create(source -> {
-                            log.debug("Subscribe to topic '+' to receive all Thing Descriptions.");
-                            settingsClientPair.second().subscribe("+", (topic, message) -> {
-                                log.debug("Received Message for Discovery with topic '{}': {}", topic, message);
-                                Content content = new Content(message.getPayload());
-                                String json = ContentManager.contentToValue(content, new StringSchema());
-                                Thing thing = Thing.fromJson(json);
-                                source.onNext(thing);
-                            });
-                        }),
-                        ignore -> {
-                            log.debug("Discovery is completed. Unsubscribe from topic '+'");
-                            settingsClientPair.second().unsubscribe("+");
-                        }
-                )
-                .takeUntil(Observable.timer(5, TimeUnit.SECONDS))
-                .map(n -> (Thing) n);
+        // subscribe to updates first, so that no description published in the meantime is missed
+        return discoveryCache.getUpdates()
+                .takeUntil(Observable.timer(settingsClientPair.first().getDiscoverTimeout().toMillis(), TimeUnit.MILLISECONDS))
+                .mergeWith(Observable.defer(() -> Observable.fromIterable(discoveryCache.getThings())))
+                .distinct(thing -> thing.getId() != null ? thing.getId() : thing)
+                .filter(thing -> {
+                    if (filter.getQuery() != null) {
+                        return !filter.getQuery().filter(List.of(thing)).isEmpty();
+                    }
+                    else {
+                        return true;
+                    }
+                });
+    }
+
+    private CompletableFuture<Content> requestResource(Form form, Content content) {
+        try {
+            String topic = new URI(form.getHref()).getPath().substring(1);
+
+            MqttMessage message = MqttConnection.createMessage(form, content != null ? content.getBody() : new byte[0], settingsClientPair.first().getQos());
+            return correlationTable.request(topic, message, form.getContentType());
+        }
+        catch (URISyntaxException e) {
+            return failedFuture(new ProtocolClientException("Unable to extract topic from href '" + form.getHref() + "'"));
+        }
+    }
+
+    /**
+     * Forms of actions exposed by older {@link MqttProtocolServer} versions do not answer
+     * invocations. Request-response is therefore only used if the form explicitly declares it.
+     *
+     * @param form
+     * @return
+     */
+    private static boolean isRequestResponse(Form form) {
+        Object requestResponse = form.getOptional("mqtt:requestResponse");
+        return Boolean.TRUE.equals(requestResponse) || "true".equals(requestResponse);
     }
 
     @NonNull
     private Observable<Content> topicObserver(Form form, String topic) {
-        return Observable.using(
-                () -> null,
-                ignore -> Observable.<Content>create(source -> {
-                    log.debug("MqttClient connected to broker at '{}' subscribe to topic '{}'", settingsClientPair.first().getBroker(), topic);
-
-                    try {
-                        settingsClientPair.second().subscribe(topic, (receivedTopic, message) -> {
-                            log.debug("MqttClient received message from broker '{}' for topic '{}'", settingsClientPair.first().getBroker(), receivedTopic);
-                            Content content = new Content(form.getContentType(), message.getPayload());
-                            source.onNext(content);
-                        });
-                    }
-                    catch (MqttException e) {
-                        log.warn("Exception occured while trying to subscribe to broker '{}' and topic '{}': {}", settingsClientPair.first().getBroker(), topic, e.getMessage());
-                        source.onError(e);
-                    }
-                }),
-                ignore -> {
-                    log.debug("MqttClient subscriptions of broker '{}' and topic '{}' has no more observers. Remove subscription.", settingsClientPair.first().getBroker(), topic);
-
-                    try {
-                        settingsClientPair.second().unsubscribe(topic);
-                    }
-                    catch (MqttException e) {
+        return Observable.<Content>create(source -> {
+            log.debug("MqttClient connected to broker at '{}' subscribe to topic '{}'", settingsClientPair.first().getBroker(), topic);
+
+            IMqttMessageListener listener = (receivedTopic, message) -> {
+                log.debug("MqttClient received message from broker '{}' for topic '{}'", settingsClientPair.first().getBroker(), receivedTopic);
+                Content content = new Content(form.getContentType(), message.getPayload());
+                source.onNext(content);
+            };
+            source.setCancellable(() -> {
+                log.debug("MqttClient subscriptions of broker '{}' and topic '{}' has no more observers. Remove subscription.", settingsClientPair.first().getBroker(), topic);
+
+                settingsClientPair.second().unsubscribe(topic, listener).whenComplete((result, e) -> {
+                    if (e != null) {
                         log.warn("Exception occured while trying to unsubscribe from broker '{}' and topic '{}': {}", settingsClientPair.first().getBroker(), topic, e.getMessage());
                     }
+                });
+            });
+
+            int qos = MqttConnection.getQos(form, settingsClientPair.first().getQos());
+            settingsClientPair.second().subscribe(topic, qos, listener).whenComplete((result, e) -> {
+                if (e != null) {
+                    log.warn("Exception occured while trying to subscribe to broker '{}' and topic '{}': {}", settingsClientPair.first().getBroker(), topic, e.getMessage());
+                    source.onError(e);
                 }
-        ).share();
+            });
+        }).share();
     }
 
-    private void publishToTopic(Content content, CompletableFuture<Content> future, String topic) {
-        try {
-            log.debug("MqttClient at '{}' publishing to topic '{}'", settingsClientPair.first().getBroker(), topic);
-            byte[] payload;
-            if (content != null) {
-                payload = content.getBody();
+    private void publishToTopic(Form form,
+                                Content content,
+                                CompletableFuture<Content> future,
+                                String topic) {
+        log.debug("MqttClient at '{}' publishing to topic '{}'", settingsClientPair.first().getBroker(), topic);
+        byte[] payload;
+        if (content != null) {
+            payload = content.getBody();
+        }
+        else {
+            payload = new byte[0];
+        }
+        MqttMessage message = MqttConnection.createMessage(form, payload, settingsClientPair.first().getQos());
+        settingsClientPair.second().publish(topic, message).whenComplete((result, e) -> {
+            if (e == null) {
+                // MQTT does not support the request-response pattern. return empty message
+                future.complete(Content.EMPTY_CONTENT);
             }
             else {
-                payload = new byte[0];
+                future.completeExceptionally(new ProtocolClientException(
+                        "MqttClient at '" + settingsClientPair.first().getBroker() + "' cannot publish data for topic '" + topic + "': " + e.getMessage()
+                ));
             }
-            settingsClientPair.second().publish(topic, new MqttMessage(payload));
-
-            // MQTT does not support the request-response pattern. return empty message
-            future.complete(Content.EMPTY_CONTENT);
-        }
-        catch (MqttException e) {
-            future.completeExceptionally(new ProtocolClientException(
-                    "MqttClient at '" + settingsClientPair.first().getBroker() + "' cannot publish data for topic '" + topic + "': " + e.getMessage()
-            ));
-        }
+        });
     }
 }
\ No newline at end of file
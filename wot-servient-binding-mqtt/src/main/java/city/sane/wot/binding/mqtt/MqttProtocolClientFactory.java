@@ -27,7 +27,6 @@ import city.sane.RefCountResourceException;
 import city.sane.wot.ServientDiscoveryIgnore;
 import city.sane.wot.binding.ProtocolClientFactory;
 import com.typesafe.config.Config;
-import org.eclipse.paho.client.mqttv3.MqttClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -43,8 +42,10 @@ import static java.util.concurrent.CompletableFuture.runAsync;
 @ServientDiscoveryIgnore
 public class MqttProtocolClientFactory implements ProtocolClientFactory {
     private static final Logger log = LoggerFactory.getLogger(MqttProtocolClientFactory.class);
-    private final RefCountResource<Pair<MqttProtocolSettings, MqttClient>> settingsClientPairProvider;
-    private Pair<MqttProtocolSettings, MqttClient> settingsClientPair;
+    private final RefCountResource<Pair<MqttProtocolSettings, MqttConnection>> settingsClientPairProvider;
+    private Pair<MqttProtocolSettings, MqttConnection> settingsClientPair;
+    private MqttDiscoveryCache discoveryCache;
+    private MqttCorrelationTable correlationTable;
 
     public MqttProtocolClientFactory(Config config) {
         settingsClientPairProvider = SharedMqttClientProvider.singleton(config);
@@ -57,7 +58,7 @@ public class MqttProtocolClientFactory implements ProtocolClientFactory {
 
     @Override
     public MqttProtocolClient getClient() {
-        return new MqttProtocolClient(settingsClientPair);
+        return new MqttProtocolClient(settingsClientPair, discoveryCache, correlationTable);
     }
 
     @Override
@@ -72,6 +73,11 @@ public class MqttProtocolClientFactory implements ProtocolClientFactory {
                 catch (RefCountResourceException e) {
                     throw new CompletionException(e);
                 }
+            }).thenCompose(ignore -> {
+                MqttProtocolSettings settings = settingsClientPair.first();
+                discoveryCache = new MqttDiscoveryCache(settingsClientPair.second());
+                correlationTable = new MqttCorrelationTable(settingsClientPair.second(), settings.getClientId(), settings.getQos(), settings.getRequestTimeout());
+                return CompletableFuture.allOf(discoveryCache.start(), correlationTable.start());
             });
         }
         else {
@@ -84,7 +90,7 @@ public class MqttProtocolClientFactory implements ProtocolClientFactory {
         log.debug("Disconnect MqttClient");
 
         if (settingsClientPair != null) {
-            return runAsync(() -> {
+            return CompletableFuture.allOf(discoveryCache.stop(), correlationTable.stop()).handle((result, e) -> null).thenRunAsync(() -> {
                 try {
                     settingsClientPairProvider.release();
                 }
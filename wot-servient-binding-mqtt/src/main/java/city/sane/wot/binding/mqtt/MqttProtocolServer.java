@@ -41,10 +41,7 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.typesafe.config.Config;
 import io.reactivex.rxjava3.disposables.Disposable;
-import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
-import org.eclipse.paho.client.mqttv3.MqttCallback;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -56,6 +53,7 @@ import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static java.util.concurrent.CompletableFuture.failedFuture;
 import static java.util.concurrent.CompletableFuture.runAsync;
@@ -67,13 +65,14 @@ import static java.util.concurrent.CompletableFuture.runAsync;
 public class MqttProtocolServer implements ProtocolServer {
     private static final Logger log = LoggerFactory.getLogger(MqttProtocolServer.class);
     private final Map<String, ExposedThing> things = new HashMap<>();
-    private final RefCountResource<Pair<MqttProtocolSettings, MqttClient>> mqttClientProvider;
+    private final RefCountResource<Pair<MqttProtocolSettings, MqttConnection>> mqttClientProvider;
     private final Multimap<String, Disposable> subscriptions;
-    private Pair<MqttProtocolSettings, MqttClient> settingsClientPair;
+    private final Multimap<String, Pair<String, IMqttMessageListener>> requestListeners = HashMultimap.create();
+    private Pair<MqttProtocolSettings, MqttConnection> settingsClientPair;
 
-    MqttProtocolServer(RefCountResource<Pair<MqttProtocolSettings, MqttClient>> mqttClientProvider,
+    MqttProtocolServer(RefCountResource<Pair<MqttProtocolSettings, MqttConnection>> mqttClientProvider,
                        Multimap<String, Disposable> subscriptions,
-                       Pair<MqttProtocolSettings, MqttClient> settingsClientPair) {
+                       Pair<MqttProtocolSettings, MqttConnection> settingsClientPair) {
         this.mqttClientProvider = mqttClientProvider;
         this.subscriptions = subscriptions;
         this.settingsClientPair = settingsClientPair;
@@ -143,7 +142,6 @@ public class MqttProtocolServer implements ProtocolServer {
         exposeActions(thing, baseUrl);
         exposeEvents(thing, baseUrl);
         exposeTD(thing);
-        listenOnMqttMessages();
 
         return completedFuture(null);
     }
@@ -158,6 +156,7 @@ public class MqttProtocolServer implements ProtocolServer {
         log.info("MqttServer stop exposing '{}' as unique '/{}/*'", thing.getId(), thing.getId());
 
         unexposeTD(thing);
+        unexposeRequests(thing);
 
         // dispose all created subscriptions
         Collection<Disposable> thingSubscriptions = subscriptions.removeAll(thing.getId());
@@ -171,7 +170,8 @@ public class MqttProtocolServer implements ProtocolServer {
     }
 
     private String createUrl() {
-        String base = "mqtt" + settingsClientPair.first().getBroker().substring(settingsClientPair.first().getBroker().indexOf("://"));
+        String broker = settingsClientPair.second().getBroker();
+        String base = "mqtt" + broker.substring(broker.indexOf("://"));
         if (!base.endsWith("/")) {
             base = base + "/";
         }
@@ -180,53 +180,126 @@ public class MqttProtocolServer implements ProtocolServer {
 
     private void exposeProperties(ExposedThing thing, String baseUrl) {
         Map<String, ExposedThingProperty<Object>> properties = thing.getProperties();
+        if (properties.isEmpty()) {
+            return;
+        }
+
+        // read and write requests are published to "<thing>/properties/<name>/<op>/<client id>/<correlation id>"
+        String prefix = thing.getId() + "/properties/";
+        listenOnRequests(thing, prefix + "+/+/+/+", (topic, message) -> {
+            log.debug("MqttServer received message for '{}'", topic);
+            propertyMessageArrived(thing, topic.substring(prefix.length()), message);
+        });
+
         properties.forEach((name, property) -> {
-            String topic = thing.getId() + "/properties/" + name;
+            String topic = prefix + name;
+
+            String href = baseUrl + topic;
+            Form form = new Form.Builder()
+                    .setHref(href)
+                    .setContentType(settingsClientPair.first().getContentType())
+                    .setOp(Operation.OBSERVE_PROPERTY, Operation.UNOBSERVE_PROPERTY)
+                    .setOptional("mqtt:qos", settingsClientPair.first().getQos())
+                    .setOptional("mqtt:retain", false)
+                    .build();
 
             Disposable subscription = property.observer()
-                    .map(optional -> ContentManager.valueToContent(optional.orElse(null)))
-                    .map(content -> new MqttMessage(content.getBody()))
+                    .map(optional -> ContentManager.valueToContent(optional.orElse(null), form.getContentType()))
                     .subscribe(
-                            mqttMessage -> settingsClientPair.second().publish(topic, mqttMessage),
+                            content -> publish(form, topic, content),
                             e -> log.warn("MqttServer cannot publish data for topic '{}': {}", topic, e.getMessage()),
                             () -> {
                             }
                     );
             subscriptions.put(thing.getId(), subscription);
 
-            String href = baseUrl + topic;
-            Form form = new Form.Builder()
-                    .setHref(href)
-                    .setContentType(ContentManager.DEFAULT)
-                    .setOp(Operation.OBSERVE_PROPERTY, Operation.UNOBSERVE_PROPERTY)
-                    .build();
             property.addForm(form);
             log.debug("Assign '{}' to Property '{}'", href, name);
+
+            if (!property.isWriteOnly()) {
+                Form readForm = new Form.Builder()
+                        .setHref(href + "/readproperty")
+                        .setContentType(settingsClientPair.first().getContentType())
+                        .setOp(Operation.READ_PROPERTY)
+                        .setOptional("mqtt:qos", settingsClientPair.first().getQos())
+                        .setOptional("mqtt:requestResponse", true)
+                        .build();
+                property.addForm(readForm);
+                log.debug("Assign '{}' to Property '{}'", readForm.getHref(), name);
+            }
+
+            if (!property.isReadOnly()) {
+                Form writeForm = new Form.Builder()
+                        .setHref(href + "/writeproperty")
+                        .setContentType(settingsClientPair.first().getContentType())
+                        .setOp(Operation.WRITE_PROPERTY)
+                        .setOptional("mqtt:qos", settingsClientPair.first().getQos())
+                        .setOptional("mqtt:requestResponse", true)
+                        .build();
+                property.addForm(writeForm);
+                log.debug("Assign '{}' to Property '{}'", writeForm.getHref(), name);
+            }
         });
     }
 
+    /**
+     * Subscribes to all actions of <code>thing</code> with a single wildcard subscription. Messages
+     * published directly to the action topic are treated as fire-and-forget invocations. Messages
+     * published to "&lt;action topic&gt;/&lt;client id&gt;/&lt;correlation id&gt;" are answered
+     * with the output of the action.
+     *
+     * @param thing
+     * @param baseUrl
+     */
     private void exposeActions(ExposedThing thing, String baseUrl) {
         Map<String, ExposedThingAction<Object, Object>> actions = thing.getActions();
+        if (actions.isEmpty()) {
+            return;
+        }
+
+        String prefix = thing.getId() + "/actions/";
+        listenOnRequests(thing, prefix + "#", (topic, message) -> {
+            log.debug("MqttServer received message for '{}'", topic);
+            actionMessageArrived(thing, topic.substring(prefix.length()), message);
+        });
+
         for (Map.Entry<String, ExposedThingAction<Object, Object>> entry : actions.entrySet()) {
             String name = entry.getKey();
             ExposedThingAction<Object, Object> action = entry.getValue();
 
-            String topic = thing.getId() + "/actions/" + name;
-            try {
-                settingsClientPair.second().subscribe(topic);
+            String href = baseUrl + prefix + name;
+            Form form = new Form.Builder()
+                    .setHref(href)
+                    .setContentType(settingsClientPair.first().getContentType())
+                    .setOp(Operation.INVOKE_ACTION)
+                    .setOptional("mqtt:qos", settingsClientPair.first().getQos())
+                    .setOptional("mqtt:retain", false)
+                    .setOptional("mqtt:requestResponse", true)
+                    .build();
+            action.addForm(form);
+            log.debug("Assign '{}' to Action '{}'", href, name);
+        }
+    }
 
-                String href = baseUrl + topic;
-                Form form = new Form.Builder()
-                        .setHref(href)
-                        .setContentType(ContentManager.DEFAULT)
-                        .setOp(Operation.INVOKE_ACTION)
-                        .build();
-                action.addForm(form);
-                log.debug("Assign '{}' to Action '{}'", href, name);
-            }
-            catch (MqttException e) {
-                throw new CompletionException(e);
+    private void listenOnRequests(ExposedThing thing,
+                                  String filter,
+                                  IMqttMessageListener listener) {
+        requestListeners.put(thing.getId(), new Pair<>(filter, listener));
+        settingsClientPair.second().subscribe(filter, settingsClientPair.first().getQos(), listener).whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("MqttServer cannot subscribe to topic '{}': {}", filter, e.getMessage());
             }
+        });
+    }
+
+    private void unexposeRequests(ExposedThing thing) {
+        for (Pair<String, IMqttMessageListener> pair : requestListeners.removeAll(thing.getId())) {
+            String filter = pair.first();
+            settingsClientPair.second().unsubscribe(filter, pair.second()).whenComplete((result, e) -> {
+                if (e != null) {
+                    log.warn("MqttServer cannot unsubscribe from topic '{}': {}", filter, e.getMessage());
+                }
+            });
         }
     }
 
@@ -235,30 +308,47 @@ public class MqttProtocolServer implements ProtocolServer {
         events.forEach((name, event) -> {
             String topic = thing.getId() + "/events/" + name;
 
+            String href = baseUrl + topic;
+            Form form = new Form.Builder()
+                    .setHref(href)
+                    .setContentType(settingsClientPair.first().getContentType())
+                    .setOp(Operation.SUBSCRIBE_EVENT, Operation.UNSUBSCRIBE_EVENT)
+                    .setOptional("mqtt:qos", settingsClientPair.first().getQos())
+                    .setOptional("mqtt:retain", false)
+                    .build();
+
             Disposable subscription = event.observer()
-                    .map(optional -> ContentManager.valueToContent(optional.orElse(null)))
-                    .map(content -> new MqttMessage(content.getBody()))
+                    .map(optional -> ContentManager.valueToContent(optional.orElse(null), form.getContentType()))
                     .subscribe(
-                            mqttMessage -> settingsClientPair.second().publish(topic, mqttMessage),
+                            content -> publish(form, topic, content),
                             e -> log.warn("MqttServer cannot publish data for topic '{}': {}", topic, e.getMessage()),
                             () -> {
                             }
                     );
             subscriptions.put(thing.getId(), subscription);
 
-            String href = baseUrl + topic;
-            Form form = new Form.Builder()
-                    .setHref(href)
-                    .setContentType(ContentManager.DEFAULT)
-                    .setOp(Operation.SUBSCRIBE_EVENT, Operation.UNSUBSCRIBE_EVENT)
-                    .setOptional("mqtt:qos", 0)
-                    .setOptional("mqtt:retain", false)
-                    .build();
             event.addForm(form);
             log.debug("Assign '{}' to Event '{}'", href, name);
         });
     }
 
+    /**
+     * Queues <code>content</code> for publication without waiting for the broker. If the outbound
+     * queue is full, the value is dropped and a warning is logged.
+     *
+     * @param form
+     * @param topic
+     * @param content
+     */
+    private void publish(Form form, String topic, Content content) {
+        MqttMessage message = MqttConnection.createMessage(form, content.getBody(), settingsClientPair.first().getQos());
+        settingsClientPair.second().publish(topic, message).whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("MqttServer cannot publish data for topic '{}': {}", topic, e.getMessage());
+            }
+        });
+    }
+
     private void exposeTD(ExposedThing thing) {
         String topic = thing.getId();
         log.debug("Publish '{}' Thing Description to topic '{}'", thing.getId(), topic);
@@ -267,9 +357,13 @@ public class MqttProtocolServer implements ProtocolServer {
             Content content = ContentManager.valueToContent(thing.toJson(true));
             MqttMessage mqttMessage = new MqttMessage(content.getBody());
             mqttMessage.setRetained(true);
-            settingsClientPair.second().publish(topic, mqttMessage);
+            settingsClientPair.second().publish(topic, mqttMessage).whenComplete((result, e) -> {
+                if (e != null) {
+                    log.warn("Unable to publish thing description to topic '{}': {}", topic, e.getMessage());
+                }
+            });
         }
-        catch (ContentCodecException | MqttException e) {
+        catch (ContentCodecException e) {
             log.warn("Unable to publish thing description to topic '{}': {}", topic, e.getMessage());
         }
     }
@@ -284,72 +378,127 @@ public class MqttProtocolServer implements ProtocolServer {
         String topic = thing.getId();
         log.debug("Remove published '{}' Thing Description at topic '{}'", thing.getId(), topic);
 
-        try {
-            MqttMessage mqttMessage = new MqttMessage();
-            mqttMessage.setRetained(true);
-            settingsClientPair.second().publish(topic, mqttMessage);
-        }
-        catch (MqttException e) {
-            log.warn("Unable to remove published thing description at topic '{}': {}", topic, e.getMessage());
-        }
-    }
-
-    private void listenOnMqttMessages() {
-        // connect incoming messages to Thing
-        settingsClientPair.second().setCallback(new MqttCallback() {
-            @Override
-            public void connectionLost(Throwable cause) {
-                log.info("MqttServer lost connection to broker: {}", cause.getMessage());
+        MqttMessage mqttMessage = new MqttMessage();
+        mqttMessage.setRetained(true);
+        settingsClientPair.second().publish(topic, mqttMessage).whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("Unable to remove published thing description at topic '{}': {}", topic, e.getMessage());
             }
+        });
+    }
 
-            @Override
-            public void messageArrived(String topic, MqttMessage message) {
-                log.info("MqttServer received message for '{}'", topic);
-
-                String[] segments = topic.split("/", 3);
-
-                if (segments.length == 3) {
-                    String thingId = segments[0];
-
-                    ExposedThing thing = things.get(thingId);
-                    if (thing != null) {
-                        if (segments[1].equals("actions")) {
-                            String actionName = segments[2];
-                            ExposedThingAction<Object, Object> action = thing.getAction(actionName);
-                            actionMessageArrived(message, action);
-                        }
-                    }
-                    else {
-                        // Thing not found
-                    }
-                }
-                else {
-                    // topic not found
-                    log.info("MqttServer received message for unexpected topic '{}'", topic);
-                }
+    /**
+     * Handles read and write requests. <code>request</code> has the form "&lt;name&gt;/&lt;op&gt;/&lt;client
+     * id&gt;/&lt;correlation id&gt;".
+     *
+     * @param thing
+     * @param request
+     * @param message
+     */
+    private void propertyMessageArrived(ExposedThing thing, String request, MqttMessage message) {
+        int nameEnd = request.indexOf('/');
+        int opEnd = request.indexOf('/', nameEnd + 1);
+        String name = request.substring(0, nameEnd);
+        String op = request.substring(nameEnd + 1, opEnd);
+        String requester = request.substring(opEnd + 1);
+
+        ExposedThingProperty<Object> property = thing.getProperty(name);
+        if (property == null) {
+            // Property not found
+            respond(requester, failedFuture(new ProtocolServerException("Property not found")));
+        }
+        else if (op.equals("readproperty")) {
+            respond(requester, property.read());
+        }
+        else if (op.equals("writeproperty")) {
+            try {
+                Content inputContent = new Content(settingsClientPair.first().getContentType(), message.getPayload());
+                Object input = ContentManager.contentToValue(inputContent, property);
+                respond(requester, property.write(input));
             }
-
-            @Override
-            public void deliveryComplete(IMqttDeliveryToken token) {
-                // do nothing
+            catch (ContentCodecException e) {
+                respond(requester, failedFuture(new ProtocolServerException("Unable to parse given input " + e.getMessage())));
             }
-        });
+        }
+        else {
+            log.info("MqttServer received message for unexpected topic '{}/properties/{}'", thing.getId(), request);
+        }
     }
 
-    private void actionMessageArrived(MqttMessage message,
-                                      ExposedThingAction<Object, Object> action) {
+    /**
+     * Handles action invocations. <code>request</code> has the form "&lt;name&gt;" or
+     * "&lt;name&gt;/&lt;client id&gt;/&lt;correlation id&gt;" if the caller expects a response.
+     *
+     * @param thing
+     * @param request
+     * @param message
+     */
+    private void actionMessageArrived(ExposedThing thing, String request, MqttMessage message) {
+        int nameEnd = request.indexOf('/');
+        String name = nameEnd != -1 ? request.substring(0, nameEnd) : request;
+        String requester = nameEnd != -1 ? request.substring(nameEnd + 1) : null;
+
+        ExposedThingAction<Object, Object> action = thing.getAction(name);
+        CompletableFuture<Object> output;
         if (action != null) {
-            Content inputContent = new Content(ContentManager.DEFAULT, message.getPayload());
+            Content inputContent = new Content(settingsClientPair.first().getContentType(), message.getPayload());
             try {
                 Object input = ContentManager.contentToValue(inputContent, action.getInput());
-                action.invoke(input);
+                output = action.invoke(input);
             }
             catch (ContentCodecException e) {
                 log.warn("Unable to parse input", e);
+                output = failedFuture(new ProtocolServerException("Unable to parse input of invoke operation: " + e.getMessage()));
             }
         }
         else {
             // Action not found
+            output = failedFuture(new ProtocolServerException("Action not found"));
+        }
+
+        if (requester != null) {
+            respond(requester, output);
+        }
+    }
+
+    /**
+     * Publishes the result of a request to the response topic of <code>requester</code>
+     * ("&lt;client id&gt;/&lt;correlation id&gt;"). Failures are published to the error topic.
+     *
+     * @param requester
+     * @param result
+     */
+    private void respond(String requester, CompletableFuture<?> result) {
+        int index = requester.indexOf('/');
+        if (index == -1 || requester.indexOf('/', index + 1) != -1) {
+            log.info("MqttServer received request with invalid response address '{}'", requester);
+            return;
         }
+        String topic = MqttCorrelationTable.responseTopic(requester.substring(0, index), requester.substring(index + 1));
+
+        result.whenComplete((value, e) -> {
+            if (e == null) {
+                try {
+                    publishResponse(topic, ContentManager.valueToContent(value, settingsClientPair.first().getContentType()).getBody());
+                }
+                catch (ContentCodecException ex) {
+                    publishResponse(topic + "/error", ("Unable to parse output: " + ex.getMessage()).getBytes(UTF_8));
+                }
+            }
+            else {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                publishResponse(topic + "/error", String.valueOf(cause.getMessage()).getBytes(UTF_8));
+            }
+        });
+    }
+
+    private void publishResponse(String topic, byte[] payload) {
+        MqttMessage message = new MqttMessage(payload);
+        message.setQos(settingsClientPair.first().getQos());
+        settingsClientPair.second().publish(topic, message).whenComplete((result, e) -> {
+            if (e != null) {
+                log.warn("MqttServer cannot publish response to topic '{}': {}", topic, e.getMessage());
+            }
+        });
     }
-}
+}
\ No newline at end of file
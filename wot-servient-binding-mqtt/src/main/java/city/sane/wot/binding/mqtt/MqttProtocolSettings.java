@@ -21,21 +21,44 @@
  */
 package city.sane.wot.binding.mqtt;
 
+import city.sane.wot.Servient;
+import city.sane.wot.binding.mqtt.MqttOutbox.DropPolicy;
+import city.sane.wot.content.ContentManager;
 import com.typesafe.config.Config;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttClientPersistence;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
 import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
 import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.concurrent.CompletionException;
+
 class MqttProtocolSettings {
     private static final Logger log = LoggerFactory.getLogger(MqttProtocolSettings.class);
     private final String broker;
     private final String clientId;
     private final String username;
     private final String password;
+    private final int maxInflight;
+    private final int queueSize;
+    private final int batchSize;
+    private final int qos;
+    private final Duration discoverTimeout;
+    private final Duration requestTimeout;
+    private final boolean embeddedBroker;
+    private final String embeddedBrokerBindHost;
+    private final int embeddedBrokerBindPort;
+    private final int embeddedBrokerMaxMessageSize;
+    private final String dropPolicy;
+    private final String contentType;
+    private final String offlineBufferDirectory;
+    private final int offlineBufferSegmentSize;
+    private final long offlineBufferMaxSize;
+    private final Duration offlineBufferSyncInterval;
 
     public MqttProtocolSettings(Config config) {
         if (config.hasPath("wot.servient.mqtt.broker")) {
@@ -50,7 +73,7 @@ class MqttProtocolSettings {
         }
         else {
             // generate random client id
-            clientId = "wot" + System.nanoTime();
+            clientId = "wot-" + UUID.randomUUID();
         }
 
         if (config.hasPath("wot.servient.mqtt.username")) {
@@ -66,31 +89,212 @@ class MqttProtocolSettings {
         else {
             password = null;
         }
+
+        if (config.hasPath("wot.servient.mqtt.max-inflight")) {
+            maxInflight = config.getInt("wot.servient.mqtt.max-inflight");
+        }
+        else {
+            maxInflight = MqttConnectOptions.MAX_INFLIGHT_DEFAULT;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.queue-size")) {
+            queueSize = config.getInt("wot.servient.mqtt.queue-size");
+        }
+        else {
+            queueSize = 10000;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.batch-size")) {
+            batchSize = config.getInt("wot.servient.mqtt.batch-size");
+        }
+        else {
+            batchSize = 100;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.qos")) {
+            qos = config.getInt("wot.servient.mqtt.qos");
+        }
+        else {
+            qos = 0;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.discover-timeout")) {
+            discoverTimeout = config.getDuration("wot.servient.mqtt.discover-timeout");
+        }
+        else {
+            discoverTimeout = Duration.ofSeconds(5);
+        }
+
+        if (config.hasPath("wot.servient.mqtt.request-timeout")) {
+            requestTimeout = config.getDuration("wot.servient.mqtt.request-timeout");
+        }
+        else {
+            requestTimeout = Duration.ofSeconds(10);
+        }
+
+        if (config.hasPath("wot.servient.mqtt.embedded-broker.enabled")) {
+            embeddedBroker = config.getBoolean("wot.servient.mqtt.embedded-broker.enabled");
+        }
+        else {
+            embeddedBroker = false;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.embedded-broker.bind-host")) {
+            embeddedBrokerBindHost = config.getString("wot.servient.mqtt.embedded-broker.bind-host");
+        }
+        else {
+            embeddedBrokerBindHost = "127.0.0.1";
+        }
+
+        if (config.hasPath("wot.servient.mqtt.embedded-broker.bind-port")) {
+            embeddedBrokerBindPort = config.getInt("wot.servient.mqtt.embedded-broker.bind-port");
+        }
+        else {
+            embeddedBrokerBindPort = 1883;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.embedded-broker.max-message-size")) {
+            embeddedBrokerMaxMessageSize = (int) config.getMemorySize("wot.servient.mqtt.embedded-broker.max-message-size").toBytes();
+        }
+        else {
+            embeddedBrokerMaxMessageSize = 256 * 1024;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.content-type")) {
+            contentType = config.getString("wot.servient.mqtt.content-type");
+        }
+        else {
+            contentType = ContentManager.DEFAULT;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.drop-policy")) {
+            dropPolicy = config.getString("wot.servient.mqtt.drop-policy");
+        }
+        else {
+            dropPolicy = "drop-newest";
+        }
+
+        if (config.hasPath("wot.servient.mqtt.offline-buffer.directory")) {
+            offlineBufferDirectory = config.getString("wot.servient.mqtt.offline-buffer.directory");
+        }
+        else {
+            offlineBufferDirectory = null;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.offline-buffer.segment-size")) {
+            offlineBufferSegmentSize = (int) config.getMemorySize("wot.servient.mqtt.offline-buffer.segment-size").toBytes();
+        }
+        else {
+            offlineBufferSegmentSize = 16 * 1024 * 1024;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.offline-buffer.max-size")) {
+            offlineBufferMaxSize = config.getMemorySize("wot.servient.mqtt.offline-buffer.max-size").toBytes();
+        }
+        else {
+            offlineBufferMaxSize = 256L * 1024 * 1024;
+        }
+
+        if (config.hasPath("wot.servient.mqtt.offline-buffer.sync-interval")) {
+            offlineBufferSyncInterval = config.getDuration("wot.servient.mqtt.offline-buffer.sync-interval");
+        }
+        else {
+            offlineBufferSyncInterval = Duration.ofSeconds(1);
+        }
     }
 
     MqttProtocolSettings(String broker, String clientId, String username, String password) {
+        this(broker, clientId, username, password, MqttConnectOptions.MAX_INFLIGHT_DEFAULT, 10000, 100, 0, Duration.ofSeconds(5), Duration.ofSeconds(10), false, "127.0.0.1", 1883, 256 * 1024, ContentManager.DEFAULT, "drop-newest", null, 16 * 1024 * 1024, 256L * 1024 * 1024, Duration.ofSeconds(1));
+    }
+
+    MqttProtocolSettings(String broker,
+                         String clientId,
+                         String username,
+                         String password,
+                         int maxInflight,
+                         int queueSize,
+                         int batchSize,
+                         int qos,
+                         Duration discoverTimeout,
+                         Duration requestTimeout,
+                         boolean embeddedBroker,
+                         String embeddedBrokerBindHost,
+                         int embeddedBrokerBindPort,
+                         int embeddedBrokerMaxMessageSize,
+                         String contentType,
+                         String dropPolicy,
+                         String offlineBufferDirectory,
+                         int offlineBufferSegmentSize,
+                         long offlineBufferMaxSize,
+                         Duration offlineBufferSyncInterval) {
         this.broker = broker;
         this.clientId = clientId;
         this.username = username;
         this.password = password;
+        this.maxInflight = maxInflight;
+        this.queueSize = queueSize;
+        this.batchSize = batchSize;
+        this.qos = qos;
+        this.discoverTimeout = discoverTimeout;
+        this.requestTimeout = requestTimeout;
+        this.embeddedBroker = embeddedBroker;
+        this.embeddedBrokerBindHost = embeddedBrokerBindHost;
+        this.embeddedBrokerBindPort = embeddedBrokerBindPort;
+        this.embeddedBrokerMaxMessageSize = embeddedBrokerMaxMessageSize;
+        this.contentType = contentType;
+        this.dropPolicy = dropPolicy;
+        this.offlineBufferDirectory = offlineBufferDirectory;
+        this.offlineBufferSegmentSize = offlineBufferSegmentSize;
+        this.offlineBufferMaxSize = offlineBufferMaxSize;
+        this.offlineBufferSyncInterval = offlineBufferSyncInterval;
     }
 
     public void validate() throws MqttProtocolException {
-        if (getBroker() == null || getBroker().isEmpty()) {
+        if (!isEmbeddedBroker() && (getBroker() == null || getBroker().isEmpty())) {
             throw new MqttProtocolException("No broker defined for MQTT server binding - skipping");
         }
+        if (getMaxInflight() < 1) {
+            throw new MqttProtocolException("wot.servient.mqtt.max-inflight must be at least 1");
+        }
+        if (getQueueSize() < 1) {
+            throw new MqttProtocolException("wot.servient.mqtt.queue-size must be at least 1");
+        }
+        if (getQos() < 0 || getQos() > 2) {
+            throw new MqttProtocolException("wot.servient.mqtt.qos must be 0, 1 or 2");
+        }
+        if (isEmbeddedBroker() && getQos() > 0) {
+            throw new MqttProtocolException("wot.servient.mqtt.qos must be 0, as the embedded broker does not retransmit messages");
+        }
+        if (!ContentManager.isSupportedMediaType(getContentType())) {
+            throw new MqttProtocolException("wot.servient.mqtt.content-type '" + getContentType() + "' is not supported");
+        }
+        DropPolicy.fromString(getDropPolicy());
+        if (getOfflineBufferDirectory() != null && getOfflineBufferSegmentSize() < 1024) {
+            throw new MqttProtocolException("wot.servient.mqtt.offline-buffer.segment-size must be at least 1k");
+        }
+        if (getOfflineBufferDirectory() != null && getOfflineBufferSyncInterval().isNegative()) {
+            throw new MqttProtocolException("wot.servient.mqtt.offline-buffer.sync-interval must not be negative");
+        }
     }
 
     public String getBroker() {
         return broker;
     }
 
-    public MqttClient createConnectedMqttClient() throws MqttProtocolException {
-        try (MqttClientPersistence persistence = new MemoryPersistence()) {
-            MqttClient client = new MqttClient(getBroker(), getClientId(), persistence);
+    public MqttConnection createConnection() throws MqttProtocolException {
+        if (isEmbeddedBroker()) {
+            return createEmbeddedConnection();
+        }
+
+        try {
+            MqttAsyncClient client = new MqttAsyncClient(getBroker(), getClientId(), new MemoryPersistence());
 
             MqttConnectOptions options = new MqttConnectOptions();
+            // unacknowledged messages are sent again from the outbox only. A persistent session
+            // would make the client retransmit them as well, resulting in duplicates out of order
             options.setCleanSession(true);
+            options.setAutomaticReconnect(true);
+            options.setMaxInflight(getMaxInflight());
             if (getUsername() != null) {
                 options.setUserName(getUsername());
             }
@@ -98,17 +302,72 @@ class MqttProtocolSettings {
                 options.setPassword(getPassword().toCharArray());
             }
 
+            PahoMqttConnection connection = new PahoMqttConnection(client, options, createOutbox(), getMaxInflight(), Math.max(1, getBatchSize()));
+
             log.info("MqttClient trying to connect to broker at '{}' with client ID '{}'", getBroker(), getClientId());
-            client.connect(options);
-            log.info("MqttClient connected to broker at '{}'", getBroker());
+            if (getOfflineBufferDirectory() != null) {
+                // messages are buffered on disk, so the servient can start while the broker is unreachable
+                connection.connect(true).thenRun(() -> log.info("MqttClient connected to broker at '{}'", getBroker()));
+            }
+            else {
+                try {
+                    connection.connect(false).join();
+                }
+                catch (CompletionException e) {
+                    connection.close();
+                    if (e.getCause() instanceof MqttProtocolException) {
+                        throw (MqttProtocolException) e.getCause();
+                    }
+                    throw new MqttProtocolException(e.getCause());
+                }
+                log.info("MqttClient connected to broker at '{}'", getBroker());
+            }
 
-            return client;
+            return connection;
         }
         catch (MqttException e) {
             throw new MqttProtocolException(e);
         }
     }
 
+    private MqttOutbox createOutbox() throws MqttProtocolException {
+        DropPolicy policy = DropPolicy.fromString(getDropPolicy());
+        if (getOfflineBufferDirectory() != null) {
+            return new MappedFileMqttOutbox(Paths.get(getOfflineBufferDirectory()), getOfflineBufferSegmentSize(), getOfflineBufferMaxSize(), policy, getOfflineBufferSyncInterval());
+        }
+        else {
+            return new MemoryMqttOutbox(getQueueSize(), policy);
+        }
+    }
+
+    /**
+     * Starts an embedded broker and attaches a connection to it. Instead of the configured
+     * <code>broker</code>, the address of the embedded broker is advertised to other servients.
+     *
+     * @return
+     * @throws MqttProtocolException
+     */
+    private MqttConnection createEmbeddedConnection() throws MqttProtocolException {
+        EmbeddedMqttBroker embeddedBroker = new EmbeddedMqttBroker(
+                getEmbeddedBrokerBindHost(),
+                getEmbeddedBrokerBindPort(),
+                getEmbeddedBrokerMaxMessageSize(),
+                getUsername(),
+                getPassword()
+        );
+        embeddedBroker.start();
+
+        String host = getEmbeddedBrokerBindHost();
+        if (host.equals("0.0.0.0") || host.equals("::")) {
+            // broker listens on all interfaces. advertise one that is reachable by others
+            host = Servient.getAddresses().stream().findFirst().orElse("127.0.0.1");
+        }
+        String uri = "tcp://" + host + ":" + embeddedBroker.getPort();
+
+        log.info("MqttClient attached to embedded broker at '{}' with client ID '{}'", uri, getClientId());
+        return new EmbeddedMqttConnection(embeddedBroker, uri, getClientId(), getQueueSize(), DropPolicy.fromString(getDropPolicy()));
+    }
+
     public String getClientId() {
         return clientId;
     }
@@ -120,4 +379,68 @@ class MqttProtocolSettings {
     public String getPassword() {
         return password;
     }
+
+    public int getMaxInflight() {
+        return maxInflight;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getQos() {
+        return qos;
+    }
+
+    public Duration getDiscoverTimeout() {
+        return discoverTimeout;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public boolean isEmbeddedBroker() {
+        return embeddedBroker;
+    }
+
+    public String getEmbeddedBrokerBindHost() {
+        return embeddedBrokerBindHost;
+    }
+
+    public int getEmbeddedBrokerBindPort() {
+        return embeddedBrokerBindPort;
+    }
+
+    public int getEmbeddedBrokerMaxMessageSize() {
+        return embeddedBrokerMaxMessageSize;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getDropPolicy() {
+        return dropPolicy;
+    }
+
+    public String getOfflineBufferDirectory() {
+        return offlineBufferDirectory;
+    }
+
+    public int getOfflineBufferSegmentSize() {
+        return offlineBufferSegmentSize;
+    }
+
+    public long getOfflineBufferMaxSize() {
+        return offlineBufferMaxSize;
+    }
+
+    public Duration getOfflineBufferSyncInterval() {
+        return offlineBufferSyncInterval;
+    }
 }
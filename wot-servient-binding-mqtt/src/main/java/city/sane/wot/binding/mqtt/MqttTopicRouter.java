@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Dispatches incoming MQTT messages to the listeners of all matching topic filters. The filters
+ * are kept in a trie with one level per topic level, so that a message is routed by walking the
+ * levels of its topic once instead of matching it against every single filter. Supports the
+ * single-level ("+") and multi-level ("#") wildcards.
+ * <p>
+ * Shared subscriptions ("$share/&lt;group&gt;/&lt;filter&gt;") are supported as well. The broker
+ * delivers their messages with the original topic, so they are routed by the filter following the
+ * group name.
+ */
+class MqttTopicRouter {
+    private static final Logger log = LoggerFactory.getLogger(MqttTopicRouter.class);
+    private static final String SINGLE_LEVEL_WILDCARD = "+";
+    private static final String MULTI_LEVEL_WILDCARD = "#";
+    private static final String SHARED_SUBSCRIPTION_PREFIX = "$share/";
+    private final Node root = new Node();
+
+    /**
+     * Adds <code>listener</code> for all messages whose topic matches <code>filter</code>.
+     *
+     * @param filter
+     * @param listener
+     */
+    public synchronized void add(String filter, IMqttMessageListener listener) {
+        filter = topicFilter(filter);
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = filter.indexOf('/', start);
+            String level = end != -1 ? filter.substring(start, end) : filter.substring(start);
+            node = node.children.computeIfAbsent(level, key -> new Node());
+            if (end == -1) {
+                break;
+            }
+            start = end + 1;
+        }
+        node.listeners.add(listener);
+    }
+
+    /**
+     * Removes <code>listener</code> from <code>filter</code>. Levels that no longer lead to any
+     * listener are pruned from the trie.
+     *
+     * @param filter
+     * @param listener
+     * @return <code>true</code> if <code>listener</code> was registered for <code>filter</code>
+     */
+    public synchronized boolean remove(String filter, IMqttMessageListener listener) {
+        return remove(root, topicFilter(filter), 0, listener);
+    }
+
+    /**
+     * Returns the filter that topics have to match for the given subscription filter. For shared
+     * subscriptions, this is the part following the group name.
+     *
+     * @param filter
+     * @return
+     */
+    static String topicFilter(String filter) {
+        if (filter.startsWith(SHARED_SUBSCRIPTION_PREFIX)) {
+            int groupEnd = filter.indexOf('/', SHARED_SUBSCRIPTION_PREFIX.length());
+            if (groupEnd == -1) {
+                throw new IllegalArgumentException("Shared subscription '" + filter + "' has no topic filter");
+            }
+            return filter.substring(groupEnd + 1);
+        }
+        else {
+            return filter;
+        }
+    }
+
+    /**
+     * Passes <code>message</code> to all listeners whose filter matches <code>topic</code>.
+     *
+     * @param topic
+     * @param message
+     * @return <code>true</code> if at least one listener has been found
+     */
+    public boolean route(String topic, MqttMessage message) {
+        return route(topic, message, e -> log.warn("Listener for topic '{}' failed: {}", topic, e.getMessage()));
+    }
+
+    /**
+     * Passes <code>message</code> to all listeners whose filter matches <code>topic</code>.
+     * Exceptions thrown by listeners are passed to <code>failed</code>, the remaining listeners
+     * still receive the message.
+     *
+     * @param topic
+     * @param message
+     * @param failed
+     * @return <code>true</code> if at least one listener has been found
+     */
+    public boolean route(String topic, MqttMessage message, Consumer<Exception> failed) {
+        List<IMqttMessageListener> listeners = new ArrayList<>();
+        // topics beginning with "$" must not be matched by filters starting with a wildcard
+        collect(root, topic, 0, !topic.startsWith("$"), listeners);
+
+        for (IMqttMessageListener listener : listeners) {
+            try {
+                listener.messageArrived(topic, message);
+            }
+            catch (Exception e) {
+                failed.accept(e);
+            }
+        }
+
+        return !listeners.isEmpty();
+    }
+
+    private void collect(Node node,
+                         String topic,
+                         int start,
+                         boolean wildcardAllowed,
+                         List<IMqttMessageListener> listeners) {
+        if (wildcardAllowed) {
+            // "#" also matches the parent level
+            Node multiLevel = node.children.get(MULTI_LEVEL_WILDCARD);
+            if (multiLevel != null) {
+                listeners.addAll(multiLevel.listeners);
+            }
+        }
+
+        int end = topic.indexOf('/', start);
+        String level = end != -1 ? topic.substring(start, end) : topic.substring(start);
+
+        Node exact = node.children.get(level);
+        if (exact != null) {
+            collectNext(exact, topic, end, listeners);
+        }
+        if (wildcardAllowed) {
+            Node singleLevel = node.children.get(SINGLE_LEVEL_WILDCARD);
+            if (singleLevel != null) {
+                collectNext(singleLevel, topic, end, listeners);
+            }
+        }
+    }
+
+    private void collectNext(Node node,
+                             String topic,
+                             int end,
+                             List<IMqttMessageListener> listeners) {
+        if (end == -1) {
+            listeners.addAll(node.listeners);
+            Node multiLevel = node.children.get(MULTI_LEVEL_WILDCARD);
+            if (multiLevel != null) {
+                listeners.addAll(multiLevel.listeners);
+            }
+        }
+        else {
+            collect(node, topic, end + 1, true, listeners);
+        }
+    }
+
+    private boolean remove(Node node, String filter, int start, IMqttMessageListener listener) {
+        int end = filter.indexOf('/', start);
+        String level = end != -1 ? filter.substring(start, end) : filter.substring(start);
+        Node child = node.children.get(level);
+        if (child == null) {
+            return false;
+        }
+
+        boolean removed;
+        if (end == -1) {
+            removed = child.listeners.remove(listener);
+        }
+        else {
+            removed = remove(child, filter, end + 1, listener);
+        }
+
+        if (child.listeners.isEmpty() && child.children.isEmpty()) {
+            node.children.remove(level);
+        }
+
+        return removed;
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final List<IMqttMessageListener> listeners = new CopyOnWriteArrayList<>();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,428 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.mqtt.MqttOutbox.DropPolicy;
+import city.sane.wot.binding.mqtt.MqttOutbox.Publication;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttDeliveryToken;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.CompletableFuture.failedFuture;
+
+/**
+ * This {@link MqttConnection} wraps a {@link MqttAsyncClient} connected to a remote broker.
+ * Messages are never published synchronously. Instead, they are put into a bounded {@link
+ * MqttOutbox} and handed over to the client in batches as long as the client is connected and the
+ * number of unacknowledged messages stays within the in-flight window. If the outbox is full, the
+ * publication is rejected immediately, so that the emitter is informed instead of blocked.
+ * <p>
+ * If the connection to the broker is lost, the client reconnects automatically. Messages published
+ * in the meantime stay in the outbox and are sent in order once the connection has been
+ * reestablished. This also applies to messages that had already been handed over to the client
+ * but were not acknowledged by the broker. Their futures are only completed once the broker has
+ * acknowledged them. Subscriptions are renewed after reconnecting.
+ * <p>
+ * All incoming messages arrive at a single callback and are dispatched to the subscribers by a
+ * {@link MqttTopicRouter}. Subscriptions to the same topic filter are reference counted, so that
+ * the broker is only asked to subscribe (or unsubscribe) once per filter. A subscriber asking for
+ * a higher QoS than the existing subscription upgrades it. Subscribers whose subscription has been
+ * refused are removed again.
+ */
+class PahoMqttConnection extends MqttConnection {
+    private static final Logger log = LoggerFactory.getLogger(PahoMqttConnection.class);
+    private static final long MAX_CONNECT_RETRY_DELAY = TimeUnit.MINUTES.toMillis(2);
+    private final MqttAsyncClient client;
+    private final MqttConnectOptions options;
+    private final MqttOutbox outbox;
+    private final int maxInflight;
+    private final int batchSize;
+    private final AtomicInteger inflight;
+    private final AtomicBoolean draining;
+    private final MqttTopicRouter router;
+    private final Map<String, Subscription> subscriptions;
+    private volatile boolean closed;
+
+    PahoMqttConnection(MqttAsyncClient client, int maxInflight, int queueSize, int batchSize) {
+        this(client, new MqttConnectOptions(), new MemoryMqttOutbox(queueSize, DropPolicy.DROP_NEWEST), maxInflight, batchSize);
+    }
+
+    PahoMqttConnection(MqttAsyncClient client,
+                       MqttConnectOptions options,
+                       MqttOutbox outbox,
+                       int maxInflight,
+                       int batchSize) {
+        this(
+                client,
+                options,
+                outbox,
+                maxInflight,
+                batchSize,
+                new AtomicInteger(0),
+                new AtomicBoolean(false),
+                new MqttTopicRouter(),
+                new HashMap<>()
+        );
+    }
+
+    PahoMqttConnection(MqttAsyncClient client,
+                       MqttConnectOptions options,
+                       MqttOutbox outbox,
+                       int maxInflight,
+                       int batchSize,
+                       AtomicInteger inflight,
+                       AtomicBoolean draining,
+                       MqttTopicRouter router,
+                       Map<String, Subscription> subscriptions) {
+        this.client = client;
+        this.options = options;
+        this.outbox = outbox;
+        this.maxInflight = maxInflight;
+        this.batchSize = batchSize;
+        this.inflight = inflight;
+        this.draining = draining;
+        this.router = router;
+        this.subscriptions = subscriptions;
+
+        client.setCallback(new MqttCallbackExtended() {
+            @Override
+            public void connectComplete(boolean reconnect, String serverURI) {
+                if (reconnect) {
+                    log.info("MqttClient reconnected to broker at '{}'", serverURI);
+                    resubscribe();
+                    outbox.rewind();
+                }
+                drain();
+            }
+
+            @Override
+            public void connectionLost(Throwable cause) {
+                log.info("MqttClient lost connection to broker at '{}': {}. Buffer messages until reconnected", client.getServerURI(), cause.getMessage());
+            }
+
+            @Override
+            public void messageArrived(String topic, MqttMessage message) {
+                if (!router.route(topic, message)) {
+                    log.debug("MqttClient received message for unexpected topic '{}'", topic);
+                }
+            }
+
+            @Override
+            public void deliveryComplete(IMqttDeliveryToken token) {
+                // do nothing
+            }
+        });
+    }
+
+    /**
+     * Connects to the broker. If <code>retry</code> is set, failed attempts are repeated with
+     * increasing delay until the connection has been established or this connection is closed.
+     *
+     * @param retry
+     * @return
+     */
+    public CompletableFuture<Void> connect(boolean retry) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        connect(future, retry, 1000);
+        return future;
+    }
+
+    @Override
+    public CompletableFuture<Void> publish(String topic, MqttMessage message) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if (!outbox.offer(new Publication(topic, message, future))) {
+            return failedFuture(new MqttProtocolException(
+                    "Outbound queue of MqttClient at '" + client.getServerURI() + "' is full. Unable to publish to topic '" + topic + "'"
+            ));
+        }
+
+        drain();
+
+        return future;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> subscribe(String filter,
+                                                          int qos,
+                                                          IMqttMessageListener listener) {
+        router.add(filter, listener);
+
+        Subscription subscription = subscriptions.computeIfAbsent(filter, key -> new Subscription());
+        if (qos > subscription.qos) {
+            // first subscription or upgrade to a higher QoS. The broker replaces an existing
+            // subscription to the same filter
+            requestSubscription(filter, subscription, qos);
+        }
+        subscription.count++;
+
+        CompletableFuture<Void> future = subscription.future;
+        future.whenComplete((result, e) -> {
+            if (e != null) {
+                subscriptionFailed(filter, subscription, listener);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public synchronized CompletableFuture<Void> unsubscribe(String filter,
+                                                            IMqttMessageListener listener) {
+        Subscription subscription = subscriptions.get(filter);
+        if (!router.remove(filter, listener) || subscription == null || --subscription.count > 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        subscriptions.remove(filter);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            client.unsubscribe(filter, null, new CompletingActionListener(future));
+        }
+        catch (MqttException e) {
+            future.completeExceptionally(new MqttProtocolException(e));
+        }
+        return future;
+    }
+
+    @Override
+    public String getBroker() {
+        return client.getServerURI();
+    }
+
+    @Override
+    public int getQueuedCount() {
+        return outbox.size();
+    }
+
+    @Override
+    public void close() throws MqttException {
+        closed = true;
+        try {
+            if (client.isConnected()) {
+                client.disconnect().waitForCompletion();
+            }
+            client.close();
+        }
+        finally {
+            outbox.close();
+        }
+    }
+
+    private void connect(CompletableFuture<Void> future, boolean retry, long delay) {
+        CompletableFuture<Void> attempt = new CompletableFuture<>();
+        try {
+            client.connect(options, null, new CompletingActionListener(attempt));
+        }
+        catch (MqttException e) {
+            attempt.completeExceptionally(new MqttProtocolException(e));
+        }
+
+        attempt.whenComplete((result, e) -> {
+            if (e == null) {
+                future.complete(null);
+            }
+            else if (retry && !closed) {
+                log.warn("MqttClient unable to connect to broker at '{}': {}. Retry in {} ms", client.getServerURI(), e.getMessage(), delay);
+                CompletableFuture.runAsync(
+                        () -> connect(future, true, Math.min(delay * 2, MAX_CONNECT_RETRY_DELAY)),
+                        CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS)
+                );
+            }
+            else {
+                future.completeExceptionally(e);
+            }
+        });
+    }
+
+    /**
+     * Renews all subscriptions, as the broker does not remember them for clients with a clean
+     * session.
+     */
+    private synchronized void resubscribe() {
+        subscriptions.forEach((filter, subscription) -> {
+            try {
+                client.subscribe(filter, subscription.qos);
+            }
+            catch (MqttException e) {
+                log.warn("MqttClient unable to renew subscription to topic '{}': {}", filter, e.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Hands over queued messages to the client until either the outbox is empty, the client is
+     * disconnected or the in-flight window is exhausted. Only one thread drains the outbox at a
+     * time. Threads that find the outbox already being drained return immediately, because the
+     * draining thread checks the outbox again before giving up.
+     */
+    private void drain() {
+        while (client.isConnected() && !outbox.isEmpty() && inflight.get() < maxInflight && draining.compareAndSet(false, true)) {
+            try {
+                for (Publication publication : outbox.poll(Math.min(batchSize, maxInflight - inflight.get()))) {
+                    send(publication);
+                }
+            }
+            finally {
+                draining.set(false);
+            }
+        }
+    }
+
+    private void send(Publication publication) {
+        inflight.incrementAndGet();
+        try {
+            client.publish(publication.topic, publication.message, null, new IMqttActionListener() {
+                @Override
+                public void onSuccess(IMqttToken asyncActionToken) {
+                    inflight.decrementAndGet();
+                    outbox.acknowledge(publication);
+                    publication.future.complete(null);
+                    drain();
+                }
+
+                @Override
+                public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+                    failed(publication, exception);
+                    drain();
+                }
+            });
+        }
+        catch (MqttException e) {
+            log.warn("MqttClient at '{}' cannot publish data for topic '{}': {}", client.getServerURI(), publication.topic, e.getMessage());
+            failed(publication, e);
+        }
+    }
+
+    /**
+     * Messages that could not be delivered because the connection has been lost stay in the
+     * outbox and their future stays pending. They are sent again once the connection has been
+     * reestablished. Messages refused by a reachable broker are removed from the outbox and their
+     * future fails.
+     */
+    private void failed(Publication publication, Throwable exception) {
+        inflight.decrementAndGet();
+        if (!client.isConnected() || isConnectionLost(exception)) {
+            log.debug("MqttClient at '{}' lost connection while publishing to topic '{}'. Send again after reconnect", client.getServerURI(), publication.topic);
+        }
+        else {
+            // message has been refused although the broker is reachable. Do not try it again
+            outbox.acknowledge(publication);
+            publication.future.completeExceptionally(new MqttProtocolException(exception));
+        }
+    }
+
+    private static boolean isConnectionLost(Throwable exception) {
+        if (exception instanceof MqttException) {
+            switch (((MqttException) exception).getReasonCode()) {
+                case MqttException.REASON_CODE_CONNECTION_LOST:
+                case MqttException.REASON_CODE_CLIENT_NOT_CONNECTED:
+                case MqttException.REASON_CODE_CLIENT_DISCONNECTING:
+                    return true;
+                default:
+                    return false;
+            }
+        }
+        else {
+            return false;
+        }
+    }
+
+    private void requestSubscription(String filter, Subscription subscription, int qos) {
+        int previousQos = subscription.qos;
+        CompletableFuture<Void> previousFuture = subscription.future;
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        subscription.qos = qos;
+        subscription.future = future;
+        try {
+            client.subscribe(filter, qos, null, new CompletingActionListener(future));
+        }
+        catch (MqttException e) {
+            future.completeExceptionally(new MqttProtocolException(e));
+        }
+
+        future.whenComplete((result, e) -> {
+            if (e != null) {
+                synchronized (this) {
+                    // fall back to the subscription that has been in place before
+                    if (subscription.future == future) {
+                        subscription.qos = previousQos;
+                        subscription.future = previousFuture;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Removes <code>listener</code> whose subscription has been refused by the broker. The filter
+     * is forgotten once no listener is left, so that the next subscriber asks the broker again.
+     */
+    private synchronized void subscriptionFailed(String filter,
+                                                 Subscription subscription,
+                                                 IMqttMessageListener listener) {
+        if (router.remove(filter, listener) && --subscription.count == 0) {
+            subscriptions.remove(filter, subscription);
+        }
+    }
+
+    static class Subscription {
+        private CompletableFuture<Void> future;
+        private int qos = -1;
+        private int count;
+    }
+
+    /**
+     * Completes the given future when the asynchronous MQTT action has finished.
+     */
+    private static class CompletingActionListener implements IMqttActionListener {
+        private final CompletableFuture<Void> future;
+
+        CompletingActionListener(CompletableFuture<Void> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken) {
+            future.complete(null);
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+            future.completeExceptionally(new MqttProtocolException(exception));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.eclipse.paho.client.mqttv3.MqttSecurityException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmbeddedMqttBrokerTest {
+    private EmbeddedMqttBroker broker;
+    private MqttAsyncClient client;
+
+    @BeforeEach
+    public void setUp() throws MqttProtocolException {
+        broker = new EmbeddedMqttBroker("127.0.0.1", 0, 256 * 1024, null, null);
+        broker.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws MqttException {
+        if (client != null && client.isConnected()) {
+            client.disconnect().waitForCompletion();
+        }
+        broker.stop();
+    }
+
+    @Test
+    public void publishShouldPassMessageToLocalListener() throws MqttProtocolException {
+        List<String> topics = new CopyOnWriteArrayList<>();
+        broker.subscribe("counter/+", (topic, message) -> topics.add(topic));
+
+        broker.publish("counter/count", new MqttMessage("1".getBytes()));
+        broker.publish("other/count", new MqttMessage("2".getBytes()));
+
+        assertEquals(List.of("counter/count"), topics);
+    }
+
+    @Test
+    public void subscribeShouldReplayRetainedMessages() throws MqttProtocolException {
+        MqttMessage message = new MqttMessage("td".getBytes());
+        message.setRetained(true);
+        broker.publish("counter", message);
+
+        List<MqttMessage> messages = new CopyOnWriteArrayList<>();
+        broker.subscribe("+", (topic, m) -> messages.add(m));
+
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).isRetained());
+    }
+
+    @Test
+    public void publishWithEmptyRetainedMessageShouldRemoveRetainedMessage() throws MqttProtocolException {
+        MqttMessage message = new MqttMessage("td".getBytes());
+        message.setRetained(true);
+        broker.publish("counter", message);
+        MqttMessage removal = new MqttMessage(new byte[0]);
+        removal.setRetained(true);
+        broker.publish("counter", removal);
+
+        List<MqttMessage> messages = new CopyOnWriteArrayList<>();
+        broker.subscribe("+", (topic, m) -> messages.add(m));
+
+        assertTrue(messages.isEmpty());
+    }
+
+    @Test
+    public void remoteClientShouldReceiveLocalPublications() throws MqttException, MqttProtocolException {
+        client = connect(new MqttConnectOptions());
+        List<MqttMessage> messages = new CopyOnWriteArrayList<>();
+        client.subscribe("counter/#", 1, (IMqttMessageListener) (topic, message) -> messages.add(message)).waitForCompletion();
+
+        MqttMessage message = new MqttMessage("42".getBytes());
+        message.setQos(1);
+        broker.publish("counter/properties/count", message);
+
+        await().atMost(5, SECONDS).until(() -> !messages.isEmpty());
+        assertArrayEquals("42".getBytes(), messages.get(0).getPayload());
+        assertEquals(0, messages.get(0).getQos());
+    }
+
+    @Test
+    public void localListenerShouldReceiveRemotePublications() throws MqttException {
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        broker.subscribe("counter/actions/+", (topic, message) -> payloads.add(new String(message.getPayload())));
+        client = connect(new MqttConnectOptions());
+
+        for (int qos = 0; qos <= 2; qos++) {
+            client.publish("counter/actions/increment", String.valueOf(qos).getBytes(), qos, false).waitForCompletion();
+        }
+
+        await().atMost(5, SECONDS).until(() -> payloads.size() == 3);
+        assertEquals(List.of("0", "1", "2"), payloads);
+    }
+
+    @Test
+    public void remoteClientShouldNotReceiveMessagesAfterUnsubscribe() throws MqttException, MqttProtocolException {
+        client = connect(new MqttConnectOptions());
+        List<MqttMessage> messages = new CopyOnWriteArrayList<>();
+        client.subscribe("counter", 0, (IMqttMessageListener) (topic, message) -> messages.add(message)).waitForCompletion();
+        client.unsubscribe("counter").waitForCompletion();
+
+        broker.publish("counter", new MqttMessage("42".getBytes()));
+        client.publish("counter", "43".getBytes(), 1, false).waitForCompletion();
+
+        assertTrue(messages.isEmpty());
+    }
+
+    @Test
+    public void publishShouldFailForInvalidTopic() {
+        assertThrows(MqttProtocolException.class, () -> broker.publish("counter/+", new MqttMessage()));
+    }
+
+    @Test
+    public void publishShouldFailIfBrokerIsStopped() {
+        broker.stop();
+
+        assertThrows(MqttProtocolException.class, () -> broker.publish("counter", new MqttMessage()));
+    }
+
+    @Test
+    public void connectWithWrongPasswordShouldBeRefused() throws MqttProtocolException {
+        broker.stop();
+        broker = new EmbeddedMqttBroker("127.0.0.1", 0, 256 * 1024, "user", "secret");
+        broker.start();
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setUserName("user");
+        options.setPassword("wrong".toCharArray());
+
+        assertThrows(MqttSecurityException.class, () -> connect(options));
+    }
+
+    @Test
+    public void connectWithCorrectPasswordShouldBeAccepted() throws MqttProtocolException, MqttException {
+        broker.stop();
+        broker = new EmbeddedMqttBroker("127.0.0.1", 0, 256 * 1024, "user", "secret");
+        broker.start();
+
+        MqttConnectOptions options = new MqttConnectOptions();
+        options.setUserName("user");
+        options.setPassword("secret".toCharArray());
+        client = connect(options);
+
+        assertTrue(client.isConnected());
+    }
+
+    @Test
+    public void stopShouldDisconnectRemoteClients() throws MqttException {
+        client = connect(new MqttConnectOptions());
+
+        broker.stop();
+
+        await().atMost(5, SECONDS).until(() -> !client.isConnected());
+        assertFalse(client.isConnected());
+    }
+
+    private MqttAsyncClient connect(MqttConnectOptions options) throws MqttException {
+        MqttAsyncClient remote = new MqttAsyncClient("tcp://127.0.0.1:" + broker.getPort(), "remote", new MemoryPersistence());
+        remote.connect(options).waitForCompletion();
+        return remote;
+    }
+}
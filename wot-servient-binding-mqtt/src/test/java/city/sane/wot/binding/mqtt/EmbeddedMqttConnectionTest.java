@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.mqtt.MqttOutbox.DropPolicy;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class EmbeddedMqttConnectionTest {
+    private EmbeddedMqttBroker broker;
+    private EmbeddedMqttConnection connection;
+
+    @BeforeEach
+    public void setUp() throws MqttProtocolException {
+        broker = new EmbeddedMqttBroker("127.0.0.1", 0, 256 * 1024, null, null);
+        broker.start();
+        connection = new EmbeddedMqttConnection(broker, "tcp://127.0.0.1:" + broker.getPort(), "wot42", 10, DropPolicy.DROP_NEWEST);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        connection.close();
+    }
+
+    @Test
+    public void publishShouldPassMessagesToSubscribersInOrder() {
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        connection.subscribe("counter/#", 0, (topic, message) -> payloads.add(new String(message.getPayload())));
+
+        for (int i = 0; i < 5; i++) {
+            connection.publish("counter/events/change", new MqttMessage(String.valueOf(i).getBytes()));
+        }
+
+        await().atMost(5, SECONDS).until(() -> payloads.size() == 5);
+        assertEquals(List.of("0", "1", "2", "3", "4"), payloads);
+    }
+
+    @Test
+    public void publishShouldNotRunListenerOnPublishingThread() {
+        List<Thread> threads = new CopyOnWriteArrayList<>();
+        connection.subscribe("counter", 0, (topic, message) -> threads.add(Thread.currentThread()));
+
+        connection.publish("counter", new MqttMessage());
+
+        await().atMost(5, SECONDS).until(() -> !threads.isEmpty());
+        assertNotEquals(Thread.currentThread(), threads.get(0));
+    }
+
+    @Test
+    public void unsubscribeShouldKeepOtherListenersOfSameFilter() {
+        List<String> first = new CopyOnWriteArrayList<>();
+        List<String> second = new CopyOnWriteArrayList<>();
+        IMqttMessageListener firstListener = (topic, message) -> first.add(topic);
+        connection.subscribe("counter", 0, firstListener);
+        connection.subscribe("counter", 0, (topic, message) -> second.add(topic));
+
+        connection.unsubscribe("counter", firstListener);
+        connection.publish("counter", new MqttMessage());
+
+        await().atMost(5, SECONDS).until(() -> !second.isEmpty());
+        assertTrue(first.isEmpty());
+    }
+
+    @Test
+    public void publishShouldFailIfQueueOfSlowListenerIsFull() {
+        CountDownLatch blocked = new CountDownLatch(1);
+        connection.subscribe("counter", 0, (topic, message) -> blocked.await());
+
+        List<Boolean> failed = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            failed.add(connection.publish("counter", new MqttMessage()).isCompletedExceptionally());
+        }
+        blocked.countDown();
+
+        assertFalse(failed.get(0));
+        assertTrue(failed.get(19));
+    }
+
+    @Test
+    public void publishShouldDropOldestMessageIfQueueOfSlowListenerIsFull() throws MqttProtocolException {
+        connection.close();
+        broker = new EmbeddedMqttBroker("127.0.0.1", 0, 256 * 1024, null, null);
+        broker.start();
+        connection = new EmbeddedMqttConnection(broker, "tcp://127.0.0.1:" + broker.getPort(), "wot42", 10, DropPolicy.DROP_OLDEST);
+
+        CountDownLatch blocked = new CountDownLatch(1);
+        List<String> payloads = new CopyOnWriteArrayList<>();
+        connection.subscribe("counter", 0, (topic, message) -> {
+            blocked.await();
+            payloads.add(new String(message.getPayload()));
+        });
+
+        for (int i = 0; i < 20; i++) {
+            assertFalse(connection.publish("counter", new MqttMessage(String.valueOf(i).getBytes())).isCompletedExceptionally());
+        }
+        blocked.countDown();
+
+        await().atMost(5, SECONDS).until(() -> payloads.contains("19"));
+        assertTrue(payloads.size() <= 11);
+    }
+
+    @Test
+    public void publishShouldNotBlockListenerPublishingItself() {
+        List<String> topics = new CopyOnWriteArrayList<>();
+        connection.subscribe("counter/#", 0, (topic, message) -> {
+            topics.add(topic);
+            if (topic.equals("counter/actions/increment")) {
+                for (int i = 0; i < 5; i++) {
+                    connection.publish("counter/events/change", new MqttMessage());
+                }
+            }
+        });
+
+        connection.publish("counter/actions/increment", new MqttMessage());
+
+        await().atMost(5, SECONDS).until(() -> topics.size() == 6);
+    }
+
+    @Test
+    public void publishShouldFailIfBrokerIsStopped() {
+        broker.stop();
+
+        assertTrue(connection.publish("counter", new MqttMessage()).isCompletedExceptionally());
+    }
+
+    @Test
+    public void getBrokerShouldReturnAddressOfEmbeddedBroker() {
+        assertEquals("tcp://127.0.0.1:" + broker.getPort(), connection.getBroker());
+    }
+}
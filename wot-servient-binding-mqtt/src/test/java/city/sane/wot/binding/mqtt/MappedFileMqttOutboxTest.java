@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.mqtt.MqttOutbox.DropPolicy;
+import city.sane.wot.binding.mqtt.MqttOutbox.Publication;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MappedFileMqttOutboxTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    public void pollShouldReturnMessagesInOrder() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        outbox.offer(new Publication("counter/events/change", message("1", 1, true), future));
+        outbox.offer(publication("counter/events/change", "2"));
+
+        List<Publication> publications = outbox.poll(10);
+
+        assertEquals(2, publications.size());
+        assertEquals("counter/events/change", publications.get(0).topic);
+        assertArrayEquals("1".getBytes(), publications.get(0).message.getPayload());
+        assertEquals(1, publications.get(0).message.getQos());
+        assertTrue(publications.get(0).message.isRetained());
+        assertArrayEquals("2".getBytes(), publications.get(1).message.getPayload());
+        assertEquals(0, outbox.size());
+    }
+
+    @Test
+    public void pollShouldHandOutFutureOfOfferedMessage() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        outbox.offer(new Publication("counter", message("1", 1, false), future));
+
+        Publication publication = outbox.poll(1).get(0);
+        outbox.rewind();
+
+        assertFalse(future.isDone());
+        assertSame(future, publication.future);
+        assertSame(future, outbox.poll(1).get(0).future);
+    }
+
+    @Test
+    public void closeShouldFailFuturesOfPendingMessages() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        outbox.offer(new Publication("counter", message("1", 1, false), future));
+
+        outbox.close();
+
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void reopenedOutboxShouldContainUnacknowledgedMessages() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        outbox.offer(publication("counter", "1"));
+        outbox.offer(publication("counter", "2"));
+        outbox.offer(publication("counter", "3"));
+        List<Publication> publications = outbox.poll(2);
+        outbox.acknowledge(publications.get(0));
+        outbox.close();
+
+        MappedFileMqttOutbox reopened = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+
+        assertEquals(2, reopened.size());
+        assertEquals(List.of("2", "3"), payloads(reopened.poll(10)));
+    }
+
+    @Test
+    public void acknowledgeShouldNotSkipEarlierUnacknowledgedMessages() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        outbox.offer(publication("counter", "1"));
+        outbox.offer(publication("counter", "2"));
+        List<Publication> publications = outbox.poll(2);
+        outbox.acknowledge(publications.get(1));
+
+        outbox.rewind();
+
+        assertEquals(List.of("1", "2"), payloads(outbox.poll(10)));
+    }
+
+    @Test
+    public void rewindShouldHandOutUnacknowledgedMessagesAgain() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 4096, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        outbox.offer(publication("counter", "1"));
+        outbox.offer(publication("counter", "2"));
+        outbox.acknowledge(outbox.poll(1).get(0));
+        outbox.poll(1);
+
+        outbox.rewind();
+
+        assertEquals(1, outbox.size());
+        assertEquals(List.of("2"), payloads(outbox.poll(10)));
+    }
+
+    @Test
+    public void acknowledgeShouldDeleteConsumedSegments() throws MqttProtocolException, IOException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 8192, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        for (int i = 0; i < 10; i++) {
+            outbox.offer(publication("counter", "x".repeat(300)));
+        }
+        assertTrue(segmentCount() > 1);
+
+        for (Publication publication : outbox.poll(10)) {
+            outbox.acknowledge(publication);
+        }
+
+        assertEquals(1, segmentCount());
+    }
+
+    @Test
+    public void offerShouldRejectMessageWhenFullAndDropNewest() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 2048, DropPolicy.DROP_NEWEST, Duration.ZERO);
+        for (int i = 0; i < 6; i++) {
+            outbox.offer(publication("counter", String.valueOf(i).repeat(300)));
+        }
+
+        assertFalse(outbox.offer(publication("counter", "n".repeat(300))));
+        assertEquals(6, outbox.size());
+    }
+
+    @Test
+    public void offerShouldDropOldestMessagesWhenFullAndDropOldest() throws MqttProtocolException {
+        MappedFileMqttOutbox outbox = new MappedFileMqttOutbox(directory, 1024, 2048, DropPolicy.DROP_OLDEST, Duration.ZERO);
+        CompletableFuture<Void> oldest = new CompletableFuture<>();
+        outbox.offer(new Publication("counter", message("0".repeat(300), 0, false), oldest));
+        for (int i = 1; i < 6; i++) {
+            outbox.offer(publication("counter", String.valueOf(i).repeat(300)));
+        }
+
+        assertTrue(outbox.offer(publication("counter", "n".repeat(300))));
+
+        assertTrue(oldest.isCompletedExceptionally());
+        List<String> payloads = payloads(outbox.poll(10));
+        assertEquals(4, payloads.size());
+        assertEquals("3".repeat(300), payloads.get(0));
+        assertEquals("n".repeat(300), payloads.get(3));
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".segment")).count();
+        }
+    }
+
+    private static Publication publication(String topic, String payload) {
+        return new Publication(topic, message(payload, 0, false), new CompletableFuture<>());
+    }
+
+    private static MqttMessage message(String payload, int qos, boolean retained) {
+        MqttMessage message = new MqttMessage(payload.getBytes());
+        message.setQos(qos);
+        message.setRetained(retained);
+        return message;
+    }
+
+    private static List<String> payloads(List<Publication> publications) {
+        return publications.stream().map(p -> new String(p.message.getPayload())).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.ProtocolClientException;
+import city.sane.wot.content.Content;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqttCorrelationTableTest {
+    private MqttConnection connection;
+    private MqttCorrelationTable table;
+
+    @BeforeEach
+    public void setUp() {
+        connection = mock(MqttConnection.class);
+        table = new MqttCorrelationTable(connection, "wot42", 0, Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void startShouldSubscribeToResponses() {
+        when(connection.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+
+        table.start();
+
+        verify(connection).subscribe(eq("wot42/responses/#"), anyInt(), eq(table));
+    }
+
+    @Test
+    public void requestShouldCompleteWithResponse() throws ExecutionException, InterruptedException {
+        when(connection.publish(any(), any())).thenReturn(completedFuture(null));
+
+        CompletableFuture<Content> future = table.request("counter/properties/count/readproperty", new MqttMessage(), "application/json");
+
+        ArgumentCaptor<String> topic = ArgumentCaptor.forClass(String.class);
+        verify(connection).publish(topic.capture(), any());
+        String correlationId = topic.getValue().substring("counter/properties/count/readproperty/wot42/".length());
+        table.messageArrived("wot42/responses/" + correlationId, new MqttMessage("42".getBytes()));
+
+        assertEquals(new Content("application/json", "42".getBytes()), future.get());
+        assertEquals(0, table.getPendingCount());
+    }
+
+    @Test
+    public void requestShouldFailWithErrorResponse() {
+        when(connection.publish(any(), any())).thenReturn(completedFuture(null));
+
+        CompletableFuture<Content> future = table.request("counter/properties/count/readproperty", new MqttMessage(), "application/json");
+
+        ArgumentCaptor<String> topic = ArgumentCaptor.forClass(String.class);
+        verify(connection).publish(topic.capture(), any());
+        String correlationId = topic.getValue().substring("counter/properties/count/readproperty/wot42/".length());
+        table.messageArrived("wot42/responses/" + correlationId + "/error", new MqttMessage("Eigenschaft nicht gefunden: Größe".getBytes(UTF_8)));
+
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertTrue(exception.getCause() instanceof ProtocolClientException);
+        assertEquals("Eigenschaft nicht gefunden: Größe", exception.getCause().getMessage());
+    }
+
+    @Test
+    public void requestShouldUseDistinctCorrelationIds() {
+        when(connection.publish(any(), any())).thenReturn(completedFuture(null));
+
+        table.request("counter/actions/increment", new MqttMessage(), "application/json");
+        table.request("counter/actions/increment", new MqttMessage(), "application/json");
+
+        assertEquals(2, table.getPendingCount());
+    }
+
+    @Test
+    public void requestShouldFailAfterTimeout() {
+        when(connection.publish(any(), any())).thenReturn(completedFuture(null));
+        table = new MqttCorrelationTable(connection, "wot42", 0, Duration.ofMillis(100));
+
+        CompletableFuture<Content> future = table.request("counter/actions/increment", new MqttMessage(), "application/json");
+
+        await().untilAsserted(() -> assertTrue(future.isCompletedExceptionally()));
+        assertEquals(0, table.getPendingCount());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.content.ContentCodecException;
+import city.sane.wot.content.ContentManager;
+import city.sane.wot.thing.Thing;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MqttDiscoveryCacheTest {
+    private MqttConnection connection;
+    private MqttDiscoveryCache cache;
+    private Thing thing;
+    private MqttMessage thingDescription;
+
+    @BeforeEach
+    public void setUp() throws ContentCodecException {
+        connection = mock(MqttConnection.class);
+        cache = new MqttDiscoveryCache(connection);
+        thing = new Thing.Builder().setId("counter").setTitle("Counter").build();
+        thingDescription = new MqttMessage(ContentManager.valueToContent(thing.toJson()).getBody());
+    }
+
+    @Test
+    public void startShouldSubscribeToThingDescriptions() {
+        when(connection.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+
+        cache.start();
+
+        verify(connection).subscribe(eq("+"), anyInt(), eq(cache));
+    }
+
+    @Test
+    public void messageArrivedShouldAddThing() {
+        cache.messageArrived("counter", thingDescription);
+
+        assertEquals(List.of(thing), cache.getThings());
+    }
+
+    @Test
+    public void messageArrivedShouldRemoveThingOnEmptyMessage() {
+        cache.messageArrived("counter", thingDescription);
+        cache.messageArrived("counter", new MqttMessage());
+
+        assertTrue(cache.getThings().isEmpty());
+    }
+
+    @Test
+    public void messageArrivedShouldInformAboutUpdates() {
+        List<Thing> updates = cache.getUpdates().test().values();
+
+        cache.messageArrived("counter", thingDescription);
+
+        assertEquals(List.of(thing), updates);
+    }
+
+    @Test
+    public void messageArrivedShouldIgnoreNonThingDescriptions() {
+        cache.messageArrived("temperature", new MqttMessage("21.5".getBytes()));
+
+        assertTrue(cache.getThings().isEmpty());
+    }
+}
\ No newline at end of file
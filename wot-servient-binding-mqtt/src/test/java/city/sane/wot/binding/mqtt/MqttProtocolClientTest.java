@@ -26,14 +26,18 @@ import city.sane.wot.binding.ProtocolClientException;
 import city.sane.wot.content.Content;
 import city.sane.wot.content.ContentCodecException;
 import city.sane.wot.content.ContentManager;
+import city.sane.wot.thing.Thing;
+import city.sane.wot.thing.filter.ThingFilter;
+import city.sane.wot.thing.filter.ThingQuery;
+import city.sane.wot.thing.filter.ThingQueryException;
 import city.sane.wot.thing.form.Form;
 import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.internal.observers.LambdaObserver;
 import io.reactivex.rxjava3.observers.DisposableObserver;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import io.reactivex.rxjava3.subjects.ReplaySubject;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttException;
 import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -42,15 +46,19 @@ import org.mockito.ArgumentMatcher;
 import org.mockito.internal.stubbing.answers.AnswersWithDelay;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.awaitility.Awaitility.await;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
 import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.eq;
@@ -61,7 +69,7 @@ import static org.mockito.Mockito.when;
 @ExtendWith(MockitoExtension.class)
 public class MqttProtocolClientTest {
     private MqttProtocolSettings settings;
-    private MqttClient mqttClient;
+    private MqttConnection mqttClient;
     private Map topicSubjects;
     private MqttProtocolClient client;
     private Form form;
@@ -69,64 +77,125 @@ public class MqttProtocolClientTest {
     private DisposableObserver<Content> observer;
     private Subject subject;
     private Disposable disposable;
+    private MqttDiscoveryCache discoveryCache;
+    private MqttCorrelationTable correlationTable;
+    private Thing thing;
 
     @BeforeEach
     public void setUp() {
         settings = mock(MqttProtocolSettings.class);
-        mqttClient = mock(MqttClient.class);
+        mqttClient = mock(MqttConnection.class);
         topicSubjects = mock(Map.class);
         form = mock(Form.class);
         content = mock(Content.class);
         observer = mock(DisposableObserver.class);
         subject = mock(Subject.class);
         disposable = mock(Disposable.class);
+        discoveryCache = mock(MqttDiscoveryCache.class);
+        correlationTable = mock(MqttCorrelationTable.class);
+        thing = mock(Thing.class);
     }
 
     @Test
-    public void invokeResourceShouldPublishNullToBroker() throws MqttException {
+    public void invokeResourceShouldPublishNullToBroker() {
         when(form.getHref()).thenReturn("tcp://dummy-broker/counter/actions/increment");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
 
-        client = new MqttProtocolClient(new Pair(settings, mqttClient), topicSubjects);
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, topicSubjects);
         client.invokeResource(form);
 
         verify(mqttClient).publish(eq("counter/actions/increment"), argThat(new MqttMessageMatcher(new MqttMessage(new byte[0]))));
     }
 
     @Test
-    public void invokeResourceWithContentShouldGivenContentToBroker() throws MqttException {
+    public void invokeResourceWithContentShouldGivenContentToBroker() {
         when(form.getHref()).thenReturn("tcp://dummy-broker/counter/actions/increment");
         when(content.getBody()).thenReturn("Hallo Welt".getBytes());
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
 
-        client = new MqttProtocolClient(new Pair(settings, mqttClient), topicSubjects);
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, topicSubjects);
         client.invokeResource(form, content);
 
         verify(mqttClient).publish(eq("counter/actions/increment"), argThat(new MqttMessageMatcher(new MqttMessage("Hallo Welt".getBytes()))));
     }
 
     @Test
-    public void subscribeResourceShouldSubscribeToBroker() throws MqttException, ProtocolClientException {
+    public void invokeResourceShouldUseQosAndRetainFromForm() {
+        when(form.getHref()).thenReturn("tcp://dummy-broker/counter/actions/increment");
+        when(form.getOptional("mqtt:qos")).thenReturn("1");
+        when(form.getOptional("mqtt:retain")).thenReturn(true);
+        when(form.getOptional("mqtt:requestResponse")).thenReturn(null);
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, topicSubjects);
+        client.invokeResource(form);
+
+        verify(mqttClient).publish(eq("counter/actions/increment"), argThat(message -> message.getQos() == 1 && message.isRetained()));
+    }
+
+    @Test
+    public void invokeResourceShouldSendRequestIfFormDeclaresRequestResponse() throws ExecutionException, InterruptedException {
+        when(form.getHref()).thenReturn("tcp://dummy-broker/counter/actions/increment");
+        when(form.getContentType()).thenReturn("application/json");
+        when(form.getOptional("mqtt:requestResponse")).thenReturn(true);
+        when(correlationTable.request(any(), any(), any())).thenReturn(completedFuture(content));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, topicSubjects);
+
+        assertEquals(content, client.invokeResource(form).get());
+        verify(correlationTable).request(eq("counter/actions/increment"), any(), eq("application/json"));
+    }
+
+    @Test
+    public void readResourceShouldSendRequest() throws ExecutionException, InterruptedException {
+        when(form.getHref()).thenReturn("tcp://dummy-broker/counter/properties/count/readproperty");
+        when(form.getContentType()).thenReturn("application/json");
+        when(correlationTable.request(any(), any(), any())).thenReturn(completedFuture(content));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, topicSubjects);
+
+        assertEquals(content, client.readResource(form).get());
+        verify(correlationTable).request(eq("counter/properties/count/readproperty"), any(), eq("application/json"));
+    }
+
+    @Test
+    public void writeResourceShouldSendRequestWithContent() {
+        when(form.getHref()).thenReturn("tcp://dummy-broker/counter/properties/count/writeproperty");
+        when(content.getBody()).thenReturn("1337".getBytes());
+        when(correlationTable.request(any(), any(), any())).thenReturn(completedFuture(Content.EMPTY_CONTENT));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, topicSubjects);
+        client.writeResource(form, content);
+
+        verify(correlationTable).request(eq("counter/properties/count/writeproperty"), argThat(new MqttMessageMatcher(new MqttMessage("1337".getBytes()))), any());
+    }
+
+    @Test
+    public void subscribeResourceShouldSubscribeToBroker() throws ProtocolClientException {
         when(form.getHref()).thenReturn("tcp://dummy-broker/counter/events/change");
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
 
-        client = new MqttProtocolClient(new Pair(settings, mqttClient), new HashMap<>());
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap<>());
         client.observeResource(form).subscribe();
 
-        verify(mqttClient).subscribe(eq("counter/events/change"), any());
+        verify(mqttClient).subscribe(eq("counter/events/change"), anyInt(), any());
     }
 
     @Test
-    public void subscribeResourceShouldInformObserverAboutNextValue() throws ProtocolClientException, MqttException, ContentCodecException, ExecutionException, InterruptedException, TimeoutException {
+    public void subscribeResourceShouldInformObserverAboutNextValue() throws ProtocolClientException, ContentCodecException, ExecutionException, InterruptedException, TimeoutException {
         when(form.getHref()).thenReturn("tcp://dummy-broker/counter/events/change");
         when(form.getContentType()).thenReturn("application/json");
         doAnswer(new AnswersWithDelay(1 * 1000L, invocation -> {
             String topic = invocation.getArgument(0, String.class);
-            IMqttMessageListener listener = invocation.getArgument(1, IMqttMessageListener.class);
+            IMqttMessageListener listener = invocation.getArgument(2, IMqttMessageListener.class);
 
             listener.messageArrived(topic, new MqttMessage("\"Hallo Welt\"".getBytes()));
 
-            return null;
-        })).when(mqttClient).subscribe(any(String.class), any(IMqttMessageListener.class));
+            return completedFuture(null);
+        })).when(mqttClient).subscribe(any(String.class), anyInt(), any(IMqttMessageListener.class));
+        when(mqttClient.unsubscribe(any(), any())).thenReturn(completedFuture(null));
 
-        client = new MqttProtocolClient(new Pair(settings, mqttClient), new HashMap<>());
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap<>());
 
         await().untilAsserted(() -> assertEquals(
                 ContentManager.valueToContent("Hallo Welt"),
@@ -144,15 +213,17 @@ public class MqttProtocolClientTest {
         }, d -> {
         });
 
-        client = new MqttProtocolClient(new Pair(settings, mqttClient), new HashMap(Map.of("counter/events/change", subject)));
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap(Map.of("counter/events/change", subject)));
         client.observeResource(form).subscribe(observer);
 
         verify(subject).subscribe(observer);
     }
 
     @Test
-    public void subscribeResourceShouldUnsubscribeFromBrokerWhenSubscriptionIsNotLongUsed() throws MqttException, ProtocolClientException {
+    public void subscribeResourceShouldUnsubscribeFromBrokerWhenSubscriptionIsNotLongUsed() throws ProtocolClientException {
         when(form.getHref()).thenReturn("tcp://dummy-broker/counter/events/change");
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+        when(mqttClient.unsubscribe(any(), any())).thenReturn(completedFuture(null));
 
         LambdaObserver<Content> observer = new LambdaObserver<>(n -> {
         }, e -> {
@@ -160,11 +231,49 @@ public class MqttProtocolClientTest {
         }, d -> {
         });
 
-        client = new MqttProtocolClient(new Pair(settings, mqttClient), new HashMap());
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap());
         client.observeResource(form).subscribe(observer);
         observer.dispose();
 
-        verify(mqttClient).unsubscribe(eq("counter/events/change"));
+        verify(mqttClient).unsubscribe(eq("counter/events/change"), any());
+    }
+
+    @Test
+    public void discoverShouldAnswerFromCache() {
+        when(settings.getDiscoverTimeout()).thenReturn(Duration.ZERO);
+        when(discoveryCache.getUpdates()).thenReturn(PublishSubject.create());
+        when(discoveryCache.getThings()).thenReturn(List.of(thing));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap());
+
+        assertEquals(List.of(thing), client.discover(new ThingFilter()).toList().blockingGet());
+    }
+
+    @Test
+    public void discoverShouldEmitThingOnlyOnce() {
+        Thing counter = new Thing.Builder().setId("counter").build();
+        when(settings.getDiscoverTimeout()).thenReturn(Duration.ofMillis(100));
+        Subject<Thing> updates = ReplaySubject.create();
+        updates.onNext(counter);
+        when(discoveryCache.getUpdates()).thenReturn(updates);
+        when(discoveryCache.getThings()).thenReturn(List.of(counter));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap());
+
+        assertEquals(List.of(counter), client.discover(new ThingFilter()).toList().blockingGet());
+    }
+
+    @Test
+    public void discoverShouldApplyQuery() throws ThingQueryException {
+        ThingQuery query = mock(ThingQuery.class);
+        when(query.filter(any())).thenReturn(List.of());
+        when(settings.getDiscoverTimeout()).thenReturn(Duration.ZERO);
+        when(discoveryCache.getUpdates()).thenReturn(PublishSubject.create());
+        when(discoveryCache.getThings()).thenReturn(List.of(thing));
+
+        client = new MqttProtocolClient(new Pair(settings, mqttClient), discoveryCache, correlationTable, new HashMap());
+
+        assertEquals(List.of(), client.discover(new ThingFilter().setQuery(query)).toList().blockingGet());
     }
 
     private class MqttMessageMatcher implements ArgumentMatcher<MqttMessage> {
@@ -23,26 +23,34 @@ package city.sane.wot.binding.mqtt;
 
 import city.sane.Pair;
 import city.sane.RefCountResource;
+import city.sane.wot.content.ContentManager;
 import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.action.ExposedThingAction;
 import city.sane.wot.thing.event.ExposedThingEvent;
 import city.sane.wot.thing.property.ExposedThingProperty;
+import city.sane.wot.thing.schema.IntegerSchema;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import io.reactivex.rxjava3.disposables.Disposable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
-import org.eclipse.paho.client.mqttv3.MqttClient;
-import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.util.Arrays;
 import java.util.Map;
 
+import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyInt;
+import static org.mockito.Mockito.argThat;
 import static org.mockito.Mockito.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -51,8 +59,8 @@ public class MqttProtocolServerTest {
     private MqttProtocolServer server;
     private RefCountResource refCountResource;
     private MqttProtocolSettings settings;
-    private MqttClient mqttClient;
-    private Pair<MqttProtocolSettings, MqttClient> settingsClientPair;
+    private MqttConnection mqttClient;
+    private Pair<MqttProtocolSettings, MqttConnection> settingsClientPair;
     private Multimap<String, Disposable> subcriptions;
     private ExposedThing thing;
     private ExposedThingProperty<Object> property;
@@ -62,7 +70,7 @@ public class MqttProtocolServerTest {
     @BeforeEach
     public void setUp() {
         settings = mock(MqttProtocolSettings.class);
-        mqttClient = mock(MqttClient.class);
+        mqttClient = mock(MqttConnection.class);
         refCountResource = mock(RefCountResource.class);
         settingsClientPair = mock(Pair.class);
         subcriptions = HashMultimap.create();
@@ -73,11 +81,11 @@ public class MqttProtocolServerTest {
     }
 
     @Test
-    public void exposeShouldPublishThingDescription() throws MqttException {
+    public void exposeShouldPublishThingDescription() {
         when(thing.getId()).thenReturn("counter");
-        when(settingsClientPair.first()).thenReturn(settings);
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
         when(settingsClientPair.second()).thenReturn(mqttClient);
-        when(settings.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
         server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
         server.expose(thing);
 
@@ -89,23 +97,28 @@ public class MqttProtocolServerTest {
         when(thing.getId()).thenReturn("counter");
         when(thing.getProperties()).thenReturn(Map.of("count", property));
         when(property.observer()).thenReturn(PublishSubject.create());
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
         when(settingsClientPair.first()).thenReturn(settings);
         when(settingsClientPair.second()).thenReturn(mqttClient);
-        when(settings.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
 
         server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
         server.expose(thing);
 
-        verify(property).addForm(any());
+        // observe, read and write
+        verify(property, times(3)).addForm(any());
     }
 
     @Test
     public void exposeShouldExposeActions() {
         when(thing.getId()).thenReturn("counter");
         when(thing.getActions()).thenReturn(Map.of("increment", action));
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
         when(settingsClientPair.first()).thenReturn(settings);
         when(settingsClientPair.second()).thenReturn(mqttClient);
-        when(settings.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
 
         server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
         server.expose(thing);
@@ -113,6 +126,66 @@ public class MqttProtocolServerTest {
         verify(action).addForm(any());
     }
 
+    @Test
+    public void exposeShouldSubscribeOnceToAllActions() {
+        when(thing.getId()).thenReturn("counter");
+        when(thing.getActions()).thenReturn(Map.of("increment", action, "decrement", action));
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+        when(settingsClientPair.first()).thenReturn(settings);
+        when(settingsClientPair.second()).thenReturn(mqttClient);
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
+
+        server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
+        server.expose(thing);
+
+        verify(mqttClient).subscribe(eq("counter/actions/#"), anyInt(), any());
+    }
+
+    @Test
+    public void exposeShouldAnswerReadPropertyRequests() throws Exception {
+        when(thing.getId()).thenReturn("counter");
+        when(thing.getProperties()).thenReturn(Map.of("count", property));
+        when(thing.getProperty("count")).thenReturn(property);
+        when(property.observer()).thenReturn(PublishSubject.create());
+        when(property.read()).thenReturn(completedFuture(42));
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+        when(settingsClientPair.first()).thenReturn(settings);
+        when(settingsClientPair.second()).thenReturn(mqttClient);
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
+
+        server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
+        server.expose(thing);
+
+        ArgumentCaptor<IMqttMessageListener> listener = ArgumentCaptor.forClass(IMqttMessageListener.class);
+        verify(mqttClient).subscribe(eq("counter/properties/+/+/+/+"), anyInt(), listener.capture());
+        listener.getValue().messageArrived("counter/properties/count/readproperty/wot42/1", new MqttMessage());
+
+        verify(mqttClient).publish(eq("wot42/responses/1"), argThat(message -> new String(message.getPayload()).equals("42")));
+    }
+
+    @Test
+    public void exposeShouldAnswerUnknownPropertyWithError() throws Exception {
+        when(thing.getId()).thenReturn("counter");
+        when(thing.getProperties()).thenReturn(Map.of("count", property));
+        when(property.observer()).thenReturn(PublishSubject.create());
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+        when(settingsClientPair.first()).thenReturn(settings);
+        when(settingsClientPair.second()).thenReturn(mqttClient);
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
+
+        server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
+        server.expose(thing);
+
+        ArgumentCaptor<IMqttMessageListener> listener = ArgumentCaptor.forClass(IMqttMessageListener.class);
+        verify(mqttClient).subscribe(eq("counter/properties/+/+/+/+"), anyInt(), listener.capture());
+        listener.getValue().messageArrived("counter/properties/unknown/readproperty/wot42/1", new MqttMessage());
+
+        verify(mqttClient).publish(eq("wot42/responses/1/error"), any());
+    }
+
     @Test
     public void exposeShouldExposeEvents() {
         when(thing.getId()).thenReturn("counter");
@@ -120,11 +193,55 @@ public class MqttProtocolServerTest {
         when(event.observer()).thenReturn(PublishSubject.create());
         when(settingsClientPair.first()).thenReturn(settings);
         when(settingsClientPair.second()).thenReturn(mqttClient);
-        when(settings.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
 
         server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
         server.expose(thing);
 
         verify(event).addForm(any());
     }
+
+    @Test
+    public void exposeShouldAdvertiseConfiguredContentType() {
+        when(thing.getId()).thenReturn("counter");
+        when(thing.getActions()).thenReturn(Map.of("increment", action));
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+        when(settingsClientPair.first()).thenReturn(settings);
+        when(settingsClientPair.second()).thenReturn(mqttClient);
+        when(settings.getContentType()).thenReturn("application/cbor");
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
+
+        server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
+        server.expose(thing);
+
+        verify(action).addForm(argThat(form -> "application/cbor".equals(form.getContentType())));
+    }
+
+    @Test
+    public void exposeShouldDecodeActionInputAccordingToContentType() throws Exception {
+        when(thing.getId()).thenReturn("counter");
+        when(thing.getActions()).thenReturn(Map.of("increment", action));
+        when(thing.getAction("increment")).thenReturn(action);
+        when(action.getInput()).thenReturn(new IntegerSchema());
+        when(action.invoke(42)).thenReturn(completedFuture(43));
+        when(mqttClient.subscribe(any(), anyInt(), any())).thenReturn(completedFuture(null));
+        when(settingsClientPair.first()).thenReturn(settings);
+        when(settingsClientPair.second()).thenReturn(mqttClient);
+        when(settings.getContentType()).thenReturn("application/cbor");
+        when(mqttClient.getBroker()).thenReturn("tcp://dummy-broker");
+        when(mqttClient.publish(any(), any())).thenReturn(completedFuture(null));
+
+        server = new MqttProtocolServer(refCountResource, subcriptions, settingsClientPair);
+        server.expose(thing);
+
+        ArgumentCaptor<IMqttMessageListener> listener = ArgumentCaptor.forClass(IMqttMessageListener.class);
+        verify(mqttClient).subscribe(eq("counter/actions/#"), anyInt(), listener.capture());
+        byte[] input = ContentManager.valueToContent(42, "application/cbor").getBody();
+        listener.getValue().messageArrived("counter/actions/increment/wot42/1", new MqttMessage(input));
+
+        byte[] output = ContentManager.valueToContent(43, "application/cbor").getBody();
+        verify(mqttClient).publish(eq("wot42/responses/1"), argThat(message -> Arrays.equals(output, message.getPayload())));
+    }
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class MqttTopicRouterTest {
+    private MqttTopicRouter router;
+    private IMqttMessageListener listener;
+    private MqttMessage message;
+
+    @BeforeEach
+    public void setUp() {
+        router = new MqttTopicRouter();
+        listener = mock(IMqttMessageListener.class);
+        message = new MqttMessage();
+    }
+
+    @Test
+    public void routeShouldPassMessageToExactFilter() throws Exception {
+        router.add("counter/events/change", listener);
+
+        assertTrue(router.route("counter/events/change", message));
+        verify(listener).messageArrived("counter/events/change", message);
+    }
+
+    @Test
+    public void routeShouldPassMessageToSingleLevelWildcard() throws Exception {
+        router.add("counter/actions/+", listener);
+
+        router.route("counter/actions/increment", message);
+        router.route("counter/actions/increment/more", message);
+
+        verify(listener).messageArrived("counter/actions/increment", message);
+        verify(listener, never()).messageArrived("counter/actions/increment/more", message);
+    }
+
+    @Test
+    public void routeShouldPassMessageToMultiLevelWildcard() throws Exception {
+        router.add("counter/#", listener);
+
+        router.route("counter", message);
+        router.route("counter/properties/count", message);
+
+        verify(listener).messageArrived("counter", message);
+        verify(listener).messageArrived("counter/properties/count", message);
+    }
+
+    @Test
+    public void routeShouldIgnoreSystemTopicsForLeadingWildcards() throws Exception {
+        router.add("+", listener);
+        router.add("#", listener);
+
+        assertFalse(router.route("$SYS", message));
+        verify(listener, never()).messageArrived(any(), any());
+    }
+
+    @Test
+    public void routeShouldNotPassMessageToRemovedListener() throws Exception {
+        router.add("counter/events/change", listener);
+        router.remove("counter/events/change", listener);
+
+        assertFalse(router.route("counter/events/change", message));
+        verify(listener, never()).messageArrived(any(), any());
+    }
+
+    @Test
+    public void routeShouldPassMessageToSharedSubscription() throws Exception {
+        router.add("$share/workers/counter/actions/+", listener);
+
+        assertTrue(router.route("counter/actions/increment", message));
+        verify(listener).messageArrived("counter/actions/increment", message);
+    }
+
+    @Test
+    public void removeShouldRemoveListenerOfSharedSubscription() throws Exception {
+        router.add("$share/workers/counter/actions/+", listener);
+
+        assertTrue(router.remove("$share/workers/counter/actions/+", listener));
+        assertFalse(router.route("counter/actions/increment", message));
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.mqtt;
+
+import city.sane.wot.binding.mqtt.MqttOutbox.DropPolicy;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttMessageListener;
+import org.eclipse.paho.client.mqttv3.MqttAsyncClient;
+import org.eclipse.paho.client.mqttv3.MqttCallbackExtended;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.MqttMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class PahoMqttConnectionTest {
+    private MqttAsyncClient client;
+    private MqttMessage message;
+
+    @BeforeEach
+    public void setUp() {
+        client = mock(MqttAsyncClient.class);
+        lenient().when(client.isConnected()).thenReturn(true);
+        message = new MqttMessage("Hallo Welt".getBytes());
+    }
+
+    @Test
+    public void publishShouldNotWaitForBroker() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+
+        CompletableFuture<Void> future = connection.publish("counter/events/change", message);
+
+        verify(client).publish(eq("counter/events/change"), eq(message), any(), any());
+        assertFalse(future.isDone());
+    }
+
+    @Test
+    public void publishShouldCompleteWhenBrokerAcknowledgesMessage() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+
+        CompletableFuture<Void> future = connection.publish("counter/events/change", message);
+
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).publish(any(), any(), any(), listener.capture());
+        listener.getValue().onSuccess(null);
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void publishShouldQueueMessagesExceedingInflightWindow() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 1, 10, 10);
+
+        connection.publish("counter/events/change", message);
+        connection.publish("counter/events/change", message);
+
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client, times(1)).publish(any(), any(), any(), listener.capture());
+        assertEquals(1, connection.getQueuedCount());
+
+        // acknowledgement frees the in-flight window for the queued message
+        listener.getValue().onSuccess(null);
+        verify(client, times(2)).publish(any(), any(), any(), any());
+        assertEquals(0, connection.getQueuedCount());
+    }
+
+    @Test
+    public void publishShouldFailWhenQueueIsFull() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 1, 1, 10);
+
+        connection.publish("counter/events/change", message);
+        connection.publish("counter/events/change", message);
+        CompletableFuture<Void> future = connection.publish("counter/events/change", message);
+
+        ExecutionException exception = assertThrows(ExecutionException.class, future::get);
+        assertTrue(exception.getCause() instanceof MqttProtocolException);
+        verify(client, times(1)).publish(any(), any(), any(), any());
+    }
+
+    @Test
+    public void publishShouldNotSendBeforeInflightWindowIsFree() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 1, 10, 10);
+
+        connection.publish("counter/events/change", message);
+        connection.publish("counter/properties/count", message);
+
+        verify(client, never()).publish(eq("counter/properties/count"), any(), any(), any());
+    }
+
+    @Test
+    public void subscribeShouldSubscribeOnlyOnceToSameFilter() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+
+        connection.subscribe("counter/events/change", 0, mock(IMqttMessageListener.class));
+        connection.subscribe("counter/events/change", 0, mock(IMqttMessageListener.class));
+
+        verify(client, times(1)).subscribe(eq("counter/events/change"), anyInt(), any(), any());
+    }
+
+    @Test
+    public void subscribeShouldUpgradeSubscriptionToHigherQos() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+
+        connection.subscribe("counter/events/change", 0, mock(IMqttMessageListener.class));
+        connection.subscribe("counter/events/change", 1, mock(IMqttMessageListener.class));
+        connection.subscribe("counter/events/change", 1, mock(IMqttMessageListener.class));
+
+        verify(client).subscribe(eq("counter/events/change"), eq(0), any(), any());
+        verify(client).subscribe(eq("counter/events/change"), eq(1), any(), any());
+    }
+
+    @Test
+    public void subscribeShouldForgetRefusedSubscription() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+        IMqttMessageListener listener = mock(IMqttMessageListener.class);
+
+        CompletableFuture<Void> future = connection.subscribe("counter/events/change", 0, listener);
+        ArgumentCaptor<IMqttActionListener> actionListener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).subscribe(eq("counter/events/change"), eq(0), any(), actionListener.capture());
+        actionListener.getValue().onFailure(null, new Exception("refused"));
+
+        assertTrue(future.isCompletedExceptionally());
+        // next subscriber asks the broker again
+        connection.subscribe("counter/events/change", 0, listener);
+        verify(client, times(2)).subscribe(eq("counter/events/change"), eq(0), any(), any());
+        // only the second, accepted subscription is counted
+        connection.unsubscribe("counter/events/change", listener);
+        verify(client).unsubscribe(eq("counter/events/change"), any(), any());
+    }
+
+    @Test
+    public void unsubscribeShouldUnsubscribeWhenLastListenerIsRemoved() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+        IMqttMessageListener first = mock(IMqttMessageListener.class);
+        IMqttMessageListener second = mock(IMqttMessageListener.class);
+        connection.subscribe("counter/events/change", 0, first);
+        connection.subscribe("counter/events/change", 0, second);
+
+        connection.unsubscribe("counter/events/change", first);
+        verify(client, never()).unsubscribe(any(String.class), any(), any());
+
+        connection.unsubscribe("counter/events/change", second);
+        verify(client).unsubscribe(eq("counter/events/change"), any(), any());
+    }
+
+    @Test
+    public void publishShouldBufferMessagesWhileDisconnected() throws MqttException {
+        when(client.isConnected()).thenReturn(false);
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+
+        connection.publish("counter/events/change", message);
+
+        verify(client, never()).publish(any(), any(), any(), any());
+        assertEquals(1, connection.getQueuedCount());
+    }
+
+    @Test
+    public void reconnectShouldSendBufferedMessagesAndRenewSubscriptions() throws MqttException {
+        when(client.isConnected()).thenReturn(false);
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+        ArgumentCaptor<MqttCallbackExtended> callback = ArgumentCaptor.forClass(MqttCallbackExtended.class);
+        verify(client).setCallback(callback.capture());
+        connection.subscribe("counter/events/change", 1, mock(IMqttMessageListener.class));
+        connection.publish("counter/events/change", message);
+
+        when(client.isConnected()).thenReturn(true);
+        callback.getValue().connectComplete(true, "tcp://dummy-broker");
+
+        verify(client).subscribe("counter/events/change", 1);
+        verify(client).publish(eq("counter/events/change"), eq(message), any(), any());
+        assertEquals(0, connection.getQueuedCount());
+    }
+
+    @Test
+    public void publishShouldSendMessageAgainAfterConnectionHasBeenLost() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+        ArgumentCaptor<MqttCallbackExtended> callback = ArgumentCaptor.forClass(MqttCallbackExtended.class);
+        verify(client).setCallback(callback.capture());
+
+        CompletableFuture<Void> future = connection.publish("counter/events/change", message);
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).publish(any(), any(), any(), listener.capture());
+        when(client.isConnected()).thenReturn(false);
+        listener.getValue().onFailure(null, new MqttException(MqttException.REASON_CODE_CONNECTION_LOST));
+
+        assertFalse(future.isDone());
+
+        when(client.isConnected()).thenReturn(true);
+        callback.getValue().connectComplete(true, "tcp://dummy-broker");
+        verify(client, times(2)).publish(any(), any(), any(), listener.capture());
+        listener.getValue().onSuccess(null);
+
+        assertTrue(future.isDone());
+        assertFalse(future.isCompletedExceptionally());
+    }
+
+    @Test
+    public void publishShouldNotSendMessageAgainThatHasBeenRefused() throws MqttException {
+        PahoMqttConnection connection = new PahoMqttConnection(client, 10, 10, 10);
+        ArgumentCaptor<MqttCallbackExtended> callback = ArgumentCaptor.forClass(MqttCallbackExtended.class);
+        verify(client).setCallback(callback.capture());
+
+        CompletableFuture<Void> future = connection.publish("counter/events/change", message);
+        ArgumentCaptor<IMqttActionListener> listener = ArgumentCaptor.forClass(IMqttActionListener.class);
+        verify(client).publish(any(), any(), any(), listener.capture());
+        listener.getValue().onFailure(null, new MqttException(MqttException.REASON_CODE_NOT_AUTHORIZED));
+        callback.getValue().connectComplete(true, "tcp://dummy-broker");
+
+        assertTrue(future.isCompletedExceptionally());
+        verify(client, times(1)).publish(any(), any(), any(), any());
+    }
+
+    @Test
+    public void publishShouldDropOldestMessageWhenQueueIsFullAndDropOldest() {
+        when(client.isConnected()).thenReturn(false);
+        PahoMqttConnection connection = new PahoMqttConnection(client, new MqttConnectOptions(), new MemoryMqttOutbox(1, DropPolicy.DROP_OLDEST), 10, 10);
+
+        CompletableFuture<Void> oldest = connection.publish("counter/events/change", message);
+        CompletableFuture<Void> newest = connection.publish("counter/events/change", message);
+
+        assertTrue(oldest.isCompletedExceptionally());
+        assertFalse(newest.isDone());
+        assertEquals(1, connection.getQueuedCount());
+    }
+}
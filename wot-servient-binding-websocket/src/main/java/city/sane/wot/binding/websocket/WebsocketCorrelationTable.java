@@ -0,0 +1,396 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket;
+
+import city.sane.wot.binding.ProtocolClientException;
+import city.sane.wot.binding.websocket.message.AbstractClientMessage;
+import city.sane.wot.binding.websocket.message.AbstractServerMessage;
+import city.sane.wot.binding.websocket.message.Batch;
+import city.sane.wot.binding.websocket.message.BatchResponse;
+import city.sane.wot.binding.websocket.message.ClientErrorResponse;
+import city.sane.wot.binding.websocket.message.ServerErrorResponse;
+import city.sane.wot.binding.websocket.message.SubscribeCompleteResponse;
+import city.sane.wot.binding.websocket.message.SubscribeErrorResponse;
+import city.sane.wot.binding.websocket.message.SubscribeNextResponse;
+import city.sane.wot.binding.websocket.message.Unsubscribe;
+import city.sane.wot.content.Content;
+import io.reactivex.rxjava3.core.ObservableEmitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Multiplexes many requests and subscriptions over a single websocket connection. Each message
+ * sent gets an id that is unique for the connection and is used to match the responses of the
+ * server.
+ * <p>
+ * Requests fail if no response is received within the configured timeout. At most
+ * <code>maxOutstanding</code> requests are sent to the server at the same time. Further requests
+ * are queued and sent as soon as a response for an earlier request has been received. Queued
+ * requests also fail after the timeout. Subscriptions are neither limited nor do they time out.
+ * <p>
+ * If <code>maxBatchSize</code> is greater than one, requests sent while other requests are
+ * still awaiting their response are not written immediately but handed over to
+ * <code>scheduler</code>. All requests that have accumulated until the scheduler gets to them are
+ * combined into a single {@link Batch} message. A request sent while no other request is
+ * outstanding has nothing to be combined with and is written immediately.
+ */
+class WebsocketCorrelationTable {
+    private static final Logger log = LoggerFactory.getLogger(WebsocketCorrelationTable.class);
+    private final Function<AbstractClientMessage, CompletableFuture<Void>> sender;
+    private final ScheduledExecutorService scheduler;
+    private final Duration timeout;
+    private final int maxOutstanding;
+    private final int maxBatchSize;
+    private final Map<String, PendingRequest> requests;
+    private final Map<String, ObservableEmitter<Content>> subscriptions;
+    private final Queue<PendingRequest> waiting;
+    private final Queue<PendingRequest> unsent;
+    private final AtomicBoolean flushScheduled;
+    private final AtomicInteger outstanding;
+    private final AtomicLong nextId;
+
+    /**
+     * @param sender         writes a message to the connection. The returned future fails if
+     *                       the message could not be written
+     * @param scheduler      used to fail requests after <code>timeout</code>
+     * @param timeout
+     * @param maxOutstanding maximum number of requests awaiting a response
+     * @param maxBatchSize   maximum number of requests combined into a single message
+     */
+    WebsocketCorrelationTable(Function<AbstractClientMessage, CompletableFuture<Void>> sender,
+                              ScheduledExecutorService scheduler,
+                              Duration timeout,
+                              int maxOutstanding,
+                              int maxBatchSize) {
+        this.sender = sender;
+        this.scheduler = scheduler;
+        this.timeout = timeout;
+        this.maxOutstanding = maxOutstanding;
+        this.maxBatchSize = maxBatchSize;
+        requests = new ConcurrentHashMap<>();
+        subscriptions = new ConcurrentHashMap<>();
+        waiting = new ConcurrentLinkedQueue<>();
+        unsent = new ConcurrentLinkedQueue<>();
+        flushScheduled = new AtomicBoolean();
+        outstanding = new AtomicInteger();
+        nextId = new AtomicLong();
+    }
+
+    /**
+     * Sends <code>message</code> to the server and returns a future that is completed with the
+     * response. If the server responds with an error, the future fails with a {@link
+     * ProtocolClientException}.
+     *
+     * @param message
+     * @return
+     */
+    public CompletableFuture<AbstractServerMessage> request(AbstractClientMessage message) {
+        String id = assignId(message);
+        CompletableFuture<AbstractServerMessage> future = new CompletableFuture<>();
+        ScheduledFuture<?> deadline = scheduler.schedule(() -> future.completeExceptionally(
+                new ProtocolClientException("No response received for request '" + message + "' within " + timeout.toMillis() + "ms")
+        ), timeout.toMillis(), TimeUnit.MILLISECONDS);
+
+        PendingRequest request = new PendingRequest(message, future);
+        future.whenComplete((result, e) -> {
+            deadline.cancel(false);
+            // only requests that have been sent occupy a slot
+            if (requests.remove(id) != null) {
+                release();
+            }
+        });
+
+        if (tryAcquire()) {
+            dispatch(request);
+        }
+        else {
+            log.debug("Too many outstanding requests. Queue request '{}'", id);
+            waiting.add(request);
+            drainWaiting();
+        }
+
+        return future;
+    }
+
+    /**
+     * Sends the subscribe <code>message</code> to the server and forwards all received values to
+     * <code>emitter</code>. If <code>emitter</code> is disposed while the subscription is still
+     * active, the server is asked to cancel the subscription.
+     *
+     * @param message
+     * @param emitter
+     */
+    public void subscribe(AbstractClientMessage message, ObservableEmitter<Content> emitter) {
+        String id = assignId(message);
+        subscriptions.put(id, emitter);
+        emitter.setCancellable(() -> {
+            if (subscriptions.remove(id) != null) {
+                log.debug("Cancel subscription '{}'", id);
+                send(new Unsubscribe(id));
+            }
+        });
+
+        sender.apply(message).whenComplete((result, e) -> {
+            if (e != null && subscriptions.remove(id) != null) {
+                emitter.tryOnError(new ProtocolClientException("Unable to send subscription '" + message + "': " + e.getMessage()));
+            }
+        });
+    }
+
+    /**
+     * Sends <code>message</code> to the server without waiting for a response.
+     *
+     * @param message
+     */
+    public void send(AbstractClientMessage message) {
+        assignId(message);
+        sender.apply(message);
+    }
+
+    /**
+     * Passes <code>message</code> received from the server to the matching request or
+     * subscription.
+     *
+     * @param message
+     */
+    public void accept(AbstractServerMessage message) {
+        if (message instanceof BatchResponse) {
+            ((BatchResponse) message).getResponses().forEach(this::accept);
+            return;
+        }
+
+        String id = message.getId();
+
+        PendingRequest request = requests.get(id);
+        if (request != null) {
+            if (message instanceof ClientErrorResponse) {
+                request.future.completeExceptionally(new ProtocolClientException(((ClientErrorResponse) message).getReason()));
+            }
+            else if (message instanceof ServerErrorResponse) {
+                request.future.completeExceptionally(new ProtocolClientException(((ServerErrorResponse) message).getReason()));
+            }
+            else {
+                request.future.complete(message);
+            }
+            return;
+        }
+
+        ObservableEmitter<Content> emitter;
+        if (message instanceof SubscribeNextResponse) {
+            emitter = subscriptions.get(id);
+        }
+        else {
+            // subscription has been terminated by the server
+            emitter = subscriptions.remove(id);
+        }
+
+        if (emitter == null) {
+            log.debug("Received message for unknown or timed out request '{}'. Discard!", id);
+        }
+        else if (message instanceof SubscribeNextResponse) {
+            emitter.onNext(message.toContent());
+        }
+        else if (message instanceof SubscribeCompleteResponse) {
+            emitter.onComplete();
+        }
+        else if (message instanceof SubscribeErrorResponse) {
+            emitter.tryOnError(((SubscribeErrorResponse) message).getError());
+        }
+        else if (message instanceof ClientErrorResponse) {
+            emitter.tryOnError(new ProtocolClientException(((ClientErrorResponse) message).getReason()));
+        }
+        else if (message instanceof ServerErrorResponse) {
+            emitter.tryOnError(new ProtocolClientException(((ServerErrorResponse) message).getReason()));
+        }
+    }
+
+    /**
+     * Fails all queued and outstanding requests and subscriptions with <code>cause</code>. Must be
+     * called when the connection has been closed.
+     *
+     * @param cause
+     */
+    public void close(Throwable cause) {
+        PendingRequest request;
+        while ((request = waiting.poll()) != null) {
+            request.future.completeExceptionally(cause);
+        }
+        requests.values().forEach(r -> r.future.completeExceptionally(cause));
+        subscriptions.keySet().forEach(id -> {
+            ObservableEmitter<Content> emitter = subscriptions.remove(id);
+            if (emitter != null) {
+                emitter.tryOnError(cause);
+            }
+        });
+    }
+
+    /**
+     * Returns the number of requests that have been sent and are waiting for a response.
+     *
+     * @return
+     */
+    public int getOutstandingCount() {
+        return outstanding.get();
+    }
+
+    /**
+     * Returns the number of requests that wait for a free slot before they are sent.
+     *
+     * @return
+     */
+    public int getQueuedCount() {
+        return waiting.size();
+    }
+
+    private String assignId(AbstractClientMessage message) {
+        String id = Long.toString(nextId.incrementAndGet(), Character.MAX_RADIX);
+        message.setId(id);
+        return id;
+    }
+
+    private void dispatch(PendingRequest request) {
+        String id = request.message.getId();
+        requests.put(id, request);
+        if (request.future.isDone()) {
+            // request has timed out while waiting for a free slot
+            if (requests.remove(id) != null) {
+                release();
+            }
+            return;
+        }
+
+        if (maxBatchSize > 1 && (outstanding.get() > 1 || flushScheduled.get())) {
+            unsent.add(request);
+            if (flushScheduled.compareAndSet(false, true)) {
+                scheduler.execute(this::flush);
+            }
+        }
+        else {
+            write(request.message, List.of(request));
+        }
+    }
+
+    /**
+     * Sends all requests that have been dispatched since the last flush. Requests are combined
+     * into batches of at most <code>maxBatchSize</code> requests.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+
+        List<PendingRequest> batch = new ArrayList<>();
+        PendingRequest request;
+        while ((request = unsent.poll()) != null) {
+            if (request.future.isDone()) {
+                // request has timed out in the meantime
+                continue;
+            }
+
+            batch.add(request);
+            if (batch.size() == maxBatchSize) {
+                writeBatch(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            writeBatch(batch);
+        }
+    }
+
+    private void writeBatch(List<PendingRequest> batch) {
+        if (batch.size() == 1) {
+            write(batch.get(0).message, batch);
+        }
+        else {
+            List<AbstractClientMessage> messages = new ArrayList<>(batch.size());
+            batch.forEach(request -> messages.add(request.message));
+            Batch message = new Batch(messages);
+            assignId(message);
+            log.debug("Combine {} requests to batch '{}'", batch.size(), message.getId());
+            write(message, batch);
+        }
+    }
+
+    private void write(AbstractClientMessage message, List<PendingRequest> batch) {
+        sender.apply(message).whenComplete((result, e) -> {
+            if (e != null) {
+                batch.forEach(request -> request.future.completeExceptionally(
+                        new ProtocolClientException("Unable to send request '" + request.message + "': " + e.getMessage())
+                ));
+            }
+        });
+    }
+
+    private boolean tryAcquire() {
+        while (true) {
+            int current = outstanding.get();
+            if (current >= maxOutstanding) {
+                return false;
+            }
+            if (outstanding.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private void release() {
+        outstanding.decrementAndGet();
+        drainWaiting();
+    }
+
+    private void drainWaiting() {
+        while (!waiting.isEmpty() && tryAcquire()) {
+            PendingRequest request = waiting.poll();
+            if (request == null || request.future.isDone()) {
+                outstanding.decrementAndGet();
+                continue;
+            }
+            dispatch(request);
+        }
+    }
+
+    private static class PendingRequest {
+        private final AbstractClientMessage message;
+        private final CompletableFuture<AbstractServerMessage> future;
+
+        PendingRequest(AbstractClientMessage message,
+                       CompletableFuture<AbstractServerMessage> future) {
+            this.message = message;
+            this.future = future;
+        }
+    }
+}
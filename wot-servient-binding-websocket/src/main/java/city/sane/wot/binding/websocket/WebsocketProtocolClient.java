@@ -23,31 +23,26 @@ package city.sane.wot.binding.websocket;
 
 import city.sane.wot.binding.ProtocolClient;
 import city.sane.wot.binding.ProtocolClientException;
-import city.sane.wot.binding.handler.codec.JsonDecoder;
 import city.sane.wot.binding.handler.codec.JsonEncoder;
 import city.sane.wot.binding.websocket.handler.WebsocketClientHandshakerHandler;
-import city.sane.wot.binding.websocket.handler.codec.TextWebSocketFrameDecoder;
+import city.sane.wot.binding.websocket.handler.codec.CborWebSocketFrameEncoder;
 import city.sane.wot.binding.websocket.handler.codec.TextWebSocketFrameEncoder;
+import city.sane.wot.binding.websocket.handler.codec.WebSocketFrameFragmenter;
+import city.sane.wot.binding.websocket.handler.codec.WebSocketMessageDecoder;
 import city.sane.wot.binding.websocket.message.AbstractClientMessage;
 import city.sane.wot.binding.websocket.message.AbstractServerMessage;
-import city.sane.wot.binding.websocket.message.FinalResponse;
-import city.sane.wot.binding.websocket.message.SubscribeCompleteResponse;
-import city.sane.wot.binding.websocket.message.SubscribeErrorResponse;
-import city.sane.wot.binding.websocket.message.SubscribeNextResponse;
 import city.sane.wot.binding.websocket.message.ThingInteractionWithContent;
 import city.sane.wot.content.Content;
 import city.sane.wot.thing.form.Form;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.EventLoopGroup;
 import io.netty.channel.SimpleChannelInboundHandler;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioSocketChannel;
 import io.netty.handler.codec.http.DefaultHttpHeaders;
 import io.netty.handler.codec.http.HttpClientCodec;
 import io.netty.handler.codec.http.HttpObjectAggregator;
@@ -55,39 +50,55 @@ import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
 import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.core.ObservableEmitter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-import java.util.function.Consumer;
 
+import static city.sane.wot.binding.websocket.WebsocketProtocolServer.CBOR_SUBPROTOCOL;
 import static java.util.concurrent.CompletableFuture.failedFuture;
 
 /**
- * TODO: Currently a WebsocketProtocolClient and therefore also a WebsocketClient is created for
- * each Thing. Even if each thing is reachable via the same socket. It would be better if there was
- * only one WebsocketClient per socket and that is shared by all WebsocketProtocolClient instanceis.
- * TODO: WebsocketClient.close() is never called!
+ * Allows consuming Things via Websockets. Connections are established asynchronously on the event
+ * loop group shared by all clients of a {@link WebsocketProtocolClientFactory}. Requests to a
+ * server whose connection is still being established are sent as soon as the handshake has
+ * completed, so connecting to many servers at once does neither block the caller nor each other.
+ * <p>
+ * Connections are taken from <code>clients</code>, which is shared by all clients of the factory.
+ * Therefore, things reachable via the same socket share a single connection, which is closed when
+ * the factory is destroyed.
  */
 public class WebsocketProtocolClient implements ProtocolClient {
     private static final Logger log = LoggerFactory.getLogger(WebsocketProtocolClient.class);
     private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
     private static final String WEBSOCKET_MESSAGE = "websocket:message";
+    private final Bootstrap bootstrap;
+    private final Duration requestTimeout;
+    private final int maxOutstandingRequests;
+    private final int maxBatchSize;
+    private final int maxFrameSize;
+    private final int maxMessageSize;
     private final Map<URI, WebsocketClient> clients;
-    private final Map<String, Consumer<AbstractServerMessage>> openRequests;
 
-    public WebsocketProtocolClient() {
-        this(new HashMap<>(), new HashMap<>());
-    }
-
-    WebsocketProtocolClient(Map<URI, WebsocketClient> clients,
-                            Map<String, Consumer<AbstractServerMessage>> openRequests) {
+    WebsocketProtocolClient(Bootstrap bootstrap,
+                            Duration requestTimeout,
+                            int maxOutstandingRequests,
+                            int maxBatchSize,
+                            int maxFrameSize,
+                            int maxMessageSize,
+                            Map<URI, WebsocketClient> clients) {
+        this.bootstrap = bootstrap;
+        this.requestTimeout = requestTimeout;
+        this.maxOutstandingRequests = maxOutstandingRequests;
+        this.maxBatchSize = maxBatchSize;
+        this.maxFrameSize = maxFrameSize;
+        this.maxMessageSize = maxMessageSize;
         this.clients = clients;
-        this.openRequests = openRequests;
     }
 
     @Override
@@ -115,8 +126,8 @@ public class WebsocketProtocolClient implements ProtocolClient {
             try {
                 AbstractClientMessage clientMessage = JSON_MAPPER.convertValue(message, AbstractClientMessage.class);
 
-                WebsocketClient client = getClientFor(form);
-                return observe(client, clientMessage);
+                URI uri = getUri(form);
+                return observe(uri, form.getSubprotocol(), clientMessage);
             }
             catch (IllegalArgumentException e) {
                 throw new ProtocolClientException("Client is unable to parse given message: " + e.getMessage());
@@ -127,23 +138,20 @@ public class WebsocketProtocolClient implements ProtocolClient {
         }
     }
 
-    private Observable<Content> observe(WebsocketClient client,
+    private Observable<Content> observe(URI uri,
+                                        String subprotocol,
                                         AbstractClientMessage request) {
-        return Observable.create(source -> {
-            log.debug("Websocket client for socket '{}' is sending message: {}", client.getURI(), request);
-            openRequests.put(request.getId(), m -> {
-                if (m instanceof SubscribeNextResponse) {
-                    source.onNext(m.toContent());
-                }
-                else if (m instanceof SubscribeCompleteResponse) {
-                    source.onComplete();
-                }
-                else if (m instanceof SubscribeErrorResponse) {
-                    source.onError(((SubscribeErrorResponse) m).getError());
-                }
-            });
-            client.send(request);
-        });
+        return Observable.create(source -> getClientFor(uri, subprotocol).whenComplete((client, e) -> {
+            if (e != null) {
+                source.onError(e);
+                return;
+            }
+
+            if (!source.isDisposed()) {
+                log.debug("Websocket client for socket '{}' is sending message: {}", client.getURI(), request);
+                client.subscribe(request, source);
+            }
+        }));
     }
 
     private CompletableFuture<Content> sendMessage(Form form) {
@@ -163,8 +171,13 @@ public class WebsocketProtocolClient implements ProtocolClient {
                     clientMessage = JSON_MAPPER.convertValue(message, AbstractClientMessage.class);
                 }
 
-                WebsocketClient client = getClientFor(form);
-                return ask(client, clientMessage).thenApply(AbstractServerMessage::toContent);
+                URI uri = getUri(form);
+                return getClientFor(uri, form.getSubprotocol())
+                        .thenCompose(client -> {
+                            log.debug("Websocket client for socket '{}' is sending message: {}", client.getURI(), clientMessage);
+                            return client.ask(clientMessage);
+                        })
+                        .thenApply(AbstractServerMessage::toContent);
             }
             catch (IllegalArgumentException e) {
                 return failedFuture(new ProtocolClientException("Client is unable to parse given message: " + e.getMessage()));
@@ -178,111 +191,172 @@ public class WebsocketProtocolClient implements ProtocolClient {
         }
     }
 
-    private synchronized WebsocketClient getClientFor(Form form) throws ProtocolClientException {
+    private static URI getUri(Form form) throws ProtocolClientException {
         try {
-            URI uri = new URI(form.getHref());
-            WebsocketClient client = clients.get(uri);
-            if (client == null || !client.isOpen()) {
-                log.info("Create new websocket client for socket '{}'", uri);
-
-                client = new WebsocketClient(uri);
-                clients.put(uri, client);
-                return client;
-            }
-            else {
-                return client;
-            }
+            return new URI(form.getHref());
         }
         catch (URISyntaxException e) {
             throw new ProtocolClientException("Unable to create websocket client for href '" + form.getHref() + "': " + e.getMessage());
         }
     }
 
-    private CompletableFuture<AbstractServerMessage> ask(WebsocketClient client,
-                                                         AbstractClientMessage request) {
-        log.debug("Websocket client for socket '{}' is sending message: {}", client.getURI(), request);
-        CompletableFuture<AbstractServerMessage> result = new CompletableFuture<>();
-        openRequests.put(request.getId(), result::complete);
-
-        client.send(request);
-
-        return result;
-    }
-
-    public void destroy() {
-        clients.values().forEach(WebsocketClient::close);
+    /**
+     * Returns a future that is completed with the client for <code>uri</code> as soon as its
+     * websocket handshake has been completed. If no client exists yet or the existing one has been
+     * closed, a new connection is initiated. Only the map entry for <code>uri</code> is locked
+     * while doing so, so connections to different servers are established in parallel.
+     * <p>
+     * If <code>subprotocol</code> is {@link WebsocketProtocolServer#CBOR_SUBPROTOCOL}, a new
+     * connection asks the server to exchange CBOR-encoded messages. Existing connections are
+     * reused regardless of their subprotocol, as the server understands both encodings.
+     *
+     * @param uri
+     * @param subprotocol
+     * @return
+     */
+    private CompletableFuture<WebsocketClient> getClientFor(URI uri, String subprotocol) {
+        return clients.compute(uri, (key, client) -> {
+            if (client == null || client.isClosed()) {
+                log.info("Create new websocket client for socket '{}'", key);
+                return new WebsocketClient(key, subprotocol);
+            }
+            else {
+                return client;
+            }
+        }).connected();
     }
 
     class WebsocketClient {
         private final Channel channel;
-        private final EventLoopGroup group;
         private final URI uri;
-        private final WebsocketClientHandshakerHandler handler;
+        private final CompletableFuture<WebsocketClient> connected;
+        private final WebsocketCorrelationTable table;
 
-        public WebsocketClient(URI uri) {
+        public WebsocketClient(URI uri, String subprotocol) {
             this.uri = uri;
-            handler = new WebsocketClientHandshakerHandler(
-                    WebSocketClientHandshakerFactory.newHandshaker(uri, WebSocketVersion.V13, null, false, new DefaultHttpHeaders())
+            connected = new CompletableFuture<>();
+            String requestedSubprotocol = CBOR_SUBPROTOCOL.equals(subprotocol) ? CBOR_SUBPROTOCOL : null;
+            WebsocketClientHandshakerHandler handler = new WebsocketClientHandshakerHandler(
+                    WebSocketClientHandshakerFactory.newHandshaker(uri, WebSocketVersion.V13, requestedSubprotocol, false, new DefaultHttpHeaders(), maxFrameSize)
             );
-            group = new NioEventLoopGroup();
-            Bootstrap clientBootstrap = new Bootstrap();
-            clientBootstrap.group(group)
-                    .channel(NioSocketChannel.class)
-                    .handler(new ChannelInitializer<SocketChannel>() {
+            ChannelFuture connectFuture = bootstrap.clone()
+                    .handler(new ChannelInitializer<Channel>() {
                         @Override
-                        protected void initChannel(SocketChannel ch) {
+                        protected void initChannel(Channel ch) {
                             ChannelPipeline pipeline = ch.pipeline();
                             pipeline.addLast(
                                     new HttpClientCodec(),
+                                    // only used for the handshake response
                                     new HttpObjectAggregator(8192),
+                                    new WebSocketFrameFragmenter(maxFrameSize),
                                     new TextWebSocketFrameEncoder(),
                                     new JsonEncoder<>(AbstractClientMessage.class),
                                     handler,
-                                    new TextWebSocketFrameDecoder(),
-                                    new JsonDecoder<>(AbstractServerMessage.class),
+                                    new WebSocketMessageDecoder<>(AbstractServerMessage.class, maxMessageSize),
                                     new SimpleChannelInboundHandler<AbstractServerMessage>() {
                                         @Override
                                         protected void channelRead0(ChannelHandlerContext channelHandlerContext,
                                                                     AbstractServerMessage message) {
-                                            Consumer<AbstractServerMessage> openRequest = openRequests.get(message.getId());
                                             log.debug("Received message on websocket client for socket '{}': {}", uri, message);
-
-                                            if (openRequest != null) {
-                                                log.debug("Found open request. Accept");
-                                                openRequest.accept(message);
-
-                                                if (message instanceof FinalResponse) {
-                                                    openRequests.remove(message.getId());
-                                                }
-                                            }
-                                            else {
-                                                log.warn("Unexpected response. Discard!");
-                                            }
+                                            table.accept(message);
                                         }
                                     }
                             );
+                            handler.handshakeFuture().addListener(future -> {
+                                if (future.isSuccess()) {
+                                    if (CBOR_SUBPROTOCOL.equals(handler.actualSubprotocol())) {
+                                        ch.pipeline().replace(JsonEncoder.class, "cborEncoder", new CborWebSocketFrameEncoder<>(AbstractClientMessage.class));
+                                    }
+                                    connected.complete(WebsocketClient.this);
+                                }
+                                else {
+                                    connected.completeExceptionally(new ProtocolClientException("Websocket handshake with socket '" + uri + "' failed: " + future.cause().getMessage()));
+                                }
+                            });
                         }
-                    });
-            channel = clientBootstrap.connect(uri.getHost(), uri.getPort()).syncUninterruptibly().channel();
-            handler.handshakeFuture().syncUninterruptibly();
+                    })
+                    .connect(uri.getHost(), uri.getPort());
+            channel = connectFuture.channel();
+            table = new WebsocketCorrelationTable(this::write, channel.eventLoop(), requestTimeout, maxOutstandingRequests, maxBatchSize);
+
+            connectFuture.addListener(future -> {
+                if (!future.isSuccess()) {
+                    connected.completeExceptionally(new ProtocolClientException("Unable to connect to socket '" + uri + "': " + future.cause().getMessage()));
+                }
+            });
+            channel.closeFuture().addListener(future -> {
+                ProtocolClientException e = new ProtocolClientException("Connection to socket '" + uri + "' has been closed");
+                connected.completeExceptionally(e);
+                table.close(e);
+            });
+        }
+
+        /**
+         * Returns a future that is completed with this client as soon as the websocket handshake
+         * has been completed.
+         *
+         * @return
+         */
+        public CompletableFuture<WebsocketClient> connected() {
+            return connected;
         }
 
         public void close() {
-            channel.writeAndFlush(new CloseWebSocketFrame());
-            channel.close().syncUninterruptibly();
-            group.shutdownGracefully().syncUninterruptibly();
+            if (channel.isActive()) {
+                channel.writeAndFlush(new CloseWebSocketFrame()).addListener(ChannelFutureListener.CLOSE);
+            }
+            else {
+                channel.close();
+            }
         }
 
         public URI getURI() {
             return uri;
         }
 
-        public void send(AbstractClientMessage message) {
-            channel.writeAndFlush(message);
+        /**
+         * Sends <code>request</code> and returns a future that is completed with the response of
+         * the server.
+         *
+         * @param request
+         * @return
+         */
+        public CompletableFuture<AbstractServerMessage> ask(AbstractClientMessage request) {
+            return table.request(request);
+        }
+
+        /**
+         * Sends the subscribe <code>request</code> and forwards all values received for it to
+         * <code>emitter</code>.
+         *
+         * @param request
+         * @param emitter
+         */
+        public void subscribe(AbstractClientMessage request, ObservableEmitter<Content> emitter) {
+            table.subscribe(request, emitter);
+        }
+
+        private CompletableFuture<Void> write(AbstractClientMessage message) {
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            channel.writeAndFlush(message).addListener(future -> {
+                if (future.isSuccess()) {
+                    result.complete(null);
+                }
+                else {
+                    result.completeExceptionally(future.cause());
+                }
+            });
+            return result;
         }
 
-        public boolean isOpen() {
-            return handler.handshakeFuture().isSuccess();
+        /**
+         * Returns <code>true</code> if connecting to the socket has failed or the connection has
+         * been closed afterwards.
+         *
+         * @return
+         */
+        public boolean isClosed() {
+            return connected.isCompletedExceptionally() || !channel.isOpen();
         }
     }
 }
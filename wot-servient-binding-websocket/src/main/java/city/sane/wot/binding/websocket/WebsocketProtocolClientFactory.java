@@ -22,18 +22,71 @@
 package city.sane.wot.binding.websocket;
 
 import city.sane.wot.binding.ProtocolClientFactory;
+import city.sane.wot.binding.websocket.WebsocketProtocolClient.WebsocketClient;
+import com.typesafe.config.Config;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
-
-import static java.util.concurrent.CompletableFuture.completedFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Creates new {@link WebsocketProtocolClient} instances.
+ * Creates new {@link WebsocketProtocolClient} instances. All clients created by this factory share
+ * a single event loop group and a single connection per server, so neither the number of threads
+ * nor the number of sockets grows with the number of consumed things. The connections are owned
+ * by this factory and closed by {@link #destroy()}, so the clients themselves are not retained.
+ * <p>
+ * The epoll transport is only bundled for linux-x86_64. On other platforms (e.g. aarch64), the NIO
+ * transport is used instead.
  */
 public class WebsocketProtocolClientFactory implements ProtocolClientFactory {
-    private final Set<WebsocketProtocolClient> clients = new HashSet<>();
+    private static final Logger log = LoggerFactory.getLogger(WebsocketProtocolClientFactory.class);
+    private final Map<URI, WebsocketClient> connections = new ConcurrentHashMap<>();
+    private final EventLoopGroup group;
+    private final Bootstrap bootstrap;
+    private final Duration requestTimeout;
+    private final int maxOutstandingRequests;
+    private final int maxBatchSize;
+    private final int maxFrameSize;
+    private final int maxMessageSize;
+
+    public WebsocketProtocolClientFactory(Config config) {
+        int threads = config.getInt("wot.servient.websocket.client.event-loop-threads");
+        boolean nativeTransport = config.getBoolean("wot.servient.websocket.client.native-transport");
+        int connectTimeout = (int) config.getDuration("wot.servient.websocket.client.connect-timeout").toMillis();
+        requestTimeout = config.getDuration("wot.servient.websocket.client.request-timeout");
+        maxOutstandingRequests = config.getInt("wot.servient.websocket.client.max-outstanding-requests");
+        maxBatchSize = config.getInt("wot.servient.websocket.client.max-batch-size");
+        maxFrameSize = config.getBytes("wot.servient.websocket.max-frame-size").intValue();
+        maxMessageSize = config.getBytes("wot.servient.websocket.max-message-size").intValue();
+
+        bootstrap = new Bootstrap().option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeout);
+        if (nativeTransport && Epoll.isAvailable()) {
+            log.debug("Use epoll transport for websocket clients");
+            group = new EpollEventLoopGroup(threads);
+            bootstrap.group(group).channel(EpollSocketChannel.class);
+        }
+        else {
+            if (nativeTransport) {
+                log.debug("Epoll transport is not available: {}", Epoll.unavailabilityCause().getMessage());
+            }
+            log.debug("Use NIO transport for websocket clients");
+            group = new NioEventLoopGroup(threads);
+            bootstrap.group(group).channel(NioSocketChannel.class);
+        }
+    }
 
     @Override
     public String getScheme() {
@@ -42,14 +95,23 @@ public class WebsocketProtocolClientFactory implements ProtocolClientFactory {
 
     @Override
     public WebsocketProtocolClient getClient() {
-        WebsocketProtocolClient client = new WebsocketProtocolClient();
-        clients.add(client);
-        return client;
+        return new WebsocketProtocolClient(bootstrap, requestTimeout, maxOutstandingRequests, maxBatchSize, maxFrameSize, maxMessageSize, connections);
     }
 
     @Override
     public CompletableFuture<Void> destroy() {
-        clients.forEach(WebsocketProtocolClient::destroy);
-        return completedFuture(null);
+        connections.values().forEach(WebsocketClient::close);
+        connections.clear();
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        group.shutdownGracefully(0, 5, TimeUnit.SECONDS).addListener(future -> {
+            if (future.isSuccess()) {
+                result.complete(null);
+            }
+            else {
+                result.completeExceptionally(future.cause());
+            }
+        });
+        return result;
     }
 }
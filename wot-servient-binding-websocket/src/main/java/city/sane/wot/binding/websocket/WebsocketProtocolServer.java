@@ -23,12 +23,14 @@ package city.sane.wot.binding.websocket;
 
 import city.sane.wot.Servient;
 import city.sane.wot.binding.ProtocolServer;
-import city.sane.wot.binding.handler.codec.JsonDecoder;
 import city.sane.wot.binding.handler.codec.JsonEncoder;
-import city.sane.wot.binding.websocket.handler.codec.TextWebSocketFrameDecoder;
+import city.sane.wot.binding.websocket.handler.codec.CborWebSocketFrameEncoder;
 import city.sane.wot.binding.websocket.handler.codec.TextWebSocketFrameEncoder;
+import city.sane.wot.binding.websocket.handler.codec.WebSocketFrameFragmenter;
+import city.sane.wot.binding.websocket.handler.codec.WebSocketMessageDecoder;
 import city.sane.wot.binding.websocket.message.AbstractClientMessage;
 import city.sane.wot.binding.websocket.message.AbstractServerMessage;
+import city.sane.wot.binding.websocket.message.Batch;
 import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.action.ExposedThingAction;
 import city.sane.wot.thing.event.ExposedThingEvent;
@@ -50,13 +52,16 @@ import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
+import io.reactivex.rxjava3.disposables.Disposable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -67,6 +72,11 @@ public class WebsocketProtocolServer implements ProtocolServer {
     static final String WEBSOCKET_MESSAGE_THING_ID = "thingId";
     static final String WEBSOCKET_MESSAGE_TYPE = "type";
     static final String WEBSOCKET_MESSAGE_NAME = "name";
+    /**
+     * Subprotocol for connections exchanging CBOR-encoded messages in binary frames. Connections
+     * without subprotocol exchange JSON-encoded messages in text frames.
+     */
+    static final String CBOR_SUBPROTOCOL = "wot-cbor";
     private static final String WEBSOCKET_MESSAGE = "websocket:message";
     private final Logger log = LoggerFactory.getLogger(WebsocketProtocolServer.class);
     private final ServerBootstrap serverBootstrap;
@@ -75,10 +85,28 @@ public class WebsocketProtocolServer implements ProtocolServer {
     private final Map<String, ExposedThing> things;
     private final List<String> addresses;
     private final int bindPort;
+    private final String subprotocol;
+    private final int maxFrameSize;
+    private final int maxMessageSize;
+    private final Duration batchTimeout;
     private Channel serverChannel;
 
     public WebsocketProtocolServer(Config config) {
         bindPort = config.getInt("wot.servient.websocket.bind-port");
+        maxFrameSize = config.getBytes("wot.servient.websocket.max-frame-size").intValue();
+        maxMessageSize = config.getBytes("wot.servient.websocket.max-message-size").intValue();
+        batchTimeout = config.getDuration("wot.servient.websocket.batch-timeout");
+        String configuredSubprotocol = config.getString("wot.servient.websocket.subprotocol");
+        if (configuredSubprotocol.isEmpty()) {
+            subprotocol = null;
+        }
+        else if (configuredSubprotocol.equals(CBOR_SUBPROTOCOL)) {
+            subprotocol = CBOR_SUBPROTOCOL;
+        }
+        else {
+            log.warn("Unsupported subprotocol '{}'. Advertise JSON-encoded messages instead", configuredSubprotocol);
+            subprotocol = null;
+        }
 
         serverBossGroup = new NioEventLoopGroup(1);
         serverWorkerGroup = new NioEventLoopGroup();
@@ -103,6 +131,10 @@ public class WebsocketProtocolServer implements ProtocolServer {
                             Map<String, ExposedThing> things,
                             List<String> addresses,
                             int bindPort,
+                            String subprotocol,
+                            int maxFrameSize,
+                            int maxMessageSize,
+                            Duration batchTimeout,
                             Channel serverChannel) {
         this.serverBootstrap = serverBootstrap;
         this.serverBossGroup = serverBossGroup;
@@ -110,6 +142,10 @@ public class WebsocketProtocolServer implements ProtocolServer {
         this.things = things;
         this.addresses = addresses;
         this.bindPort = bindPort;
+        this.subprotocol = subprotocol;
+        this.maxFrameSize = maxFrameSize;
+        this.maxMessageSize = maxMessageSize;
+        this.batchTimeout = batchTimeout;
         this.serverChannel = serverChannel;
     }
 
@@ -170,6 +206,7 @@ public class WebsocketProtocolServer implements ProtocolServer {
             if (!property.isWriteOnly()) {
                 property.addForm(new Form.Builder()
                         .setHref(address)
+                        .setSubprotocol(subprotocol)
                         .setOp(Operation.READ_PROPERTY)
                         .setOptional(WEBSOCKET_MESSAGE, Map.of(
                                 WEBSOCKET_MESSAGE_TYPE, "ReadProperty",
@@ -182,6 +219,7 @@ public class WebsocketProtocolServer implements ProtocolServer {
             if (!property.isReadOnly()) {
                 property.addForm(new Form.Builder()
                         .setHref(address)
+                        .setSubprotocol(subprotocol)
                         .setOp(Operation.WRITE_PROPERTY)
                         .setOptional(WEBSOCKET_MESSAGE, Map.of(
                                 WEBSOCKET_MESSAGE_TYPE, "WriteProperty",
@@ -196,6 +234,7 @@ public class WebsocketProtocolServer implements ProtocolServer {
             if (property.isObservable()) {
                 property.addForm(new Form.Builder()
                         .setHref(address)
+                        .setSubprotocol(subprotocol)
                         .setOp(Operation.OBSERVE_PROPERTY)
                         .setOptional(WEBSOCKET_MESSAGE, Map.of(
                                 WEBSOCKET_MESSAGE_TYPE, "SubscribeProperty",
@@ -213,6 +252,7 @@ public class WebsocketProtocolServer implements ProtocolServer {
         actions.forEach((name, action) -> {
             action.addForm(new Form.Builder()
                     .setHref(address)
+                    .setSubprotocol(subprotocol)
                     .setOp(Operation.INVOKE_ACTION)
                     .setOptional(WEBSOCKET_MESSAGE, Map.of(
                             WEBSOCKET_MESSAGE_TYPE, "InvokeAction",
@@ -229,6 +269,7 @@ public class WebsocketProtocolServer implements ProtocolServer {
         events.forEach((name, event) -> {
             event.addForm(new Form.Builder()
                     .setHref(address)
+                    .setSubprotocol(subprotocol)
                     .setOp(Operation.SUBSCRIBE_EVENT)
                     .setOptional(WEBSOCKET_MESSAGE, Map.of(
                             WEBSOCKET_MESSAGE_TYPE, "SubscribeEvent",
@@ -245,22 +286,55 @@ public class WebsocketProtocolServer implements ProtocolServer {
         protected void initChannel(SocketChannel ch) {
             ChannelPipeline pipeline = ch.pipeline();
             pipeline.addLast(new HttpServerCodec());
+            // only used for the handshake request. Websocket frames are not aggregated
             pipeline.addLast(new HttpObjectAggregator(65536));
             pipeline.addLast(new WebSocketServerCompressionHandler());
-            pipeline.addLast(new WebSocketServerProtocolHandler("/", null, true));
+            pipeline.addLast(new WebSocketServerProtocolHandler("/", CBOR_SUBPROTOCOL, true, maxFrameSize));
 
-            pipeline.addLast(new TextWebSocketFrameDecoder());
+            // large messages are sent in several frames and decoded while they arrive
+            pipeline.addLast(new WebSocketFrameFragmenter(maxFrameSize));
             pipeline.addLast(new TextWebSocketFrameEncoder());
 
-            pipeline.addLast(new JsonDecoder<>(AbstractClientMessage.class));
+            // clients may send text as well as binary frames. Responses are sent in the format
+            // negotiated at handshake
+            pipeline.addLast(new WebSocketMessageDecoder<>(AbstractClientMessage.class, maxMessageSize));
             pipeline.addLast(new JsonEncoder<>(AbstractServerMessage.class));
 
             pipeline.addLast(new SimpleChannelInboundHandler<AbstractClientMessage>() {
+                // subscriptions of this connection, keyed by the id of the subscribe message
+                private final Map<String, Disposable> subscriptions = new ConcurrentHashMap<>();
+
                 @Override
                 protected void channelRead0(ChannelHandlerContext ctx,
                                             AbstractClientMessage message) {
                     Consumer<AbstractServerMessage> replyConsumer = ctx.channel()::writeAndFlush;
-                    message.reply(replyConsumer, things);
+                    if (message instanceof Batch) {
+                        ((Batch) message).reply(replyConsumer, things, batchTimeout);
+                    }
+                    else {
+                        message.reply(replyConsumer, things, subscriptions);
+                    }
+                }
+
+                @Override
+                public void userEventTriggered(ChannelHandlerContext ctx,
+                                               Object evt) throws Exception {
+                    if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete
+                            && CBOR_SUBPROTOCOL.equals(((WebSocketServerProtocolHandler.HandshakeComplete) evt).selectedSubprotocol())) {
+                        log.debug("Client '{}' has selected subprotocol '{}'", ctx.channel().remoteAddress(), CBOR_SUBPROTOCOL);
+                        ctx.pipeline().replace(JsonEncoder.class, "cborEncoder", new CborWebSocketFrameEncoder<>(AbstractServerMessage.class));
+                    }
+                    super.userEventTriggered(ctx, evt);
+                }
+
+                @Override
+                public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                    if (!subscriptions.isEmpty()) {
+                        log.debug("Connection to '{}' closed. Dispose {} subscription(s)", ctx.channel().remoteAddress(), subscriptions.size());
+                        subscriptions.values().forEach(Disposable::dispose);
+                        subscriptions.clear();
+                    }
+                    super.channelInactive(ctx);
                 }
             });
         }
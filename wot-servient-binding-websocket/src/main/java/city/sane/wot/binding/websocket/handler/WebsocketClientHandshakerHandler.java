@@ -27,7 +27,9 @@ import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPromise;
 import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshaker;
@@ -47,6 +49,16 @@ public class WebsocketClientHandshakerHandler extends SimpleChannelInboundHandle
         return handshakeFuture;
     }
 
+    /**
+     * Returns the subprotocol selected by the server or <code>null</code> if the server has not
+     * selected any subprotocol or the handshake has not been completed yet.
+     *
+     * @return
+     */
+    public String actualSubprotocol() {
+        return handshaker.actualSubprotocol();
+    }
+
     @Override
     public void handlerAdded(ChannelHandlerContext ctx) {
         handshakeFuture = ctx.newPromise();
@@ -87,7 +99,7 @@ public class WebsocketClientHandshakerHandler extends SimpleChannelInboundHandle
         }
 
         WebSocketFrame frame = (WebSocketFrame) msg;
-        if (frame instanceof TextWebSocketFrame) {
+        if (frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame || frame instanceof ContinuationWebSocketFrame) {
             ctx.fireChannelRead(frame.retain());
         }
         else if (frame instanceof PongWebSocketFrame) {
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.handler.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Serializes messages to CBOR and writes them directly into {@link BinaryWebSocketFrame}s.
+ *
+ * @param <T>
+ */
+public class CborWebSocketFrameEncoder<T> extends MessageToMessageEncoder<T> {
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+
+    public CborWebSocketFrameEncoder(Class<? extends T> clazz) {
+        super(clazz);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, T message, List<Object> out) throws Exception {
+        ByteBuf buf = ctx.alloc().buffer();
+        try (OutputStream os = new ByteBufOutputStream(buf)) {
+            CBOR_MAPPER.writeValue(os, message);
+        }
+        catch (Exception e) {
+            buf.release();
+            throw e;
+        }
+        out.add(new BinaryWebSocketFrame(buf));
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.handler.codec;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.MessageToMessageEncoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import java.util.List;
+
+/**
+ * Splits text and binary frames whose payload exceeds <code>maxFrameSize</code> into a first frame
+ * followed by {@link ContinuationWebSocketFrame}s. The fragments are slices of the original
+ * payload, so no bytes are copied. Smaller frames are passed on unchanged.
+ */
+public class WebSocketFrameFragmenter extends MessageToMessageEncoder<WebSocketFrame> {
+    private final int maxFrameSize;
+
+    public WebSocketFrameFragmenter(int maxFrameSize) {
+        if (maxFrameSize <= 0) {
+            throw new IllegalArgumentException("maxFrameSize must be positive: " + maxFrameSize);
+        }
+        this.maxFrameSize = maxFrameSize;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        if (!(msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)) {
+            return false;
+        }
+        WebSocketFrame frame = (WebSocketFrame) msg;
+        return frame.isFinalFragment() && frame.content().readableBytes() > maxFrameSize;
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, WebSocketFrame frame, List<Object> out) {
+        ByteBuf content = frame.content();
+        ByteBuf first = content.readRetainedSlice(maxFrameSize);
+        if (frame instanceof TextWebSocketFrame) {
+            out.add(new TextWebSocketFrame(false, frame.rsv(), first));
+        }
+        else {
+            out.add(new BinaryWebSocketFrame(false, frame.rsv(), first));
+        }
+
+        while (content.isReadable()) {
+            int length = Math.min(maxFrameSize, content.readableBytes());
+            boolean last = length == content.readableBytes();
+            out.add(new ContinuationWebSocketFrame(last, 0, content.readRetainedSlice(length)));
+        }
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.handler.codec;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.MessageToMessageDecoder;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Decodes messages received as JSON in text frames or as CBOR in binary frames. Messages may be
+ * split into several frames. Fragments of JSON messages are tokenized as soon as they arrive, so
+ * only the parsed tokens are kept until the last fragment has been received. Jackson does not
+ * provide a non-blocking CBOR parser, so fragments of CBOR messages are collected without copying
+ * and decoded once the message is complete.
+ * <p>
+ * If a message exceeds <code>maxMessageSize</code>, no matter whether it has been received in a
+ * single frame or in several fragments, the connection is closed with status 1009 (message too
+ * big).
+ */
+public class WebSocketMessageDecoder<T> extends MessageToMessageDecoder<WebSocketFrame> {
+    private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
+    private static final ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+    private final Logger log = LoggerFactory.getLogger(WebSocketMessageDecoder.class);
+    private final Class<? extends T> clazz;
+    private final int maxMessageSize;
+    private Fragments fragments;
+    private long fragmentsSize;
+    private boolean discarding;
+
+    public WebSocketMessageDecoder(Class<? extends T> clazz, int maxMessageSize) {
+        this.clazz = clazz;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) {
+        return msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame || msg instanceof ContinuationWebSocketFrame;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx,
+                          WebSocketFrame frame,
+                          List<Object> out) throws Exception {
+        if (frame instanceof ContinuationWebSocketFrame) {
+            if (discarding) {
+                discarding = !frame.isFinalFragment();
+                return;
+            }
+            if (fragments == null) {
+                throw new CorruptedFrameException("Received continuation frame without preceding text or binary frame");
+            }
+        }
+        else {
+            if (fragments != null || discarding) {
+                discard();
+                throw new CorruptedFrameException("Received new message before last fragment of previous message");
+            }
+            if (frame.isFinalFragment()) {
+                if (frame.content().readableBytes() > maxMessageSize) {
+                    tooBig(ctx);
+                }
+                else {
+                    out.add(decodeFrame(frame));
+                }
+                return;
+            }
+            fragments = frame instanceof TextWebSocketFrame ? new JsonFragments() : new CborFragments(ctx.alloc());
+            fragmentsSize = 0;
+        }
+
+        fragmentsSize += frame.content().readableBytes();
+        if (fragmentsSize > maxMessageSize) {
+            discard();
+            discarding = !frame.isFinalFragment();
+            tooBig(ctx);
+            return;
+        }
+
+        fragments.add(frame.content());
+        if (frame.isFinalFragment()) {
+            try {
+                T message = fragments.finish();
+                log.debug("Deserialized fragmented message of {} bytes to: {}", fragmentsSize, message);
+                out.add(message);
+            }
+            finally {
+                discard();
+            }
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        discard();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        discard();
+        super.handlerRemoved(ctx);
+    }
+
+    private void tooBig(ChannelHandlerContext ctx) {
+        log.warn("Received message exceeds maximum size of {} bytes. Close connection", maxMessageSize);
+        ctx.writeAndFlush(new CloseWebSocketFrame(WebSocketCloseStatus.MESSAGE_TOO_BIG))
+                .addListener(ChannelFutureListener.CLOSE);
+    }
+
+    private T decodeFrame(WebSocketFrame frame) throws IOException {
+        ObjectMapper mapper = frame instanceof TextWebSocketFrame ? JSON_MAPPER : CBOR_MAPPER;
+        try (InputStream in = new ByteBufInputStream(frame.content())) {
+            T message = mapper.readValue(in, clazz);
+            log.debug("Deserialized message to: {}", message);
+            return message;
+        }
+    }
+
+    private void discard() {
+        if (fragments != null) {
+            fragments.release();
+            fragments = null;
+        }
+    }
+
+    private abstract class Fragments {
+        abstract void add(ByteBuf content) throws IOException;
+
+        abstract T finish() throws IOException;
+
+        abstract void release();
+    }
+
+    private class JsonFragments extends Fragments {
+        private final JsonParser parser;
+        private final ByteArrayFeeder feeder;
+        private final TokenBuffer tokens;
+
+        JsonFragments() throws IOException {
+            parser = JSON_MAPPER.getFactory().createNonBlockingByteArrayParser();
+            feeder = (ByteArrayFeeder) parser.getNonBlockingInputFeeder();
+            tokens = new TokenBuffer(parser);
+        }
+
+        @Override
+        void add(ByteBuf content) throws IOException {
+            byte[] bytes = ByteBufUtil.getBytes(content);
+            feeder.feedInput(bytes, 0, bytes.length);
+            drain();
+        }
+
+        @Override
+        T finish() throws IOException {
+            feeder.endOfInput();
+            drain();
+            try (JsonParser tokenParser = tokens.asParser(JSON_MAPPER)) {
+                return JSON_MAPPER.readValue(tokenParser, clazz);
+            }
+        }
+
+        @Override
+        void release() {
+            try {
+                parser.close();
+                tokens.close();
+            }
+            catch (IOException e) {
+                log.warn("Unable to close parser", e);
+            }
+        }
+
+        private void drain() throws IOException {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+                tokens.copyCurrentEvent(parser);
+            }
+        }
+    }
+
+    private class CborFragments extends Fragments {
+        private final CompositeByteBuf buffer;
+
+        CborFragments(ByteBufAllocator alloc) {
+            buffer = alloc.compositeBuffer(Integer.MAX_VALUE);
+        }
+
+        @Override
+        void add(ByteBuf content) {
+            buffer.addComponent(true, content.retain());
+        }
+
+        @Override
+        T finish() throws IOException {
+            try (InputStream in = new ByteBufInputStream(buffer)) {
+                return CBOR_MAPPER.readValue(in, clazz);
+            }
+        }
+
+        @Override
+        void release() {
+            buffer.release();
+        }
+    }
+}
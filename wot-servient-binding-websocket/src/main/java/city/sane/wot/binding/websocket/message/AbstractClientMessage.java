@@ -25,9 +25,12 @@ import city.sane.wot.thing.ExposedThing;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
 
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 /**
@@ -41,28 +44,33 @@ import java.util.function.Consumer;
         @JsonSubTypes.Type(value = WriteProperty.class, name = "WriteProperty"),
         @JsonSubTypes.Type(value = InvokeAction.class, name = "InvokeAction"),
         @JsonSubTypes.Type(value = SubscribeProperty.class, name = "SubscribeProperty"),
-        @JsonSubTypes.Type(value = SubscribeEvent.class, name = "SubscribeEvent")
+        @JsonSubTypes.Type(value = SubscribeEvent.class, name = "SubscribeEvent"),
+        @JsonSubTypes.Type(value = Unsubscribe.class, name = "Unsubscribe"),
+        @JsonSubTypes.Type(value = Batch.class, name = "Batch")
 })
 public abstract class AbstractClientMessage {
-    private final String id;
-
-    protected AbstractClientMessage() {
-        id = randomId();
-    }
+    private String id;
 
     /**
-     * Generates a new random ID to make the message uniquely identifiable.
+     * Returns the id of this message. The server uses the same id in all of its responses to this
+     * message.
      *
      * @return
      */
-    public static String randomId() {
-        return UUID.randomUUID().toString().substring(0, 6);
-    }
-
     public String getId() {
         return id;
     }
 
+    /**
+     * Sets the id of this message. The id must be unique among all messages sent over the same
+     * connection and is assigned by the client right before the message is sent.
+     *
+     * @param id
+     */
+    public void setId(String id) {
+        this.id = id;
+    }
+
     /**
      * Creates the server's response to the request sent by the client.
      *
@@ -72,4 +80,48 @@ public abstract class AbstractClientMessage {
      */
     public abstract void reply(Consumer<AbstractServerMessage> replyConsumer,
                                Map<String, ExposedThing> things);
+
+    /**
+     * Creates the server's response to the request sent by the client. Messages that start a
+     * subscription register it in <code>subscriptions</code> under their id, so that it can be
+     * cancelled by an {@link Unsubscribe} message or when the connection to the client is closed.
+     *
+     * @param replyConsumer
+     * @param things
+     * @param subscriptions
+     */
+    public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                      Map<String, ExposedThing> things,
+                      Map<String, Disposable> subscriptions) {
+        reply(replyConsumer, things);
+    }
+
+    /**
+     * Registers the subscription to <code>observable</code> in <code>subscriptions</code> under
+     * the id of this message and removes it as soon as the subscription has been terminated or
+     * disposed. A previous subscription registered under the same id is disposed. Messages without
+     * an id can not be unsubscribed, but are registered under a generated key as well, so that
+     * they are disposed when the connection to the client is closed.
+     *
+     * @param observable
+     * @param subscriptions
+     * @param <T>
+     * @return
+     */
+    protected <T> Observable<T> track(Observable<T> observable,
+                                      Map<String, Disposable> subscriptions) {
+        String subscriptionId = getId() != null ? getId() : "anonymous-" + UUID.randomUUID();
+        AtomicReference<Disposable> tracked = new AtomicReference<>();
+
+        return observable
+                // only remove our own entry, as it may have been replaced by a newer subscription
+                .doFinally(() -> subscriptions.remove(subscriptionId, tracked.get()))
+                .doOnSubscribe(subscription -> {
+                    tracked.set(subscription);
+                    Disposable previous = subscriptions.put(subscriptionId, subscription);
+                    if (previous != null) {
+                        previous.dispose();
+                    }
+                });
+    }
 }
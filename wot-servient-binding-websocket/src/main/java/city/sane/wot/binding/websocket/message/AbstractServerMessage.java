@@ -40,7 +40,8 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
         @JsonSubTypes.Type(value = SubscribeErrorResponse.class, name = "SubscribeErrorResponse"),
         @JsonSubTypes.Type(value = SubscribeCompleteResponse.class, name = "SubscribeCompleteResponse"),
         @JsonSubTypes.Type(value = ServerErrorResponse.class, name = "ServerErrorResponse"),
-        @JsonSubTypes.Type(value = ClientErrorResponse.class, name = "ClientErrorResponse")
+        @JsonSubTypes.Type(value = ClientErrorResponse.class, name = "ClientErrorResponse"),
+        @JsonSubTypes.Type(value = BatchResponse.class, name = "BatchResponse")
 })
 public abstract class AbstractServerMessage {
     protected final String id;
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.message;
+
+import city.sane.wot.thing.ExposedThing;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Carries several {@link ReadProperty}, {@link WriteProperty} and {@link InvokeAction} messages in
+ * a single frame. The server executes all of them concurrently and answers with a single {@link
+ * BatchResponse} once every message has been answered or the timeout has elapsed. Each message is
+ * answered individually, so a failed message does not affect the other messages of the batch.
+ * Messages answered after the timeout are answered in their own message, so a single hung
+ * interaction does not delay the answers of the other messages.
+ */
+public class Batch extends AbstractClientMessage {
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(1);
+    private final List<AbstractClientMessage> messages;
+
+    private Batch() {
+        messages = null;
+    }
+
+    public Batch(List<AbstractClientMessage> messages) {
+        this.messages = Objects.requireNonNull(messages);
+    }
+
+    public List<AbstractClientMessage> getMessages() {
+        return messages;
+    }
+
+    @Override
+    public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                      Map<String, ExposedThing> things) {
+        reply(replyConsumer, things, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Creates the server's response to the request sent by the client. Messages not answered
+     * within <code>timeout</code> are left out of the {@link BatchResponse} and answered
+     * individually once their answer is available.
+     *
+     * @param replyConsumer
+     * @param things
+     * @param timeout
+     */
+    public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                      Map<String, ExposedThing> things,
+                      Duration timeout) {
+        if (messages == null || messages.isEmpty()) {
+            replyConsumer.accept(new BatchResponse(getId(), List.of()));
+            return;
+        }
+
+        AbstractServerMessage[] responses = new AbstractServerMessage[messages.size()];
+        AtomicInteger remaining = new AtomicInteger(messages.size());
+        AtomicBoolean replied = new AtomicBoolean();
+        // the lock ensures that each answer is either part of the batch response or sent afterwards
+        Runnable replyBatch = () -> {
+            synchronized (responses) {
+                if (replied.compareAndSet(false, true)) {
+                    List<AbstractServerMessage> result = new ArrayList<>(responses.length);
+                    for (AbstractServerMessage response : responses) {
+                        if (response != null) {
+                            result.add(response);
+                        }
+                    }
+                    replyConsumer.accept(new BatchResponse(getId(), result));
+                }
+            }
+        };
+
+        for (int i = 0; i < messages.size(); i++) {
+            int index = i;
+            AbstractClientMessage message = messages.get(i);
+            Consumer<AbstractServerMessage> entryConsumer = response -> {
+                synchronized (responses) {
+                    // only the first response of each message counts
+                    if (responses[index] != null) {
+                        return;
+                    }
+                    responses[index] = response;
+                    if (replied.get()) {
+                        replyConsumer.accept(response);
+                        return;
+                    }
+                }
+                if (remaining.decrementAndGet() == 0) {
+                    replyBatch.run();
+                }
+            };
+
+            if (message instanceof ReadProperty || message instanceof WriteProperty || message instanceof InvokeAction) {
+                message.reply(entryConsumer, things);
+            }
+            else {
+                entryConsumer.accept(new ClientErrorResponse(message, "Message type is not supported in batches"));
+            }
+        }
+
+        if (!replied.get()) {
+            CompletableFuture.delayedExecutor(timeout.toMillis(), TimeUnit.MILLISECONDS).execute(replyBatch);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Batch{" +
+                "messages=" + messages +
+                '}';
+    }
+}
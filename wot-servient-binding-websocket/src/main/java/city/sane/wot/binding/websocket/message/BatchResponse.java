@@ -19,24 +19,35 @@
  * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
  * OR OTHER DEALINGS IN THE SOFTWARE.
  */
-package city.sane.wot.binding.websocket.handler.codec;
+package city.sane.wot.binding.websocket.message;
 
-import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.ChannelInboundHandler;
-import io.netty.handler.codec.MessageToMessageDecoder;
-import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import city.sane.wot.content.Content;
 
 import java.util.List;
+import java.util.Objects;
 
-public class TextWebSocketFrameDecoder extends MessageToMessageDecoder<TextWebSocketFrame> implements ChannelInboundHandler {
-    private final Logger log = LoggerFactory.getLogger(TextWebSocketFrameDecoder.class);
+/**
+ * Contains the responses to all messages of a {@link Batch} in the same order.
+ */
+public class BatchResponse extends AbstractServerMessage implements FinalResponse {
+    private final List<AbstractServerMessage> responses;
+
+    private BatchResponse() {
+        super();
+        responses = null;
+    }
+
+    public BatchResponse(String id, List<AbstractServerMessage> responses) {
+        super(id);
+        this.responses = Objects.requireNonNull(responses);
+    }
+
+    public List<AbstractServerMessage> getResponses() {
+        return responses;
+    }
 
     @Override
-    protected void decode(ChannelHandlerContext ctx, TextWebSocketFrame frame, List<Object> out) {
-        String text = frame.text();
-        log.info("Received text: {}", text);
-        out.add(text);
+    public Content toContent() {
+        return null;
     }
 }
@@ -62,6 +62,9 @@ public class InvokeAction extends ThingInteractionWithContent {
                         catch (ContentCodecException e) {
                             replyConsumer.accept(new ServerErrorResponse(this, "Unable to parse output of invoke operation: " + e.getMessage()));
                         }
+                    }).exceptionally(e -> {
+                        replyConsumer.accept(new ServerErrorResponse(this, "Unable to invoke action: " + e.getMessage()));
+                        return null;
                     });
                 }
                 catch (ContentCodecException e) {
@@ -56,6 +56,9 @@ public class ReadProperty extends ThingInteraction {
                     catch (ContentCodecException e) {
                         replyConsumer.accept(new ServerErrorResponse(this, "Unable to parse output of write operation: " + e.getMessage()));
                     }
+                }).exceptionally(e -> {
+                    replyConsumer.accept(new ServerErrorResponse(this, "Unable to read property: " + e.getMessage()));
+                    return null;
                 });
             }
             else {
@@ -24,10 +24,12 @@ package city.sane.wot.binding.websocket.message;
 import city.sane.wot.content.ContentManager;
 import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.event.ExposedThingEvent;
+import io.reactivex.rxjava3.disposables.Disposable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public class SubscribeEvent extends ThingInteraction {
@@ -44,6 +46,13 @@ public class SubscribeEvent extends ThingInteraction {
     @Override
     public void reply(Consumer<AbstractServerMessage> replyConsumer,
                       Map<String, ExposedThing> things) {
+        reply(replyConsumer, things, new ConcurrentHashMap<>());
+    }
+
+    @Override
+    public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                      Map<String, ExposedThing> things,
+                      Map<String, Disposable> subscriptions) {
         String id = getThingId();
         ExposedThing thing = things.get(id);
 
@@ -52,7 +61,7 @@ public class SubscribeEvent extends ThingInteraction {
             ExposedThingEvent<Object> event = thing.getEvent(name);
 
             if (event != null) {
-                event.observer()
+                track(event.observer(), subscriptions)
                         .map(optional -> ContentManager.valueToContent(optional.orElse(null)))
                         .subscribe(
                                 content -> {
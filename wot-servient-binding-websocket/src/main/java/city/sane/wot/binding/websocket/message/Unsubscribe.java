@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.message;
+
+import city.sane.wot.thing.ExposedThing;
+import io.reactivex.rxjava3.disposables.Disposable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * Cancels the subscription previously created by the {@link SubscribeProperty} or {@link
+ * SubscribeEvent} message with the id <code>subscriptionId</code>. The server does not answer this
+ * message.
+ */
+public class Unsubscribe extends AbstractClientMessage {
+    private final Logger log = LoggerFactory.getLogger(Unsubscribe.class);
+    private final String subscriptionId;
+
+    private Unsubscribe() {
+        super();
+        subscriptionId = null;
+    }
+
+    public Unsubscribe(String subscriptionId) {
+        this.subscriptionId = Objects.requireNonNull(subscriptionId);
+    }
+
+    public String getSubscriptionId() {
+        return subscriptionId;
+    }
+
+    @Override
+    public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                      Map<String, ExposedThing> things) {
+        log.debug("No subscriptions available. Ignore unsubscribe for '{}'", subscriptionId);
+    }
+
+    @Override
+    public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                      Map<String, ExposedThing> things,
+                      Map<String, Disposable> subscriptions) {
+        Disposable subscription = subscriptions.remove(subscriptionId);
+        if (subscription != null) {
+            log.debug("Dispose subscription '{}'", subscriptionId);
+            subscription.dispose();
+        }
+        else {
+            log.debug("Subscription '{}' not found. Ignore unsubscribe", subscriptionId);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Unsubscribe{" +
+                "subscriptionId='" + subscriptionId + '\'' +
+                '}';
+    }
+}
@@ -62,6 +62,9 @@ public class WriteProperty extends ThingInteractionWithContent {
                         catch (ContentCodecException e) {
                             replyConsumer.accept(new ServerErrorResponse(this, "Unable to parse output of write operation: " + e.getMessage()));
                         }
+                    }).exceptionally(e -> {
+                        replyConsumer.accept(new ServerErrorResponse(this, "Unable to write property: " + e.getMessage()));
+                        return null;
                     });
                 }
                 catch (ContentCodecException e) {
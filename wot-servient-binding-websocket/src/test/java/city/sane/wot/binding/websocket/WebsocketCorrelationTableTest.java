@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket;
+
+import city.sane.wot.binding.ProtocolClientException;
+import city.sane.wot.binding.websocket.message.AbstractClientMessage;
+import city.sane.wot.binding.websocket.message.AbstractServerMessage;
+import city.sane.wot.binding.websocket.message.Batch;
+import city.sane.wot.binding.websocket.message.BatchResponse;
+import city.sane.wot.binding.websocket.message.ClientErrorResponse;
+import city.sane.wot.binding.websocket.message.ReadProperty;
+import city.sane.wot.binding.websocket.message.ReadPropertyResponse;
+import city.sane.wot.binding.websocket.message.SubscribeCompleteResponse;
+import city.sane.wot.binding.websocket.message.SubscribeNextResponse;
+import city.sane.wot.binding.websocket.message.SubscribeProperty;
+import city.sane.wot.binding.websocket.message.Unsubscribe;
+import city.sane.wot.content.Content;
+import io.reactivex.rxjava3.core.Observable;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.observers.TestObserver;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class WebsocketCorrelationTableTest {
+    private ScheduledExecutorService scheduler;
+    private List<AbstractClientMessage> sent;
+    private WebsocketCorrelationTable table;
+
+    @BeforeEach
+    public void setUp() {
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        sent = new ArrayList<>();
+        table = new WebsocketCorrelationTable(message -> {
+            sent.add(message);
+            return completedFuture(null);
+        }, scheduler, Duration.ofSeconds(60), 2, 1);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void requestShouldAssignUniqueIds() {
+        for (int i = 0; i < 1000; i++) {
+            table.send(new ReadProperty("counter", "count"));
+        }
+
+        assertEquals(1000, sent.stream().map(AbstractClientMessage::getId).collect(Collectors.toSet()).size());
+    }
+
+    @Test
+    public void requestShouldBeCompletedWithResponse() {
+        CompletableFuture<AbstractServerMessage> future = table.request(new ReadProperty("counter", "count"));
+        AbstractServerMessage response = new ReadPropertyResponse(sent.get(0).getId(), new Content("application/json", "42".getBytes()));
+        table.accept(response);
+
+        assertSame(response, future.join());
+        assertEquals(0, table.getOutstandingCount());
+    }
+
+    @Test
+    public void requestShouldFailOnErrorResponse() {
+        CompletableFuture<AbstractServerMessage> future = table.request(new ReadProperty("counter", "count"));
+        table.accept(new ClientErrorResponse(sent.get(0), "Thing not found"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(ProtocolClientException.class));
+    }
+
+    @Test
+    public void requestShouldFailAfterTimeout() {
+        table = new WebsocketCorrelationTable(message -> completedFuture(null), scheduler, Duration.ofMillis(100), 2, 1);
+
+        CompletableFuture<AbstractServerMessage> future = table.request(new ReadProperty("counter", "count"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(ProtocolClientException.class));
+        assertEquals(0, table.getOutstandingCount());
+    }
+
+    @Test
+    public void requestShouldFailIfMessageCouldNotBeSent() {
+        table = new WebsocketCorrelationTable(message -> CompletableFuture.failedFuture(new Exception("closed")), scheduler, Duration.ofSeconds(60), 2, 1);
+
+        CompletableFuture<AbstractServerMessage> future = table.request(new ReadProperty("counter", "count"));
+
+        ExecutionException e = assertThrows(ExecutionException.class, future::get);
+        assertThat(e.getCause(), instanceOf(ProtocolClientException.class));
+        assertEquals(0, table.getOutstandingCount());
+    }
+
+    @Test
+    public void requestShouldBeQueuedIfTooManyRequestsAreOutstanding() {
+        table.request(new ReadProperty("counter", "count"));
+        table.request(new ReadProperty("counter", "count"));
+        table.request(new ReadProperty("counter", "count"));
+
+        assertEquals(2, sent.size());
+        assertEquals(2, table.getOutstandingCount());
+        assertEquals(1, table.getQueuedCount());
+
+        table.accept(new ReadPropertyResponse(sent.get(0).getId(), new Content("application/json", "42".getBytes())));
+
+        assertEquals(3, sent.size());
+        assertEquals(2, table.getOutstandingCount());
+        assertEquals(0, table.getQueuedCount());
+    }
+
+    @Test
+    public void closeShouldFailAllRequests() {
+        CompletableFuture<AbstractServerMessage> outstanding = table.request(new ReadProperty("counter", "count"));
+        table.request(new ReadProperty("counter", "count"));
+        CompletableFuture<AbstractServerMessage> queued = table.request(new ReadProperty("counter", "count"));
+
+        table.close(new ProtocolClientException("closed"));
+
+        assertTrue(outstanding.isCompletedExceptionally());
+        assertTrue(queued.isCompletedExceptionally());
+        assertEquals(0, table.getOutstandingCount());
+        assertEquals(0, table.getQueuedCount());
+    }
+
+    @Test
+    public void subscribeShouldForwardValues() {
+        TestObserver<Content> observer = Observable.<Content>create(source -> table.subscribe(new SubscribeProperty("counter", "count"), source)).test();
+        String id = sent.get(0).getId();
+        Content content = new Content("application/json", "42".getBytes());
+        table.accept(new SubscribeNextResponse(id, content));
+        table.accept(new SubscribeCompleteResponse(id));
+
+        observer.assertValue(content);
+        observer.assertComplete();
+        // completed subscriptions must not be cancelled
+        assertEquals(1, sent.size());
+    }
+
+    @Test
+    public void disposeSubscriptionShouldUnsubscribe() {
+        Disposable subscription = Observable.<Content>create(source -> table.subscribe(new SubscribeProperty("counter", "count"), source)).subscribe();
+        String id = sent.get(0).getId();
+        subscription.dispose();
+
+        assertEquals(2, sent.size());
+        assertThat(sent.get(1), instanceOf(Unsubscribe.class));
+        assertEquals(id, ((Unsubscribe) sent.get(1)).getSubscriptionId());
+        assertNotEquals(sent.get(0).getId(), sent.get(1).getId());
+    }
+
+    @Test
+    public void requestsShouldBeCombinedToBatch() {
+        List<Runnable> tasks = new ArrayList<>();
+        ScheduledExecutorService manualScheduler = mock(ScheduledExecutorService.class);
+        doAnswer(invocation -> tasks.add(invocation.getArgument(0))).when(manualScheduler).execute(any());
+        doReturn(mock(ScheduledFuture.class)).when(manualScheduler).schedule(any(Runnable.class), anyLong(), any());
+        table = new WebsocketCorrelationTable(message -> {
+            sent.add(message);
+            return completedFuture(null);
+        }, manualScheduler, Duration.ofSeconds(60), 10, 2);
+
+        CompletableFuture<AbstractServerMessage> future1 = table.request(new ReadProperty("counter", "count"));
+        CompletableFuture<AbstractServerMessage> future2 = table.request(new ReadProperty("counter", "count"));
+        CompletableFuture<AbstractServerMessage> future3 = table.request(new ReadProperty("counter", "count"));
+        CompletableFuture<AbstractServerMessage> future4 = table.request(new ReadProperty("counter", "count"));
+        tasks.forEach(Runnable::run);
+
+        // first request is sent alone, the next two are combined to a batch, the last one is sent alone
+        assertEquals(3, sent.size());
+        assertThat(sent.get(0), instanceOf(ReadProperty.class));
+        assertThat(sent.get(1), instanceOf(Batch.class));
+        assertThat(sent.get(2), instanceOf(ReadProperty.class));
+
+        List<AbstractClientMessage> messages = ((Batch) sent.get(1)).getMessages();
+        Content content = new Content("application/json", "42".getBytes());
+        table.accept(new BatchResponse(sent.get(1).getId(), List.of(
+                new ReadPropertyResponse(messages.get(0).getId(), content),
+                new ClientErrorResponse(messages.get(1), "Property not found")
+        )));
+
+        assertEquals(content, future2.join().toContent());
+        assertTrue(future3.isCompletedExceptionally());
+        assertFalse(future1.isDone());
+        assertFalse(future4.isDone());
+    }
+
+    @Test
+    public void requestWithoutOtherOutstandingRequestsShouldBeWrittenImmediately() {
+        ScheduledExecutorService manualScheduler = mock(ScheduledExecutorService.class);
+        doReturn(mock(ScheduledFuture.class)).when(manualScheduler).schedule(any(Runnable.class), anyLong(), any());
+        table = new WebsocketCorrelationTable(message -> {
+            sent.add(message);
+            return completedFuture(null);
+        }, manualScheduler, Duration.ofSeconds(60), 10, 64);
+
+        table.request(new ReadProperty("counter", "count"));
+
+        assertEquals(1, sent.size());
+        verify(manualScheduler, never()).execute(any());
+    }
+}
@@ -21,6 +21,7 @@
  */
 package city.sane.wot.binding.websocket;
 
+import com.typesafe.config.ConfigFactory;
 import org.junit.jupiter.api.Test;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
@@ -30,11 +31,11 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 public class WebsocketProtocolClientFactoryTest {
     @Test
     public void getScheme() {
-        assertEquals("ws", new WebsocketProtocolClientFactory().getScheme());
+        assertEquals("ws", new WebsocketProtocolClientFactory(ConfigFactory.load()).getScheme());
     }
 
     @Test
     public void getClient() {
-        assertThat(new WebsocketProtocolClientFactory().getClient(), instanceOf(WebsocketProtocolClient.class));
+        assertThat(new WebsocketProtocolClientFactory(ConfigFactory.load()).getClient(), instanceOf(WebsocketProtocolClient.class));
     }
 }
\ No newline at end of file
@@ -23,25 +23,36 @@ package city.sane.wot.binding.websocket;
 
 import city.sane.wot.binding.ProtocolClientException;
 import city.sane.wot.binding.websocket.WebsocketProtocolClient.WebsocketClient;
-import city.sane.wot.binding.websocket.message.AbstractServerMessage;
 import city.sane.wot.binding.websocket.message.InvokeAction;
 import city.sane.wot.binding.websocket.message.ReadProperty;
 import city.sane.wot.binding.websocket.message.SubscribeProperty;
 import city.sane.wot.binding.websocket.message.WriteProperty;
 import city.sane.wot.content.Content;
 import city.sane.wot.thing.form.Form;
+import com.typesafe.config.ConfigFactory;
+import io.netty.bootstrap.Bootstrap;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.IOException;
+import java.net.ServerSocket;
 import java.net.URI;
+import java.time.Duration;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import static city.sane.wot.binding.websocket.WebsocketProtocolServer.WEBSOCKET_MESSAGE_NAME;
 import static city.sane.wot.binding.websocket.WebsocketProtocolServer.WEBSOCKET_MESSAGE_THING_ID;
 import static city.sane.wot.binding.websocket.WebsocketProtocolServer.WEBSOCKET_MESSAGE_TYPE;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -50,16 +61,16 @@ import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
 public class WebsocketProtocolClientTest {
+    private Bootstrap bootstrap;
     private Map<URI, WebsocketClient> clients;
-    private Map<String, Consumer<AbstractServerMessage>> openRequests;
     private Form form;
     private WebsocketClient websocketClient;
     private Content content;
 
     @BeforeEach
     public void setUp() {
-        clients = mock(Map.class);
-        openRequests = mock(Map.class);
+        bootstrap = mock(Bootstrap.class);
+        clients = new HashMap<>();
         form = mock(Form.class);
         websocketClient = mock(WebsocketClient.class);
         content = mock(Content.class);
@@ -73,13 +84,14 @@ public class WebsocketProtocolClientTest {
                 WEBSOCKET_MESSAGE_NAME, "count"
         ));
         when(form.getHref()).thenReturn("wss://localhost");
-        when(clients.get(any())).thenReturn(websocketClient);
-        when(websocketClient.isOpen()).thenReturn(true);
+        clients.put(URI.create("wss://localhost"), websocketClient);
+        when(websocketClient.connected()).thenReturn(completedFuture(websocketClient));
+        when(websocketClient.ask(any())).thenReturn(new CompletableFuture<>());
 
-        WebsocketProtocolClient client = new WebsocketProtocolClient(clients, openRequests);
+        WebsocketProtocolClient client = new WebsocketProtocolClient(bootstrap, Duration.ofSeconds(60), 1024, 64, 65536, 16777216, clients);
         client.readResource(form);
 
-        verify(websocketClient, timeout(1 * 1000L)).send(any(ReadProperty.class));
+        verify(websocketClient, timeout(1 * 1000L)).ask(any(ReadProperty.class));
     }
 
     @Test
@@ -90,13 +102,14 @@ public class WebsocketProtocolClientTest {
                 WEBSOCKET_MESSAGE_NAME, "count"
         ));
         when(form.getHref()).thenReturn("wss://localhost");
-        when(clients.get(any())).thenReturn(websocketClient);
-        when(websocketClient.isOpen()).thenReturn(true);
+        clients.put(URI.create("wss://localhost"), websocketClient);
+        when(websocketClient.connected()).thenReturn(completedFuture(websocketClient));
+        when(websocketClient.ask(any())).thenReturn(new CompletableFuture<>());
 
-        WebsocketProtocolClient client = new WebsocketProtocolClient(clients, openRequests);
+        WebsocketProtocolClient client = new WebsocketProtocolClient(bootstrap, Duration.ofSeconds(60), 1024, 64, 65536, 16777216, clients);
         client.writeResource(form, content);
 
-        verify(websocketClient, timeout(1 * 1000L)).send(any(WriteProperty.class));
+        verify(websocketClient, timeout(1 * 1000L)).ask(any(WriteProperty.class));
     }
 
     @Test
@@ -107,13 +120,14 @@ public class WebsocketProtocolClientTest {
                 WEBSOCKET_MESSAGE_NAME, "reset"
         ));
         when(form.getHref()).thenReturn("wss://localhost");
-        when(clients.get(any())).thenReturn(websocketClient);
-        when(websocketClient.isOpen()).thenReturn(true);
+        clients.put(URI.create("wss://localhost"), websocketClient);
+        when(websocketClient.connected()).thenReturn(completedFuture(websocketClient));
+        when(websocketClient.ask(any())).thenReturn(new CompletableFuture<>());
 
-        WebsocketProtocolClient client = new WebsocketProtocolClient(clients, openRequests);
+        WebsocketProtocolClient client = new WebsocketProtocolClient(bootstrap, Duration.ofSeconds(60), 1024, 64, 65536, 16777216, clients);
         client.invokeResource(form);
 
-        verify(websocketClient, timeout(1 * 1000L)).send(any(InvokeAction.class));
+        verify(websocketClient, timeout(1 * 1000L)).ask(any(InvokeAction.class));
     }
 
     @Test
@@ -124,12 +138,59 @@ public class WebsocketProtocolClientTest {
                 WEBSOCKET_MESSAGE_NAME, "count"
         ));
         when(form.getHref()).thenReturn("wss://localhost");
-        when(clients.get(any())).thenReturn(websocketClient);
-        when(websocketClient.isOpen()).thenReturn(true);
+        clients.put(URI.create("wss://localhost"), websocketClient);
+        when(websocketClient.connected()).thenReturn(completedFuture(websocketClient));
 
-        WebsocketProtocolClient client = new WebsocketProtocolClient(clients, openRequests);
+        WebsocketProtocolClient client = new WebsocketProtocolClient(bootstrap, Duration.ofSeconds(60), 1024, 64, 65536, 16777216, clients);
         client.observeResource(form).subscribe();
 
-        verify(websocketClient, timeout(1 * 1000L)).send(any(SubscribeProperty.class));
+        verify(websocketClient, timeout(1 * 1000L)).subscribe(any(SubscribeProperty.class), any());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readResourceShouldNotBlockWhileConnecting() throws IOException {
+        when(form.getOptional(any())).thenReturn(Map.of(
+                WEBSOCKET_MESSAGE_TYPE, "ReadProperty",
+                WEBSOCKET_MESSAGE_THING_ID, "counter",
+                WEBSOCKET_MESSAGE_NAME, "count"
+        ));
+        WebsocketProtocolClientFactory clientFactory = new WebsocketProtocolClientFactory(ConfigFactory.load());
+        // server accepts the connection but never answers the handshake
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            when(form.getHref()).thenReturn("ws://127.0.0.1:" + serverSocket.getLocalPort());
+
+            WebsocketProtocolClient client = clientFactory.getClient();
+            CompletableFuture<Content> future = client.readResource(form);
+
+            assertFalse(future.isDone());
+        }
+        finally {
+            clientFactory.destroy().join();
+        }
+    }
+
+    @Test
+    public void readResourceShouldFailIfSocketIsUnreachable() throws IOException {
+        when(form.getOptional(any())).thenReturn(Map.of(
+                WEBSOCKET_MESSAGE_TYPE, "ReadProperty",
+                WEBSOCKET_MESSAGE_THING_ID, "counter",
+                WEBSOCKET_MESSAGE_NAME, "count"
+        ));
+        int port;
+        try (ServerSocket serverSocket = new ServerSocket(0)) {
+            port = serverSocket.getLocalPort();
+        }
+        when(form.getHref()).thenReturn("ws://127.0.0.1:" + port);
+        WebsocketProtocolClientFactory clientFactory = new WebsocketProtocolClientFactory(ConfigFactory.load());
+
+        try {
+            WebsocketProtocolClient client = clientFactory.getClient();
+            ExecutionException e = assertThrows(ExecutionException.class, () -> client.readResource(form).get());
+
+            assertThat(e.getCause(), instanceOf(ProtocolClientException.class));
+        }
+        finally {
+            clientFactory.destroy().join();
+        }
+    }
+}
@@ -34,9 +34,11 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 
+import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.timeout;
@@ -76,7 +78,7 @@ public class WebsocketProtocolServerTest {
 
     @Test
     public void startShouldBindToCorrectPort() {
-        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, addresses, bindPort, null);
+        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, addresses, bindPort, null, 65536, 16777216, Duration.ofSeconds(1), null);
         server.start(servient);
 
         verify(serverBootstrap, timeout(1 * 1000L)).bind(80);
@@ -84,7 +86,7 @@ public class WebsocketProtocolServerTest {
 
     @Test
     public void stopShouldCloseServer() {
-        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, addresses, bindPort, serverChannel);
+        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, addresses, bindPort, null, 65536, 16777216, Duration.ofSeconds(1), serverChannel);
         server.stop();
 
         verify(serverChannel, timeout(1 * 1000L)).close();
@@ -98,7 +100,7 @@ public class WebsocketProtocolServerTest {
         when(thing.getActions()).thenReturn(Map.of("reset", action));
         when(thing.getEvents()).thenReturn(Map.of("changed", event));
 
-        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, List.of("ws://localhost"), bindPort, serverChannel);
+        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, List.of("ws://localhost"), bindPort, null, 65536, 16777216, Duration.ofSeconds(1), serverChannel);
         server.expose(thing);
 
         verify(property, timeout(1 * 1000L).times(3)).addForm(any());
@@ -106,11 +108,24 @@ public class WebsocketProtocolServerTest {
         verify(event, timeout(1 * 1000L)).addForm(any());
     }
 
+    @Test
+    public void exposeShouldAdvertiseSubprotocol() {
+        when(thing.getId()).thenReturn("counter");
+        when(thing.getProperties()).thenReturn(Map.of("count", property));
+        when(thing.getActions()).thenReturn(Map.of());
+        when(thing.getEvents()).thenReturn(Map.of());
+
+        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, List.of("ws://localhost"), bindPort, "wot-cbor", 65536, 16777216, Duration.ofSeconds(1), serverChannel);
+        server.expose(thing);
+
+        verify(property, timeout(1 * 1000L).times(2)).addForm(argThat(form -> "wot-cbor".equals(form.getSubprotocol())));
+    }
+
     @Test
     public void destroyShouldRemoveThing() {
         when(thing.getId()).thenReturn("counter");
 
-        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, List.of("ws://localhost"), bindPort, serverChannel);
+        WebsocketProtocolServer server = new WebsocketProtocolServer(serverBootstrap, serverBossGroup, serverWorkerGroup, things, List.of("ws://localhost"), bindPort, null, 65536, 16777216, Duration.ofSeconds(1), serverChannel);
         server.destroy(thing);
 
         verify(things, timeout(1 * 1000L)).remove("counter");
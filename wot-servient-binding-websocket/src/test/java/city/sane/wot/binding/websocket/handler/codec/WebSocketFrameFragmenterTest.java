@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.handler.codec;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WebSocketFrameFragmenterTest {
+    @Test
+    public void encodeShouldSplitLargeFrame() {
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketFrameFragmenter(4));
+
+        channel.writeOutbound(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{ 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 })));
+
+        WebSocketFrame first = channel.readOutbound();
+        assertThat(first, instanceOf(BinaryWebSocketFrame.class));
+        assertFalse(first.isFinalFragment());
+        assertEquals(4, first.content().readableBytes());
+        WebSocketFrame second = channel.readOutbound();
+        assertThat(second, instanceOf(ContinuationWebSocketFrame.class));
+        assertFalse(second.isFinalFragment());
+        assertEquals(4, second.content().readableBytes());
+        WebSocketFrame third = channel.readOutbound();
+        assertThat(third, instanceOf(ContinuationWebSocketFrame.class));
+        assertTrue(third.isFinalFragment());
+        assertEquals(2, third.content().readableBytes());
+        assertNull(channel.readOutbound());
+
+        first.release();
+        second.release();
+        third.release();
+    }
+
+    @Test
+    public void encodeShouldPassSmallFrameUnchanged() {
+        EmbeddedChannel channel = new EmbeddedChannel(new WebSocketFrameFragmenter(4));
+        BinaryWebSocketFrame frame = new BinaryWebSocketFrame(Unpooled.wrappedBuffer(new byte[]{ 0, 1, 2, 3 }));
+
+        channel.writeOutbound(frame);
+
+        assertSame(frame, channel.readOutbound());
+        frame.release();
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.handler.codec;
+
+import city.sane.wot.binding.handler.codec.JsonEncoder;
+import city.sane.wot.binding.websocket.message.AbstractServerMessage;
+import city.sane.wot.binding.websocket.message.ReadPropertyResponse;
+import city.sane.wot.content.Content;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketCloseStatus;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class WebSocketMessageDecoderTest {
+    @Test
+    public void decodeShouldReturnMessageEncodedByEncoder() {
+        byte[] body = new byte[]{ 0, 1, 2, (byte) 255 };
+        EmbeddedChannel encoder = new EmbeddedChannel(new CborWebSocketFrameEncoder<>(AbstractServerMessage.class));
+        encoder.writeOutbound(new ReadPropertyResponse("1", new Content("application/octet-stream", body)));
+        BinaryWebSocketFrame frame = encoder.readOutbound();
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new WebSocketMessageDecoder<>(AbstractServerMessage.class, 1024));
+        decoder.writeInbound(frame);
+        AbstractServerMessage message = decoder.readInbound();
+
+        assertThat(message, instanceOf(ReadPropertyResponse.class));
+        assertEquals("1", message.getId());
+        assertEquals("application/octet-stream", message.toContent().getType());
+        assertArrayEquals(body, message.toContent().getBody());
+    }
+
+    @Test
+    public void decodeShouldReassembleFragmentedJsonMessage() {
+        byte[] body = randomBytes(10_000);
+        EmbeddedChannel encoder = new EmbeddedChannel(
+                new WebSocketFrameFragmenter(512),
+                new TextWebSocketFrameEncoder(),
+                new JsonEncoder<>(AbstractServerMessage.class)
+        );
+        encoder.writeOutbound(new ReadPropertyResponse("1", new Content("application/octet-stream", body)));
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new WebSocketMessageDecoder<>(AbstractServerMessage.class, 65536));
+        WebSocketFrame frame;
+        while ((frame = encoder.readOutbound()) != null) {
+            decoder.writeInbound(frame);
+        }
+        AbstractServerMessage message = decoder.readInbound();
+
+        assertThat(message, instanceOf(ReadPropertyResponse.class));
+        assertEquals("1", message.getId());
+        assertArrayEquals(body, message.toContent().getBody());
+    }
+
+    @Test
+    public void decodeShouldReassembleFragmentedCborMessage() {
+        byte[] body = randomBytes(10_000);
+        EmbeddedChannel encoder = new EmbeddedChannel(
+                new WebSocketFrameFragmenter(512),
+                new CborWebSocketFrameEncoder<>(AbstractServerMessage.class)
+        );
+        encoder.writeOutbound(new ReadPropertyResponse("1", new Content("application/octet-stream", body)));
+
+        EmbeddedChannel decoder = new EmbeddedChannel(new WebSocketMessageDecoder<>(AbstractServerMessage.class, 65536));
+        WebSocketFrame frame;
+        while ((frame = encoder.readOutbound()) != null) {
+            decoder.writeInbound(frame);
+        }
+        AbstractServerMessage message = decoder.readInbound();
+
+        assertThat(message, instanceOf(ReadPropertyResponse.class));
+        assertArrayEquals(body, message.toContent().getBody());
+    }
+
+    @Test
+    public void decodeShouldCloseConnectionIfFragmentedMessageIsTooLarge() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new WebSocketMessageDecoder<>(AbstractServerMessage.class, 1024));
+
+        decoder.writeInbound(new BinaryWebSocketFrame(false, 0, decoder.alloc().buffer().writeBytes(new byte[1000])));
+        decoder.writeInbound(new ContinuationWebSocketFrame(true, 0, decoder.alloc().buffer().writeBytes(new byte[1000])));
+
+        assertNull(decoder.readInbound());
+        CloseWebSocketFrame close = decoder.readOutbound();
+        assertEquals(WebSocketCloseStatus.MESSAGE_TOO_BIG.code(), close.statusCode());
+        close.release();
+        assertFalse(decoder.isOpen());
+    }
+
+    @Test
+    public void decodeShouldCloseConnectionIfSingleFrameMessageIsTooLarge() {
+        EmbeddedChannel decoder = new EmbeddedChannel(new WebSocketMessageDecoder<>(AbstractServerMessage.class, 1024));
+
+        decoder.writeInbound(new BinaryWebSocketFrame(decoder.alloc().buffer().writeBytes(new byte[2000])));
+
+        assertNull(decoder.readInbound());
+        CloseWebSocketFrame close = decoder.readOutbound();
+        assertEquals(WebSocketCloseStatus.MESSAGE_TOO_BIG.code(), close.statusCode());
+        close.release();
+        assertFalse(decoder.isOpen());
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(42).nextBytes(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.message;
+
+import city.sane.wot.thing.ExposedThing;
+import io.reactivex.rxjava3.disposables.Disposable;
+import io.reactivex.rxjava3.subjects.PublishSubject;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AbstractClientMessageTest {
+    private Map<String, Disposable> subscriptions;
+
+    @BeforeEach
+    public void setUp() {
+        subscriptions = new ConcurrentHashMap<>();
+    }
+
+    @Test
+    public void trackShouldRemoveSubscriptionOnDispose() {
+        Disposable subscription = message("123456").track(PublishSubject.create(), subscriptions).subscribe();
+
+        assertTrue(subscriptions.containsKey("123456"));
+
+        subscription.dispose();
+
+        assertTrue(subscriptions.isEmpty());
+    }
+
+    @Test
+    public void trackShouldRegisterSubscriptionWithoutId() {
+        PublishSubject<Object> subject = PublishSubject.create();
+        message(null).track(subject, subscriptions).subscribe();
+
+        assertEquals(1, subscriptions.size());
+
+        subject.onComplete();
+
+        assertTrue(subscriptions.isEmpty());
+    }
+
+    @Test
+    public void trackShouldDisposePreviousSubscriptionWithSameId() {
+        PublishSubject<Object> subject = PublishSubject.create();
+        List<Object> previous = new ArrayList<>();
+        List<Object> current = new ArrayList<>();
+        message("123456").track(subject, subscriptions).subscribe(previous::add);
+        message("123456").track(subject, subscriptions).subscribe(current::add);
+        subject.onNext("first");
+
+        assertEquals(List.of(), previous);
+        assertEquals(List.of("first"), current);
+        assertEquals(1, subscriptions.size());
+
+        subscriptions.get("123456").dispose();
+
+        assertFalse(subject.hasObservers());
+        assertTrue(subscriptions.isEmpty());
+    }
+
+    private static AbstractClientMessage message(String id) {
+        AbstractClientMessage message = new AbstractClientMessage() {
+            @Override
+            public void reply(Consumer<AbstractServerMessage> replyConsumer,
+                              Map<String, ExposedThing> things) {
+            }
+        };
+        message.setId(id);
+        return message;
+    }
+}
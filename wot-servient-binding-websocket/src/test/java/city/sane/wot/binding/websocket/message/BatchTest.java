@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.message;
+
+import city.sane.wot.thing.ExposedThing;
+import city.sane.wot.thing.property.ExposedThingProperty;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchTest {
+    private Consumer<AbstractServerMessage> replyConsumer;
+    private ExposedThing thing;
+    private ExposedThingProperty<Object> property;
+
+    @BeforeEach
+    public void setUp() {
+        replyConsumer = mock(Consumer.class);
+        thing = mock(ExposedThing.class);
+        property = mock(ExposedThingProperty.class);
+    }
+
+    @Test
+    public void testConstructorNullParams() {
+        assertThrows(NullPointerException.class, () -> new Batch(null));
+    }
+
+    @Test
+    public void replyShouldAnswerEachMessage() {
+        when(thing.getProperty("count")).thenReturn(property);
+        when(property.read()).thenReturn(completedFuture(42));
+        ReadProperty found = new ReadProperty("counter", "count");
+        found.setId("1");
+        ReadProperty notFound = new ReadProperty("counter", "mist");
+        notFound.setId("2");
+        SubscribeProperty unsupported = new SubscribeProperty("counter", "count");
+        unsupported.setId("3");
+        Batch batch = new Batch(List.of(found, notFound, unsupported));
+        batch.setId("4");
+
+        batch.reply(replyConsumer, Map.of("counter", thing));
+
+        ArgumentCaptor<AbstractServerMessage> captor = ArgumentCaptor.forClass(AbstractServerMessage.class);
+        verify(replyConsumer).accept(captor.capture());
+        assertThat(captor.getValue(), instanceOf(BatchResponse.class));
+        assertEquals("4", captor.getValue().getId());
+
+        List<AbstractServerMessage> responses = ((BatchResponse) captor.getValue()).getResponses();
+        assertEquals(3, responses.size());
+        assertThat(responses.get(0), instanceOf(ReadPropertyResponse.class));
+        assertEquals("1", responses.get(0).getId());
+        assertThat(responses.get(1), instanceOf(ClientErrorResponse.class));
+        assertEquals("2", responses.get(1).getId());
+        assertThat(responses.get(2), instanceOf(ClientErrorResponse.class));
+        assertEquals("3", responses.get(2).getId());
+    }
+
+    @Test
+    public void replyShouldNotWaitForHungMessage() {
+        when(thing.getProperty("count")).thenReturn(property);
+        when(property.read()).thenReturn(completedFuture(42));
+        ExposedThingProperty<Object> hung = mock(ExposedThingProperty.class);
+        CompletableFuture<Object> hungValue = new CompletableFuture<>();
+        when(thing.getProperty("hung")).thenReturn(hung);
+        when(hung.read()).thenReturn(hungValue);
+        ReadProperty fast = new ReadProperty("counter", "count");
+        fast.setId("1");
+        ReadProperty slow = new ReadProperty("counter", "hung");
+        slow.setId("2");
+        Batch batch = new Batch(List.of(fast, slow));
+        batch.setId("3");
+
+        batch.reply(replyConsumer, Map.of("counter", thing), Duration.ofMillis(10));
+
+        ArgumentCaptor<AbstractServerMessage> captor = ArgumentCaptor.forClass(AbstractServerMessage.class);
+        verify(replyConsumer, timeout(5 * 1000L)).accept(captor.capture());
+        List<AbstractServerMessage> responses = ((BatchResponse) captor.getValue()).getResponses();
+        assertEquals(1, responses.size());
+        assertEquals("1", responses.get(0).getId());
+
+        hungValue.complete(1337);
+
+        verify(replyConsumer, times(2)).accept(captor.capture());
+        assertThat(captor.getValue(), instanceOf(ReadPropertyResponse.class));
+        assertEquals("2", captor.getValue().getId());
+    }
+}
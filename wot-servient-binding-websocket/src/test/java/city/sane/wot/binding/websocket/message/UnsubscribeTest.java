@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2019-2022 Heiko Bornholdt
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT.
+ * IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR
+ * OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE
+ * OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package city.sane.wot.binding.websocket.message;
+
+import city.sane.wot.thing.ExposedThing;
+import io.reactivex.rxjava3.disposables.Disposable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class UnsubscribeTest {
+    private Consumer<AbstractServerMessage> replyConsumer;
+    private Map<String, ExposedThing> things;
+    private Disposable subscription;
+    private Unsubscribe message;
+
+    @BeforeEach
+    public void setUp() {
+        replyConsumer = mock(Consumer.class);
+        things = mock(Map.class);
+        subscription = mock(Disposable.class);
+        message = new Unsubscribe("123456");
+    }
+
+    @Test
+    public void testConstructorNullParams() {
+        assertThrows(NullPointerException.class, () -> new Unsubscribe(null));
+    }
+
+    @Test
+    public void getSubscriptionId() {
+        assertEquals("123456", message.getSubscriptionId());
+    }
+
+    @Test
+    public void replyShouldDisposeSubscription() {
+        Map<String, Disposable> subscriptions = new HashMap<>(Map.of("123456", subscription));
+
+        message.reply(replyConsumer, things, subscriptions);
+
+        verify(subscription).dispose();
+        assertTrue(subscriptions.isEmpty());
+        verify(replyConsumer, never()).accept(any());
+    }
+
+    @Test
+    public void replyShouldIgnoreUnknownSubscription() {
+        Map<String, Disposable> subscriptions = new HashMap<>(Map.of("abcdef", subscription));
+
+        message.reply(replyConsumer, things, subscriptions);
+
+        verify(subscription, never()).dispose();
+        assertFalse(subscriptions.isEmpty());
+    }
+}
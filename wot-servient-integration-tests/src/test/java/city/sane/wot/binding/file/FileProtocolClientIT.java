@@ -148,4 +148,42 @@ public class FileProtocolClientIT {
 
         assertEquals(Content.EMPTY_CONTENT, future.get(20, TimeUnit.SECONDS));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void readResourceTail() throws ExecutionException, InterruptedException, IOException {
+        Path log = thing.resolveSibling("log.csv");
+        Files.writeString(log, "1,a\n2,b\n3,c\n");
+        FileProtocolClient client = new FileProtocolClient();
+        Form form = new Form.Builder()
+                .setHref(log.toUri() + "?tail=2")
+                .build();
+
+        Content content = client.readResource(form).get();
+
+        assertEquals("2,b\n3,c\n", new String(content.getBody()));
+    }
+
+    @Test
+    public void subscribeResourceAppendedBytes() throws ExecutionException, InterruptedException, IOException, TimeoutException {
+        Path log = thing.resolveSibling("log.csv");
+        Files.writeString(log, "1,a\n");
+        FileProtocolClient client = new FileProtocolClient();
+        Form form = new Form.Builder()
+                .setHref(log.toUri().toString())
+                .setOptional("file:observe", "append")
+                .build();
+
+        Future<Content> future = client.observeResource(form).firstElement().toFuture();
+
+        // wait until client has established subscription
+        await().atMost(Duration.ofSeconds(10))
+                .untilAtomic(
+                        fieldIn(client).ofType(AtomicInteger.class).andWithName("subscriptionsCount").call(),
+                        equalTo(1)
+                );
+
+        Files.writeString(log, "2,b\n", StandardOpenOption.APPEND);
+
+        assertEquals("2,b\n", new String(future.get(10, TimeUnit.SECONDS).getBody()));
+    }
+}
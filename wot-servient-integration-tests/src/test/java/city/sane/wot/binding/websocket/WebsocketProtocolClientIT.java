@@ -40,6 +40,7 @@ import city.sane.wot.content.ContentManager;
 import city.sane.wot.thing.form.Form;
 import city.sane.wot.thing.form.Operation;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.ConfigFactory;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
@@ -82,7 +83,7 @@ public class WebsocketProtocolClientIT {
 
     @BeforeEach
     public void setUp() throws InterruptedException {
-        clientFactory = new WebsocketProtocolClientFactory();
+        clientFactory = new WebsocketProtocolClientFactory(ConfigFactory.load());
         clientFactory.init().join();
 
         client = clientFactory.getClient();
@@ -22,6 +22,7 @@
 package city.sane.wot.binding.websocket;
 
 import city.sane.Pair;
+import city.sane.wot.binding.ProtocolClient;
 import city.sane.wot.binding.websocket.message.AbstractClientMessage;
 import city.sane.wot.binding.websocket.message.AbstractServerMessage;
 import city.sane.wot.binding.websocket.message.ClientErrorResponse;
@@ -43,10 +44,12 @@ import city.sane.wot.thing.ExposedThing;
 import city.sane.wot.thing.action.ThingAction;
 import city.sane.wot.thing.event.ExposedThingEvent;
 import city.sane.wot.thing.event.ThingEvent;
+import city.sane.wot.thing.form.Form;
 import city.sane.wot.thing.property.ExposedThingProperty;
 import city.sane.wot.thing.property.ThingProperty;
 import city.sane.wot.thing.schema.NumberSchema;
 import city.sane.wot.thing.schema.ObjectSchema;
+import city.sane.wot.thing.schema.StringSchema;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.typesafe.config.ConfigFactory;
@@ -63,8 +66,12 @@ import org.junit.jupiter.api.Timeout;
 import java.io.IOException;
 import java.net.URI;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -75,6 +82,7 @@ import static org.awaitility.Awaitility.await;
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 public class WebsocketProtocolServerIT {
     private static final ObjectMapper JSON_MAPPER = new ObjectMapper();
@@ -172,11 +180,106 @@ public class WebsocketProtocolServerIT {
         server.stop().join();
     }
 
+    @Test
+    @Timeout(value = 20, unit = SECONDS)
+    public void testReadLargePropertyIsSentInSeveralFrames() throws ContentCodecException {
+        String blob = "x".repeat(1_000_000);
+        thing.addProperty("blob", new ThingProperty.Builder().setType("string").setReadOnly(true).build(), blob);
+
+        WebsocketProtocolClientFactory clientFactory = new WebsocketProtocolClientFactory(ConfigFactory.load());
+        try {
+            for (String subprotocol : new String[]{ null, "wot-cbor" }) {
+                Form form = new Form.Builder()
+                        .setHref("ws://localhost:8081")
+                        .setSubprotocol(subprotocol)
+                        .setOptional("websocket:message", Map.of(
+                                "type", "ReadProperty",
+                                "thingId", "counter",
+                                "name", "blob"
+                        ))
+                        .build();
+
+                Content content = clientFactory.getClient().readResource(form).join();
+
+                assertEquals(blob, ContentManager.contentToValue(content, new StringSchema()));
+            }
+        }
+        finally {
+            clientFactory.destroy().join();
+        }
+    }
+
+    @Test
+    @Timeout(value = 20, unit = SECONDS)
+    public void testReadPropertyWithCborSubprotocol() throws ContentCodecException {
+        WebsocketProtocolClientFactory clientFactory = new WebsocketProtocolClientFactory(ConfigFactory.load());
+        try {
+            Form form = new Form.Builder()
+                    .setHref("ws://localhost:8081")
+                    .setSubprotocol("wot-cbor")
+                    .setOptional("websocket:message", Map.of(
+                            "type", "ReadProperty",
+                            "thingId", "counter",
+                            "name", "count"
+                    ))
+                    .build();
+
+            Content content = clientFactory.getClient().readResource(form).join();
+
+            assertEquals(42, ContentManager.contentToValue(content, new NumberSchema()));
+        }
+        finally {
+            clientFactory.destroy().join();
+        }
+    }
+
+    @Test
+    @Timeout(value = 20, unit = SECONDS)
+    public void testConcurrentReadPropertiesAreAnswered() throws ContentCodecException {
+        WebsocketProtocolClientFactory clientFactory = new WebsocketProtocolClientFactory(ConfigFactory.load());
+        try {
+            ProtocolClient client = clientFactory.getClient();
+            Form form = new Form.Builder()
+                    .setHref("ws://localhost:8081")
+                    .setOptional("websocket:message", Map.of(
+                            "type", "ReadProperty",
+                            "thingId", "counter",
+                            "name", "count"
+                    ))
+                    .build();
+            Form missingForm = new Form.Builder()
+                    .setHref("ws://localhost:8081")
+                    .setOptional("websocket:message", Map.of(
+                            "type", "ReadProperty",
+                            "thingId", "counter",
+                            "name", "mist"
+                    ))
+                    .build();
+            // establish connection, so that the following requests can be combined
+            client.readResource(form).join();
+
+            List<CompletableFuture<Content>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(client.readResource(form));
+            }
+            CompletableFuture<Content> missing = client.readResource(missingForm);
+
+            for (CompletableFuture<Content> future : futures) {
+                assertEquals(42, ContentManager.contentToValue(future.join(), new NumberSchema()));
+            }
+            assertThrows(CompletionException.class, missing::join);
+        }
+        finally {
+            clientFactory.destroy().join();
+        }
+    }
+
     @Test
     @Timeout(value = 20, unit = SECONDS)
     public void testReadProperty() throws ContentCodecException {
         // send ReadProperty message to server and wait for ReadPropertyResponse message from server
         ReadProperty request = new ReadProperty("counter", "count");
+        request.setId("1");
         ReadProperty request2 = new ReadProperty("zähler", "count");
         ReadProperty request3 = new ReadProperty("counter", "mist");
 
@@ -261,6 +364,7 @@ public class WebsocketProtocolServerIT {
     public void testWriteProperty() throws ContentCodecException {
         // send WriteProperty message to server and wait for WritePropertyResponse message from server
         WriteProperty request = new WriteProperty("counter", "count", ContentManager.valueToContent(1337));
+        request.setId("1");
         WriteProperty request2 = new WriteProperty("Null", "count", ContentManager.valueToContent(1337));
         WriteProperty request3 = new WriteProperty("counter", "Null", ContentManager.valueToContent(1337));
 
@@ -283,6 +387,7 @@ public class WebsocketProtocolServerIT {
         // send InvokeAction message to server and wait for InvokeActionResponse message from server
         Map<String, Integer> parameters = Map.of("step", 3);
         InvokeAction request = new InvokeAction("counter", "increment", ContentManager.valueToContent(parameters));
+        request.setId("1");
 
         AbstractServerMessage response = ask(request);
 
@@ -297,6 +402,7 @@ public class WebsocketProtocolServerIT {
 
         // send SubscribeProperty message to server and wait for SubscribeNextResponse message from server
         SubscribeProperty request = new SubscribeProperty("counter", "count");
+        request.setId("1");
         Future<Content> future = subscription(request).firstElement().toFuture();
 
         // wait until client has established subscription
@@ -334,6 +440,7 @@ public class WebsocketProtocolServerIT {
         // send SubscribeEvent message to server
         // and wait for SubscribeNextResponse message from server
         SubscribeEvent request = new SubscribeEvent("counter", "change");
+        request.setId("1");
         Future<Content> future = subscription(request).firstElement().toFuture();
 
         // wait until client has established subscription
@@ -27,7 +27,6 @@ import city.sane.wot.binding.ProtocolClientNotImplementedException;
 import city.sane.wot.binding.akka.AkkaProtocolClientFactory;
 import city.sane.wot.binding.akka.AkkaProtocolServer;
 import city.sane.wot.binding.coap.CoapProtocolServer;
-import city.sane.wot.binding.mqtt.MqttProtocolClientFactory;
 import city.sane.wot.binding.mqtt.MqttProtocolServer;
 import city.sane.wot.thing.action.ConsumedThingAction;
 import city.sane.wot.thing.action.ThingAction;
@@ -66,7 +65,6 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertNull;
 
 public class ConsumedThingIT {
     private Servient servient;
@@ -374,13 +372,7 @@ public class ConsumedThingIT {
             ConsumedThingAction increment = thing.getAction("increment");
             Object output = increment.invoke().get();
 
-            if (MqttProtocolClientFactory.class.isAssignableFrom(clientFactory)) {
-                // mqtt is not able to return a result
-                assertNull(output);
-            }
-            else {
-                assertEquals(43, output);
-            }
+            assertEquals(43, output);
         }
         catch (ExecutionException e) {
             if (!(e.getCause() instanceof ProtocolClientNotImplementedException)) {
@@ -410,13 +402,7 @@ public class ConsumedThingIT {
             ConsumedThingAction increment = thing.getAction("increment");
             Object output = increment.invoke(Map.of("step", 3)).get();
 
-            if (MqttProtocolClientFactory.class.isAssignableFrom(clientFactory)) {
-                // mqtt is not able to return a result
-                assertNull(output);
-            }
-            else {
-                assertEquals(45, output);
-            }
+            assertEquals(45, output);
         }
         catch (ExecutionException e) {
             if (!(e.getCause() instanceof ProtocolClientNotImplementedException)) {
@@ -31,6 +31,7 @@ import city.sane.wot.thing.property.ExposedThingProperty;
 import city.sane.wot.thing.property.ThingProperty;
 import city.sane.wot.thing.security.SecurityScheme;
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import io.reactivex.rxjava3.core.Observable;
 import io.reactivex.rxjava3.subjects.PublishSubject;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.slf4j.Logger;
@@ -601,6 +602,17 @@ public class ExposedThing extends Thing<ExposedThingProperty<Object>, ExposedThi
         });
     }
 
+    /**
+     * Returns an {@link Observable} that emits this thing each time its description has changed
+     * because it has been exposed or destroyed. At that time, all servers have assigned their
+     * forms.
+     *
+     * @return
+     */
+    public Observable<ExposedThing> observer() {
+        return subject;
+    }
+
     /**
      * Returns a {@link Map} with property names as map key and property values as map value.
      *
@@ -27,6 +27,8 @@ import city.sane.wot.thing.action.ExposedThingAction;
 import city.sane.wot.thing.event.ExposedThingEvent;
 import city.sane.wot.thing.property.ExposedThingProperty;
 import com.github.jsonldjava.shaded.com.google.common.base.Supplier;
+import io.reactivex.rxjava3.observers.TestObserver;
+import io.reactivex.rxjava3.subjects.PublishSubject;
 import io.reactivex.rxjava3.subjects.Subject;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -147,6 +149,18 @@ public class ExposedThingTest {
         verify(servient).expose(id);
     }
 
+    @Test
+    public void observerShouldEmitThingWhenExposureHasFinished() {
+        PublishSubject<ExposedThing> subject = PublishSubject.create();
+        ExposedThing exposedThing = new ExposedThing(servient, subject, objectType, objectContext, id, title, Map.of(), description, Map.of(), List.of(), List.of(), Map.of(), base, metadata, Map.of(), Map.of(), Map.of());
+        when(servient.expose(any())).thenReturn(completedFuture(exposedThing));
+        TestObserver<ExposedThing> observer = exposedThing.observer().test();
+
+        exposedThing.expose();
+
+        observer.assertValue(exposedThing);
+    }
+
     @Test
     public void destroy() {
         when(servient.destroy(any())).thenReturn(completedFuture(null));